@@ -0,0 +1,108 @@
+package de.einfachhans.BackgroundMode;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ticks per second through the alert books with 1000 instruments. Each
+ * instrument has the same number of repeating crossing rules spread over
+ * a band around its price, which walks in small steps so a tick crosses a
+ * level now and then.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AlertEngineBenchmark {
+
+    private static final int INSTRUMENTS = 1000;
+
+    // Ticks per batch, the stream flushes about that many at once
+    private static final int TICKS_PER_BATCH = 64;
+
+    // Total number of rules
+    @Param({ "1000", "100000" })
+    public int rules;
+
+    private AlertEngine engine;
+
+    // Batches replayed round robin
+    private QuoteStream.Batch[] batches;
+
+    private int next;
+
+    // Number of alerts fired
+    private long alerts;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        Random random   = new Random(42);
+        JSONArray specs = new JSONArray();
+
+        engine = new AlertEngine(alert -> alerts++);
+
+        for (int i = 0; i < rules; i++) {
+            specs.put(new JSONObject()
+                    .put("id", "rule" + i)
+                    .put("instrument", i % INSTRUMENTS)
+                    .put("type", random.nextBoolean() ? "crossUp" : "crossDown")
+                    .put("level", 50 + random.nextDouble() * 100)
+                    .put("repeat", true)
+                    .put("cooldown", 0));
+        }
+
+        engine.add(specs);
+
+        double[] prices = new double[INSTRUMENTS];
+        long time       = System.currentTimeMillis();
+
+        Arrays.fill(prices, 100);
+        batches = new QuoteStream.Batch[1024];
+
+        for (int b = 0; b < batches.length; b++)
+        {
+            QuoteStream.Batch batch = new QuoteStream.Batch(TICKS_PER_BATCH);
+
+            for (int i = 0; i < TICKS_PER_BATCH; i++)
+            {
+                int id = random.nextInt(INSTRUMENTS);
+
+                prices[id] += (random.nextDouble() - 0.5) * 0.1;
+
+                batch.ids[i]    = id;
+                batch.prices[i] = prices[id];
+                batch.times[i]  = time++;
+            }
+
+            batch.size = TICKS_PER_BATCH;
+            batches[b] = batch;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TICKS_PER_BATCH)
+    public void evaluate()
+    {
+        engine.evaluate(batches[next]);
+        next = (next + 1) & (batches.length - 1);
+    }
+}
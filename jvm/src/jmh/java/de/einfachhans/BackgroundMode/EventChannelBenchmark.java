@@ -0,0 +1,113 @@
+package de.einfachhans.BackgroundMode;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaWebView;
+import org.apache.cordova.CordovaWebViewEngine;
+import org.apache.cordova.PluginResult;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of firing events into JS, from the assembly of an event to the
+ * result handed to the web view. The flush runs on the benchmark thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventChannelBenchmark {
+
+    // Events per flush
+    @Param({ "1", "16" })
+    int batch;
+
+    private EventChannel channel;
+
+    private JSONObject data;
+
+    private Blackhole sink;
+
+    @Setup
+    public void setUp (Blackhole blackhole) throws Exception
+    {
+        sink    = blackhole;
+        channel = new EventChannel();
+        data    = new JSONObject().put("interactive", false).put("locked", true);
+
+        // flushes are run by the benchmark, not by the executor
+        channel.setWindow(Integer.MAX_VALUE);
+        channel.open(new CallbackContext("events", new WebView()));
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        channel.close();
+    }
+
+    @Benchmark
+    public void fireEvent()
+    {
+        for (int i = 0; i < batch; i++) {
+            channel.send("screen", null, data);
+        }
+
+        channel.run();
+    }
+
+    @Benchmark
+    public void fireActivate()
+    {
+        for (int i = 0; i < batch; i++) {
+            channel.send("activate", Boolean.TRUE, null);
+        }
+
+        channel.run();
+    }
+
+    /**
+     * Hands the results to the blackhole.
+     */
+    private final class WebView implements CordovaWebView
+    {
+        @Override
+        public void sendPluginResult (PluginResult result, String callbackId)
+        {
+            sink.consume(result.getMessageObject());
+        }
+
+        @Override
+        public void loadUrl (String url) {}
+
+        @Override
+        public void sendJavascript (String statement) {}
+
+        @Override
+        public CordovaWebViewEngine getEngine()
+        {
+            return null;
+        }
+
+        @Override
+        public android.view.View getView()
+        {
+            return null;
+        }
+    }
+}
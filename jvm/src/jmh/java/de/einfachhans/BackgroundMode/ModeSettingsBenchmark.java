@@ -0,0 +1,70 @@
+package de.einfachhans.BackgroundMode;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a configure call merging its changes key by key into the
+ * current settings and publishing the new snapshot.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModeSettingsBenchmark {
+
+    private ModeSettings settings;
+
+    private JSONObject text, sections;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        settings = ModeSettings.EMPTY.merge(new JSONObject()
+                .put("title", "Markets open")
+                .put("text", "Streaming quotes")
+                .put("icon", "ic_stat")
+                .put("color", "1E88E5")
+                .put("stream", new JSONObject().put("host", "127.0.0.1").put("port", 9000))
+                .put("wakeLock", new JSONObject().put("mode", "demand"))
+                .put("heartbeat", new JSONObject().put("interval", 240000))
+                .put("throttle", new JSONObject().put("battery", 20)));
+
+        text     = new JSONObject().put("text", "AAPL 189.20");
+        sections = new JSONObject()
+                .put("tickBuffer", new JSONObject().put("capacity", 65536))
+                .put("conflation", new JSONObject().put("instruments", 4096))
+                .put("scheduler", new JSONObject().put("slack", 50));
+    }
+
+    @Benchmark
+    public ModeSettings mergeText() throws Exception
+    {
+        return settings.merge(text);
+    }
+
+    @Benchmark
+    public ModeSettings mergeSections() throws Exception
+    {
+        return settings.merge(sections);
+    }
+
+    @Benchmark
+    public boolean isSameNotification() throws Exception
+    {
+        return settings.merge(text).isSameNotification(settings);
+    }
+}
@@ -0,0 +1,85 @@
+package de.einfachhans.BackgroundMode;
+
+import android.app.NotificationManager;
+import android.content.Context;
+import android.content.res.Resources;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of rendering the background notification, including the icon
+ * lookup. Updates are paused so that the render runs on the benchmark
+ * thread only.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NotificationUpdaterBenchmark {
+
+    private NotificationUpdater updater;
+
+    private ModeSettings[] settings;
+
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        Context context = new Context() {
+            private final Resources res = new Resources() {
+                @Override
+                public int getIdentifier (String name, String defType, String defPackage)
+                {
+                    return "mipmap".equals(defType) ? name.hashCode() & 0xFFFF : 0;
+                }
+            };
+
+            @Override
+            public Resources getResources()
+            {
+                return res;
+            }
+        };
+
+        ModeSettings first = ModeSettings.EMPTY.merge(
+                new JSONObject().put("text", "AAPL 189.20").put("icon", "ic_stat"));
+
+        updater  = new NotificationUpdater(context, new NotificationManager(), "App", "Running");
+        settings = new ModeSettings[] {
+                first, first.merge(new JSONObject().put("text", "AAPL 189.25"))
+        };
+
+        updater.submit(settings[0]);
+        updater.run();
+        updater.setPaused(true);
+    }
+
+    @Benchmark
+    public void renderChanged()
+    {
+        updater.submit(settings[next ^= 1]);
+        updater.run();
+    }
+
+    @Benchmark
+    public void renderUnchanged()
+    {
+        updater.submit(settings[next]);
+        updater.run();
+    }
+}
@@ -0,0 +1,76 @@
+package de.einfachhans.BackgroundMode;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the warm restart path: validating both slots, decoding the
+ * latest settings, and the cost of a save on each configure call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionSnapshotBenchmark {
+
+    private File file;
+
+    private SessionSnapshot snapshot;
+
+    private ModeSettings settings;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        file     = File.createTempFile("backgroundmode", ".session");
+        settings = ModeSettings.EMPTY.merge(new JSONObject()
+                .put("title", "Markets open")
+                .put("text", "Streaming quotes")
+                .put("icon", "ic_stat")
+                .put("color", "1E88E5")
+                .put("stream", new JSONObject().put("host", "127.0.0.1").put("port", 9000))
+                .put("wakeLock", new JSONObject().put("mode", "demand"))
+                .put("heartbeat", new JSONObject().put("interval", 240000))
+                .put("throttle", new JSONObject().put("battery", 20))
+                .put("calendar", new JSONObject()
+                        .put("timeZone", "America/New_York")
+                        .put("sessions", new JSONObject().put("open", "09:30").put("close", "16:00"))));
+
+        snapshot = SessionSnapshot.map(file);
+        snapshot.save(settings, true);
+        snapshot.save(settings, true);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        file.delete();
+    }
+
+    @Benchmark
+    public SessionSnapshot.State restore()
+    {
+        return snapshot.restore();
+    }
+
+    @Benchmark
+    public void save()
+    {
+        snapshot.save(settings, true);
+    }
+}
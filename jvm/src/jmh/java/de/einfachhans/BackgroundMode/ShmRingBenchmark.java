@@ -0,0 +1,148 @@
+package de.einfachhans.BackgroundMode;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of tick frames through the shared memory ring, once with
+ * producer and consumer on the same thread and once on two threads the
+ * way the remote service and the app use it. Like the service, the
+ * producer drops frames while the ring is full, the counters tell the
+ * published frames apart from the dropped ones.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShmRingBenchmark {
+
+    // Ticks per frame
+    @Param({ "1", "16", "64" })
+    public int ticks;
+
+    private ShmRing producer;
+
+    private ShmRing consumer;
+
+    @Setup
+    public void setUp()
+    {
+        ByteBuffer memory = ByteBuffer.allocateDirect(ShmRing.sizeFor(1 << 20));
+
+        producer = ShmRing.create(memory.duplicate());
+        consumer = ShmRing.attach(memory.duplicate());
+    }
+
+    /**
+     * Frames published and dropped by the producer thread.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Frames {
+
+        public long published;
+
+        public long dropped;
+    }
+
+    @Benchmark
+    @Group("roundTrip")
+    public double roundTrip()
+    {
+        write();
+        return drain();
+    }
+
+    @Benchmark
+    @Group("spsc")
+    @GroupThreads(1)
+    public void publish (Frames frames)
+    {
+        if (write()) {
+            frames.published++;
+        } else {
+            frames.dropped++;
+        }
+    }
+
+    @Benchmark
+    @Group("spsc")
+    @GroupThreads(1)
+    public void consume (Blackhole bh)
+    {
+        bh.consume(drain());
+    }
+
+    /**
+     * Write a frame of tick records the way the remote service does.
+     *
+     * @return false if the ring is full and the frame got dropped.
+     */
+    private boolean write()
+    {
+        int pos        = producer.claim(BinaryFrames.HEADER_SIZE + ticks * BinaryFrames.TICK_SIZE);
+        ByteBuffer buf = producer.buffer();
+
+        if (pos < 0)
+            return false;
+
+        buf.put(pos, (byte) BinaryFrames.TICK_RECORDS);
+        buf.put(pos + 1, (byte) BinaryFrames.VERSION);
+        buf.putInt(pos + 4, ticks);
+        pos += BinaryFrames.HEADER_SIZE;
+
+        for (int i = 0; i < ticks; i++, pos += BinaryFrames.TICK_SIZE) {
+            buf.putInt(pos, i);
+            buf.putDouble(pos + 4, 100.25);
+            buf.putInt(pos + 12, 300);
+            buf.putDouble(pos + 16, 1.7e12);
+        }
+
+        producer.commit();
+
+        return true;
+    }
+
+    /**
+     * Read all pending frames and sum up their prices.
+     */
+    private double drain()
+    {
+        ByteBuffer buf = consumer.buffer();
+        double sum     = 0;
+        int pos;
+
+        while ((pos = consumer.poll()) >= 0)
+        {
+            int count = buf.getInt(pos + 4);
+
+            pos += BinaryFrames.HEADER_SIZE;
+
+            for (int i = 0; i < count; i++, pos += BinaryFrames.TICK_SIZE) {
+                sum += buf.getDouble(pos + 4);
+            }
+
+            consumer.release();
+        }
+
+        return sum;
+    }
+}
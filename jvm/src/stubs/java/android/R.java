@@ -0,0 +1,17 @@
+package android;
+
+/**
+ * JVM stand-in for the framework resource ids.
+ */
+public final class R {
+
+    public static final class string
+    {
+        public static final int cancel = 0x01040000, ok = 0x0104000a;
+    }
+
+    public static final class style
+    {
+        public static final int Theme_DeviceDefault_Light_Dialog = 0x0103012f;
+    }
+}
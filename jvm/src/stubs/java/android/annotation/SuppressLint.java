@@ -0,0 +1,13 @@
+package android.annotation;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * JVM stand-in, silences lint.
+ */
+@Retention(RetentionPolicy.CLASS)
+public @interface SuppressLint {
+
+    String[] value();
+}
@@ -0,0 +1,13 @@
+package android.annotation;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * JVM stand-in, tells lint the API level of the annotated code.
+ */
+@Retention(RetentionPolicy.CLASS)
+public @interface TargetApi {
+
+    int value();
+}
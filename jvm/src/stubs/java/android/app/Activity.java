@@ -0,0 +1,20 @@
+package android.app;
+
+import android.content.Context;
+import android.view.Window;
+
+/**
+ * JVM stand-in for the activity, runs UI work right away.
+ */
+public class Activity extends Context {
+
+    public void runOnUiThread (Runnable action)
+    {
+        action.run();
+    }
+
+    public Window getWindow()
+    {
+        return null;
+    }
+}
@@ -0,0 +1,20 @@
+package android.app;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * JVM stand-in for the activity manager.
+ */
+public class ActivityManager {
+
+    public List<AppTask> getAppTasks()
+    {
+        return Collections.emptyList();
+    }
+
+    public static class AppTask
+    {
+        public void setExcludeFromRecents (boolean exclude) {}
+    }
+}
@@ -0,0 +1,45 @@
+package android.app;
+
+/**
+ * JVM stand-in for the alarm manager, alarms never go off.
+ */
+public class AlarmManager {
+
+    public static final int RTC_WAKEUP = 0, RTC = 1, ELAPSED_REALTIME_WAKEUP = 2,
+            ELAPSED_REALTIME = 3;
+
+    public static final String ACTION_SCHEDULE_EXACT_ALARM_PERMISSION_STATE_CHANGED =
+            "android.app.action.SCHEDULE_EXACT_ALARM_PERMISSION_STATE_CHANGED";
+
+    public void set (int type, long triggerAtMillis, PendingIntent operation) {}
+
+    public void setExact (int type, long triggerAtMillis, PendingIntent operation) {}
+
+    public void setAndAllowWhileIdle (int type, long triggerAtMillis, PendingIntent operation) {}
+
+    public void setExactAndAllowWhileIdle (int type, long triggerAtMillis, PendingIntent operation) {}
+
+    public void setAlarmClock (AlarmClockInfo info, PendingIntent operation) {}
+
+    public void cancel (PendingIntent operation) {}
+
+    public boolean canScheduleExactAlarms()
+    {
+        return true;
+    }
+
+    public static class AlarmClockInfo
+    {
+        private final long triggerTime;
+
+        public AlarmClockInfo (long triggerTime, PendingIntent showIntent)
+        {
+            this.triggerTime = triggerTime;
+        }
+
+        public long getTriggerTime()
+        {
+            return triggerTime;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package android.app;
+
+import android.content.Context;
+import android.content.DialogInterface;
+
+/**
+ * JVM stand-in for the alert dialog, never shown.
+ */
+public class AlertDialog implements DialogInterface {
+
+    public static class Builder
+    {
+        public Builder (Context context, int themeResId) {}
+
+        public Builder setTitle (CharSequence title)
+        {
+            return this;
+        }
+
+        public Builder setMessage (CharSequence message)
+        {
+            return this;
+        }
+
+        public Builder setCancelable (boolean cancelable)
+        {
+            return this;
+        }
+
+        public Builder setPositiveButton (int textId, OnClickListener listener)
+        {
+            return this;
+        }
+
+        public Builder setNegativeButton (int textId, OnClickListener listener)
+        {
+            return this;
+        }
+
+        public AlertDialog show()
+        {
+            return new AlertDialog();
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package android.app;
+
+/**
+ * JVM stand-in for the keyguard manager, the device is unlocked.
+ */
+public class KeyguardManager {
+
+    public boolean isKeyguardLocked()
+    {
+        return false;
+    }
+}
@@ -0,0 +1,131 @@
+package android.app;
+
+import android.content.Context;
+
+/**
+ * JVM stand-in for the notification and its builder.
+ */
+public class Notification {
+
+    public static final String CATEGORY_ALARM = "alarm";
+
+    public static final int PRIORITY_HIGH = 1;
+
+    public static final int COLOR_DEFAULT = 0;
+
+    public CharSequence title, text;
+
+    public int icon, color;
+
+    public String channelId;
+
+    public static abstract class Style {}
+
+    public static class BigTextStyle extends Style
+    {
+        public BigTextStyle bigText (CharSequence text)
+        {
+            return this;
+        }
+    }
+
+    public static class Builder
+    {
+        private final Notification n = new Notification();
+
+        public Builder (Context context) {}
+
+        public Builder (Context context, String channelId)
+        {
+            n.channelId = channelId;
+        }
+
+        public Builder setContentTitle (CharSequence title)
+        {
+            n.title = title;
+            return this;
+        }
+
+        public Builder setContentText (CharSequence text)
+        {
+            n.text = text;
+            return this;
+        }
+
+        public Builder setSmallIcon (int icon)
+        {
+            n.icon = icon;
+            return this;
+        }
+
+        public Builder setColor (int color)
+        {
+            n.color = color;
+            return this;
+        }
+
+        public Builder setChannelId (String channelId)
+        {
+            n.channelId = channelId;
+            return this;
+        }
+
+        public Builder setOngoing (boolean ongoing)
+        {
+            return this;
+        }
+
+        public Builder setOnlyAlertOnce (boolean onlyAlertOnce)
+        {
+            return this;
+        }
+
+        public Builder setAutoCancel (boolean autoCancel)
+        {
+            return this;
+        }
+
+        public Builder setContentIntent (PendingIntent intent)
+        {
+            return this;
+        }
+
+        public Builder setWhen (long when)
+        {
+            return this;
+        }
+
+        public Builder setShowWhen (boolean show)
+        {
+            return this;
+        }
+
+        public Builder setStyle (Style style)
+        {
+            return this;
+        }
+
+        public Builder setPriority (int priority)
+        {
+            return this;
+        }
+
+        public Builder setCategory (String category)
+        {
+            return this;
+        }
+
+        public Notification build()
+        {
+            Notification copy = new Notification();
+
+            copy.title     = n.title;
+            copy.text      = n.text;
+            copy.icon      = n.icon;
+            copy.color     = n.color;
+            copy.channelId = n.channelId;
+
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package android.app;
+
+/**
+ * JVM stand-in for the notification channel.
+ */
+public class NotificationChannel {
+
+    public NotificationChannel (String id, CharSequence name, int importance) {}
+
+    public void setDescription (String description) {}
+}
@@ -0,0 +1,17 @@
+package android.app;
+
+/**
+ * JVM stand-in for the notification manager, drops the notifications.
+ */
+public class NotificationManager {
+
+    public static final int IMPORTANCE_LOW = 2, IMPORTANCE_DEFAULT = 3, IMPORTANCE_HIGH = 4;
+
+    public void notify (int id, Notification notification) {}
+
+    public void notify (String tag, int id, Notification notification) {}
+
+    public void cancel (int id) {}
+
+    public void createNotificationChannel (NotificationChannel channel) {}
+}
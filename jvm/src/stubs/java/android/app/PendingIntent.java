@@ -0,0 +1,47 @@
+package android.app;
+
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * JVM stand-in for the pending intent.
+ */
+public class PendingIntent {
+
+    public static final int FLAG_UPDATE_CURRENT = 0x08000000, FLAG_IMMUTABLE = 0x04000000,
+            FLAG_NO_CREATE = 0x20000000;
+
+    private final Intent intent;
+
+    private PendingIntent (Intent intent)
+    {
+        this.intent = intent;
+    }
+
+    public static PendingIntent getActivity (Context context, int requestCode, Intent intent, int flags)
+    {
+        return new PendingIntent(intent);
+    }
+
+    public static PendingIntent getBroadcast (Context context, int requestCode, Intent intent, int flags)
+    {
+        return new PendingIntent(intent);
+    }
+
+    public static PendingIntent getService (Context context, int requestCode, Intent intent, int flags)
+    {
+        return new PendingIntent(intent);
+    }
+
+    public static PendingIntent getForegroundService (Context context, int requestCode, Intent intent, int flags)
+    {
+        return new PendingIntent(intent);
+    }
+
+    public Intent getIntent()
+    {
+        return intent;
+    }
+
+    public void cancel() {}
+}
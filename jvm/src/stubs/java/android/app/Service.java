@@ -0,0 +1,41 @@
+package android.app;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.IBinder;
+
+/**
+ * JVM stand-in for the service base class.
+ */
+public abstract class Service extends Context {
+
+    public static final int START_STICKY = 1, START_NOT_STICKY = 2;
+
+    public static final int STOP_FOREGROUND_REMOVE = 1;
+
+    public abstract IBinder onBind (Intent intent);
+
+    public void onCreate() {}
+
+    public void onDestroy() {}
+
+    public int onStartCommand (Intent intent, int flags, int startId)
+    {
+        return START_STICKY;
+    }
+
+    public boolean onUnbind (Intent intent)
+    {
+        return false;
+    }
+
+    public void onTaskRemoved (Intent rootIntent) {}
+
+    public void onTrimMemory (int level) {}
+
+    public final void startForeground (int id, Notification notification) {}
+
+    public final void stopForeground (boolean removeNotification) {}
+
+    public final void stopSelf() {}
+}
@@ -0,0 +1,22 @@
+package android.content;
+
+/**
+ * JVM stand-in for the broadcast receiver.
+ */
+public abstract class BroadcastReceiver {
+
+    /**
+     * Keeps a broadcast alive after onReceive returned.
+     */
+    public static class PendingResult
+    {
+        public final void finish() {}
+    }
+
+    public abstract void onReceive (Context context, Intent intent);
+
+    public final PendingResult goAsync()
+    {
+        return new PendingResult();
+    }
+}
@@ -0,0 +1,45 @@
+package android.content;
+
+/**
+ * JVM stand-in for the component name.
+ */
+public final class ComponentName {
+
+    private final String pkg, cls;
+
+    public ComponentName (String pkg, String cls)
+    {
+        this.pkg = pkg;
+        this.cls = cls;
+    }
+
+    public ComponentName (Context context, Class<?> cls)
+    {
+        this(context.getPackageName(), cls.getName());
+    }
+
+    public static ComponentName unflattenFromString (String str)
+    {
+        int sep = str.indexOf('/');
+
+        if (sep < 0)
+            return null;
+
+        return new ComponentName(str.substring(0, sep), str.substring(sep + 1));
+    }
+
+    public String getPackageName()
+    {
+        return pkg;
+    }
+
+    public String getClassName()
+    {
+        return cls;
+    }
+
+    public String flattenToString()
+    {
+        return pkg + "/" + cls;
+    }
+}
@@ -0,0 +1,135 @@
+package android.content;
+
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.content.res.AssetManager;
+import android.content.res.Resources;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.File;
+
+/**
+ * JVM stand-in for the context. Has no system services, tests and
+ * benchmarks override what they need.
+ */
+public abstract class Context {
+
+    public static final String POWER_SERVICE = "power", NOTIFICATION_SERVICE = "notification",
+            ACTIVITY_SERVICE = "activity", ALARM_SERVICE = "alarm",
+            CONNECTIVITY_SERVICE = "connectivity", KEYGUARD_SERVICE = "keyguard";
+
+    public static final int BIND_AUTO_CREATE = 1, MODE_PRIVATE = 0;
+
+    public static final int RECEIVER_EXPORTED = 2, RECEIVER_NOT_EXPORTED = 4;
+
+    public Object getSystemService (String name)
+    {
+        return null;
+    }
+
+    public Context getApplicationContext()
+    {
+        return this;
+    }
+
+    public Looper getMainLooper()
+    {
+        return Looper.getMainLooper();
+    }
+
+    public String getPackageName()
+    {
+        return "de.einfachhans.jvm";
+    }
+
+    public String getString (int resId)
+    {
+        return "";
+    }
+
+    public ApplicationInfo getApplicationInfo()
+    {
+        return new ApplicationInfo();
+    }
+
+    public PackageManager getPackageManager()
+    {
+        return new PackageManager() {};
+    }
+
+    public Resources getResources()
+    {
+        return new Resources();
+    }
+
+    public AssetManager getAssets()
+    {
+        return new AssetManager();
+    }
+
+    public File getFilesDir()
+    {
+        return null;
+    }
+
+    public File getCacheDir()
+    {
+        return null;
+    }
+
+    public SharedPreferences getSharedPreferences (String name, int mode)
+    {
+        return null;
+    }
+
+    public boolean bindService (Intent service, ServiceConnection conn, int flags)
+    {
+        return false;
+    }
+
+    public void unbindService (ServiceConnection conn) {}
+
+    public ComponentName startService (Intent service)
+    {
+        return null;
+    }
+
+    public ComponentName startForegroundService (Intent service)
+    {
+        return startService(service);
+    }
+
+    public boolean stopService (Intent service)
+    {
+        return false;
+    }
+
+    public void startActivity (Intent intent) {}
+
+    public void sendBroadcast (Intent intent) {}
+
+    public Intent registerReceiver (BroadcastReceiver receiver, IntentFilter filter)
+    {
+        return null;
+    }
+
+    public Intent registerReceiver (BroadcastReceiver receiver, IntentFilter filter, int flags)
+    {
+        return registerReceiver(receiver, filter);
+    }
+
+    public Intent registerReceiver (BroadcastReceiver receiver, IntentFilter filter,
+                                    String permission, Handler scheduler)
+    {
+        return registerReceiver(receiver, filter);
+    }
+
+    public Intent registerReceiver (BroadcastReceiver receiver, IntentFilter filter,
+                                    String permission, Handler scheduler, int flags)
+    {
+        return registerReceiver(receiver, filter);
+    }
+
+    public void unregisterReceiver (BroadcastReceiver receiver) {}
+}
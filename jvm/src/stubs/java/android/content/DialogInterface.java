@@ -0,0 +1,12 @@
+package android.content;
+
+/**
+ * JVM stand-in for the dialog interface.
+ */
+public interface DialogInterface {
+
+    interface OnClickListener
+    {
+        void onClick (DialogInterface dialog, int which);
+    }
+}
@@ -0,0 +1,163 @@
+package android.content;
+
+import android.net.Uri;
+
+import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JVM stand-in for the intent, keeps its action, component and extras.
+ */
+public class Intent {
+
+    public static final String ACTION_MAIN = "android.intent.action.MAIN",
+            ACTION_BOOT_COMPLETED = "android.intent.action.BOOT_COMPLETED",
+            ACTION_SCREEN_ON = "android.intent.action.SCREEN_ON",
+            ACTION_SCREEN_OFF = "android.intent.action.SCREEN_OFF",
+            ACTION_USER_PRESENT = "android.intent.action.USER_PRESENT",
+            ACTION_BATTERY_CHANGED = "android.intent.action.BATTERY_CHANGED",
+            ACTION_POWER_CONNECTED = "android.intent.action.ACTION_POWER_CONNECTED",
+            ACTION_POWER_DISCONNECTED = "android.intent.action.ACTION_POWER_DISCONNECTED",
+            ACTION_MY_PACKAGE_REPLACED = "android.intent.action.MY_PACKAGE_REPLACED",
+            CATEGORY_HOME = "android.intent.category.HOME";
+
+    public static final int FLAG_ACTIVITY_NEW_TASK = 0x10000000,
+            FLAG_ACTIVITY_CLEAR_TOP = 0x04000000, FLAG_ACTIVITY_SINGLE_TOP = 0x20000000,
+            FLAG_ACTIVITY_REORDER_TO_FRONT = 0x00020000;
+
+    private final Map<String, Object> extras = new HashMap<>();
+
+    private String action;
+
+    private ComponentName component;
+
+    public Intent() {}
+
+    public Intent (String action)
+    {
+        this.action = action;
+    }
+
+    public Intent (Context context, Class<?> cls)
+    {
+        this.component = new ComponentName(context, cls);
+    }
+
+    public Intent (Intent other)
+    {
+        this.action    = other.action;
+        this.component = other.component;
+        this.extras.putAll(other.extras);
+    }
+
+    public static Intent parseUri (String uri, int flags) throws URISyntaxException
+    {
+        return new Intent(uri);
+    }
+
+    public String toUri (int flags)
+    {
+        return action;
+    }
+
+    public String getAction()
+    {
+        return action;
+    }
+
+    public Intent setAction (String action)
+    {
+        this.action = action;
+        return this;
+    }
+
+    public ComponentName getComponent()
+    {
+        return component;
+    }
+
+    public Intent setComponent (ComponentName component)
+    {
+        this.component = component;
+        return this;
+    }
+
+    public Intent setClass (Context context, Class<?> cls)
+    {
+        return setComponent(new ComponentName(context, cls));
+    }
+
+    public Intent setPackage (String packageName)
+    {
+        return this;
+    }
+
+    public Intent setData (Uri data)
+    {
+        return this;
+    }
+
+    public Intent addFlags (int flags)
+    {
+        return this;
+    }
+
+    public Intent addCategory (String category)
+    {
+        return this;
+    }
+
+    public Intent putExtra (String name, String value)
+    {
+        extras.put(name, value);
+        return this;
+    }
+
+    public Intent putExtra (String name, int value)
+    {
+        extras.put(name, value);
+        return this;
+    }
+
+    public Intent putExtra (String name, long value)
+    {
+        extras.put(name, value);
+        return this;
+    }
+
+    public Intent putExtra (String name, boolean value)
+    {
+        extras.put(name, value);
+        return this;
+    }
+
+    public boolean hasExtra (String name)
+    {
+        return extras.containsKey(name);
+    }
+
+    public String getStringExtra (String name)
+    {
+        Object value = extras.get(name);
+        return value instanceof String ? (String) value : null;
+    }
+
+    public int getIntExtra (String name, int defaultValue)
+    {
+        Object value = extras.get(name);
+        return value instanceof Integer ? (Integer) value : defaultValue;
+    }
+
+    public long getLongExtra (String name, long defaultValue)
+    {
+        Object value = extras.get(name);
+        return value instanceof Long ? (Long) value : defaultValue;
+    }
+
+    public boolean getBooleanExtra (String name, boolean defaultValue)
+    {
+        Object value = extras.get(name);
+        return value instanceof Boolean ? (Boolean) value : defaultValue;
+    }
+}
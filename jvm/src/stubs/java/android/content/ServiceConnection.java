@@ -0,0 +1,13 @@
+package android.content;
+
+import android.os.IBinder;
+
+/**
+ * JVM stand-in for the service connection.
+ */
+public interface ServiceConnection {
+
+    void onServiceConnected (ComponentName name, IBinder service);
+
+    void onServiceDisconnected (ComponentName name);
+}
@@ -0,0 +1,36 @@
+package android.content;
+
+/**
+ * JVM stand-in for the shared preferences.
+ */
+public interface SharedPreferences {
+
+    interface Editor
+    {
+        Editor putString (String key, String value);
+
+        Editor putInt (String key, int value);
+
+        Editor putLong (String key, long value);
+
+        Editor putBoolean (String key, boolean value);
+
+        Editor clear();
+
+        void apply();
+
+        boolean commit();
+    }
+
+    String getString (String key, String defValue);
+
+    int getInt (String key, int defValue);
+
+    long getLong (String key, long defValue);
+
+    boolean getBoolean (String key, boolean defValue);
+
+    boolean contains (String key);
+
+    Editor edit();
+}
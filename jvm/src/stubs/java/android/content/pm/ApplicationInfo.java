@@ -0,0 +1,9 @@
+package android.content.pm;
+
+/**
+ * JVM stand-in for the application info.
+ */
+public class ApplicationInfo {
+
+    public int labelRes;
+}
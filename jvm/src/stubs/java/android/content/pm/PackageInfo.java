@@ -0,0 +1,13 @@
+package android.content.pm;
+
+/**
+ * JVM stand-in for the package info.
+ */
+public class PackageInfo {
+
+    public long lastUpdateTime;
+
+    public int versionCode;
+
+    public String versionName;
+}
@@ -0,0 +1,47 @@
+package android.content.pm;
+
+import android.content.ComponentName;
+import android.content.Intent;
+
+/**
+ * JVM stand-in for the package manager, knows no packages.
+ */
+public abstract class PackageManager {
+
+    public static final int MATCH_DEFAULT_ONLY = 0x00010000, MATCH_DISABLED_COMPONENTS = 0x00000200;
+
+    public static class NameNotFoundException extends Exception
+    {
+        public NameNotFoundException() {}
+
+        public NameNotFoundException (String name)
+        {
+            super(name);
+        }
+    }
+
+    public ServiceInfo getServiceInfo (ComponentName component, int flags) throws NameNotFoundException
+    {
+        throw new NameNotFoundException(component.flattenToString());
+    }
+
+    public PackageInfo getPackageInfo (String packageName, int flags) throws NameNotFoundException
+    {
+        throw new NameNotFoundException(packageName);
+    }
+
+    public Intent getLaunchIntentForPackage (String packageName)
+    {
+        return null;
+    }
+
+    public ResolveInfo resolveActivity (Intent intent, int flags)
+    {
+        return null;
+    }
+
+    public boolean hasSystemFeature (String name)
+    {
+        return false;
+    }
+}
@@ -0,0 +1,6 @@
+package android.content.pm;
+
+/**
+ * JVM stand-in for a resolved intent.
+ */
+public class ResolveInfo {}
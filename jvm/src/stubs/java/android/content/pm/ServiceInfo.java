@@ -0,0 +1,11 @@
+package android.content.pm;
+
+/**
+ * JVM stand-in for the service info.
+ */
+public class ServiceInfo {
+
+    public boolean enabled;
+
+    public String processName;
+}
@@ -0,0 +1,16 @@
+package android.content.res;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * JVM stand-in for the asset manager, has no assets.
+ */
+public class AssetManager {
+
+    public InputStream open (String fileName) throws IOException
+    {
+        throw new FileNotFoundException(fileName);
+    }
+}
@@ -0,0 +1,12 @@
+package android.content.res;
+
+/**
+ * JVM stand-in for the resources, has none.
+ */
+public class Resources {
+
+    public int getIdentifier (String name, String defType, String defPackage)
+    {
+        return 0;
+    }
+}
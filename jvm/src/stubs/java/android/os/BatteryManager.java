@@ -0,0 +1,12 @@
+package android.os;
+
+/**
+ * JVM stand-in for the battery constants.
+ */
+public class BatteryManager {
+
+    public static final String EXTRA_LEVEL = "level", EXTRA_SCALE = "scale",
+            EXTRA_STATUS = "status", EXTRA_PLUGGED = "plugged";
+
+    public static final int BATTERY_STATUS_CHARGING = 2, BATTERY_STATUS_FULL = 5;
+}
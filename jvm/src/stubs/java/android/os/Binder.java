@@ -0,0 +1,27 @@
+package android.os;
+
+/**
+ * JVM stand-in for the local binder.
+ */
+public class Binder implements IBinder {
+
+    private final java.util.List<DeathRecipient> recipients = new java.util.ArrayList<>();
+
+    @Override
+    public boolean isBinderAlive()
+    {
+        return true;
+    }
+
+    @Override
+    public void linkToDeath (DeathRecipient recipient, int flags)
+    {
+        recipients.add(recipient);
+    }
+
+    @Override
+    public boolean unlinkToDeath (DeathRecipient recipient, int flags)
+    {
+        return recipients.remove(recipient);
+    }
+}
@@ -0,0 +1,25 @@
+package android.os;
+
+/**
+ * JVM stand-in for the build constants, reports a current API level.
+ */
+public class Build {
+
+    public static final String FINGERPRINT = "jvm/jvm/jvm:14/JVM/1:user/release-keys";
+
+    public static final String MANUFACTURER = "jvm";
+
+    public static final String MODEL = "jvm";
+
+    public static class VERSION
+    {
+        public static final int SDK_INT = 34;
+    }
+
+    public static class VERSION_CODES
+    {
+        public static final int KITKAT = 19, LOLLIPOP = 21, M = 23, N = 24, O = 26,
+                O_MR1 = 27, P = 28, Q = 29, R = 30, S = 31, TIRAMISU = 33,
+                UPSIDE_DOWN_CAKE = 34;
+    }
+}
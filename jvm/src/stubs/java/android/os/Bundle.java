@@ -0,0 +1,71 @@
+package android.os;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JVM stand-in for the Android bundle, backed by a map.
+ */
+public final class Bundle {
+
+    private final Map<String, Object> values = new HashMap<>();
+
+    public boolean containsKey (String key)
+    {
+        return values.containsKey(key);
+    }
+
+    public void putString (String key, String value)
+    {
+        values.put(key, value);
+    }
+
+    public String getString (String key)
+    {
+        Object value = values.get(key);
+        return value instanceof String ? (String) value : null;
+    }
+
+    public void putInt (String key, int value)
+    {
+        values.put(key, value);
+    }
+
+    public int getInt (String key)
+    {
+        Object value = values.get(key);
+        return value instanceof Integer ? (Integer) value : 0;
+    }
+
+    public void putLong (String key, long value)
+    {
+        values.put(key, value);
+    }
+
+    public long getLong (String key)
+    {
+        Object value = values.get(key);
+        return value instanceof Long ? (Long) value : 0;
+    }
+
+    public void putBoolean (String key, boolean value)
+    {
+        values.put(key, value);
+    }
+
+    public boolean getBoolean (String key)
+    {
+        return Boolean.TRUE.equals(values.get(key));
+    }
+
+    public void putParcelable (String key, Parcelable value)
+    {
+        values.put(key, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends Parcelable> T getParcelable (String key)
+    {
+        return (T) values.get(key);
+    }
+}
@@ -0,0 +1,6 @@
+package android.os;
+
+/**
+ * JVM stand-in, thrown once the other end of a binder is gone.
+ */
+public class DeadObjectException extends RemoteException {}
@@ -0,0 +1,122 @@
+package android.os;
+
+/**
+ * JVM stand-in for the Android handler, posts into the queue of its looper.
+ */
+public class Handler {
+
+    /**
+     * Receiver of the messages as an alternative to subclassing.
+     */
+    public interface Callback
+    {
+        boolean handleMessage (Message msg);
+    }
+
+    private final Looper looper;
+
+    private final Callback callback;
+
+    public Handler()
+    {
+        this(Looper.myLooper(), null);
+    }
+
+    public Handler (Looper looper)
+    {
+        this(looper, null);
+    }
+
+    public Handler (Looper looper, Callback callback)
+    {
+        if (looper == null)
+            throw new RuntimeException("Can't create handler without a looper");
+
+        this.looper   = looper;
+        this.callback = callback;
+    }
+
+    public void handleMessage (Message msg) {}
+
+    public void dispatchMessage (Message msg)
+    {
+        if (msg.callback != null) {
+            msg.callback.run();
+        } else if (callback == null || !callback.handleMessage(msg)) {
+            handleMessage(msg);
+        }
+    }
+
+    public final Looper getLooper()
+    {
+        return looper;
+    }
+
+    public final Message obtainMessage (int what)
+    {
+        return Message.obtain(this, what);
+    }
+
+    public final boolean post (Runnable r)
+    {
+        return postAtTime(r, null, SystemClock.uptimeMillis());
+    }
+
+    public final boolean postDelayed (Runnable r, long delayMillis)
+    {
+        return postAtTime(r, null, SystemClock.uptimeMillis() + Math.max(0, delayMillis));
+    }
+
+    public final boolean postAtTime (Runnable r, long uptimeMillis)
+    {
+        return postAtTime(r, null, uptimeMillis);
+    }
+
+    public final boolean postAtTime (Runnable r, Object token, long uptimeMillis)
+    {
+        Message msg = Message.obtain(this, 0);
+
+        msg.callback = r;
+        msg.obj      = token;
+
+        return looper.enqueue(msg, uptimeMillis);
+    }
+
+    public final boolean sendMessage (Message msg)
+    {
+        return sendMessageDelayed(msg, 0);
+    }
+
+    public final boolean sendMessageDelayed (Message msg, long delayMillis)
+    {
+        msg.target = this;
+        return looper.enqueue(msg, SystemClock.uptimeMillis() + Math.max(0, delayMillis));
+    }
+
+    public final boolean sendEmptyMessage (int what)
+    {
+        return sendMessage(Message.obtain(this, what));
+    }
+
+    public final boolean hasMessages (int what)
+    {
+        return looper.has(this, what);
+    }
+
+    public final void removeCallbacks (Runnable r)
+    {
+        if (r != null) {
+            looper.remove(this, r, null, null);
+        }
+    }
+
+    public final void removeMessages (int what)
+    {
+        looper.remove(this, null, what, null);
+    }
+
+    public final void removeCallbacksAndMessages (Object token)
+    {
+        looper.remove(this, null, null, token);
+    }
+}
@@ -0,0 +1,78 @@
+package android.os;
+
+/**
+ * JVM stand-in for the Android handler thread, a thread with a looper.
+ */
+public class HandlerThread extends Thread {
+
+    private Looper looper;
+
+    public HandlerThread (String name)
+    {
+        super(name);
+    }
+
+    public HandlerThread (String name, int priority)
+    {
+        super(name);
+    }
+
+    protected void onLooperPrepared() {}
+
+    @Override
+    public void run()
+    {
+        Looper.prepare();
+
+        synchronized (this) {
+            looper = Looper.myLooper();
+            notifyAll();
+        }
+
+        onLooperPrepared();
+        Looper.loop();
+    }
+
+    /**
+     * Returns the looper, waits until the thread did create it.
+     */
+    public Looper getLooper()
+    {
+        if (!isAlive() && looper == null)
+            return null;
+
+        synchronized (this) {
+            while (looper == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    return null;
+                }
+            }
+        }
+
+        return looper;
+    }
+
+    public boolean quit()
+    {
+        Looper looper = getLooper();
+
+        if (looper == null)
+            return false;
+
+        looper.quit();
+        return true;
+    }
+
+    public boolean quitSafely()
+    {
+        Looper looper = getLooper();
+
+        if (looper == null)
+            return false;
+
+        looper.quitSafely();
+        return true;
+    }
+}
@@ -0,0 +1,21 @@
+package android.os;
+
+/**
+ * JVM stand-in for the binder interface.
+ */
+public interface IBinder {
+
+    /**
+     * Notified once the process hosting the binder died.
+     */
+    interface DeathRecipient
+    {
+        void binderDied();
+    }
+
+    boolean isBinderAlive();
+
+    void linkToDeath (DeathRecipient recipient, int flags) throws RemoteException;
+
+    boolean unlinkToDeath (DeathRecipient recipient, int flags);
+}
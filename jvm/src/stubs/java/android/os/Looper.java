@@ -0,0 +1,187 @@
+package android.os;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * JVM stand-in for the Android looper. Keeps the messages of a thread in
+ * order of their uptime and runs them one after the other. The main looper
+ * runs on a daemon thread of its own.
+ */
+public final class Looper {
+
+    // Looper of the current thread
+    private static final ThreadLocal<Looper> LOCAL = new ThreadLocal<>();
+
+    // Looper of the main thread, started on first use
+    private static Looper main;
+
+    // Pending messages, ordered by their time and then their sequence number
+    private final PriorityQueue<Message> queue = new PriorityQueue<>((a, b) ->
+            a.when != b.when ? Long.compare(a.when, b.when) : Long.compare(a.seq, b.seq));
+
+    // Thread running the messages
+    private final Thread thread = Thread.currentThread();
+
+    // Sequence number of the enqueued messages
+    private long seq;
+
+    // Flag indicates if the looper does not take new messages
+    private boolean quitting;
+
+    private Looper() {}
+
+    /**
+     * Create the looper of the current thread.
+     */
+    public static void prepare()
+    {
+        if (LOCAL.get() != null)
+            throw new IllegalStateException("Only one Looper may be created per thread");
+
+        LOCAL.set(new Looper());
+    }
+
+    /**
+     * Returns the looper of the main thread.
+     */
+    public static synchronized Looper getMainLooper()
+    {
+        if (main == null) {
+            HandlerThread thread = new HandlerThread("main");
+            thread.setDaemon(true);
+            thread.start();
+            main = thread.getLooper();
+        }
+
+        return main;
+    }
+
+    /**
+     * Returns the looper of the current thread or null if none.
+     */
+    public static Looper myLooper()
+    {
+        return LOCAL.get();
+    }
+
+    /**
+     * Run the messages of the current thread until the looper quits.
+     */
+    public static void loop()
+    {
+        Looper me = myLooper();
+        Message msg;
+
+        if (me == null)
+            throw new IllegalStateException("No Looper; Looper.prepare() wasn't called on this thread.");
+
+        while ((msg = me.next()) != null) {
+            msg.target.dispatchMessage(msg);
+        }
+    }
+
+    public Thread getThread()
+    {
+        return thread;
+    }
+
+    public boolean isCurrentThread()
+    {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Drop all pending messages and stop the loop.
+     */
+    public synchronized void quit()
+    {
+        quitting = true;
+        queue.clear();
+        notifyAll();
+    }
+
+    /**
+     * Run the messages which are due and stop the loop.
+     */
+    public synchronized void quitSafely()
+    {
+        long now = SystemClock.uptimeMillis();
+
+        quitting = true;
+
+        for (Iterator<Message> it = queue.iterator(); it.hasNext(); ) {
+            if (it.next().when > now) {
+                it.remove();
+            }
+        }
+
+        notifyAll();
+    }
+
+    synchronized boolean enqueue (Message msg, long when)
+    {
+        if (quitting)
+            return false;
+
+        msg.when = when;
+        msg.seq  = seq++;
+        queue.add(msg);
+        notifyAll();
+
+        return true;
+    }
+
+    synchronized void remove (Handler target, Runnable callback, Integer what, Object token)
+    {
+        for (Iterator<Message> it = queue.iterator(); it.hasNext(); )
+        {
+            Message msg = it.next();
+
+            if (msg.target != target)
+                continue;
+
+            if (callback != null && msg.callback != callback)
+                continue;
+
+            if (what != null && (msg.callback != null || msg.what != what))
+                continue;
+
+            if (token != null && msg.obj != token)
+                continue;
+
+            it.remove();
+        }
+    }
+
+    synchronized boolean has (Handler target, int what)
+    {
+        for (Message msg : queue) {
+            if (msg.target == target && msg.callback == null && msg.what == what)
+                return true;
+        }
+
+        return false;
+    }
+
+    private synchronized Message next()
+    {
+        while (true)
+        {
+            Message head = queue.peek();
+            long now     = SystemClock.uptimeMillis();
+
+            if (head == null && quitting)
+                return null;
+
+            if (head != null && head.when <= now)
+                return queue.poll();
+
+            try {
+                wait(head == null ? 0 : head.when - now);
+            } catch (InterruptedException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package android.os;
+
+/**
+ * JVM stand-in for the Android message. Messages are not pooled.
+ */
+public final class Message {
+
+    public int what, arg1, arg2;
+
+    public Object obj;
+
+    public Messenger replyTo;
+
+    Handler target;
+
+    Runnable callback;
+
+    Bundle data;
+
+    long when, seq;
+
+    public static Message obtain()
+    {
+        return new Message();
+    }
+
+    public static Message obtain (Handler h, int what)
+    {
+        Message msg = new Message();
+
+        msg.target = h;
+        msg.what   = what;
+
+        return msg;
+    }
+
+    public static Message obtain (Handler h, int what, int arg1, int arg2)
+    {
+        Message msg = obtain(h, what);
+
+        msg.arg1 = arg1;
+        msg.arg2 = arg2;
+
+        return msg;
+    }
+
+    public Handler getTarget()
+    {
+        return target;
+    }
+
+    public Bundle getData()
+    {
+        if (data == null) {
+            data = new Bundle();
+        }
+
+        return data;
+    }
+
+    public Bundle peekData()
+    {
+        return data;
+    }
+
+    public void setData (Bundle data)
+    {
+        this.data = data;
+    }
+
+    public void sendToTarget()
+    {
+        target.sendMessage(this);
+    }
+}
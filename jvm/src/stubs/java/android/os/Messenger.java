@@ -0,0 +1,44 @@
+package android.os;
+
+/**
+ * JVM stand-in for the Android messenger. Both ends live in the same JVM,
+ * the binder hands the messages straight to the handler.
+ */
+public final class Messenger {
+
+    private final Handler target;
+
+    public Messenger (Handler target)
+    {
+        this.target = target;
+    }
+
+    public Messenger (IBinder binder)
+    {
+        this.target = ((Link) binder).target;
+    }
+
+    public IBinder getBinder()
+    {
+        return new Link(target);
+    }
+
+    public void send (Message msg) throws RemoteException
+    {
+        if (!target.sendMessage(msg))
+            throw new DeadObjectException();
+    }
+
+    /**
+     * Binder of a messenger.
+     */
+    private static final class Link extends Binder
+    {
+        final Handler target;
+
+        Link (Handler target)
+        {
+            this.target = target;
+        }
+    }
+}
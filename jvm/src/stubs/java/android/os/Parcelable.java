@@ -0,0 +1,6 @@
+package android.os;
+
+/**
+ * JVM stand-in, marks the values a bundle can carry across processes.
+ */
+public interface Parcelable {}
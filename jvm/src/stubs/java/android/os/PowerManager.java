@@ -0,0 +1,112 @@
+package android.os;
+
+import java.util.concurrent.Executor;
+
+/**
+ * JVM stand-in for the power manager. The device is interactive, not in
+ * power save mode and cool. Wake locks track their state and timeout.
+ */
+public class PowerManager {
+
+    public static final int PARTIAL_WAKE_LOCK = 1, SCREEN_DIM_WAKE_LOCK = 6,
+            ACQUIRE_CAUSES_WAKEUP = 0x10000000;
+
+    public static final int THERMAL_STATUS_NONE = 0, THERMAL_STATUS_LIGHT = 1,
+            THERMAL_STATUS_MODERATE = 2, THERMAL_STATUS_SEVERE = 3,
+            THERMAL_STATUS_CRITICAL = 4, THERMAL_STATUS_EMERGENCY = 5,
+            THERMAL_STATUS_SHUTDOWN = 6;
+
+    public static final String ACTION_POWER_SAVE_MODE_CHANGED =
+            "android.os.action.POWER_SAVE_MODE_CHANGED";
+
+    public static final String ACTION_DEVICE_IDLE_MODE_CHANGED =
+            "android.os.action.DEVICE_IDLE_MODE_CHANGED";
+
+    public interface OnThermalStatusChangedListener
+    {
+        void onThermalStatusChanged (int status);
+    }
+
+    public WakeLock newWakeLock (int levelAndFlags, String tag)
+    {
+        return new WakeLock();
+    }
+
+    public boolean isScreenOn()
+    {
+        return true;
+    }
+
+    public boolean isInteractive()
+    {
+        return true;
+    }
+
+    public boolean isIgnoringBatteryOptimizations (String packageName)
+    {
+        return false;
+    }
+
+    public boolean isPowerSaveMode()
+    {
+        return false;
+    }
+
+    public boolean isDeviceIdleMode()
+    {
+        return false;
+    }
+
+    public int getCurrentThermalStatus()
+    {
+        return THERMAL_STATUS_NONE;
+    }
+
+    public void addThermalStatusListener (OnThermalStatusChangedListener listener) {}
+
+    public void addThermalStatusListener (Executor executor, OnThermalStatusChangedListener listener) {}
+
+    public void removeThermalStatusListener (OnThermalStatusChangedListener listener) {}
+
+    /**
+     * A non reference counted wake lock which releases itself once its
+     * timeout passed.
+     */
+    public static class WakeLock
+    {
+        private boolean held;
+
+        private long expires;
+
+        public synchronized void acquire()
+        {
+            held    = true;
+            expires = 0;
+        }
+
+        public synchronized void acquire (long timeout)
+        {
+            held    = true;
+            expires = SystemClock.elapsedRealtime() + timeout;
+        }
+
+        public synchronized void release()
+        {
+            if (!isHeld())
+                throw new RuntimeException("WakeLock under-locked");
+
+            held = false;
+        }
+
+        public synchronized boolean isHeld()
+        {
+            if (held && expires > 0 && SystemClock.elapsedRealtime() >= expires) {
+                held = false;
+            }
+
+            return held;
+        }
+
+        public void setReferenceCounted (boolean value) {}
+    }
+}
@@ -0,0 +1,23 @@
+package android.os;
+
+/**
+ * JVM stand-in for the Android process utilities.
+ */
+public class Process {
+
+    public static final int THREAD_PRIORITY_BACKGROUND = 10;
+
+    public static final int THREAD_PRIORITY_DISPLAY = -4;
+
+    public static int myPid()
+    {
+        return 1;
+    }
+
+    public static void killProcess (int pid)
+    {
+        throw new UnsupportedOperationException("killProcess");
+    }
+
+    public static void setThreadPriority (int priority) {}
+}
@@ -0,0 +1,14 @@
+package android.os;
+
+/**
+ * JVM stand-in, thrown by failed binder calls.
+ */
+public class RemoteException extends Exception {
+
+    public RemoteException() {}
+
+    public RemoteException (String message)
+    {
+        super(message);
+    }
+}
@@ -0,0 +1,51 @@
+package android.os;
+
+import android.system.ErrnoException;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+/**
+ * JVM stand-in for the Android shared memory, a direct buffer. Each
+ * mapping is a view of the same memory.
+ */
+public final class SharedMemory implements Parcelable, Closeable {
+
+    private final ByteBuffer memory;
+
+    private boolean closed;
+
+    private SharedMemory (int size)
+    {
+        memory = ByteBuffer.allocateDirect(size);
+    }
+
+    public static SharedMemory create (String name, int size) throws ErrnoException
+    {
+        if (size <= 0)
+            throw new IllegalArgumentException("Size must be greater than zero");
+
+        return new SharedMemory(size);
+    }
+
+    public synchronized ByteBuffer mapReadWrite() throws ErrnoException
+    {
+        if (closed)
+            throw new IllegalStateException("SharedMemory is closed");
+
+        return memory.duplicate();
+    }
+
+    public static void unmap (ByteBuffer buffer) {}
+
+    public int getSize()
+    {
+        return memory.capacity();
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        closed = true;
+    }
+}
@@ -0,0 +1,37 @@
+package android.os;
+
+/**
+ * JVM stand-in for the Android clocks. The JVM never sleeps, so uptime and
+ * elapsed realtime both follow the monotonic clock.
+ */
+public final class SystemClock {
+
+    // Origin of the clocks
+    private static final long BOOT = System.nanoTime();
+
+    private SystemClock() {}
+
+    public static long uptimeMillis()
+    {
+        return elapsedRealtimeNanos() / 1000000;
+    }
+
+    public static long elapsedRealtime()
+    {
+        return elapsedRealtimeNanos() / 1000000;
+    }
+
+    public static long elapsedRealtimeNanos()
+    {
+        return System.nanoTime() - BOOT + 1000000000L;
+    }
+
+    public static void sleep (long ms)
+    {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package android.system;
+
+/**
+ * JVM stand-in, thrown by failed system calls.
+ */
+public final class ErrnoException extends Exception {
+
+    public ErrnoException (String functionName, int errno)
+    {
+        super(functionName + " failed: " + errno);
+    }
+}
@@ -0,0 +1,34 @@
+package android.view;
+
+/**
+ * JVM stand-in for the view, runs posted work right away.
+ */
+public class View {
+
+    public static final int VISIBLE = 0, INVISIBLE = 4, GONE = 8;
+
+    private final ViewTreeObserver observer = new ViewTreeObserver();
+
+    public boolean post (Runnable action)
+    {
+        action.run();
+        return true;
+    }
+
+    public boolean postDelayed (Runnable action, long delayMillis)
+    {
+        return true;
+    }
+
+    public boolean removeCallbacks (Runnable action)
+    {
+        return true;
+    }
+
+    public void dispatchWindowVisibilityChanged (int visibility) {}
+
+    public ViewTreeObserver getViewTreeObserver()
+    {
+        return observer;
+    }
+}
@@ -0,0 +1,21 @@
+package android.view;
+
+/**
+ * JVM stand-in for the view tree observer.
+ */
+public final class ViewTreeObserver {
+
+    public interface OnWindowFocusChangeListener
+    {
+        void onWindowFocusChanged (boolean hasFocus);
+    }
+
+    public void addOnWindowFocusChangeListener (OnWindowFocusChangeListener listener) {}
+
+    public void removeOnWindowFocusChangeListener (OnWindowFocusChangeListener listener) {}
+
+    public boolean isAlive()
+    {
+        return true;
+    }
+}
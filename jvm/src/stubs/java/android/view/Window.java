@@ -0,0 +1,11 @@
+package android.view;
+
+/**
+ * JVM stand-in for the window.
+ */
+public class Window {
+
+    public void addFlags (int flags) {}
+
+    public void clearFlags (int flags) {}
+}
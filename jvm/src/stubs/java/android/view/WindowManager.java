@@ -0,0 +1,14 @@
+package android.view;
+
+/**
+ * JVM stand-in for the window manager constants.
+ */
+public interface WindowManager {
+
+    class LayoutParams
+    {
+        public static final int FLAG_ALLOW_LOCK_WHILE_SCREEN_ON = 0x00000001,
+                FLAG_DISMISS_KEYGUARD = 0x00400000, FLAG_SHOW_WHEN_LOCKED = 0x00080000,
+                FLAG_TURN_SCREEN_ON = 0x00200000;
+    }
+}
@@ -0,0 +1,87 @@
+package org.apache.cordova;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * JVM stand-in for the callback of a plugin call, hands the results to
+ * the web view.
+ */
+public class CallbackContext {
+
+    private final String callbackId;
+
+    private final CordovaWebView webView;
+
+    private boolean finished;
+
+    public CallbackContext (String callbackId, CordovaWebView webView)
+    {
+        this.callbackId = callbackId;
+        this.webView    = webView;
+    }
+
+    public String getCallbackId()
+    {
+        return callbackId;
+    }
+
+    public boolean isFinished()
+    {
+        return finished;
+    }
+
+    public void sendPluginResult (PluginResult result)
+    {
+        synchronized (this) {
+            if (finished)
+                return;
+
+            finished = !result.getKeepCallback();
+        }
+
+        if (webView != null) {
+            webView.sendPluginResult(result, callbackId);
+        }
+    }
+
+    public void success()
+    {
+        sendPluginResult(new PluginResult(PluginResult.Status.OK));
+    }
+
+    public void success (String message)
+    {
+        sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+    }
+
+    public void success (JSONObject message)
+    {
+        sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+    }
+
+    public void success (JSONArray message)
+    {
+        sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+    }
+
+    public void success (byte[] message)
+    {
+        sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+    }
+
+    public void success (int message)
+    {
+        sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+    }
+
+    public void error (String message)
+    {
+        sendPluginResult(new PluginResult(PluginResult.Status.ERROR, message));
+    }
+
+    public void error (JSONObject message)
+    {
+        sendPluginResult(new PluginResult(PluginResult.Status.ERROR, message));
+    }
+}
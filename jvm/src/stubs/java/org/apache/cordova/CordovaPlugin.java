@@ -0,0 +1,50 @@
+package org.apache.cordova;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+/**
+ * JVM stand-in for the base class of the plugins.
+ */
+public class CordovaPlugin {
+
+    public CordovaInterface cordova;
+
+    public CordovaWebView webView;
+
+    /**
+     * Set the members and call pluginInitialize, as Cordova does.
+     */
+    public final void privateInitialize (String serviceName, CordovaInterface cordova,
+                                         CordovaWebView webView)
+    {
+        this.cordova = cordova;
+        this.webView = webView;
+        pluginInitialize();
+    }
+
+    protected void pluginInitialize() {}
+
+    public String getServiceName()
+    {
+        return getClass().getSimpleName();
+    }
+
+    public boolean execute (String action, JSONArray args, CallbackContext callbackContext)
+            throws JSONException
+    {
+        return false;
+    }
+
+    public void onPause (boolean multitasking) {}
+
+    public void onResume (boolean multitasking) {}
+
+    public void onStart() {}
+
+    public void onStop() {}
+
+    public void onReset() {}
+
+    public void onDestroy() {}
+}
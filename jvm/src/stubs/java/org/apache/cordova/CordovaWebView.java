@@ -0,0 +1,19 @@
+package org.apache.cordova;
+
+import android.view.View;
+
+/**
+ * JVM stand-in for the Cordova web view.
+ */
+public interface CordovaWebView {
+
+    void loadUrl (String url);
+
+    void sendJavascript (String statement);
+
+    void sendPluginResult (PluginResult result, String callbackId);
+
+    CordovaWebViewEngine getEngine();
+
+    View getView();
+}
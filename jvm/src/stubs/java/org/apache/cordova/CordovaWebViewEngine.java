@@ -0,0 +1,11 @@
+package org.apache.cordova;
+
+import android.view.View;
+
+/**
+ * JVM stand-in for the engine of the web view.
+ */
+public interface CordovaWebViewEngine {
+
+    View getView();
+}
@@ -0,0 +1,134 @@
+package de.einfachhans.BackgroundMode;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaWebView;
+import org.apache.cordova.CordovaWebViewEngine;
+import org.apache.cordova.PluginResult;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static de.einfachhans.BackgroundMode.ActionExecutor.Lane.BLOCKING;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Fills the blocking lane while its worker is stuck.
+ */
+public class ActionExecutorTest {
+
+    // Status codes of the results
+    private static final int OK = PluginResult.Status.OK.ordinal(), ERROR = PluginResult.Status.ERROR.ordinal();
+
+    // Status codes of the results by callback id
+    private final Map<String, Integer> results = new ConcurrentHashMap<>();
+
+    // Messages of the results by callback id
+    private final Map<String, Object> messages = new ConcurrentHashMap<>();
+
+    @Test
+    public void criticalActionsPassAFullLaneInOrder() throws Exception
+    {
+        ActionExecutor actions = ActionExecutor.get();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch stuck   = new CountDownLatch(1);
+        List<String> ran       = new CopyOnWriteArrayList<>();
+
+        actions.submit(BLOCKING, "stuck", callback("stuck"), () -> {
+            started.countDown();
+            stuck.await();
+        });
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // the worker holds the first action, these fill the queue
+        for (int i = 0; i < 64; i++) {
+            String name = "enable" + i;
+            actions.submit(BLOCKING, "enable", callback(name), () -> ran.add(name));
+        }
+
+        actions.submit(BLOCKING, "enable", callback("rejected"), () -> ran.add("rejected"));
+        actions.submitCritical(BLOCKING, "disable", callback("disable"), () -> ran.add("disable"));
+
+        assertEquals(ERROR, (int) results.get("rejected"));
+
+        stuck.countDown();
+        assertTrue(actions.awaitIdle(5000));
+
+        assertEquals(65, ran.size());
+        assertEquals("disable", ran.get(64));
+        assertEquals(OK, (int) results.get("disable"));
+        assertEquals(OK, (int) results.get("enable63"));
+    }
+
+    @Test
+    public void failuresGoToTheCallback() throws Exception
+    {
+        ActionExecutor actions = ActionExecutor.get();
+
+        actions.submitCritical(BLOCKING, "cancel", callback("cancel"), () -> {
+            throw new IllegalStateException("gone");
+        });
+
+        assertTrue(actions.awaitIdle(5000));
+        assertEquals(ERROR, (int) results.get("cancel"));
+    }
+
+    @Test
+    public void binaryResultsGoToTheCallback() throws Exception
+    {
+        ActionExecutor actions = ActionExecutor.get();
+        byte[] frame           = { 1, 2, 3 };
+
+        actions.query(BLOCKING, "conflated", callback("conflated"), () -> frame);
+
+        assertTrue(actions.awaitIdle(5000));
+        assertEquals(OK, (int) results.get("conflated"));
+        assertArrayEquals(frame, (byte[]) messages.get("conflated"));
+    }
+
+    private CallbackContext callback (String id)
+    {
+        return new CallbackContext(id, new WebView());
+    }
+
+    /**
+     * Records the status of each result.
+     */
+    private final class WebView implements CordovaWebView
+    {
+        @Override
+        public void sendPluginResult (PluginResult result, String callbackId)
+        {
+            results.put(callbackId, result.getStatus());
+
+            if (result.getMessageObject() != null) {
+                messages.put(callbackId, result.getMessageObject());
+            }
+        }
+
+        @Override
+        public void loadUrl (String url) {}
+
+        @Override
+        public void sendJavascript (String statement) {}
+
+        @Override
+        public CordovaWebViewEngine getEngine()
+        {
+            return null;
+        }
+
+        @Override
+        public android.view.View getView()
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package de.einfachhans.BackgroundMode;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the books of the engine against a model which simply scans all
+ * rules on each tick. Levels and prices come from a small grid so ties,
+ * exact hits and replaced ids happen often.
+ */
+public class AlertEngineTest {
+
+    private static final String[] TYPES = { "above", "below", "crossUp", "crossDown" };
+
+    private static final int[] INSTRUMENTS = { 1, 2, 3, -7 };
+
+    private static final long[] COOLDOWNS = { 0, 10000, 60000 };
+
+    // Alerts of the last call, as id@price
+    private final List<String> alerts = new ArrayList<>();
+
+    private final AlertEngine engine = new AlertEngine(alert ->
+            alerts.add(alert.optString("id") + "@" + alert.optDouble("price")));
+
+    @Test
+    public void booksMatchTheModel() throws Exception
+    {
+        for (long seed = 0; seed < 20; seed++) {
+            run(new Random(seed), new AlertEngine(alert ->
+                    alerts.add(alert.optString("id") + "@" + alert.optDouble("price"))), seed);
+        }
+    }
+
+    @Test
+    public void thresholdAlreadyPassedFiresOnAdd() throws Exception
+    {
+        // the price of an instrument is tracked once it has a rule
+        engine.add(new JSONArray().put(rule("far", 1, "above", 1000)));
+        tick(1, 100.0);
+        assertTrue(alerts.isEmpty());
+
+        engine.add(new JSONArray().put(rule("a", 1, "above", 100)).put(rule("b", 1, "below", 90)));
+
+        assertEquals(Collections.singletonList("a@100.0"), alerts);
+        assertEquals(2, engine.getStats().getInt("rules"));
+    }
+
+    @Test
+    public void repeatingCrossWaitsForTheCooldown() throws Exception
+    {
+        engine.add(new JSONArray().put(rule("up", 1, "crossUp", 100)
+                .put("repeat", true).put("cooldown", 10000)));
+
+        tick(1, 99, 1000);
+        tick(1, 101, 2000);
+        tick(1, 99, 3000);
+        tick(1, 101, 4000);
+        tick(1, 99, 20000);
+        tick(1, 101, 21000);
+
+        assertEquals(2, alerts.size());
+        assertEquals(1, engine.getStats().getLong("suppressed"));
+        assertEquals(1, engine.getStats().getInt("rules"));
+    }
+
+    @Test
+    public void reservedInstrumentIdIsRejected() throws Exception
+    {
+        int rejected = engine.add(new JSONArray()
+                .put(rule("a", Integer.MIN_VALUE, "above", 100))
+                .put(rule("b", 1, "above", 100)));
+
+        assertEquals(1, rejected);
+        assertEquals(1, engine.getStats().getInt("instruments"));
+
+        // must not match the empty slots of the instrument table
+        tick(Integer.MIN_VALUE, 200);
+        tick(1, 200);
+
+        assertEquals(Collections.singletonList("b@200.0"), alerts);
+    }
+
+    /**
+     * Run random operations against the engine and the model.
+     */
+    private void run (Random random, AlertEngine engine, long seed) throws Exception
+    {
+        Model model = new Model();
+        long time   = 1000;
+        int fired   = 0;
+
+        for (int op = 0; op < 3000; op++)
+        {
+            String at = "seed " + seed + " op " + op;
+            int kind  = random.nextInt(100);
+
+            alerts.clear();
+            time += random.nextInt(30000);
+
+            if (kind < 35) {
+                JSONArray specs = new JSONArray();
+                int rejected    = 0;
+
+                for (int i = random.nextInt(3); i >= 0; i--)
+                {
+                    boolean reserved = random.nextInt(50) == 0;
+                    JSONObject spec  = rule("r" + random.nextInt(30),
+                            reserved ? Integer.MIN_VALUE : pick(random, INSTRUMENTS),
+                            TYPES[random.nextInt(TYPES.length)],
+                            90 + random.nextInt(21))
+                            .put("repeat", random.nextBoolean())
+                            .put("cooldown", COOLDOWNS[random.nextInt(COOLDOWNS.length)]);
+
+                    specs.put(spec);
+
+                    if (reserved) {
+                        rejected++;
+                    } else {
+                        model.add(spec);
+                    }
+                }
+
+                assertEquals(at, rejected, engine.add(specs));
+            } else if (kind < 45) {
+                JSONArray ids = new JSONArray();
+
+                for (int i = random.nextInt(3); i >= 0; i--) {
+                    ids.put("r" + random.nextInt(30));
+                }
+
+                engine.remove(ids);
+                model.remove(ids);
+            } else if (kind < 46) {
+                engine.clear();
+                model.clear();
+            } else {
+                QuoteStream.Batch batch = new QuoteStream.Batch(4);
+
+                for (int i = random.nextInt(4); i >= 0; i--)
+                {
+                    int id       = random.nextInt(40) == 0 ? 9 : pick(random, INSTRUMENTS);
+                    double price = random.nextInt(40) == 0 ? Double.NaN : 88 + random.nextInt(25);
+
+                    batch.ids[batch.size]    = id;
+                    batch.prices[batch.size] = price;
+                    batch.times[batch.size]  = time;
+                    batch.size++;
+
+                    model.tick(id, price, time);
+                }
+
+                engine.evaluate(batch);
+            }
+
+            Collections.sort(alerts);
+            Collections.sort(model.alerts);
+
+            assertEquals(at, model.alerts, alerts);
+            assertEquals(at, model.armed.size(), engine.getStats().getInt("rules"));
+            assertEquals(at, model.last.size(), engine.getStats().getInt("instruments"));
+
+            fired += alerts.size();
+            model.alerts.clear();
+        }
+
+        // the grid is dense enough to fire plenty of rules
+        assertTrue("seed " + seed, fired > 100);
+    }
+
+    private void tick (int id, double price)
+    {
+        tick(id, price, System.currentTimeMillis());
+    }
+
+    private void tick (int id, double price, long time)
+    {
+        QuoteStream.Batch batch = new QuoteStream.Batch(1);
+
+        batch.ids[0]    = id;
+        batch.prices[0] = price;
+        batch.times[0]  = time;
+        batch.size      = 1;
+
+        engine.evaluate(batch);
+    }
+
+    private static JSONObject rule (String id, int instrument, String type, double level) throws Exception
+    {
+        return new JSONObject()
+                .put("id", id)
+                .put("instrument", instrument)
+                .put("type", type)
+                .put("level", level);
+    }
+
+    private static int pick (Random random, int[] values)
+    {
+        return values[random.nextInt(values.length)];
+    }
+
+    /**
+     * Scans every armed rule on each tick.
+     */
+    private static final class Model
+    {
+        final Map<String, Rule> armed   = new HashMap<>();
+        final Map<Integer, Double> last = new HashMap<>();
+        final List<String> alerts       = new ArrayList<>();
+
+        void add (JSONObject spec) throws Exception
+        {
+            Rule rule = new Rule(spec);
+            Double price;
+
+            armed.remove(rule.id);
+
+            if (!last.containsKey(rule.instrument)) {
+                last.put(rule.instrument, Double.NaN);
+            }
+
+            price = last.get(rule.instrument);
+
+            if ((rule.type == 0 && price >= rule.level) || (rule.type == 1 && price <= rule.level)) {
+                alerts.add(rule.id + "@" + price);
+            } else {
+                armed.put(rule.id, rule);
+            }
+        }
+
+        void remove (JSONArray ids)
+        {
+            for (int i = 0; i < ids.length(); i++) {
+                armed.remove(ids.optString(i));
+            }
+        }
+
+        void clear()
+        {
+            armed.clear();
+            last.clear();
+        }
+
+        void tick (int id, double price, long time)
+        {
+            if (!last.containsKey(id) || Double.isNaN(price))
+                return;
+
+            double prev = last.put(id, price);
+
+            for (Iterator<Rule> it = armed.values().iterator(); it.hasNext(); )
+            {
+                Rule rule      = it.next();
+                boolean rising = rule.type == 0 || rule.type == 2;
+                boolean hit;
+
+                if (rule.instrument != id)
+                    continue;
+
+                if (Double.isNaN(prev)) {
+                    hit = (rule.type == 0 && rule.level <= price) || (rule.type == 1 && rule.level >= price);
+                } else if (price > prev) {
+                    hit = rising && prev < rule.level && rule.level <= price;
+                } else {
+                    hit = !rising && price <= rule.level && rule.level < prev;
+                }
+
+                if (!hit)
+                    continue;
+
+                if (rule.repeat && rule.lastFired > 0 && time - rule.lastFired < rule.cooldown)
+                    continue;
+
+                rule.lastFired = time;
+                alerts.add(rule.id + "@" + price);
+
+                if (!rule.repeat) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * A rule of the model.
+     */
+    private static final class Rule
+    {
+        final String id;
+        final int instrument, type;
+        final double level;
+        final boolean repeat;
+        final long cooldown;
+        long lastFired;
+
+        Rule (JSONObject spec) throws Exception
+        {
+            id         = spec.getString("id");
+            instrument = spec.getInt("instrument");
+            type       = Arrays.asList(TYPES).indexOf(spec.getString("type"));
+            level      = spec.getDouble("level");
+            repeat     = type >= 2 && spec.getBoolean("repeat");
+            cooldown   = spec.getLong("cooldown");
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package de.einfachhans.BackgroundMode;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Records the alarms set by the calendar instead of letting them go off.
+ */
+public class CalendarAlarmTest {
+
+    // Time of the last alarm set, -1 if cancelled
+    private long alarmAt = -1;
+
+    private final AlarmManager alarms = new AlarmManager() {
+        @Override
+        public void setExactAndAllowWhileIdle (int type, long triggerAtMillis, PendingIntent operation)
+        {
+            alarmAt = triggerAtMillis;
+        }
+
+        @Override
+        public void cancel (PendingIntent operation)
+        {
+            alarmAt = -1;
+        }
+    };
+
+    private final CalendarAlarm alarm = new CalendarAlarm(new Context() {
+        @Override
+        public Object getSystemService (String name)
+        {
+            return ALARM_SERVICE.equals(name) ? alarms : null;
+        }
+    }, active -> {});
+
+    @After
+    public void tearDown()
+    {
+        alarm.detach();
+    }
+
+    @Test
+    public void closedCalendarLooksAgainAtTheHorizon() throws Exception
+    {
+        JSONObject spec = new JSONObject("{ \"markets\": [{ \"id\": \"XNONE\", \"days\": \"\","
+                + " \"sessions\": [\"09:00-17:00\"] }] }");
+        long now        = System.currentTimeMillis();
+
+        alarm.configure(SessionCalendar.parse(spec), spec);
+
+        assertTrue(alarmAt >= now + SessionCalendar.HORIZON);
+        assertTrue(alarmAt <= System.currentTimeMillis() + SessionCalendar.HORIZON);
+        assertEquals(alarmAt, alarm.getStats().getLong("nextChange"));
+    }
+}
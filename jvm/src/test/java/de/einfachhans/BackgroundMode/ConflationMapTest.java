@@ -0,0 +1,58 @@
+package de.einfachhans.BackgroundMode;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Feeds batches on the test thread, which acts as the single writer.
+ */
+public class ConflationMapTest {
+
+    private final ConflationMap map = new ConflationMap(new JSONObject());
+
+    @Test
+    public void keepsTheLatestQuotePerInstrument() throws Exception
+    {
+        map.put(batch(1, 2, 1));
+
+        QuoteStream.Batch latest = map.drain(0);
+
+        assertEquals(2, latest.size);
+        assertEquals(2, map.getStats().getInt("instruments"));
+        assertEquals(0, map.drain(0).size);
+    }
+
+    @Test
+    public void reservedIdIsRejected() throws Exception
+    {
+        map.put(batch(Integer.MIN_VALUE, 7, Integer.MIN_VALUE, 8));
+
+        QuoteStream.Batch latest = map.drain(0);
+
+        assertEquals(2, latest.size);
+        assertEquals(7 + 8, latest.ids[0] + latest.ids[1]);
+        assertEquals(2, map.getStats().getInt("instruments"));
+        assertEquals(2, map.getStats().getLong("rejected"));
+    }
+
+    /**
+     * Returns a batch with a tick per id, the price is the index in the batch.
+     */
+    private static QuoteStream.Batch batch (int... ids)
+    {
+        QuoteStream.Batch batch = new QuoteStream.Batch(ids.length);
+
+        for (int id : ids) {
+            int i = batch.size++;
+
+            batch.ids[i]    = id;
+            batch.prices[i] = i;
+            batch.sizes[i]  = 1;
+            batch.times[i]  = i;
+        }
+
+        return batch;
+    }
+}
@@ -0,0 +1,78 @@
+package de.einfachhans.BackgroundMode;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Reads the frames back through the header and record layout documented
+ * by the encoder.
+ */
+public class DeltaEncoderTest {
+
+    // Offset of the first record, behind the header and the frame number
+    private static final int RECORDS = BinaryFrames.HEADER_SIZE + 4;
+
+    private final DeltaEncoder encoder = new DeltaEncoder(0);
+
+    @Test
+    public void unchangedTicksAreNotSentAgain()
+    {
+        assertEquals(1, count(encoder.encode(batch(5, 1.5))));
+        assertNull(encoder.encode(batch(5, 1.5)));
+        assertEquals(1, count(encoder.encode(batch(5, 2.5))));
+    }
+
+    @Test
+    public void reservedIdIsSkipped()
+    {
+        ByteBuffer full = wrap(encoder.encode(batch(Integer.MIN_VALUE, 1, 5, 2)));
+
+        assertEquals(1, full.getInt(4));
+        assertEquals(5, full.getInt(RECORDS));
+
+        for (int i = 0; i < 10000; i++) {
+            assertNull(encoder.encode(batch(Integer.MIN_VALUE, i)));
+        }
+
+        encoder.requestResync();
+        full = wrap(encoder.encode(batch(5, 2)));
+
+        assertEquals(DeltaEncoder.FLAG_FULL, full.getShort(2));
+        assertEquals(1, full.getInt(4));
+        assertEquals(5, full.getInt(RECORDS));
+    }
+
+    /**
+     * Returns a batch of the given id and price pairs.
+     */
+    private static QuoteStream.Batch batch (double... ticks)
+    {
+        QuoteStream.Batch batch = new QuoteStream.Batch(ticks.length / 2);
+
+        for (int i = 0; i < ticks.length; i += 2) {
+            int n = batch.size++;
+
+            batch.ids[n]    = (int) ticks[i];
+            batch.prices[n] = ticks[i + 1];
+            batch.sizes[n]  = 1;
+            batch.times[n]  = 1000;
+        }
+
+        return batch;
+    }
+
+    private static int count (byte[] frame)
+    {
+        return wrap(frame).getInt(4);
+    }
+
+    private static ByteBuffer wrap (byte[] frame)
+    {
+        return ByteBuffer.wrap(frame).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
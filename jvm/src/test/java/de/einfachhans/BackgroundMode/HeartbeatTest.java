@@ -0,0 +1,306 @@
+package de.einfachhans.BackgroundMode;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives the heartbeat by a fake alarm with its own clock, each beat fires
+ * exactly when the alarm was set to.
+ */
+public class HeartbeatTest {
+
+    private static final long MINUTE = 60000;
+
+    private FakeAlarm alarm;
+
+    private Heartbeat heartbeat;
+
+    // Result of the keep-alive work for the next beat
+    private boolean alive;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        alarm     = new FakeAlarm();
+        heartbeat = new Heartbeat(alarm, null);
+        alive     = true;
+
+        heartbeat.addWork(() -> alive);
+        heartbeat.configure(new JSONObject()
+                .put("interval", 4 * MINUTE)
+                .put("minInterval", MINUTE)
+                .put("maxInterval", 10 * MINUTE)
+                .put("step", MINUTE));
+    }
+
+    @Test
+    public void intervalGrowsWhileTheConnectionsSurvive() throws Exception
+    {
+        assertEquals(4 * MINUTE, alarm.at - alarm.now);
+
+        beat();
+        assertEquals(5 * MINUTE, interval());
+        assertEquals(5 * MINUTE, alarm.at - alarm.now);
+
+        beat();
+        assertEquals(6 * MINUTE, interval());
+        assertEquals(5 * MINUTE, stats().getLong("goodInterval"));
+    }
+
+    @Test
+    public void intervalStopsAtTheUpperBound() throws Exception
+    {
+        for (int i = 0; i < 20; i++) {
+            beat();
+        }
+
+        assertEquals(10 * MINUTE, interval());
+    }
+
+    @Test
+    public void lossFallsBackBelowTheLostIntervalAndStaysThere() throws Exception
+    {
+        beat();
+        beat();
+        beat();
+        assertEquals(7 * MINUTE, interval());
+
+        alive = false;
+        beat();
+
+        // 7 minutes were too long, 6 minutes are the last good one
+        assertEquals(6 * MINUTE, interval());
+        assertEquals(1, stats().getLong("losses"));
+        assertTrue(stats().getBoolean("stable"));
+
+        alive = true;
+
+        for (int i = 0; i < 10; i++) {
+            beat();
+            assertEquals(6 * MINUTE, interval());
+        }
+
+        beat();
+        assertEquals(7 * MINUTE, interval());
+    }
+
+    @Test
+    public void repeatedLossesStopAtTheLowerBound() throws Exception
+    {
+        alive = false;
+
+        for (int i = 0; i < 10; i++) {
+            beat();
+        }
+
+        assertEquals(MINUTE, interval());
+        assertEquals(10, stats().getLong("losses"));
+    }
+
+    @Test
+    public void wakeupsPerHourCountOnlyTheLastHour() throws Exception
+    {
+        heartbeat.configure(new JSONObject()
+                .put("interval", MINUTE)
+                .put("minInterval", MINUTE)
+                .put("maxInterval", MINUTE));
+
+        for (int i = 0; i < 90; i++) {
+            beat();
+        }
+
+        // beats at minute 1 to 90, the last hour holds minute 31 to 90
+        assertEquals(60, stats().getInt("wakeupsPerHour"));
+
+        alarm.now += 30 * MINUTE;
+        assertEquals(30, stats().getInt("wakeupsPerHour"));
+
+        alarm.now += 31 * MINUTE;
+        assertEquals(0, stats().getInt("wakeupsPerHour"));
+    }
+
+    @Test
+    public void wakeupsPerHourSurviveTheHistoryWrapping() throws Exception
+    {
+        heartbeat.configure(new JSONObject()
+                .put("interval", 10000)
+                .put("minInterval", 10000)
+                .put("maxInterval", 10000));
+
+        // 300 beats 10 s apart, more than the 256 remembered
+        for (int i = 0; i < 300; i++) {
+            beat();
+        }
+
+        assertEquals(256, stats().getInt("wakeupsPerHour"));
+    }
+
+    @Test
+    public void degradedAlarmsShowInTheStats() throws Exception
+    {
+        assertTrue(stats().getBoolean("exact"));
+
+        alarm.exactAllowed = false;
+        beat();
+
+        assertFalse(stats().getBoolean("exact"));
+        assertFalse(alarm.alarmClock);
+    }
+
+    @Test
+    public void alarmClockFallsBackWithoutTheExactPermission() throws Exception
+    {
+        heartbeat.configure(new JSONObject().put("mode", "alarmClock"));
+        assertTrue(alarm.alarmClock);
+        assertEquals("alarmClock", stats().getString("mode"));
+
+        alarm.exactAllowed = false;
+        beat();
+
+        assertFalse(alarm.alarmClock);
+        assertFalse(stats().getBoolean("exact"));
+    }
+
+    @Test
+    public void stoppedHeartbeatIgnoresLateAlarms() throws Exception
+    {
+        heartbeat.stop();
+        beat();
+
+        assertEquals(0, stats().getLong("beats"));
+        assertFalse(stats().getBoolean("running"));
+    }
+
+    @Test
+    public void wakeupAlarmGuardsTheAlarmClock()
+    {
+        RecordingAlarmManager am = new RecordingAlarmManager();
+        Context context          = new Context() {
+            @Override
+            public Object getSystemService (String name)
+            {
+                return am;
+            }
+        };
+        WakeupAlarm wakeup = new WakeupAlarm(context, "test", new Handler(Looper.getMainLooper()), () -> {});
+
+        assertTrue(wakeup.setAlarmClock(wakeup.now() + MINUTE));
+        assertEquals("alarmClock", am.last);
+
+        am.exactAllowed = false;
+
+        assertFalse(wakeup.setAlarmClock(wakeup.now() + MINUTE));
+        assertEquals("setAndAllowWhileIdle", am.last);
+
+        assertFalse(wakeup.set(wakeup.now() + MINUTE, false));
+        assertEquals("set", am.last);
+
+        wakeup.cancel();
+    }
+
+    /**
+     * Advance the clock to the pending alarm and fire it.
+     */
+    private void beat()
+    {
+        alarm.now = Math.max(alarm.now, alarm.at);
+        heartbeat.onAlarm();
+    }
+
+    private long interval() throws Exception
+    {
+        return stats().getLong("interval");
+    }
+
+    private JSONObject stats()
+    {
+        return heartbeat.getStats();
+    }
+
+    /**
+     * Alarm which never goes off by itself, the test fires it.
+     */
+    private static final class FakeAlarm implements Alarm
+    {
+        long now = 1000000, at = -1;
+        boolean exactAllowed = true, alarmClock;
+
+        @Override
+        public long now()
+        {
+            return now;
+        }
+
+        @Override
+        public boolean set (long at, boolean whileIdle)
+        {
+            this.at    = at;
+            alarmClock = false;
+            return exactAllowed;
+        }
+
+        @Override
+        public boolean setAlarmClock (long at)
+        {
+            if (!exactAllowed)
+                return set(at, true);
+
+            this.at    = at;
+            alarmClock = true;
+            return true;
+        }
+
+        @Override
+        public void cancel()
+        {
+            at = -1;
+        }
+    }
+
+    /**
+     * Alarm manager which records the kind of the last alarm.
+     */
+    private static final class RecordingAlarmManager extends AlarmManager
+    {
+        boolean exactAllowed = true;
+        String last;
+
+        @Override
+        public void set (int type, long triggerAtMillis, PendingIntent operation)
+        {
+            last = "set";
+        }
+
+        @Override
+        public void setAndAllowWhileIdle (int type, long triggerAtMillis, PendingIntent operation)
+        {
+            last = "setAndAllowWhileIdle";
+        }
+
+        @Override
+        public void setAlarmClock (AlarmClockInfo info, PendingIntent operation)
+        {
+            if (!exactAllowed)
+                throw new SecurityException("Missing SCHEDULE_EXACT_ALARM");
+
+            last = "alarmClock";
+        }
+
+        @Override
+        public boolean canScheduleExactAlarms()
+        {
+            return exactAllowed;
+        }
+    }
+}
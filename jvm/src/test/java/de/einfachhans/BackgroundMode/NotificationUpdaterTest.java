@@ -0,0 +1,63 @@
+package de.einfachhans.BackgroundMode;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.content.res.Resources;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Renders through the cached builder, updates are paused so each run
+ * happens on the test thread.
+ */
+public class NotificationUpdaterTest {
+
+    // The last posted notification
+    private Notification posted;
+
+    private final NotificationUpdater updater = new NotificationUpdater(new Context() {
+        private final Resources res = new Resources() {
+            @Override
+            public int getIdentifier (String name, String defType, String defPackage)
+            {
+                return 1;
+            }
+        };
+
+        @Override
+        public Resources getResources()
+        {
+            return res;
+        }
+    }, new NotificationManager() {
+        @Override
+        public void notify (int id, Notification notification)
+        {
+            posted = notification;
+        }
+    }, "App", "Running");
+
+    @Test
+    public void colorFallsBackToTheDefault() throws Exception
+    {
+        ModeSettings red = ModeSettings.EMPTY.merge(new JSONObject().put("color", "FF0000"));
+
+        updater.setPaused(true);
+
+        render(red);
+        assertEquals(0xFFFF0000, posted.color);
+
+        render(red.merge(new JSONObject().put("color", "")));
+        assertEquals(Notification.COLOR_DEFAULT, posted.color);
+    }
+
+    private void render (ModeSettings settings)
+    {
+        updater.submit(settings);
+        updater.run();
+    }
+}
@@ -0,0 +1,252 @@
+package de.einfachhans.BackgroundMode;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Runs the stream against a stand-in feed server on the loopback interface.
+ */
+public class QuoteStreamTest {
+
+    private ServerSocket server;
+
+    private QuoteStream stream;
+
+    // Ticks copied out of the batches, as { id, price, size, time }
+    private final BlockingQueue<double[]> ticks = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws IOException
+    {
+        server = new ServerSocket(0);
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        if (stream != null) {
+            stream.stop();
+        }
+
+        server.close();
+    }
+
+    @Test
+    public void framesStraddlingTheFlushTimeoutStayInSync() throws Exception
+    {
+        Socket feed = start(20);
+        OutputStream out = feed.getOutputStream();
+        byte[] first  = tick(1, 101.5, 10, 1000);
+        byte[] second = tick(2, 202.25, 20, 2000);
+
+        // split the length prefix and then the payload across quiet gaps
+        out.write(first, 0, 2);
+        out.flush();
+        Thread.sleep(100);
+        out.write(first, 2, 10);
+        out.flush();
+        Thread.sleep(100);
+        out.write(first, 12, first.length - 12);
+        out.write(second);
+        out.flush();
+
+        assertTick(ticks.poll(2, TimeUnit.SECONDS), 1, 101.5, 10, 1000);
+        assertTick(ticks.poll(2, TimeUnit.SECONDS), 2, 202.25, 20, 2000);
+        assertEquals(0, stream.getStats().getLong("reconnects"));
+    }
+
+    @Test
+    public void otherFramesAreSkipped() throws Exception
+    {
+        Socket feed = start(20);
+        DataOutputStream out = new DataOutputStream(feed.getOutputStream());
+
+        out.writeInt(1);
+        out.writeByte(QuoteStream.FRAME_HEARTBEAT);
+        out.writeInt(6);
+        out.writeByte(9);
+        out.write(new byte[5]);
+        out.write(tick(7, 1.25, 1, 7));
+        out.flush();
+
+        assertTick(ticks.poll(2, TimeUnit.SECONDS), 7, 1.25, 1, 7);
+    }
+
+    @Test
+    public void invalidLengthForcesReconnect() throws Exception
+    {
+        Socket feed = start(20);
+        DataOutputStream out = new DataOutputStream(feed.getOutputStream());
+
+        out.writeInt(-1);
+        out.flush();
+
+        Socket again = accept();
+        again.getOutputStream().write(tick(3, 3.5, 3, 3));
+        again.getOutputStream().flush();
+
+        assertTick(ticks.poll(2, TimeUnit.SECONDS), 3, 3.5, 3, 3);
+        assertEquals(1, stream.getStats().getLong("reconnects"));
+        feed.close();
+    }
+
+    @Test
+    public void subscriptionResumesAfterTheLastQuote() throws Exception
+    {
+        JSONObject spec = new JSONObject()
+                .put("port", server.getLocalPort())
+                .put("flushInterval", 20)
+                .put("maxReconnectDelay", 100)
+                .put("subscribe", "SUB * " + QuoteStream.CURSOR);
+
+        stream = new QuoteStream(spec, batch -> ticks.add(new double[] { batch.ids[0] }));
+
+        stream.resumeFrom(500);
+        stream.start();
+
+        Socket feed = accept();
+        assertEquals("SUB * 500", readLine(feed));
+
+        feed.getOutputStream().write(tick(5, 5.5, 5, 1500));
+        feed.getOutputStream().flush();
+        assertNotNull(ticks.poll(2, TimeUnit.SECONDS));
+        feed.close();
+
+        assertEquals("SUB * 1500", readLine(accept()));
+    }
+
+    @Test
+    public void stoppedStreamDropsThePendingBatch() throws Exception
+    {
+        Socket feed = start(5000);
+
+        feed.getOutputStream().write(tick(4, 4.5, 4, 4));
+        feed.getOutputStream().flush();
+
+        for (int i = 0; i < 200 && stream.getStats().getLong("ticks") == 0; i++) {
+            Thread.sleep(10);
+        }
+
+        stream.stop();
+
+        // the reader thread ends by the closed socket and must not deliver
+        assertNull(ticks.poll(500, TimeUnit.MILLISECONDS));
+        assertEquals(1, stream.getStats().getLong("dropped"));
+    }
+
+    @Test
+    public void sustainsTickThroughput() throws Exception
+    {
+        int count   = 500000;
+        Socket feed = start(50);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(feed.getOutputStream(), 1 << 16));
+        long started = System.nanoTime();
+        double[] last = null;
+
+        for (int i = 0; i < count; i++) {
+            out.writeInt(QuoteStream.TICK_SIZE + 1);
+            out.writeByte(QuoteStream.FRAME_TICK);
+            out.writeInt(i);
+            out.writeDouble(i * 0.5);
+            out.writeInt(i & 0xFF);
+            out.writeLong(i);
+        }
+
+        out.flush();
+
+        for (int i = 0; i < count; i++) {
+            last = ticks.poll(5, TimeUnit.SECONDS);
+            assertNotNull("tick " + i, last);
+            assertEquals(i, (int) last[0]);
+        }
+
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - started);
+
+        System.out.println("QuoteStream: " + count + " ticks in " + micros / 1000 + " ms, "
+                + (count * 1000000L / Math.max(1, micros)) + " ticks/s");
+
+        assertEquals(count, stream.getStats().getLong("ticks"));
+    }
+
+    /**
+     * Start the stream and return the connection it opened.
+     *
+     * @param flushInterval The flush interval in ms.
+     */
+    private Socket start (int flushInterval) throws Exception
+    {
+        JSONObject spec = new JSONObject()
+                .put("port", server.getLocalPort())
+                .put("flushInterval", flushInterval)
+                .put("maxReconnectDelay", 100);
+
+        stream = new QuoteStream(spec, batch -> {
+            for (int i = 0; i < batch.size; i++) {
+                ticks.add(new double[] {
+                        batch.ids[i], batch.prices[i], batch.sizes[i], batch.times[i] });
+            }
+        });
+
+        stream.start();
+
+        return accept();
+    }
+
+    private Socket accept() throws IOException
+    {
+        server.setSoTimeout(5000);
+        return server.accept();
+    }
+
+    private static String readLine (Socket socket) throws IOException
+    {
+        socket.setSoTimeout(5000);
+
+        return new BufferedReader(new InputStreamReader(
+                socket.getInputStream(), StandardCharsets.UTF_8)).readLine();
+    }
+
+    private static byte[] tick (int id, double price, int size, long time) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(QuoteStream.TICK_SIZE + 1);
+        out.writeByte(QuoteStream.FRAME_TICK);
+        out.writeInt(id);
+        out.writeDouble(price);
+        out.writeInt(size);
+        out.writeLong(time);
+
+        return bytes.toByteArray();
+    }
+
+    private static void assertTick (double[] tick, int id, double price, int size, long time)
+    {
+        assertNotNull("tick " + id, tick);
+        assertEquals(id, (int) tick[0]);
+        assertEquals(price, tick[1], 0);
+        assertEquals(size, (int) tick[2]);
+        assertEquals(time, (long) tick[3]);
+    }
+}
@@ -0,0 +1,216 @@
+package de.einfachhans.BackgroundMode;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Damages the snapshot file the way a torn write or a truncated file would
+ * and checks that only intact slots are restored.
+ */
+public class SessionSnapshotTest {
+
+    // Offsets of the slots as laid out by SessionSnapshot
+    private static final int SLOT_0 = 16, SLOT_1 = 16 + 32 * 1024;
+
+    // Offsets within a slot
+    private static final int FLAGS = 6, SEQUENCE = 8, LENGTH = 16, PAYLOAD = 24;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    private ModeSettings first, second;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        file   = folder.newFile("backgroundmode.session");
+        first  = ModeSettings.EMPTY.merge(new JSONObject().put("title", "first"));
+        second = first.merge(new JSONObject().put("title", "second"));
+    }
+
+    @Test
+    public void latestSlotIsRestored() throws Exception
+    {
+        SessionSnapshot snapshot = SessionSnapshot.map(file);
+
+        snapshot.save(first, true);
+        snapshot.save(second, false);
+        snapshot.setCursor(1234);
+
+        SessionSnapshot.State state = SessionSnapshot.map(file).restore();
+
+        assertNotNull(state);
+        assertEquals("second", state.settings.title);
+        assertFalse(state.enabled);
+        assertEquals(1234, state.cursor);
+    }
+
+    @Test
+    public void savesContinueAfterTheLatestSlot() throws Exception
+    {
+        SessionSnapshot snapshot = SessionSnapshot.map(file);
+
+        snapshot.save(first, true);
+        snapshot.save(second, true);
+
+        // a reopened snapshot must not overwrite the latest slot
+        SessionSnapshot.map(file).save(first, false);
+
+        SessionSnapshot.State state = SessionSnapshot.map(file).restore();
+
+        assertEquals("first", state.settings.title);
+        assertFalse(state.enabled);
+        assertEquals(3, SessionSnapshot.map(file).getStats().getLong("sequence"));
+    }
+
+    @Test
+    public void flippedFlagsFallBackToThePreviousSlot() throws Exception
+    {
+        SessionSnapshot snapshot = SessionSnapshot.map(file);
+
+        snapshot.save(first, true);
+        snapshot.save(second, true);
+
+        // the second save went to slot 0
+        writeShort(SLOT_0 + FLAGS, 0);
+
+        SessionSnapshot reopened = SessionSnapshot.map(file);
+        SessionSnapshot.State state = reopened.restore();
+
+        assertEquals("first", state.settings.title);
+        assertTrue(state.enabled);
+        assertEquals(1, reopened.getStats().getLong("corrupt"));
+    }
+
+    @Test
+    public void changedSequenceIsDetected() throws Exception
+    {
+        SessionSnapshot snapshot = SessionSnapshot.map(file);
+
+        snapshot.save(first, true);
+        snapshot.save(second, true);
+
+        // an older slot posing as the latest one
+        writeLong(SLOT_1 + SEQUENCE, 7);
+
+        SessionSnapshot reopened = SessionSnapshot.map(file);
+
+        assertEquals("second", reopened.restore().settings.title);
+        assertEquals(1, reopened.getStats().getLong("corrupt"));
+    }
+
+    @Test
+    public void changedLengthIsDetected() throws Exception
+    {
+        SessionSnapshot.map(file).save(first, true);
+
+        // shorter length cutting the JSON which would fail to parse
+        writeInt(SLOT_1 + LENGTH, 3);
+
+        SessionSnapshot reopened = SessionSnapshot.map(file);
+
+        assertNull(reopened.restore());
+        assertEquals(1, reopened.getStats().getLong("corrupt"));
+    }
+
+    @Test
+    public void damagedPayloadFallsBackToThePreviousSlot() throws Exception
+    {
+        SessionSnapshot snapshot = SessionSnapshot.map(file);
+
+        snapshot.save(first, true);
+        snapshot.save(second, true);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(SLOT_0 + PAYLOAD + 2);
+            raf.write('X');
+        }
+
+        assertEquals("first", SessionSnapshot.map(file).restore().settings.title);
+    }
+
+    @Test
+    public void truncatedFileKeepsTheIntactSlot() throws Exception
+    {
+        SessionSnapshot snapshot = SessionSnapshot.map(file);
+
+        snapshot.save(first, true);
+        snapshot.save(second, true);
+
+        // cut into the payload of slot 1, slot 0 stays intact
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(SLOT_1 + PAYLOAD + 4);
+        }
+
+        SessionSnapshot reopened = SessionSnapshot.map(file);
+
+        assertEquals(16 + 2 * 32 * 1024, file.length());
+        assertEquals("second", reopened.restore().settings.title);
+        assertEquals(1, reopened.getStats().getLong("corrupt"));
+    }
+
+    @Test
+    public void fileTruncatedIntoTheFirstSlotRestoresNothing() throws Exception
+    {
+        SessionSnapshot snapshot = SessionSnapshot.map(file);
+
+        snapshot.save(first, true);
+        snapshot.save(second, true);
+        snapshot.setCursor(1234);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(SLOT_0 + PAYLOAD + 4);
+        }
+
+        SessionSnapshot reopened = SessionSnapshot.map(file);
+
+        assertNull(reopened.restore());
+        assertEquals(1, reopened.getStats().getLong("corrupt"));
+        assertEquals(1234, reopened.getStats().getLong("cursor"));
+    }
+
+    @Test
+    public void emptyFileRestoresNothing() throws Exception
+    {
+        SessionSnapshot snapshot = SessionSnapshot.map(file);
+
+        assertNull(snapshot.restore());
+        assertEquals(0, snapshot.getStats().getLong("corrupt"));
+        assertEquals(0, snapshot.getStats().getLong("cursor"));
+    }
+
+    private void writeShort (int pos, int value) throws Exception
+    {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(pos);
+            raf.write(value);
+            raf.write(value >>> 8);
+        }
+    }
+
+    private void writeInt (int pos, int value) throws Exception
+    {
+        writeShort(pos, value);
+        writeShort(pos + 2, value >>> 16);
+    }
+
+    private void writeLong (int pos, long value) throws Exception
+    {
+        writeInt(pos, (int) value);
+        writeInt(pos + 4, (int) (value >>> 32));
+    }
+}
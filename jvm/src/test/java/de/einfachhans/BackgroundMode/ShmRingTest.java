@@ -0,0 +1,246 @@
+package de.einfachhans.BackgroundMode;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs producer and consumer on separate ring instances over the same
+ * buffer, the way both processes see the shared memory.
+ */
+public class ShmRingTest {
+
+    // Smallest data area, makes the wraparound easy to hit
+    private static final int CAPACITY = 64;
+
+    private final ByteBuffer memory = ByteBuffer.allocateDirect(ShmRing.sizeFor(CAPACITY));
+
+    private final ShmRing producer = ShmRing.create(memory.duplicate());
+
+    private final ShmRing consumer = ShmRing.attach(memory.duplicate());
+
+    @Test
+    public void recordsArriveInOrder()
+    {
+        // only the first record finds the ring empty
+        assertTrue(producer.offer(record(1, 12)));
+        assertFalse(producer.offer(record(2, 5)));
+
+        assertArrayEquals(record(1, 12), take());
+        assertArrayEquals(record(2, 5), take());
+        assertNull(take());
+        assertEquals(2, consumer.getRecords());
+        assertEquals(0, consumer.getPending());
+    }
+
+    @Test
+    public void recordNotFittingBeforeTheEndWrapsAround()
+    {
+        // 20 bytes take 24 with the length prefix
+        producer.offer(record(1, 20));
+        producer.offer(record(2, 20));
+        take();
+        take();
+
+        // 16 bytes left before the end, the record starts over at 0
+        assertTrue(producer.offer(record(3, 20)));
+        assertEquals(16 + 24, consumer.getPending());
+
+        int pos = consumer.poll();
+
+        assertEquals(ShmRing.HEADER_SIZE + 4, pos);
+        assertEquals(20, consumer.length());
+        assertEquals(3, consumer.buffer().get(pos));
+        consumer.release();
+
+        assertEquals(0, consumer.getPending());
+        assertEquals(0, producer.getDropped());
+    }
+
+    @Test
+    public void manyWraparoundsKeepTheRecordsIntact()
+    {
+        for (int i = 0; i < 1000; i++)
+        {
+            int length = 1 + i % 27;
+
+            // the consumer keeps up, each record rings the doorbell
+            assertTrue(producer.offer(record(i, length)));
+            assertArrayEquals(record(i, length), take());
+        }
+
+        assertEquals(0, producer.getDropped());
+        assertEquals(1000, producer.getRecords());
+    }
+
+    @Test
+    public void fullRingDropsAndRecovers()
+    {
+        producer.offer(record(1, 20));
+        producer.offer(record(2, 20));
+
+        // needs the 16 bytes before the end plus 24 at the start
+        assertEquals(-1, producer.claim(20));
+        assertEquals(1, producer.getDropped());
+        assertEquals(2, producer.getRecords());
+
+        assertArrayEquals(record(1, 20), take());
+
+        // the freed 24 bytes at the start take the record behind the padding
+        producer.offer(record(3, 20));
+        assertEquals(-1, producer.claim(1));
+        assertEquals(2, producer.getDropped());
+        assertEquals(3, producer.getRecords());
+
+        assertArrayEquals(record(2, 20), take());
+        assertArrayEquals(record(3, 20), take());
+        assertNull(take());
+    }
+
+    @Test
+    public void recordLargerThanTheRingIsDropped()
+    {
+        assertEquals(-1, producer.claim(CAPACITY));
+        assertEquals(1, consumer.getDropped());
+        assertNull(take());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void attachNeedsAnInitializedRing()
+    {
+        ShmRing.attach(ByteBuffer.allocateDirect(ShmRing.sizeFor(CAPACITY)));
+    }
+
+    @Test
+    public void reattachedProducerContinuesAtTheHead()
+    {
+        producer.offer(record(1, 8));
+
+        ShmRing restarted = ShmRing.attach(memory.duplicate());
+
+        restarted.offer(record(2, 8));
+
+        assertArrayEquals(record(1, 8), take());
+        assertArrayEquals(record(2, 8), take());
+    }
+
+    /**
+     * The consumer sleeps until the doorbell whenever it found the ring
+     * empty. A lost doorbell leaves it asleep with records pending.
+     */
+    @Test(timeout = 60000)
+    public void doorbellIsNeverLost() throws Exception
+    {
+        int count                        = 1000000;
+        ByteBuffer shared                = ByteBuffer.allocateDirect(ShmRing.sizeFor(4096));
+        ShmRing writer                   = ShmRing.create(shared.duplicate());
+        ShmRing reader                   = ShmRing.attach(shared.duplicate());
+        Semaphore doorbell               = new Semaphore(0);
+        AtomicReference<String> failure  = new AtomicReference<>();
+        long[] doorbells                 = new long[1];
+
+        Thread consumer = new Thread(() -> {
+            ByteBuffer buf = reader.buffer();
+            long expected  = 0;
+
+            try {
+                while (expected < count)
+                {
+                    int pos;
+
+                    while ((pos = reader.poll()) >= 0)
+                    {
+                        long seq = buf.getLong(pos);
+
+                        if (seq != expected) {
+                            failure.set("Expected " + expected + " but got " + seq);
+                            return;
+                        }
+
+                        expected++;
+                        reader.release();
+                    }
+
+                    if (expected < count && !doorbell.tryAcquire(5, TimeUnit.SECONDS)) {
+                        failure.set("Lost doorbell with " + reader.getPending() + " bytes pending");
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                failure.set("Interrupted");
+            }
+        });
+
+        consumer.start();
+
+        ByteBuffer buf = writer.buffer();
+
+        for (long seq = 0; seq < count; )
+        {
+            int pos = writer.claim(8 + (int) (seq % 5) * 8);
+
+            if (pos < 0) {
+                Thread.yield();
+                continue;
+            }
+
+            buf.putLong(pos, seq++);
+
+            if (writer.commit()) {
+                doorbells[0]++;
+                doorbell.release();
+            }
+        }
+
+        consumer.join();
+
+        assertNull(failure.get());
+        assertEquals(count, writer.getRecords());
+        assertTrue(doorbells[0] > 0);
+    }
+
+    /**
+     * Returns a record of the given length filled with its id.
+     */
+    private static byte[] record (int id, int length)
+    {
+        byte[] record = new byte[length];
+
+        for (int i = 0; i < length; i++) {
+            record[i] = (byte) (id + i * 31);
+        }
+
+        record[0] = (byte) id;
+
+        return record;
+    }
+
+    /**
+     * Returns a copy of the next record or null if the ring is empty.
+     */
+    private byte[] take()
+    {
+        int pos = consumer.poll();
+
+        if (pos < 0)
+            return null;
+
+        byte[] record   = new byte[consumer.length()];
+        ByteBuffer view = consumer.buffer().duplicate();
+
+        view.position(pos);
+        view.get(record);
+        consumer.release();
+
+        return record;
+    }
+}
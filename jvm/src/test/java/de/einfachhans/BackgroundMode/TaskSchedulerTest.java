@@ -0,0 +1,58 @@
+package de.einfachhans.BackgroundMode;
+
+import android.app.AlarmManager;
+import android.content.Context;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the scheduler on its own thread, the alarms of the stand-in never
+ * go off so the runs come from the handler.
+ */
+public class TaskSchedulerTest {
+
+    private final AlarmManager alarms = new AlarmManager();
+
+    private TaskScheduler scheduler;
+
+    @After
+    public void tearDown()
+    {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void failingTaskStaysScheduled() throws Exception
+    {
+        CountDownLatch runs = new CountDownLatch(3);
+
+        scheduler = new TaskScheduler(new Context() {
+            @Override
+            public Object getSystemService (String name)
+            {
+                return ALARM_SERVICE.equals(name) ? alarms : null;
+            }
+        }, (id, late) -> {
+            runs.countDown();
+            throw new IllegalStateException("boom");
+        }, null);
+
+        scheduler.schedule(new JSONObject().put("id", "poll").put("interval", 10));
+
+        assertTrue(runs.await(2, TimeUnit.SECONDS));
+
+        JSONObject task = scheduler.getStats().getJSONObject("tasks").getJSONObject("poll");
+
+        assertTrue(task.getLong("failed") >= 3);
+        assertTrue(task.getLong("runs") >= 3);
+    }
+}
@@ -0,0 +1,70 @@
+package de.einfachhans.BackgroundMode;
+
+import android.os.PowerManager;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the manager on the real clock with the expiring fake wake lock.
+ */
+public class WakeLockManagerTest {
+
+    private final WakeLockManager manager = new WakeLockManager(new PowerManager());
+
+    @After
+    public void tearDown()
+    {
+        manager.stop();
+    }
+
+    @Test
+    public void steadyDataTakesASingleLease() throws Exception
+    {
+        manager.configure(new JSONObject().put("mode", "demand").put("idleTimeout", 5000));
+        manager.start();
+
+        for (int i = 0; i < 1000; i++) {
+            manager.touch();
+        }
+
+        assertEquals(1, manager.getStats().getLong("leases"));
+        assertTrue(manager.getStats().getBoolean("held"));
+    }
+
+    @Test
+    public void leaseIsRenewedOnceHalfOfItIsUsed() throws Exception
+    {
+        manager.configure(new JSONObject()
+                .put("mode", "demand")
+                .put("minLease", 100)
+                .put("idleTimeout", 200));
+        manager.start();
+
+        manager.touch();
+        manager.touch();
+        assertEquals(1, manager.getStats().getLong("leases"));
+
+        Thread.sleep(120);
+        manager.touch();
+        assertEquals(2, manager.getStats().getLong("leases"));
+    }
+
+    @Test
+    public void heldTimeGrowsWhileTheLockIsHeld() throws Exception
+    {
+        long before = Metrics.snapshot().getLong("wakeLockTime");
+
+        manager.configure(new JSONObject().put("mode", "always"));
+        manager.start();
+        Thread.sleep(50);
+
+        assertTrue(manager.getStats().getLong("heldTime") >= 50);
+        assertTrue(Metrics.snapshot().getLong("wakeLockTime") - before >= 50);
+        assertTrue(manager.getStats().getBoolean("held"));
+    }
+}
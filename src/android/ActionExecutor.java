@@ -0,0 +1,262 @@
+package de.einfachhans.BackgroundMode;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import org.apache.cordova.CallbackContext;
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the plugin actions off the bridge thread. UI-bound actions go to
+ * the main looper, actions with blocking system service calls to a single
+ * worker with a bounded queue. Actions of the same lane keep their call
+ * order and no call can spawn a thread of its own. Actions which free
+ * resources are never rejected, they may exceed the bound of the queue so
+ * they still run after the actions called before. The result is delivered
+ * through the callback once the action completed, the time from the call to
+ * the result is recorded per action.
+ */
+class ActionExecutor {
+
+    /**
+     * Where an action runs.
+     */
+    enum Lane { UI, BLOCKING }
+
+    /**
+     * Work of a plugin action.
+     */
+    interface Action
+    {
+        void run() throws Exception;
+    }
+
+    /**
+     * Work of a plugin action with a result for JS.
+     */
+    interface Query
+    {
+        /**
+         * @return The result as JSONObject or as binary frame, null for none.
+         */
+        Object call() throws Exception;
+    }
+
+    // Max number of actions waiting in the blocking lane
+    private static final int MAX_QUEUED = 64;
+
+    // Executor shared by both plugins
+    private static ActionExecutor instance;
+
+    // Runs the UI-bound actions
+    private final Handler ui = new Handler(Looper.getMainLooper());
+
+    // Runs the blocking actions, the worker ends when idle. The queue is
+    // bounded by submit, only critical actions may go beyond.
+    private final ThreadPoolExecutor blocking = new ThreadPoolExecutor(1, 1,
+            30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                Thread thread = new Thread(r, "backgroundmode-actions");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    // Time in µs from the call to the result, per action
+    private final ConcurrentHashMap<String, Metrics.Histogram> timings = new ConcurrentHashMap<>();
+
+    // Counters exposed for diagnostics
+    private final Metrics.Counter failed = new Metrics.Counter(), rejected = new Metrics.Counter();
+
+    private ActionExecutor()
+    {
+        blocking.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the executor of the process.
+     */
+    static synchronized ActionExecutor get()
+    {
+        if (instance == null) {
+            instance = new ActionExecutor();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Run the action within its lane and call back once it completed.
+     *
+     * @param lane     Where to run the action.
+     * @param name     The name of the action used for the timing.
+     * @param callback The callback to invoke with the result.
+     * @param action   The work to do.
+     */
+    void submit (Lane lane, String name, CallbackContext callback, Action action)
+    {
+        query(lane, name, callback, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Run the action within its lane and call back once it completed. The
+     * action is never rejected, even if the lane is full, e.g. to release
+     * resources taken by the actions before.
+     *
+     * @param lane     Where to run the action.
+     * @param name     The name of the action used for the timing.
+     * @param callback The callback to invoke with the result.
+     * @param action   The work to do.
+     */
+    void submitCritical (Lane lane, String name, CallbackContext callback, Action action)
+    {
+        dispatch(lane, name, callback, () -> {
+            action.run();
+            return null;
+        }, true);
+    }
+
+    /**
+     * Run the action within its lane and call back with its result.
+     *
+     * @param lane     Where to run the action.
+     * @param name     The name of the action used for the timing.
+     * @param callback The callback to invoke with the result.
+     * @param query    The work to do.
+     */
+    void query (Lane lane, String name, CallbackContext callback, Query query)
+    {
+        dispatch(lane, name, callback, query, false);
+    }
+
+    /**
+     * Run internal work in the blocking lane, e.g. to warm up caches.
+     *
+     * @param name   The name of the work used for the timing.
+     * @param action The work to do.
+     */
+    void execute (String name, Action action)
+    {
+        submit(Lane.BLOCKING, name, null, action);
+    }
+
+    /**
+     * Wait until the blocking actions queued so far completed.
+     *
+     * @param timeout The max time in ms to wait.
+     *
+     * @return true if the lane got idle in time.
+     */
+    boolean awaitIdle (long timeout) throws InterruptedException
+    {
+        CountDownLatch idle = new CountDownLatch(1);
+
+        try {
+            blocking.execute(idle::countDown);
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+
+        return idle.await(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the counters and the timings per action.
+     */
+    JSONObject getStats()
+    {
+        JSONObject stats   = new JSONObject();
+        JSONObject actions = new JSONObject();
+
+        try {
+            for (Map.Entry<String, Metrics.Histogram> entry : timings.entrySet()) {
+                actions.put(entry.getKey(), entry.getValue().toJSON());
+            }
+
+            stats.put("queued", blocking.getQueue().size());
+            stats.put("failed", failed.sum());
+            stats.put("rejected", rejected.sum());
+            stats.put("actions", actions);
+        } catch (Exception e) {
+            // can't happen for primitive values
+        }
+
+        return stats;
+    }
+
+    /**
+     * Hand the action to its lane, reject it if the blocking lane is full
+     * unless critical.
+     */
+    private void dispatch (Lane lane, String name, CallbackContext callback, Query query,
+                           boolean critical)
+    {
+        long called   = System.nanoTime();
+        Runnable task = () -> complete(name, called, callback, query);
+
+        if (lane == Lane.UI) {
+            ui.post(task);
+            return;
+        }
+
+        try {
+            if (!critical && blocking.getQueue().size() >= MAX_QUEUED)
+                throw new RejectedExecutionException();
+
+            blocking.execute(task);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+
+            if (callback != null) {
+                callback.error("Too many pending actions: " + name);
+            }
+        }
+    }
+
+    /**
+     * Run the action, deliver its result and record the time it took.
+     */
+    private void complete (String name, long called, CallbackContext callback, Query query)
+    {
+        try {
+            Object result = query.call();
+
+            if (callback == null)
+                return;
+
+            if (result instanceof byte[]) {
+                callback.success((byte[]) result);
+            } else if (result != null) {
+                callback.success((JSONObject) result);
+            } else {
+                callback.success();
+            }
+        } catch (Exception e) {
+            failed.increment();
+            Log.e("BackgroundMode", "Action " + name + " failed: " + e.getMessage());
+
+            if (callback != null) {
+                callback.error(name + ": " + e.getMessage());
+            }
+        } finally {
+            Metrics.Histogram timing = timings.get(name);
+
+            if (timing == null) {
+                timings.putIfAbsent(name, new Metrics.Histogram());
+                timing = timings.get(name);
+            }
+
+            timing.record(Metrics.microsSince(called));
+        }
+    }
+}
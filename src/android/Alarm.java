@@ -0,0 +1,40 @@
+package de.einfachhans.BackgroundMode;
+
+/**
+ * A single alarm on elapsed realtime which wakes the device, together with
+ * its time source. Implemented by WakeupAlarm on the alarm manager and by
+ * fakes in the tests.
+ */
+interface Alarm {
+
+    /**
+     * Returns the current elapsed realtime in ms.
+     */
+    long now();
+
+    /**
+     * Replace the pending alarm.
+     *
+     * @param at        The elapsed realtime to go off.
+     * @param whileIdle Set to true to go off in Doze too.
+     *
+     * @return false if the alarm is inexact as exact alarms are not allowed.
+     */
+    boolean set (long at, boolean whileIdle);
+
+    /**
+     * Replace the pending alarm by an alarm clock, which goes off on time
+     * even in Doze. Falls back to an idle alarm if exact alarms are not
+     * allowed.
+     *
+     * @param at The elapsed realtime to go off.
+     *
+     * @return false if the alarm fell back to an inexact one.
+     */
+    boolean setAlarmClock (long at);
+
+    /**
+     * Cancel the pending alarm.
+     */
+    void cancel();
+}
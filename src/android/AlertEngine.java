@@ -0,0 +1,666 @@
+package de.einfachhans.BackgroundMode;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates price alerts natively on the reader thread of the stream, so
+ * they fire while the web view is frozen. The rules of an instrument sit
+ * in two books of primitive arrays sorted by level: one for the rules
+ * triggered by a rising price (above, crossUp) and one for a falling price
+ * (below, crossDown). A tick only looks at the levels between the previous
+ * and the new price, found by binary search, so the cost per tick does not
+ * grow with the number of rules.
+ *
+ * Threshold rules (above, below) fire once, right away if the price is
+ * already beyond the level. Crossing rules (crossUp, crossDown) fire when
+ * the price moves through the level and stay armed if they repeat, at most
+ * once per cooldown.
+ */
+class AlertEngine {
+
+    /**
+     * Receiver of the triggered rules.
+     */
+    interface Listener
+    {
+        /**
+         * @param alert The rule with the price and time which triggered it.
+         */
+        void onAlert (JSONObject alert);
+    }
+
+    // Types of the rules
+    private static final int ABOVE = 0, BELOW = 1, CROSS_UP = 2, CROSS_DOWN = 3;
+
+    // Names of the types as used by JS
+    private static final String[] TYPES = { "above", "below", "crossUp", "crossDown" };
+
+    // Default min time in ms between two triggers of a repeating rule
+    private static final long DEFAULT_COOLDOWN = 60000;
+
+    // Marks an unused slot of the instrument table, no rule may use the id
+    private static final int EMPTY = Integer.MIN_VALUE;
+
+    // Receiver of the triggered rules
+    private final Listener listener;
+
+    // Rules by id
+    private final Map<String, Rule> byId = new HashMap<>();
+
+    // Rules by handle, the handle is stored in the books
+    private Rule[] rules = new Rule[64];
+
+    // Handles of removed rules ready for reuse
+    private int[] free = new int[16];
+    private int freeCount, nextHandle;
+
+    // Open addressing table of the instruments, keyed by id
+    private int[] keys = newKeys(64);
+    private Instrument[] instruments = new Instrument[64];
+
+    // Number of instruments, their last price is tracked even without rules
+    private volatile int instrumentCount;
+
+    // Handles of the rules triggered by the current tick
+    private int[] hits = new int[16];
+
+    // Time in µs to evaluate a batch
+    private final Metrics.Histogram evalTime = new Metrics.Histogram();
+
+    // Number of armed rules
+    private int size;
+
+    // Counters exposed for diagnostics
+    private long ticks, triggered, suppressed;
+
+    /**
+     * An armed rule. Only its handle and level are kept in the books.
+     */
+    private static final class Rule
+    {
+        final String id;
+        final int instrument;
+        final int type;
+        final double level;
+        final boolean repeat;
+        final long cooldown;
+        final JSONObject spec;
+        int handle;
+        long lastFired;
+
+        Rule (JSONObject spec) throws Exception
+        {
+            this.id         = spec.getString("id");
+            this.instrument = spec.getInt("instrument");
+            this.type       = parseType(spec.optString("type"));
+            this.level      = spec.getDouble("level");
+            this.repeat     = type >= CROSS_UP && spec.optBoolean("repeat", false);
+            this.cooldown   = Math.max(0, spec.optLong("cooldown", DEFAULT_COOLDOWN));
+            this.spec       = spec;
+
+            // the id marks the empty slots of the instrument table
+            if (instrument == EMPTY)
+                throw new IllegalArgumentException("Reserved instrument id: " + instrument);
+        }
+
+        boolean isRising()
+        {
+            return type == ABOVE || type == CROSS_UP;
+        }
+    }
+
+    /**
+     * The books and the last price of an instrument.
+     */
+    private static final class Instrument
+    {
+        final Book up   = new Book();
+        final Book down = new Book();
+        double last     = Double.NaN;
+    }
+
+    /**
+     * Levels and rule handles sorted by level.
+     */
+    private static final class Book
+    {
+        double[] levels = new double[4];
+        int[] handles   = new int[4];
+        int size;
+
+        /**
+         * Insert the rule behind all rules of the same level.
+         */
+        void insert (double level, int handle)
+        {
+            int i = upperBound(level);
+
+            if (size == levels.length) {
+                levels  = Arrays.copyOf(levels, size * 2);
+                handles = Arrays.copyOf(handles, size * 2);
+            }
+
+            System.arraycopy(levels, i, levels, i + 1, size - i);
+            System.arraycopy(handles, i, handles, i + 1, size - i);
+
+            levels[i]  = level;
+            handles[i] = handle;
+            size++;
+        }
+
+        /**
+         * Remove the rule with the level and handle, if present.
+         */
+        void remove (double level, int handle)
+        {
+            for (int i = lowerBound(level); i < size && levels[i] == level; i++)
+            {
+                if (handles[i] != handle)
+                    continue;
+
+                System.arraycopy(levels, i + 1, levels, i, size - i - 1);
+                System.arraycopy(handles, i + 1, handles, i, size - i - 1);
+                size--;
+                return;
+            }
+        }
+
+        /**
+         * Returns the index of the first level not below the value.
+         */
+        int lowerBound (double value)
+        {
+            int lo = 0, hi = size;
+
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+
+                if (levels[mid] < value) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+
+            return lo;
+        }
+
+        /**
+         * Returns the index of the first level above the value.
+         */
+        int upperBound (double value)
+        {
+            int lo = 0, hi = size;
+
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+
+                if (levels[mid] <= value) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+
+            return lo;
+        }
+    }
+
+    /**
+     * @param listener The receiver of the triggered rules.
+     */
+    AlertEngine (Listener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * Arm the rules, replacing rules with the same id. Threshold rules
+     * whose level the last price is already beyond fire right away.
+     *
+     * @param specs The rules with id, instrument, type, level and optional
+     *              repeat, cooldown, title and text.
+     *
+     * @return The number of rules which got rejected as invalid.
+     */
+    int add (JSONArray specs)
+    {
+        List<JSONObject> alerts;
+        int rejected = 0;
+        int fired    = 0;
+
+        synchronized (this)
+        {
+            for (int i = 0; i < specs.length(); i++)
+            {
+                Rule rule;
+
+                try {
+                    rule = new Rule(specs.getJSONObject(i));
+                } catch (Exception e) {
+                    rejected++;
+                    continue;
+                }
+
+                remove(rule.id);
+
+                Instrument inst = getInstrument(rule.instrument, true);
+                double last     = inst.last;
+
+                rule.handle = allocate(rule);
+
+                if ((rule.type == ABOVE && last >= rule.level)
+                        || (rule.type == BELOW && last <= rule.level)) {
+                    hits = append(hits, fired++, rule.handle);
+                    continue;
+                }
+
+                byId.put(rule.id, rule);
+                (rule.isRising() ? inst.up : inst.down).insert(rule.level, rule.handle);
+                size++;
+            }
+
+            alerts = take(fired, Double.NaN, System.currentTimeMillis());
+        }
+
+        fire(alerts);
+
+        return rejected;
+    }
+
+    /**
+     * Disarm the rules with the given ids. Unknown ids are ignored.
+     *
+     * @param ids The ids of the rules.
+     */
+    synchronized void remove (JSONArray ids)
+    {
+        for (int i = 0; i < ids.length(); i++) {
+            remove(ids.optString(i));
+        }
+    }
+
+    /**
+     * Disarm all rules.
+     */
+    synchronized void clear()
+    {
+        byId.clear();
+        rules           = new Rule[64];
+        keys            = newKeys(64);
+        instruments     = new Instrument[64];
+        instrumentCount = 0;
+        freeCount       = 0;
+        nextHandle      = 0;
+        size            = 0;
+    }
+
+    /**
+     * Evaluate the rules against the ticks. Called on the reader thread of
+     * the stream.
+     *
+     * @param batch The parsed quotes.
+     */
+    void evaluate (QuoteStream.Batch batch)
+    {
+        if (instrumentCount == 0 || batch.size == 0)
+            return;
+
+        long started = System.nanoTime();
+
+        for (int i = 0; i < batch.size; i++) {
+            evaluate(batch.ids[i], batch.prices[i], batch.times[i]);
+        }
+
+        evalTime.record(Metrics.microsSince(started));
+    }
+
+    /**
+     * Returns the counters and the evaluation times.
+     */
+    synchronized JSONObject getStats()
+    {
+        JSONObject stats = new JSONObject();
+
+        try {
+            stats.put("rules", size);
+            stats.put("instruments", instrumentCount);
+            stats.put("ticks", ticks);
+            stats.put("triggered", triggered);
+            stats.put("suppressed", suppressed);
+            stats.put("evalTime", evalTime.toJSON());
+        } catch (Exception e) {
+            // can't happen for primitive values
+        }
+
+        return stats;
+    }
+
+    /**
+     * Evaluate a single tick. Only the levels between the previous and the
+     * new price are visited.
+     */
+    private void evaluate (int id, double price, long time)
+    {
+        List<JSONObject> alerts;
+        int count = 0;
+
+        synchronized (this)
+        {
+            Instrument inst = getInstrument(id, false);
+
+            ticks++;
+
+            if (inst == null || price != price)
+                return;
+
+            double last = inst.last;
+            inst.last   = price;
+
+            if (last != last) {
+                // first price, the thresholds already passed fire
+                count = collect(inst.up, 0, inst.up.upperBound(price), ABOVE, 0, time);
+                count = collect(inst.down, inst.down.lowerBound(price), inst.down.size, BELOW, count, time);
+            } else if (price > last) {
+                count = collect(inst.up, inst.up.upperBound(last), inst.up.upperBound(price), -1, 0, time);
+            } else if (price < last) {
+                count = collect(inst.down, inst.down.lowerBound(price), inst.down.lowerBound(last), -1, 0, time);
+            }
+
+            for (int i = 0; i < count; i++)
+            {
+                Rule rule = rules[hits[i]];
+
+                if (!rule.repeat) {
+                    (rule.isRising() ? inst.up : inst.down).remove(rule.level, rule.handle);
+                    size--;
+                }
+            }
+
+            alerts = take(count, price, time);
+        }
+
+        fire(alerts);
+    }
+
+    /**
+     * Collect the rules of the book range which fire.
+     *
+     * @param book  The book.
+     * @param from  The first index of the range.
+     * @param to    The index behind the range.
+     * @param type  The type of the rules to collect, -1 for any.
+     * @param count The number of rules collected so far.
+     * @param time  The time of the tick.
+     *
+     * @return The number of rules collected.
+     */
+    private int collect (Book book, int from, int to, int type, int count, long time)
+    {
+        for (int i = from; i < to; i++)
+        {
+            Rule rule = rules[book.handles[i]];
+
+            if (type >= 0 && rule.type != type)
+                continue;
+
+            if (rule.repeat && rule.lastFired > 0 && time - rule.lastFired < rule.cooldown) {
+                suppressed++;
+                continue;
+            }
+
+            rule.lastFired = time;
+            hits = append(hits, count++, rule.handle);
+        }
+
+        return count;
+    }
+
+    /**
+     * Turn the collected rules into alerts and release the one-shot rules.
+     * Called with the lock held.
+     *
+     * @param count The number of collected rules.
+     * @param price The price which triggered them, NaN for the last one.
+     * @param time  The time of the tick.
+     *
+     * @return The alerts or null if none.
+     */
+    private List<JSONObject> take (int count, double price, long time)
+    {
+        List<JSONObject> alerts;
+
+        if (count == 0)
+            return null;
+
+        alerts = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++)
+        {
+            Rule rule   = rules[hits[i]];
+            double last = getInstrument(rule.instrument, false).last;
+
+            alerts.add(toJSON(rule, price == price ? price : last, time));
+            triggered++;
+
+            if (!rule.repeat) {
+                if (byId.get(rule.id) == rule) {
+                    byId.remove(rule.id);
+                }
+
+                release(rule.handle);
+            }
+        }
+
+        return alerts;
+    }
+
+    /**
+     * Hand the alerts to the listener, outside of the lock.
+     *
+     * @param alerts The alerts or null if none.
+     */
+    private void fire (List<JSONObject> alerts)
+    {
+        if (alerts == null)
+            return;
+
+        for (JSONObject alert : alerts) {
+            listener.onAlert(alert);
+        }
+    }
+
+    /**
+     * Disarm the rule with the given id.
+     */
+    private void remove (String id)
+    {
+        Rule rule = byId.remove(id);
+
+        if (rule == null)
+            return;
+
+        Instrument inst = getInstrument(rule.instrument, false);
+        Book book       = rule.isRising() ? inst.up : inst.down;
+        int before      = book.size;
+
+        book.remove(rule.level, rule.handle);
+
+        if (book.size < before) {
+            size--;
+        }
+
+        release(rule.handle);
+    }
+
+    /**
+     * Returns a free handle for the rule.
+     */
+    private int allocate (Rule rule)
+    {
+        int handle = freeCount > 0 ? free[--freeCount] : nextHandle++;
+
+        if (handle == rules.length) {
+            rules = Arrays.copyOf(rules, handle * 2);
+        }
+
+        rules[handle] = rule;
+
+        return handle;
+    }
+
+    /**
+     * Hand the handle back for reuse.
+     */
+    private void release (int handle)
+    {
+        rules[handle] = null;
+        free          = append(free, freeCount++, handle);
+    }
+
+    /**
+     * Returns the instrument with the id, added if asked for.
+     *
+     * @param id     The id of the instrument.
+     * @param create Set to true to add a missing instrument.
+     *
+     * @return The instrument or null if missing and not added.
+     */
+    private Instrument getInstrument (int id, boolean create)
+    {
+        int mask = keys.length - 1;
+        int slot = mix(id) & mask;
+
+        while (keys[slot] != EMPTY)
+        {
+            if (keys[slot] == id)
+                return instruments[slot];
+
+            slot = (slot + 1) & mask;
+        }
+
+        if (!create)
+            return null;
+
+        if (2 * (instrumentCount + 1) > keys.length) {
+            grow();
+            return getInstrument(id, true);
+        }
+
+        keys[slot]        = id;
+        instruments[slot] = new Instrument();
+        instrumentCount++;
+
+        return instruments[slot];
+    }
+
+    /**
+     * Double the size of the instrument table.
+     */
+    private void grow()
+    {
+        int[] oldKeys            = keys;
+        Instrument[] oldEntries  = instruments;
+        int mask                 = oldKeys.length * 2 - 1;
+
+        keys        = newKeys(oldKeys.length * 2);
+        instruments = new Instrument[oldKeys.length * 2];
+
+        for (int i = 0; i < oldKeys.length; i++)
+        {
+            if (oldKeys[i] == EMPTY)
+                continue;
+
+            int slot = mix(oldKeys[i]) & mask;
+
+            while (keys[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+
+            keys[slot]        = oldKeys[i];
+            instruments[slot] = oldEntries[i];
+        }
+    }
+
+    /**
+     * Returns the rule as alert for JS.
+     */
+    private static JSONObject toJSON (Rule rule, double price, long time)
+    {
+        JSONObject alert = new JSONObject();
+
+        try {
+            alert.put("id", rule.id);
+            alert.put("instrument", rule.instrument);
+            alert.put("type", TYPES[rule.type]);
+            alert.put("level", rule.level);
+            alert.put("repeat", rule.repeat);
+            alert.put("price", price);
+            alert.put("time", time);
+            alert.put("title", rule.spec.optString("title", null));
+            alert.put("text", rule.spec.optString("text", null));
+            alert.put("notify", rule.spec.optBoolean("notify", true));
+        } catch (Exception e) {
+            // can't happen for primitive values
+        }
+
+        return alert;
+    }
+
+    /**
+     * Returns the type of the name.
+     *
+     * @param name The name as used by JS.
+     */
+    private static int parseType (String name)
+    {
+        for (int i = 0; i < TYPES.length; i++) {
+            if (TYPES[i].equals(name))
+                return i;
+        }
+
+        throw new IllegalArgumentException("Unknown alert type: " + name);
+    }
+
+    /**
+     * Store the value at the index, growing the array if needed.
+     */
+    private static int[] append (int[] array, int index, int value)
+    {
+        if (index == array.length) {
+            array = Arrays.copyOf(array, index * 2);
+        }
+
+        array[index] = value;
+
+        return array;
+    }
+
+    /**
+     * Returns a table of empty keys.
+     */
+    private static int[] newKeys (int capacity)
+    {
+        int[] keys = new int[capacity];
+
+        Arrays.fill(keys, EMPTY);
+
+        return keys;
+    }
+
+    /**
+     * Spread the bits of the instrument id over the table.
+     */
+    private static int mix (int id)
+    {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
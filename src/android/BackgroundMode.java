@@ -5,6 +5,7 @@ import android.content.ComponentName;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.os.IBinder;
+import android.os.SystemClock;
 
 import org.apache.cordova.CallbackContext;
 import org.apache.cordova.CordovaPlugin;
@@ -13,13 +14,16 @@ import org.apache.cordova.PluginResult.Status;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import android.util.Log;
-import java.util.Iterator;
 import android.app.NotificationManager;
 import android.content.Context;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import de.einfachhans.BackgroundMode.ForegroundService.ForegroundBinder;
 
 import static android.content.Context.BIND_AUTO_CREATE;
+import static de.einfachhans.BackgroundMode.ActionExecutor.Lane.BLOCKING;
 import static de.einfachhans.BackgroundMode.BackgroundModeExt.clearKeyguardFlags;
 
 public class BackgroundMode extends CordovaPlugin {
@@ -27,23 +31,95 @@ public class BackgroundMode extends CordovaPlugin {
     // Event types for callbacks
     private enum Event { ACTIVATE, DEACTIVATE, FAILURE }
 
-    // Plugin namespace
-    private static final String JS_NAMESPACE = "cordova.plugins.backgroundMode";
+    // Ids of the tokens held by enable() and the session calendar
+    private static final String ENABLE_TOKEN = "enable", CALENDAR_TOKEN = "calendar";
 
     // Flag indicates if the app is in background or foreground
-    private boolean inBackground = false;
+    private volatile boolean inBackground = false;
 
     // Flag indicates if the plugin is enabled or disabled
-    private boolean isDisabled = true;
+    private volatile boolean isDisabled = true;
+
+    // Demand of the app parts, the mode is enabled while a token is held
+    private KeepAliveTokens keepAlive;
 
     // Flag indicates if the service is bind
-    private boolean isBind = false;
+    private volatile boolean isBind = false;
 
-    // Default settings for the notification
-    private static JSONObject defaultSettings = new JSONObject();
+    // Default settings for the notification, replaced on each configure call
+    private static volatile ModeSettings defaultSettings = ModeSettings.EMPTY;
 
     // Service that keeps the app awake
-    private ForegroundService service;
+    private volatile ForegroundService service;
+
+    // Class of the service, the remote one if declared in its own process
+    private Class<? extends ForegroundService> serviceClass = ForegroundService.class;
+
+    // Channel to the service in the :background process, null if in-process
+    private RemoteChannel remote;
+
+    // Decides when the service gets started and stopped
+    private ServiceLifecycle lifecycle;
+
+    // System.nanoTime when bindService was called
+    private long bindStartedAt;
+
+    // Elapsed realtime when the app went to background
+    private long pausedAt;
+
+    // Runs the actions off the bridge thread
+    private final ActionExecutor actions = ActionExecutor.get();
+
+    // Delivers the events into JS
+    private final EventChannel events = new EventChannel();
+
+    // Tells if the screen is on
+    private ScreenMonitor screen;
+
+    // Subscription to the screen state
+    private final ScreenMonitor.Listener screenListener = this::onScreenChange;
+
+    // Throttles the background work by battery and thermal state
+    private ThrottlePolicy throttle;
+
+    // Subscription to the throttle level
+    private final ThrottlePolicy.Listener throttleListener = this::onThrottle;
+
+    // Keeps the web view visible in background
+    private WebViewKeeper keeper;
+
+    // Enables and disables the mode by the session calendar
+    private CalendarAlarm calendarAlarm;
+
+    // Guards the demand of JS and the session state
+    private final Object sessionLock = new Object();
+
+    // Flag indicates if JS asked for the mode by enable()
+    private boolean enableRequested;
+
+    // Flag indicates if a session calendar is configured
+    private boolean hasCalendar;
+
+    // Flag indicates if the session calendar is about to open or open
+    private boolean sessionActive;
+
+    // Flushes and closes the components when the activity gets destroyed
+    private final ShutdownDrain drain = new ShutdownDrain();
+
+    // Callback kept open to push the quote batches into JS
+    private volatile CallbackContext streamCallback;
+
+    // Encodes the quote batches as deltas if configured
+    private volatile DeltaEncoder encoder;
+
+    // Flag indicates if the quote batches are sent as binary records
+    private volatile boolean binaryTicks;
+
+    // Periodic tasks by id, registered again whenever the service connects
+    private final Map<String, JSONObject> tasks = new LinkedHashMap<>();
+
+    // Armed price alerts by id, registered again whenever the service connects
+    private final Map<String, JSONObject> alertRules = new LinkedHashMap<>();
 
     // Used to (un)bind the service to with the activity
     private final ServiceConnection connection = new ServiceConnection()
@@ -51,17 +127,97 @@ public class BackgroundMode extends CordovaPlugin {
         @Override
         public void onServiceConnected (ComponentName name, IBinder service)
         {
+            Metrics.BIND_LATENCY.record(Metrics.microsSince(bindStartedAt));
+
+            if (remote != null) {
+                connectRemote(service);
+                return;
+            }
+
             ForegroundBinder binder = (ForegroundBinder) service;
             BackgroundMode.this.service = binder.getService();
+            BackgroundMode.this.service.setStreamListener(BackgroundMode.this::sendTicks);
+            BackgroundMode.this.service.setBuffering(inBackground);
+            BackgroundMode.this.service.setTaskListener(BackgroundMode.this::onTask);
+            BackgroundMode.this.service.setWakeLockLevel(keepAlive.getLevel());
+
+            synchronized (tasks) {
+                for (JSONObject task : tasks.values()) {
+                    BackgroundMode.this.service.scheduleTask(task);
+                }
+            }
+
+            BackgroundMode.this.service.addAlerts(getAlertRules());
+            BackgroundMode.this.service.setAlertListener(BackgroundMode.this::onAlert);
         }
 
         @Override
         public void onServiceDisconnected (ComponentName name)
         {
-            fireEvent(Event.FAILURE, "'service disconnected'");
+            if (remote != null) {
+                remote.disconnect();
+            }
+
+            fireEvent(Event.FAILURE, "service disconnected");
         }
     };
 
+    /**
+     * Called after plugin construction and fields have been initialized.
+     */
+    @Override
+    protected void pluginInitialize()
+    {
+        lifecycle = new ServiceLifecycle(new ServiceLifecycle.Host() {
+            @Override
+            public void startService() {
+                BackgroundMode.this.startService();
+            }
+
+            @Override
+            public void stopService() {
+                BackgroundMode.this.stopService();
+            }
+        });
+
+        keepAlive     = new KeepAliveTokens(this::onTokensChange);
+        calendarAlarm = new CalendarAlarm(cordova.getActivity(), this::onSessionChange);
+        screen        = ScreenMonitor.get(cordova.getActivity());
+        throttle      = ThrottlePolicy.get(cordova.getActivity());
+        keeper        = WebViewKeeper.get(webView);
+
+        if (RemoteChannel.isEnabled(cordova.getActivity())) {
+            remote       = new RemoteChannel(this::sendTicks, this::sendFrame, this::onTask,
+                                             this::onAlert);
+            serviceClass = RemoteForegroundService.class;
+        }
+
+        // warm up the capabilities for the settings screens of the app
+        CapabilityProbe.get(cordova.getActivity());
+
+        screen.addListener(screenListener);
+        fireEvent("screen", screen.toJSON());
+
+        throttle.configure(getSettings().throttle);
+        throttle.addListener(throttleListener);
+        fireEvent("throttle", throttle.toJSON());
+
+        drain.register("calendar", remaining -> calendarAlarm.detach());
+        drain.register("tokens", remaining -> keepAlive.close());
+        drain.register("screen", remaining -> screen.removeListener(screenListener));
+        drain.register("throttle", remaining -> throttle.removeListener(throttleListener));
+        drain.register("webview", remaining -> keeper.stop());
+        drain.register("actions", actions::awaitIdle);
+        drain.register("lifecycle", lifecycle::shutdown);
+
+        if (remote != null) {
+            drain.register("remote", remaining -> remote.close());
+        }
+
+        drain.register("session", remaining -> flushSession());
+        drain.register("events", remaining -> events.close());
+    }
+
     /**
      * Executes the request.
      *
@@ -81,16 +237,62 @@ public class BackgroundMode extends CordovaPlugin {
         switch (action)
         {
             case "configure":
-                configure(args.optJSONObject(0), args.optBoolean(1));
-                PluginResult res = new PluginResult(Status.OK);
-                callback.sendPluginResult(res);
-                break;
+                actions.submit(BLOCKING, action, callback,
+                        () -> configure(args.optJSONObject(0), args.optBoolean(1)));
+                return true;
             case "enable":
-                enableMode();
-                break;
+                actions.submit(BLOCKING, action, callback, this::enableMode);
+                return true;
             case "disable":
-                disableMode();
-                break;
+                actions.submitCritical(BLOCKING, action, callback, this::disableMode);
+                return true;
+            case "acquire":
+                actions.query(BLOCKING, action, callback,
+                        () -> acquireToken(args.optString(0), args.optJSONObject(1)));
+                return true;
+            case "release":
+                actions.submitCritical(BLOCKING, action, callback,
+                        () -> keepAlive.release(args.optString(0)));
+                return true;
+            case "tokens":
+                actions.query(BLOCKING, action, callback, keepAlive::toJSON);
+                return true;
+            case "conflated":
+                actions.query(BLOCKING, action, callback,
+                        () -> drainConflated(args.optInt(0), args.optBoolean(1)));
+                return true;
+            case "metrics":
+                actions.query(BLOCKING, action, callback,
+                        () -> getMetrics(args.optBoolean(0)));
+                return true;
+            case "events":
+                events.open(callback);
+                return true;
+            case "stream":
+                setStreamCallback(callback);
+                return true;
+            case "resync":
+                actions.submit(BLOCKING, action, callback, this::requestResync);
+                return true;
+            case "schedule":
+                actions.submit(BLOCKING, action, callback,
+                        () -> scheduleTask(args.optJSONObject(0)));
+                return true;
+            case "cancel":
+                actions.submitCritical(BLOCKING, action, callback,
+                        () -> cancelTask(args.optString(0)));
+                return true;
+            case "addAlerts":
+                actions.submit(BLOCKING, action, callback,
+                        () -> addAlerts(args.optJSONArray(0)));
+                return true;
+            case "removeAlerts":
+                actions.submitCritical(BLOCKING, action, callback,
+                        () -> removeAlerts(args.optJSONArray(0)));
+                return true;
+            case "clearAlerts":
+                actions.submitCritical(BLOCKING, action, callback, this::clearAlerts);
+                return true;
             default:
                 validAction = false;
         }
@@ -114,7 +316,18 @@ public class BackgroundMode extends CordovaPlugin {
     {
         try {
             inBackground = true;
-            startService();
+            pausedAt     = SystemClock.elapsedRealtime();
+
+            if (service != null) {
+                service.setBuffering(true);
+            }
+
+            if (remote != null) {
+                remote.setBuffering(true);
+            }
+
+            lifecycle.onBackground();
+            keeper.onPause();
         } finally {
             clearKeyguardFlags(cordova.getActivity());
         }
@@ -126,6 +339,7 @@ public class BackgroundMode extends CordovaPlugin {
     @Override
     public void onStop () {
         clearKeyguardFlags(cordova.getActivity());
+        keeper.onPause();
     }
 
     /**
@@ -137,38 +351,196 @@ public class BackgroundMode extends CordovaPlugin {
     public void onResume (boolean multitasking)
     {
         inBackground = false;
-        stopService();
+        replayTicks();
+        lifecycle.onForeground();
+
+        if (pausedAt > 0) {
+            Metrics.BACKGROUND_TIME.add(SystemClock.elapsedRealtime() - pausedAt);
+            pausedAt = 0;
+        }
     }
 
     /**
-     * Called when the activity will be destroyed.
+     * Called when the activity will be destroyed. Gives the components the
+     * configured budget to flush and close. The process gets only killed if
+     * the drain exceeded its budget or the app opted in.
      */
     @Override
     public void onDestroy()
     {
-        stopService();
-        android.os.Process.killProcess(android.os.Process.myPid());
+        JSONObject spec = defaultSettings.shutdown;
+        long budget     = ShutdownDrain.DEFAULT_BUDGET;
+        boolean kill    = false;
+
+        if (spec != null) {
+            budget = spec.optLong("budget", budget);
+            kill   = spec.optBoolean("killProcess", false);
+        }
+
+        if (!drain.run(budget) || kill) {
+            android.os.Process.killProcess(android.os.Process.myPid());
+        }
     }
 
     /**
-     * Enable the background mode.
+     * Enable the background mode on behalf of JS. With a session calendar
+     * the mode is enabled during the sessions only.
      */
     private void enableMode()
     {
-        isDisabled = false;
-
-        if (inBackground) {
-            startService();
+        synchronized (sessionLock) {
+            enableRequested = true;
+            updateEnableToken();
         }
     }
 
     /**
-     * Disable the background mode.
+     * Drop the demand of JS. The mode stays enabled while other tokens
+     * are held.
      */
     private void disableMode()
     {
-        stopService();
-        isDisabled = true;
+        synchronized (sessionLock) {
+            enableRequested = false;
+            updateEnableToken();
+        }
+    }
+
+    /**
+     * Hold the token of JS while enable() is in effect and, if a session
+     * calendar is configured, a session is about to open or open.
+     */
+    private void updateEnableToken()
+    {
+        if (enableRequested && (!hasCalendar || sessionActive)) {
+            keepAlive.hold(ENABLE_TOKEN, ENABLE_TOKEN, null);
+        } else {
+            keepAlive.release(ENABLE_TOKEN);
+        }
+    }
+
+    /**
+     * Hand out a keep-alive token.
+     *
+     * @param owner The part of the app asking for the token.
+     * @param spec  The priority and the timeout or null for defaults.
+     *
+     * @return The token with its id.
+     */
+    private JSONObject acquireToken (String owner, JSONObject spec) throws Exception
+    {
+        JSONObject token = new JSONObject();
+
+        if (owner == null || owner.isEmpty())
+            throw new IllegalArgumentException("Token without owner");
+
+        token.put("id", keepAlive.acquire(owner, spec));
+
+        return token;
+    }
+
+    /**
+     * Called when a token got acquired, released or expired. The mode is
+     * enabled while any token is held, the wake lock of the service follows
+     * the top holder.
+     *
+     * @param held  Set to true if at least one token is held.
+     * @param level The priority of the top holder.
+     */
+    private void onTokensChange (boolean held, int level)
+    {
+        ForegroundService service = this.service;
+
+        if (held == isDisabled) {
+            isDisabled = !held;
+            saveSession();
+            lifecycle.setEnabled(held);
+        }
+
+        if (service != null) {
+            service.setWakeLockLevel(level);
+        }
+
+        if (remote != null) {
+            remote.setWakeLockLevel(level);
+        }
+
+        fireEvent("tokens", keepAlive.toJSON());
+    }
+
+    /**
+     * Load the session calendar, either inline or from a file of the app
+     * assets, and let it drive the background mode.
+     *
+     * @param spec The calendar settings or null to stop.
+     */
+    private void updateCalendar (JSONObject spec)
+    {
+        SessionCalendar calendar = CalendarAlarm.load(cordova.getActivity(), spec);
+
+        synchronized (sessionLock) {
+            hasCalendar = calendar != null;
+        }
+
+        // reports the session state back, don't hold the lock meanwhile
+        calendarAlarm.configure(calendar, spec);
+
+        if (calendar != null)
+            return;
+
+        synchronized (sessionLock) {
+            // without a calendar the demand of JS alone decides
+            sessionActive = false;
+            keepAlive.release(CALENDAR_TOKEN);
+            updateEnableToken();
+        }
+    }
+
+    /**
+     * Called when the session calendar opens or closes, a lead time ahead
+     * of the opening.
+     *
+     * @param active Set to true if a session is about to open or open.
+     */
+    private void onSessionChange (boolean active)
+    {
+        synchronized (sessionLock) {
+            sessionActive = active;
+
+            if (active) {
+                keepAlive.hold(CALENDAR_TOKEN, CALENDAR_TOKEN, null);
+            } else {
+                keepAlive.release(CALENDAR_TOKEN);
+            }
+
+            // the session gates the token of enable() as well
+            updateEnableToken();
+        }
+
+        fireEvent("session", active);
+    }
+
+    /**
+     * Called when the screen turns on or off or the user unlocked the
+     * device. Pushes the new state to JS.
+     *
+     * @param interactive Set to true if the screen is on.
+     * @param unlocked    Set to true if the user unlocked the device.
+     */
+    private void onScreenChange (boolean interactive, boolean unlocked)
+    {
+        fireEvent("screen", screen.toJSON());
+    }
+
+    /**
+     * Called when the throttle level changes. Pushes the level and its
+     * inputs to JS so the UI can slow down as well.
+     *
+     * @param level The new level.
+     */
+    private void onThrottle (int level)
+    {
+        fireEvent("throttle", throttle.toJSON());
     }
 
     /**
@@ -179,56 +551,585 @@ public class BackgroundMode extends CordovaPlugin {
      */
     private void configure(JSONObject settings, boolean update)
     {
+        ModeSettings prev, next;
+
+        if (settings == null || settings.length() == 0)
+            return;
+
         try {
-            if (settings == null || settings.length() == 0) {
-                return;
+            ModeSettings[] merged = mergeSettings(settings);
+            prev = merged[0];
+            next = merged[1];
+        } catch (Exception e) {
+            Log.e("BackgroundMode", "Failed to configure settings: " + e.getMessage());
+            return;
+        }
+
+        saveSession();
+
+        if (settings.has("eventWindow")) {
+            events.setWindow(next.eventWindow);
+        }
+
+        if (settings.has("lifecycle")) {
+            lifecycle.configure(next.lifecycle);
+        }
+
+        if (settings.has("stream")) {
+            updateEncoder(next.stream);
+        }
+
+        if (settings.has("calendar")) {
+            updateCalendar(next.calendar);
+        }
+
+        if (settings.has("throttle")) {
+            throttle.configure(next.throttle);
+        }
+
+        if (remote != null) {
+            remote.configure(settings, update);
+            return;
+        }
+
+        if (!isBind || service == null)
+            return;
+
+        service.configure(prev, next, settings, update);
+    }
+
+    /**
+     * Returns the latest snapshot of the settings. Lock-free, compare the
+     * version to find out if anything changed since the last read.
+     */
+    static ModeSettings getSettings () {
+        return defaultSettings;
+    }
+
+    /**
+     * Merge the changed settings into the current ones. Both snapshots are
+     * taken under the same lock, so the caller diffs against the settings
+     * its changes were actually merged into.
+     *
+     * @param changes The changed settings.
+     *
+     * @return The previous and the merged settings.
+     */
+    static ModeSettings[] mergeSettings (JSONObject changes) throws Exception
+    {
+        synchronized (BackgroundMode.class) {
+            ModeSettings prev = defaultSettings;
+
+            defaultSettings = prev.merge(changes);
+
+            return new ModeSettings[] { prev, defaultSettings };
+        }
+    }
+
+    /**
+     * Install the settings of a previous session, e.g. when the system
+     * restarted the service after the process died. Ignored once the
+     * settings have been configured.
+     *
+     * @param settings The restored settings.
+     *
+     * @return false if the settings have been configured meanwhile.
+     */
+    static boolean restoreSettings (ModeSettings settings)
+    {
+        synchronized (BackgroundMode.class) {
+            if (!defaultSettings.isEmpty())
+                return false;
+
+            defaultSettings = settings;
+            return true;
+        }
+    }
+
+    /**
+     * Persist the settings and the enabled flag for a warm restart.
+     */
+    private void saveSession()
+    {
+        SessionSnapshot snapshot = SessionSnapshot.open(cordova.getActivity());
+
+        if (snapshot != null) {
+            snapshot.save(defaultSettings, !isDisabled);
+        }
+    }
+
+    /**
+     * Write the session snapshot back to its file.
+     */
+    private void flushSession()
+    {
+        SessionSnapshot snapshot = SessionSnapshot.open(cordova.getActivity());
+
+        if (snapshot != null) {
+            snapshot.flush();
+        }
+    }
+
+    /**
+     * Returns the runtime metrics of the plugin and its components. Runs in
+     * the blocking lane, the service waits for its scheduler thread.
+     *
+     * @param reset A truthy value means to reset the metrics afterwards.
+     */
+    private JSONObject getMetrics (boolean reset)
+    {
+        // the service books the running wake lock time before the snapshot
+        JSONObject service = isBind && this.service != null ? this.service.getStats() : null;
+        JSONObject metrics = Metrics.snapshot();
+
+        try {
+            metrics.put("events", events.getStats());
+            metrics.put("lifecycle", lifecycle.getStats());
+            metrics.put("shutdown", ShutdownDrain.getStats());
+            metrics.put("calendar", calendarAlarm.getStats());
+            metrics.put("screen", screen.getStats());
+            metrics.put("throttle", throttle.getStats());
+            metrics.put("actions", actions.getStats());
+            metrics.put("webview", keeper.getStats());
+            metrics.put("tokens", keepAlive.getStats());
+
+            if (encoder != null) {
+                metrics.put("deltaRatio", encoder.getRatio());
             }
 
-            for (Iterator<String> it = settings.keys(); it.hasNext(); ) {
-                String key = it.next();
-                defaultSettings.put(key, settings.get(key));
+            if (service != null) {
+                metrics.put("service", service);
             }
 
-            if (update) {
-                updateNotification(defaultSettings); // 更新通知
+            if (remote != null) {
+                metrics.put("remote", remote.getStats());
             }
         } catch (Exception e) {
-            Log.e("BackgroundMode", "Failed to configure settings: " + e.getMessage());
+            Log.e("BackgroundMode", "Failed to collect metrics: " + e.getMessage());
+        }
+
+        if (reset) {
+            Metrics.reset();
         }
+
+        return metrics;
     }
 
     /**
-     * Update the default settings for the notification.
+     * Returns the latest quote of each instrument updated since the last
+     * call. The result is empty while the service isn't running or
+     * conflation is not configured.
+     *
+     * @param max    Max number of instruments to return, 0 for no limit.
+     * @param binary Set to true to get a binary frame instead of JSON.
      *
-     * @param settings The new default settings
+     * @return The quotes as JSONObject or as binary frame.
      */
-    private void setDefaultSettings(JSONObject settings)
+    private Object drainConflated (int max, boolean binary) throws Exception
     {
-        defaultSettings = settings;
+        ForegroundService service = this.service;
+        QuoteStream.Batch ticks   = service != null ? service.drainConflated(max) : null;
+
+        if (ticks == null) {
+            ticks = new QuoteStream.Batch(0);
+        }
+
+        return binary ? BinaryFrames.writeTicks(ticks) : toJSON(ticks);
     }
 
     /**
-     * Returns the settings for the new/updated notification.
+     * Keep the callback open to push the quote batches into JS.
+     *
+     * @param callback The callback context used to send the batches.
      */
-    static JSONObject getSettings () {
-        return defaultSettings;
+    private void setStreamCallback (CallbackContext callback)
+    {
+        PluginResult res = new PluginResult(Status.NO_RESULT);
+
+        res.setKeepCallback(true);
+        streamCallback = callback;
+        callback.sendPluginResult(res);
+        requestResync();
     }
 
     /**
-     * Update the notification.
+     * Create or drop the delta encoder depending on the stream encoding.
      *
-     * @param settings The config settings
+     * @param spec The stream settings.
      */
-    private void updateNotification(JSONObject settings)
+    private void updateEncoder (JSONObject spec)
     {
-        if (isBind) {
-            service.updateNotification(settings);
+        String encoding = spec != null ? spec.optString("encoding", "json") : "json";
+
+        if ("delta".equals(encoding)) {
+            encoder = new DeltaEncoder(spec.optInt("resyncInterval", 100));
+        } else {
+            encoder = null;
         }
+
+        binaryTicks = "binary".equals(encoding);
+    }
+
+    /**
+     * Register a periodic task run by the native scheduler of the service.
+     * Each run fires the 'task' event. Tasks survive a restart of the
+     * service while the plugin lives.
+     *
+     * @param spec The task with id, interval, mode, jitter and align.
+     */
+    private void scheduleTask (JSONObject spec)
+    {
+        ForegroundService service = this.service;
+
+        if (spec == null || spec.optString("id").isEmpty())
+            throw new IllegalArgumentException("Task without id");
+
+        synchronized (tasks) {
+            tasks.put(spec.optString("id"), spec);
+        }
+
+        if (service != null) {
+            service.scheduleTask(spec);
+        }
+
+        if (remote != null) {
+            remote.scheduleTask(spec);
+        }
+    }
+
+    /**
+     * Remove the periodic task with the given id.
+     *
+     * @param id The id of the task.
+     */
+    private void cancelTask (String id)
+    {
+        ForegroundService service = this.service;
+
+        synchronized (tasks) {
+            tasks.remove(id);
+        }
+
+        if (service != null) {
+            service.cancelTask(id);
+        }
+
+        if (remote != null) {
+            remote.cancelTask(id);
+        }
+    }
+
+    /**
+     * Called on the scheduler thread of the service for each run of a task.
+     *
+     * @param id   The id of the task.
+     * @param late Time in ms the run is behind its schedule.
+     */
+    private void onTask (String id, long late)
+    {
+        JSONObject run = new JSONObject();
+
+        try {
+            run.put("id", id);
+            run.put("late", late);
+        } catch (Exception e) {
+            // can't happen for primitive values
+        }
+
+        fireEvent("task", run);
+    }
+
+    /**
+     * Arm price alerts evaluated by the service against each quote batch,
+     * replacing alerts with the same id. Each trigger fires the 'alert'
+     * event. Alerts survive a restart of the service while the plugin lives.
+     *
+     * @param rules The rules with id, instrument, type and level.
+     */
+    private void addAlerts (JSONArray rules)
+    {
+        ForegroundService service = this.service;
+
+        if (rules == null)
+            return;
+
+        synchronized (alertRules) {
+            for (int i = 0; i < rules.length(); i++) {
+                JSONObject rule = rules.optJSONObject(i);
+
+                if (rule != null && !rule.optString("id").isEmpty()) {
+                    alertRules.put(rule.optString("id"), rule);
+                }
+            }
+        }
+
+        if (service != null) {
+            int rejected = service.addAlerts(rules);
+
+            if (rejected > 0) {
+                Log.e("BackgroundMode", "Rejected " + rejected + " invalid alert rules");
+            }
+        }
+
+        if (remote != null) {
+            remote.addAlerts(rules);
+        }
+    }
+
+    /**
+     * Disarm the price alerts with the given ids.
+     *
+     * @param ids The ids of the rules.
+     */
+    private void removeAlerts (JSONArray ids)
+    {
+        ForegroundService service = this.service;
+
+        if (ids == null)
+            return;
+
+        synchronized (alertRules) {
+            for (int i = 0; i < ids.length(); i++) {
+                alertRules.remove(ids.optString(i));
+            }
+        }
+
+        if (service != null) {
+            service.removeAlerts(ids);
+        }
+
+        if (remote != null) {
+            remote.removeAlerts(ids);
+        }
+    }
+
+    /**
+     * Disarm all price alerts.
+     */
+    private void clearAlerts()
+    {
+        ForegroundService service = this.service;
+
+        synchronized (alertRules) {
+            alertRules.clear();
+        }
+
+        if (service != null) {
+            service.clearAlerts();
+        }
+
+        if (remote != null) {
+            remote.clearAlerts();
+        }
+    }
+
+    /**
+     * Returns the armed price alerts, e.g. to register them again.
+     */
+    private JSONArray getAlertRules()
+    {
+        JSONArray rules = new JSONArray();
+
+        synchronized (alertRules) {
+            for (JSONObject rule : alertRules.values()) {
+                rules.put(rule);
+            }
+        }
+
+        return rules;
+    }
+
+    /**
+     * Called on the evaluating thread of the service for each triggered
+     * price alert. Alerts without repeat are disarmed by the service.
+     *
+     * @param alert The triggered rule with price and time.
+     */
+    private void onAlert (JSONObject alert)
+    {
+        if (!alert.optBoolean("repeat")) {
+            synchronized (alertRules) {
+                alertRules.remove(alert.optString("id"));
+            }
+        }
+
+        fireEvent("alert", alert);
+    }
+
+    /**
+     * Make the next delta frame a full one, e.g. after JS lost its state.
+     */
+    private void requestResync()
+    {
+        DeltaEncoder enc = encoder;
+
+        if (enc != null) {
+            enc.requestResync();
+        }
+    }
+
+    /**
+     * Forward a batch of quotes to JS. Called on the reader thread of the
+     * stream, the batch has to be copied before returning.
+     *
+     * @param batch The parsed quotes.
+     */
+    private void sendTicks (QuoteStream.Batch batch)
+    {
+        CallbackContext callback = streamCallback;
+        DeltaEncoder enc         = encoder;
+
+        if (callback == null)
+            return;
+
+        if (enc != null) {
+            sendFrame(callback, enc.encode(batch));
+            return;
+        }
+
+        if (binaryTicks) {
+            sendFrame(callback, BinaryFrames.writeTicks(batch));
+            return;
+        }
+
+        JSONObject ticks;
+
+        try {
+            ticks = toJSON(batch);
+        } catch (Exception e) {
+            Log.e("BackgroundMode", "Failed to serialize ticks: " + e.getMessage());
+            return;
+        }
+
+        PluginResult res = new PluginResult(Status.OK, ticks);
+        res.setKeepCallback(true);
+        callback.sendPluginResult(res);
+    }
+
+    /**
+     * Returns the quotes as column arrays ids, prices, sizes and times.
+     *
+     * @param batch The quotes.
+     */
+    private static JSONObject toJSON (QuoteStream.Batch batch) throws Exception
+    {
+        JSONArray ids    = new JSONArray();
+        JSONArray prices = new JSONArray();
+        JSONArray sizes  = new JSONArray();
+        JSONArray times  = new JSONArray();
+        JSONObject ticks = new JSONObject();
+
+        for (int i = 0; i < batch.size; i++) {
+            ids.put(batch.ids[i]);
+            prices.put(batch.prices[i]);
+            sizes.put(batch.sizes[i]);
+            times.put(batch.times[i]);
+        }
+
+        ticks.put("ids", ids);
+        ticks.put("prices", prices);
+        ticks.put("sizes", sizes);
+        ticks.put("times", times);
+
+        return ticks;
+    }
+
+    /**
+     * Send a binary frame over the stream callback.
+     *
+     * @param callback The stream callback.
+     * @param frame    The encoded frame or null to skip.
+     */
+    private void sendFrame (CallbackContext callback, byte[] frame)
+    {
+        if (frame == null)
+            return;
+
+        PluginResult res = new PluginResult(Status.OK, frame);
+        res.setKeepCallback(true);
+        callback.sendPluginResult(res);
+    }
+
+    /**
+     * Send a binary frame over the stream callback, if JS listens.
+     *
+     * @param frame The encoded frame or null to skip.
+     */
+    private void sendFrame (byte[] frame)
+    {
+        CallbackContext callback = streamCallback;
+
+        if (callback != null) {
+            sendFrame(callback, frame);
+        }
+    }
+
+    /**
+     * Send the quotes recorded in background to JS in one bulk transfer.
+     * The remote service sends them through the ring instead.
+     */
+    private void replayTicks()
+    {
+        ForegroundService service = this.service;
+
+        if (remote != null) {
+            remote.replay();
+            return;
+        }
+
+        if (service == null)
+            return;
+
+        service.drainTicks(this::sendFrame);
+    }
+
+    /**
+     * Hand the ring to the service in the :background process and send
+     * the state the in-process service would get on connect. The settings
+     * go over in full, changes made while the channel was down never
+     * reached the service.
+     *
+     * @param binder The binder of the service.
+     */
+    private void connectRemote (IBinder binder)
+    {
+        ModeSettings settings;
+
+        try {
+            remote.connect(binder);
+        } catch (Exception e) {
+            fireEvent(Event.FAILURE, e.getMessage());
+            return;
+        }
+
+        // read after connect, later changes are sent by configure itself
+        settings = getSettings();
+
+        if (!settings.isEmpty()) {
+            remote.configure(settings.toJSON(), true);
+        }
+
+        // quotes recorded while detached come over in the foreground
+        if (inBackground) {
+            remote.setBuffering(true);
+        } else {
+            remote.replay();
+        }
+
+        remote.setWakeLockLevel(keepAlive.getLevel());
+
+        synchronized (tasks) {
+            for (JSONObject task : tasks.values()) {
+                remote.scheduleTask(task);
+            }
+        }
+
+        remote.addAlerts(getAlertRules());
     }
 
     /**
      * Bind the activity to a background service and put them into foreground
-     * state.
+     * state. Called on the lifecycle thread.
      */
     private void startService()
     {
@@ -237,33 +1138,39 @@ public class BackgroundMode extends CordovaPlugin {
         if (isDisabled || isBind)
             return;
 
-        Intent intent = new Intent(context, ForegroundService.class);
+        Intent intent = new Intent(context, serviceClass);
 
         try {
+            bindStartedAt = System.nanoTime();
             context.bindService(intent, connection, BIND_AUTO_CREATE);
             fireEvent(Event.ACTIVATE, null);
             context.startService(intent);
         } catch (Exception e) {
-            fireEvent(Event.FAILURE, String.format("'%s'", e.getMessage()));
+            fireEvent(Event.FAILURE, e.getMessage());
         }
 
         isBind = true;
     }
 
     /**
-     * Bind the activity to a background service and put them into foreground
-     * state.
+     * Unbind the activity from the background service and stop it. Called on
+     * the lifecycle thread.
      */
     private void stopService()
     {
         Activity context = cordova.getActivity();
-        Intent intent    = new Intent(context, ForegroundService.class);
+        Intent intent    = new Intent(context, serviceClass);
 
         if (!isBind) return;
         fireEvent(Event.DEACTIVATE, null);
 
         context.unbindService(connection);
         context.stopService(intent);
+        service = null;
+
+        if (remote != null) {
+            remote.disconnect();
+        }
 
          // 清除通知
         NotificationManager notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
@@ -275,27 +1182,36 @@ public class BackgroundMode extends CordovaPlugin {
     }
 
     /**
-     * Fire vent with some parameters inside the web view.
+     * Fire event with some parameters inside the web view. Events are
+     * delivered through the event channel and coalesced with others fired
+     * close together.
      *
      * @param event The name of the event
      * @param params Optional arguments for the event
      */
-    private void fireEvent (Event event, String params)
+    private void fireEvent (Event event, Object params)
     {
         String eventName = event.name().toLowerCase();
         Boolean active   = event == Event.ACTIVATE;
 
-        String str = String.format("%s._setActive(%b)",
-                JS_NAMESPACE, active);
-
-        str = String.format("%s;%s.on('%s', %s)",
-                str, JS_NAMESPACE, eventName, params);
-
-        str = String.format("%s;%s.fireEvent('%s',%s);",
-                str, JS_NAMESPACE, eventName, params);
+        if (event == Event.ACTIVATE) {
+            Metrics.ACTIVATIONS.increment();
+        } else if (event == Event.DEACTIVATE) {
+            Metrics.DEACTIVATIONS.increment();
+        }
 
-        final String js = str;
+        events.send(eventName, active, params);
+    }
 
-        cordova.getActivity().runOnUiThread(() -> webView.loadUrl("javascript:" + js));
+    /**
+     * Fire a custom event inside the web view which leaves the active state
+     * untouched.
+     *
+     * @param event The name of the event
+     * @param params Optional arguments for the event
+     */
+    void fireEvent (String event, Object params)
+    {
+        events.send(event, null, params);
     }
 }
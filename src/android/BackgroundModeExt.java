@@ -6,14 +6,11 @@ import android.app.Activity;
 import android.app.ActivityManager;
 import android.app.ActivityManager.AppTask;
 import android.app.AlertDialog;
-import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.os.Build;
 import android.os.PowerManager;
-import android.view.View;
 
 import org.apache.cordova.CallbackContext;
 import org.apache.cordova.CordovaPlugin;
@@ -22,7 +19,6 @@ import org.apache.cordova.PluginResult.Status;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-import java.util.Arrays;
 import java.util.List;
 
 import static android.R.string.cancel;
@@ -30,7 +26,6 @@ import static android.R.string.ok;
 import static android.R.style.Theme_DeviceDefault_Light_Dialog;
 import static android.content.Context.ACTIVITY_SERVICE;
 import static android.content.Context.POWER_SERVICE;
-import static android.content.pm.PackageManager.MATCH_DEFAULT_ONLY;
 import static android.os.Build.VERSION.SDK_INT;
 import static android.os.Build.VERSION_CODES.M;
 import static android.provider.Settings.ACTION_REQUEST_IGNORE_BATTERY_OPTIMIZATIONS;
@@ -38,6 +33,8 @@ import static android.view.WindowManager.LayoutParams.FLAG_ALLOW_LOCK_WHILE_SCRE
 import static android.view.WindowManager.LayoutParams.FLAG_DISMISS_KEYGUARD;
 import static android.view.WindowManager.LayoutParams.FLAG_SHOW_WHEN_LOCKED;
 import static android.view.WindowManager.LayoutParams.FLAG_TURN_SCREEN_ON;
+import static de.einfachhans.BackgroundMode.ActionExecutor.Lane.BLOCKING;
+import static de.einfachhans.BackgroundMode.ActionExecutor.Lane.UI;
 
 /**
  * Implements extended functions around the main purpose
@@ -48,6 +45,32 @@ public class BackgroundModeExt extends CordovaPlugin {
     // To keep the device awake
     private PowerManager.WakeLock wakeLock;
 
+    // Runs the actions off the bridge thread
+    private final ActionExecutor actions = ActionExecutor.get();
+
+    // What the device offers to run in background
+    private CapabilityProbe capabilities;
+
+    /**
+     * Start the capability probe in background.
+     */
+    @Override
+    protected void pluginInitialize()
+    {
+        capabilities = CapabilityProbe.get(cordova.getActivity());
+    }
+
+    /**
+     * The user might have changed the battery optimizations meanwhile.
+     *
+     * @param multitasking Flag indicating if multitasking is turned on for app.
+     */
+    @Override
+    public void onResume (boolean multitasking)
+    {
+        capabilities.refresh();
+    }
+
     /**
      * Executes the request.
      *
@@ -62,52 +85,54 @@ public class BackgroundModeExt extends CordovaPlugin {
     public boolean execute (String action, JSONArray args,
                             CallbackContext callback)
     {
-        boolean validAction = true;
-
         switch (action)
         {
             case "battery":
-                disableBatteryOptimizations();
+                actions.submit(BLOCKING, action, callback, this::disableBatteryOptimizations);
                 break;
             case "webview":
-                disableWebViewOptimizations();
+                actions.submit(UI, action, callback, WebViewKeeper.get(webView)::enable);
+                break;
+            case "drift":
+                WebViewKeeper.get(webView).recordDrift(args.optJSONArray(0));
+                callback.success();
                 break;
             case "appstart":
-                openAppStart(args.opt(0));
+                actions.submit(BLOCKING, action, callback, () -> openAppStart(args.opt(0)));
                 break;
             case "background":
-                moveToBackground();
+                actions.submit(UI, action, callback, this::moveToBackground);
                 break;
             case "foreground":
-                moveToForeground();
+                actions.submit(UI, action, callback, this::moveToForeground);
                 break;
             case "tasklistExclude":
-                setExcludeFromRecents(true);
+                actions.submit(BLOCKING, action, callback, () -> setExcludeFromRecents(true));
                 break;
             case "tasklistInclude":
-                setExcludeFromRecents(false);
+                actions.submit(BLOCKING, action, callback, () -> setExcludeFromRecents(false));
+                break;
+            case "capabilities":
+                actions.query(BLOCKING, action, callback, capabilities::toJSON);
                 break;
             case "dimmed":
                 isDimmed(callback);
                 break;
             case "wakeup":
-                wakeup();
+                actions.submit(BLOCKING, action, callback, this::wakeup);
                 break;
             case "unlock":
-                wakeup();
-                unlock();
+                actions.submit(BLOCKING, action, callback, () -> {
+                    wakeup();
+                    unlock();
+                });
                 break;
             default:
-                validAction = false;
+                callback.error("Invalid action: " + action);
+                return false;
         }
 
-        if (validAction) {
-            callback.success();
-        } else {
-            callback.error("Invalid action: " + action);
-        }
-
-        return validAction;
+        return true;
     }
 
     /**
@@ -139,34 +164,6 @@ public class BackgroundModeExt extends CordovaPlugin {
         app.startActivity(intent);
     }
 
-    /**
-     * Enable GPS position tracking while in background.
-     */
-    private void disableWebViewOptimizations() {
-        Thread thread = new Thread(){
-            public void run() {
-                try {
-                    Thread.sleep(1000);
-                    getApp().runOnUiThread(() -> {
-                        View view = webView.getEngine().getView();
-
-                        try {
-                            Class.forName("org.crosswalk.engine.XWalkCordovaView")
-                                 .getMethod("onShow")
-                                 .invoke(view);
-                        } catch (Exception e){
-                            view.dispatchWindowVisibilityChanged(View.VISIBLE);
-                        }
-                    });
-                } catch (InterruptedException e) {
-                    // do nothing
-                }
-            }
-        };
-
-        thread.start();
-    }
-
     /**
      * Disables battery optimizations for the app.
      * Requires permission.REQUEST_IGNORE_BATTERY_OPTIMIZATIONS to function.
@@ -177,12 +174,11 @@ public class BackgroundModeExt extends CordovaPlugin {
         Activity activity = cordova.getActivity();
         Intent intent     = new Intent();
         String pkgName    = activity.getPackageName();
-        PowerManager pm   = (PowerManager)getService(POWER_SERVICE);
 
         if (SDK_INT < M)
             return;
 
-        if (pm.isIgnoringBatteryOptimizations(pkgName))
+        if (capabilities.isIgnoringBatteryOptimizations())
             return;
 
         intent.setAction(ACTION_REQUEST_IGNORE_BATTERY_OPTIMIZATIONS);
@@ -200,47 +196,42 @@ public class BackgroundModeExt extends CordovaPlugin {
     private void openAppStart (Object arg)
     {
         Activity activity = cordova.getActivity();
-        PackageManager pm = activity.getPackageManager();
+        Intent intent     = capabilities.getAutostartIntent();
 
-        for (Intent intent : getAppStartIntents())
-        {
-            if (pm.resolveActivity(intent, MATCH_DEFAULT_ONLY) != null)
-            {
-                JSONObject spec = (arg instanceof JSONObject) ? (JSONObject) arg : null;
-
-                intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        if (intent == null)
+            return;
 
-                if (arg instanceof Boolean && !((Boolean) arg))
-                {
-                    activity.startActivity(intent);
-                    break;
-                }
+        JSONObject spec = (arg instanceof JSONObject) ? (JSONObject) arg : null;
 
-                AlertDialog.Builder dialog = new AlertDialog.Builder(activity, Theme_DeviceDefault_Light_Dialog);
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
 
-                dialog.setPositiveButton(ok, (o, d) -> activity.startActivity(intent));
-                dialog.setNegativeButton(cancel, (o, d) -> {});
-                dialog.setCancelable(true);
+        if (arg instanceof Boolean && !((Boolean) arg))
+        {
+            activity.startActivity(intent);
+            return;
+        }
 
-                if (spec != null && spec.has("title"))
-                {
-                    dialog.setTitle(spec.optString("title"));
-                }
+        AlertDialog.Builder dialog = new AlertDialog.Builder(activity, Theme_DeviceDefault_Light_Dialog);
 
-                if (spec != null && spec.has("text"))
-                {
-                    dialog.setMessage(spec.optString("text"));
-                }
-                else
-                {
-                    dialog.setMessage("missing text");
-                }
+        dialog.setPositiveButton(ok, (o, d) -> activity.startActivity(intent));
+        dialog.setNegativeButton(cancel, (o, d) -> {});
+        dialog.setCancelable(true);
 
-                activity.runOnUiThread(dialog::show);
+        if (spec != null && spec.has("title"))
+        {
+            dialog.setTitle(spec.optString("title"));
+        }
 
-                break;
-            }
+        if (spec != null && spec.has("text"))
+        {
+            dialog.setMessage(spec.optString("text"));
+        }
+        else
+        {
+            dialog.setMessage("missing text");
         }
+
+        activity.runOnUiThread(dialog::show);
     }
 
     /**
@@ -277,19 +268,12 @@ public class BackgroundModeExt extends CordovaPlugin {
     }
 
     /**
-     * Returns if the screen is active.
+     * Returns if the screen is active. Answered from the screen monitor
+     * which tracks the state by broadcasts.
      */
-    @SuppressWarnings("deprecation")
     private boolean isDimmed()
     {
-        PowerManager pm = (PowerManager) getService(POWER_SERVICE);
-
-        if (SDK_INT < 20)
-        {
-            return !pm.isScreenOn();
-        }
-
-        return !pm.isInteractive();
+        return !ScreenMonitor.get(getApp()).isInteractive();
     }
 
     /**
@@ -396,32 +380,4 @@ public class BackgroundModeExt extends CordovaPlugin {
     {
         return getApp().getSystemService(name);
     }
-
-    /**
-     * Returns list of all possible intents to present the app start settings.
-     */
-    private List<Intent> getAppStartIntents()
-    {
-        return Arrays.asList(
-            new Intent().setComponent(new ComponentName("com.miui.securitycenter","com.miui.permcenter.autostart.AutoStartManagementActivity")),
-            new Intent().setComponent(new ComponentName("com.letv.android.letvsafe", "com.letv.android.letvsafe.AutobootManageActivity")),
-            new Intent().setComponent(new ComponentName("com.huawei.systemmanager", "com.huawei.systemmanager.appcontrol.activity.StartupAppControlActivity")),
-            new Intent().setComponent(new ComponentName("com.huawei.systemmanager", "com.huawei.systemmanager.optimize.process.ProtectActivity")),
-            new Intent().setComponent(new ComponentName("com.coloros.safecenter", "com.coloros.safecenter.permission.startup.StartupAppListActivity")),
-            new Intent().setComponent(new ComponentName("com.coloros.safecenter", "com.coloros.safecenter.startupapp.StartupAppListActivity")),
-            new Intent().setComponent(new ComponentName("com.oppo.safe", "com.oppo.safe.permission.startup.StartupAppListActivity")),
-            new Intent().setComponent(new ComponentName("com.iqoo.secure", "com.iqoo.secure.ui.phoneoptimize.AddWhiteListActivity")),
-            new Intent().setComponent(new ComponentName("com.iqoo.secure", "com.iqoo.secure.ui.phoneoptimize.BgStartUpManager")),
-            new Intent().setComponent(new ComponentName("com.vivo.permissionmanager", "com.vivo.permissionmanager.activity.BgStartUpManagerActivity")),
-            new Intent().setComponent(new ComponentName("com.asus.mobilemanager", "com.asus.mobilemanager.autostart.AutoStartActivity")),
-            new Intent().setComponent(new ComponentName("com.asus.mobilemanager", "com.asus.mobilemanager.entry.FunctionActivity")).setData(android.net.Uri.parse("mobilemanager://function/entry/AutoStart")),
-            new Intent().setAction("com.letv.android.permissionautoboot"),
-            new Intent().setComponent(new ComponentName("com.samsung.android.sm_cn", "com.samsung.android.sm.ui.ram.AutoRunActivity")),
-            new Intent().setComponent(ComponentName.unflattenFromString("com.iqoo.secure/.MainActivity")),
-            new Intent().setComponent(ComponentName.unflattenFromString("com.meizu.safe/.permission.SmartBGActivity")),
-            new Intent().setComponent(new ComponentName("com.yulong.android.coolsafe", ".ui.activity.autorun.AutoRunListActivity")),
-            new Intent().setComponent(new ComponentName("cn.nubia.security2", "cn.nubia.security.appmanage.selfstart.ui.SelfStartActivity")),
-            new Intent().setComponent(new ComponentName("com.zui.safecenter", "com.lenovo.safecenter.MainTab.LeSafeMainActivity"))
-        );
-    }
 }
@@ -0,0 +1,120 @@
+package de.einfachhans.BackgroundMode;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Versioned binary layout shared by all payloads which reach JS as
+ * ArrayBuffer. Every frame starts with the same little-endian header:
+ * type (u8), version (u8), flags (u16) and record count (u32), followed by
+ * the type specific body.
+ *
+ * Frames of a known size are written straight into the byte array handed
+ * to Cordova, so producing a frame costs one allocation and no copy.
+ */
+final class BinaryFrames {
+
+    // Quotes as columns: dropped (u32), ids (i32), prices (f64), sizes (i32), times (f64)
+    static final int TICK_COLUMNS = 1;
+
+    // Quotes as field-level deltas, see DeltaEncoder
+    static final int TICK_DELTA = 2;
+
+    // Quotes as fixed size records: id (i32), price (f64), size (i32), time (f64)
+    static final int TICK_RECORDS = 3;
+
+    // Current version of the layouts
+    static final int VERSION = 1;
+
+    // Size of the common header in bytes
+    static final int HEADER_SIZE = 8;
+
+    // Size of a tick in the column and record layout
+    static final int TICK_SIZE = 4 + 8 + 4 + 8;
+
+    private BinaryFrames() {}
+
+    /**
+     * Returns a little-endian buffer of the header plus the given size with
+     * the header already written. The record count can be patched later
+     * through {@link #setCount(ByteBuffer, int)}.
+     *
+     * @param type  The type of the frame.
+     * @param flags Type specific flags.
+     * @param count The number of records.
+     * @param size  The size of the body in bytes.
+     */
+    static ByteBuffer begin (int type, int flags, int count, int size)
+    {
+        return begin(null, type, flags, count, size);
+    }
+
+    /**
+     * Like {@link #begin(int, int, int, int)} but reuses the given buffer
+     * if it is large enough. For writers which only know an upper bound of
+     * the size and copy the frame out themselves.
+     *
+     * @param buf   The buffer to reuse or null.
+     * @param type  The type of the frame.
+     * @param flags Type specific flags.
+     * @param count The number of records.
+     * @param size  The min size of the body in bytes.
+     */
+    static ByteBuffer begin (ByteBuffer buf, int type, int flags, int count, int size)
+    {
+        int capacity = HEADER_SIZE + size;
+
+        if (buf == null || buf.capacity() < capacity) {
+            buf = ByteBuffer.wrap(new byte[capacity]);
+        }
+
+        buf.clear();
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        buf.put((byte) type).put((byte) VERSION).putShort((short) flags).putInt(count);
+
+        return buf;
+    }
+
+    /**
+     * Overwrite the record count of the header.
+     */
+    static void setCount (ByteBuffer buf, int count)
+    {
+        buf.putInt(4, count);
+    }
+
+    /**
+     * Returns the written bytes of a buffer from {@link #begin(int, int, int, int)}.
+     * The array is handed over as is if the body filled the size given to
+     * begin, otherwise the written part gets copied.
+     */
+    static byte[] finish (ByteBuffer buf)
+    {
+        byte[] frame = buf.array();
+
+        if (buf.position() == frame.length)
+            return frame;
+
+        return Arrays.copyOf(frame, buf.position());
+    }
+
+    /**
+     * Write the quotes as fixed size records.
+     *
+     * @param batch The quotes.
+     */
+    static byte[] writeTicks (QuoteStream.Batch batch)
+    {
+        ByteBuffer buf = begin(TICK_RECORDS, 0, batch.size, batch.size * TICK_SIZE);
+
+        for (int i = 0; i < batch.size; i++) {
+            buf.putInt(batch.ids[i])
+               .putDouble(batch.prices[i])
+               .putInt(batch.sizes[i])
+               .putDouble(batch.times[i]);
+        }
+
+        return finish(buf);
+    }
+}
@@ -0,0 +1,365 @@
+package de.einfachhans.BackgroundMode;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.util.Log;
+
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+import static android.os.Build.VERSION.SDK_INT;
+
+/**
+ * Drives the background mode by a session calendar. The mode becomes
+ * active a lead time before the first market opens and inactive when the
+ * last market closes. A single alarm is kept for the next change, the one
+ * before a session opens wakes the device. Without a change within the
+ * horizon of the calendar the alarm goes off at the horizon to look again.
+ *
+ * The alarm goes to SessionAlarmReceiver declared in the manifest, so it
+ * fires even if the process died meanwhile. Without a live calendar the
+ * receiver restores the calendar from the session snapshot and starts or
+ * stops the service itself.
+ */
+class CalendarAlarm {
+
+    /**
+     * Performs the actual transitions.
+     */
+    interface Host
+    {
+        void onSessionChange (boolean active);
+    }
+
+    // Action of the alarm intent
+    static final String ACTION = "de.einfachhans.BackgroundMode.SESSION_CHANGE";
+
+    // Default time in ms the mode becomes active before a session opens
+    private static final long DEFAULT_LEAD = 5 * 60 * 1000;
+
+    // The calendar receiving the alarms of this process, null if none
+    private static CalendarAlarm current;
+
+    // Context used to schedule the alarm
+    private final Context context;
+
+    // Performs the actual transitions
+    private final Host host;
+
+    // Fires the alarm
+    private final PendingIntent alarm;
+
+    // Current calendar, null if not configured
+    private SessionCalendar calendar;
+
+    // Time in ms the mode becomes active before a session opens
+    private long lead = DEFAULT_LEAD;
+
+    // Last state reported to the host, null if none so far
+    private Boolean active;
+
+    // Time in ms since epoch of the pending alarm, -1 if none
+    private long nextChange = -1;
+
+    // Flag indicates if the pending alarm is exact
+    private boolean exact;
+
+    // Counters exposed for diagnostics
+    private long alarms, transitions;
+
+    /**
+     * @param context The context of the app.
+     * @param host    Performs the actual transitions.
+     */
+    CalendarAlarm (Context context, Host host)
+    {
+        Intent intent = new Intent(context, SessionAlarmReceiver.class).setAction(ACTION);
+
+        this.context = context.getApplicationContext();
+        this.host    = host;
+        this.alarm   = PendingIntent.getBroadcast(this.context, 0, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+    }
+
+    /**
+     * Apply the calendar section of the settings.
+     *
+     * @param calendar The parsed calendar or null to stop.
+     * @param spec     The calendar settings.
+     */
+    synchronized void configure (SessionCalendar calendar, JSONObject spec)
+    {
+        this.calendar = calendar;
+        this.lead     = spec != null ? Math.max(0, spec.optLong("lead", DEFAULT_LEAD)) : DEFAULT_LEAD;
+        this.active   = null;
+
+        if (calendar == null) {
+            close();
+            return;
+        }
+
+        synchronized (CalendarAlarm.class) {
+            current = this;
+        }
+
+        evaluate();
+    }
+
+    /**
+     * Cancel the alarm, the mode is no longer driven by the calendar.
+     */
+    synchronized void close()
+    {
+        detach();
+        getAlarmManager().cancel(alarm);
+        nextChange = -1;
+    }
+
+    /**
+     * Stop receiving the alarms but keep the pending one, e.g. when the app
+     * goes away. The receiver takes over on the next change.
+     */
+    void detach()
+    {
+        synchronized (CalendarAlarm.class) {
+            if (current == this) {
+                current = null;
+            }
+        }
+    }
+
+    /**
+     * Called by SessionAlarmReceiver when the alarm fires. Hands the alarm
+     * to the live calendar of the process if any, otherwise restores the
+     * calendar of the last session.
+     *
+     * @param context The context of the app.
+     */
+    static void onAlarm (Context context)
+    {
+        CalendarAlarm alarm;
+
+        synchronized (CalendarAlarm.class) {
+            alarm = current;
+        }
+
+        if (alarm == null) {
+            alarm = restore(context);
+        }
+
+        if (alarm == null)
+            return;
+
+        synchronized (alarm) {
+            alarm.alarms++;
+            alarm.evaluate();
+        }
+    }
+
+    /**
+     * Load the session calendar, either inline or from a file of the app
+     * assets.
+     *
+     * @param context The context of the app.
+     * @param spec    The calendar settings or null.
+     *
+     * @return The calendar or null if none or invalid.
+     */
+    static SessionCalendar load (Context context, JSONObject spec)
+    {
+        try {
+            if (spec != null && spec.has("file"))
+                return SessionCalendar.parse(new JSONObject(readAsset(context, spec.optString("file"))));
+
+            if (spec != null)
+                return SessionCalendar.parse(spec);
+        } catch (Exception e) {
+            Log.e("BackgroundMode", "Failed to load session calendar: " + e.getMessage());
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the state of the calendar.
+     */
+    synchronized JSONObject getStats()
+    {
+        JSONObject stats = new JSONObject();
+        long now         = System.currentTimeMillis();
+
+        try {
+            stats.put("active", active != null && active);
+            stats.put("nextChange", nextChange);
+            stats.put("exact", exact);
+            stats.put("lead", lead);
+            stats.put("alarms", alarms);
+            stats.put("transitions", transitions);
+
+            if (calendar != null) {
+                stats.put("open", calendar.getOpenMarkets(now));
+            }
+        } catch (Exception e) {
+            // can't happen for primitive values
+        }
+
+        return stats;
+    }
+
+    /**
+     * Tell the host about a changed state and arm the alarm for the next
+     * change.
+     */
+    private void evaluate()
+    {
+        if (calendar == null)
+            return;
+
+        long now     = System.currentTimeMillis();
+        boolean open = calendar.isOpen(now) || calendar.isOpen(now + lead);
+
+        if (active == null || active != open) {
+            active = open;
+            transitions++;
+            host.onSessionChange(open);
+        }
+
+        // either the calendar itself or its lead-shifted view changes next
+        long change = calendar.nextChange(now);
+        long ahead  = calendar.nextChange(now + lead);
+
+        nextChange = pick(change, ahead >= 0 ? ahead - lead : -1, now);
+
+        if (nextChange < 0) {
+            nextChange = now + SessionCalendar.HORIZON;
+        }
+
+        setAlarm(nextChange, !open);
+    }
+
+    /**
+     * Returns the earliest of both times after now, -1 if none.
+     */
+    private static long pick (long a, long b, long now)
+    {
+        if (a <= now) a = -1;
+        if (b <= now) b = -1;
+
+        if (a < 0) return b;
+        if (b < 0) return a;
+
+        return Math.min(a, b);
+    }
+
+    /**
+     * Replace the pending alarm. Exact timing is used where allowed, which
+     * needs the SCHEDULE_EXACT_ALARM permission granted as of Android 12.
+     *
+     * @param time   The time in ms since epoch.
+     * @param wakeup Set to true to wake the device.
+     */
+    private void setAlarm (long time, boolean wakeup)
+    {
+        AlarmManager am = getAlarmManager();
+        int type        = wakeup ? AlarmManager.RTC_WAKEUP : AlarmManager.RTC;
+
+        exact = SDK_INT < Build.VERSION_CODES.S || am.canScheduleExactAlarms();
+
+        if (exact) {
+            am.setExactAndAllowWhileIdle(type, time, alarm);
+        } else {
+            am.setAndAllowWhileIdle(type, time, alarm);
+        }
+    }
+
+    /**
+     * Restore the calendar of the last session after the process died and
+     * let it start and stop the service.
+     *
+     * @param context The context of the app.
+     *
+     * @return The restored calendar or null if the session had none.
+     */
+    private static CalendarAlarm restore (Context context)
+    {
+        SessionSnapshot snapshot    = SessionSnapshot.open(context);
+        SessionSnapshot.State state = snapshot != null ? snapshot.restore() : null;
+        JSONObject spec             = state != null ? state.settings.calendar : null;
+        SessionCalendar calendar    = load(context, spec);
+
+        if (calendar == null)
+            return null;
+
+        BackgroundMode.restoreSettings(state.settings);
+
+        CalendarAlarm alarm = new CalendarAlarm(context, active -> toggleService(context, active));
+
+        synchronized (alarm) {
+            alarm.calendar = calendar;
+            alarm.lead     = Math.max(0, spec.optLong("lead", DEFAULT_LEAD));
+        }
+
+        synchronized (CalendarAlarm.class) {
+            current = alarm;
+        }
+
+        return alarm;
+    }
+
+    /**
+     * Start or stop the service without the plugin. A started service
+     * restores the settings of the snapshot itself.
+     *
+     * @param context The context of the app.
+     * @param active  Set to true to start the service.
+     */
+    private static void toggleService (Context context, boolean active)
+    {
+        Class<?> cls  = RemoteChannel.isEnabled(context) ? RemoteForegroundService.class : ForegroundService.class;
+        Intent intent = new Intent(context, cls);
+
+        try {
+            if (active) {
+                context.startService(intent.putExtra(ForegroundService.EXTRA_RESTORE, true));
+            } else {
+                context.stopService(intent);
+            }
+        } catch (RuntimeException e) {
+            Log.e("BackgroundMode", "Failed to toggle the service: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the content of a file of the app assets.
+     *
+     * @param context The context of the app.
+     * @param path    The path inside the assets, e.g. www/calendar.json.
+     */
+    private static String readAsset (Context context, String path) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf                = new byte[4096];
+        int n;
+
+        try (InputStream in = context.getAssets().open(path)) {
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+        }
+
+        return out.toString("UTF-8");
+    }
+
+    /**
+     * Returns the service to schedule the alarms.
+     */
+    private AlarmManager getAlarmManager()
+    {
+        return (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+    }
+}
@@ -0,0 +1,287 @@
+package de.einfachhans.BackgroundMode;
+
+import android.app.AlarmManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.net.Uri;
+import android.os.Build;
+import android.os.PowerManager;
+import android.util.Log;
+
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static android.content.Context.ALARM_SERVICE;
+import static android.content.Context.MODE_PRIVATE;
+import static android.content.Context.POWER_SERVICE;
+import static android.content.pm.PackageManager.MATCH_DEFAULT_ONLY;
+import static android.os.Build.VERSION.SDK_INT;
+
+/**
+ * What the device offers to run in background. The static part, like the
+ * OEM autostart settings screen and the SDK features, is probed once and
+ * persisted keyed by the build fingerprint and the install time of the
+ * package, so it gets probed again after a system or app update only. The
+ * battery optimization and exact alarm state can be changed by the user
+ * and get refreshed when the app comes back to the foreground.
+ *
+ * The probe runs in the blocking lane of the action executor. Actions of
+ * that lane queued after it see its result without waiting.
+ */
+class CapabilityProbe {
+
+    // Name of the preferences holding the static part
+    private static final String PREFS = "backgroundmode.capabilities";
+
+    // Max time in ms a caller waits for the first probe
+    private static final long PROBE_TIMEOUT = 2000;
+
+    // Probe of the process
+    private static CapabilityProbe instance;
+
+    // Context used to query the services
+    private final Context context;
+
+    // Counted down once the first probe completed
+    private final CountDownLatch probed = new CountDownLatch(1);
+
+    // Static part as persisted
+    private volatile JSONObject features = new JSONObject();
+
+    // Settings screen of the OEM to allow the app start, null if none
+    private volatile Intent autostart;
+
+    // User controlled state
+    private volatile boolean ignoringBatteryOptimizations, exactAlarms;
+
+    // Flag indicates if the static part came from the preferences
+    private volatile boolean cached;
+
+    // Time in µs the last probe took
+    private volatile long probeTime;
+
+    private CapabilityProbe (Context context)
+    {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * Returns the probe of the app, probing on first use.
+     *
+     * @param context The context of the app.
+     */
+    static synchronized CapabilityProbe get (Context context)
+    {
+        if (instance == null) {
+            instance = new CapabilityProbe(context);
+            ActionExecutor.get().execute("probe", instance::probe);
+        }
+
+        return instance;
+    }
+
+    /**
+     * Query the user controlled state again, e.g. when the app comes back
+     * from the system settings.
+     */
+    void refresh()
+    {
+        ActionExecutor.get().execute("refresh", this::refreshState);
+    }
+
+    /**
+     * Returns the settings screen of the OEM to allow the app start, null
+     * if the device has none.
+     */
+    Intent getAutostartIntent()
+    {
+        await();
+
+        return autostart != null ? new Intent(autostart) : null;
+    }
+
+    /**
+     * Returns true if the app is on the Doze whitelist.
+     */
+    boolean isIgnoringBatteryOptimizations()
+    {
+        await();
+
+        return ignoringBatteryOptimizations;
+    }
+
+    /**
+     * Returns all capabilities as result of the capabilities action.
+     */
+    JSONObject toJSON()
+    {
+        JSONObject json;
+
+        await();
+
+        try {
+            json = new JSONObject(features.toString());
+            json.put("ignoringBatteryOptimizations", ignoringBatteryOptimizations);
+            json.put("exactAlarms", exactAlarms);
+            json.put("cached", cached);
+            json.put("probeTime", probeTime);
+        } catch (Exception e) {
+            json = new JSONObject();
+        }
+
+        return json;
+    }
+
+    /**
+     * Load the static part if probed before on this build, probe it
+     * otherwise, and query the user controlled state.
+     */
+    private void probe()
+    {
+        long started            = System.nanoTime();
+        SharedPreferences prefs = context.getSharedPreferences(PREFS, MODE_PRIVATE);
+        String key              = getKey();
+
+        try {
+            if (key.equals(prefs.getString("key", null))) {
+                load(new JSONObject(prefs.getString("features", "{}")));
+                cached = true;
+            } else {
+                load(probeFeatures());
+                prefs.edit()
+                     .putString("key", key)
+                     .putString("features", features.toString())
+                     .apply();
+            }
+        } catch (Exception e) {
+            Log.e("BackgroundMode", "Failed to probe capabilities: " + e.getMessage());
+        }
+
+        refreshState();
+
+        probeTime = Metrics.microsSince(started);
+        probed.countDown();
+    }
+
+    /**
+     * Query the battery optimization and exact alarm state.
+     */
+    private void refreshState()
+    {
+        PowerManager pm = (PowerManager) context.getSystemService(POWER_SERVICE);
+        AlarmManager am = (AlarmManager) context.getSystemService(ALARM_SERVICE);
+
+        ignoringBatteryOptimizations = SDK_INT < Build.VERSION_CODES.M
+                || (pm != null && pm.isIgnoringBatteryOptimizations(context.getPackageName()));
+
+        exactAlarms = SDK_INT < Build.VERSION_CODES.S
+                || (am != null && am.canScheduleExactAlarms());
+    }
+
+    /**
+     * Take over the static part.
+     *
+     * @param json The static part as persisted.
+     */
+    private void load (JSONObject json) throws Exception
+    {
+        String uri = json.optString("autostart", null);
+
+        autostart = uri != null ? Intent.parseUri(uri, 0) : null;
+        features  = json;
+    }
+
+    /**
+     * Probe the static part.
+     */
+    private JSONObject probeFeatures() throws Exception
+    {
+        JSONObject json   = new JSONObject();
+        PackageManager pm = context.getPackageManager();
+
+        for (Intent intent : getAppStartIntents())
+        {
+            if (pm.resolveActivity(intent, MATCH_DEFAULT_ONLY) != null) {
+                json.put("autostart", intent.toUri(0));
+                break;
+            }
+        }
+
+        json.put("manufacturer", Build.MANUFACTURER);
+        json.put("model", Build.MODEL);
+        json.put("sdk", SDK_INT);
+        json.put("doze", SDK_INT >= Build.VERSION_CODES.M);
+        json.put("thermalStatus", SDK_INT >= Build.VERSION_CODES.Q);
+        json.put("sharedMemory", SDK_INT >= Build.VERSION_CODES.O_MR1);
+        json.put("exactAlarmPermission", SDK_INT >= Build.VERSION_CODES.S);
+        json.put("notificationPermission", SDK_INT >= Build.VERSION_CODES.TIRAMISU);
+
+        return json;
+    }
+
+    /**
+     * Returns the key the static part is valid for: the build fingerprint
+     * and the time the package got installed or updated.
+     */
+    private String getKey()
+    {
+        long updated = 0;
+
+        try {
+            updated = context.getPackageManager()
+                             .getPackageInfo(context.getPackageName(), 0)
+                             .lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            // can't happen for the own package
+        }
+
+        return Build.FINGERPRINT + "@" + updated;
+    }
+
+    /**
+     * Wait for the first probe to complete.
+     */
+    private void await()
+    {
+        try {
+            probed.await(PROBE_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns list of all possible intents to present the app start settings.
+     */
+    private static List<Intent> getAppStartIntents()
+    {
+        return Arrays.asList(
+            new Intent().setComponent(new ComponentName("com.miui.securitycenter","com.miui.permcenter.autostart.AutoStartManagementActivity")),
+            new Intent().setComponent(new ComponentName("com.letv.android.letvsafe", "com.letv.android.letvsafe.AutobootManageActivity")),
+            new Intent().setComponent(new ComponentName("com.huawei.systemmanager", "com.huawei.systemmanager.appcontrol.activity.StartupAppControlActivity")),
+            new Intent().setComponent(new ComponentName("com.huawei.systemmanager", "com.huawei.systemmanager.optimize.process.ProtectActivity")),
+            new Intent().setComponent(new ComponentName("com.coloros.safecenter", "com.coloros.safecenter.permission.startup.StartupAppListActivity")),
+            new Intent().setComponent(new ComponentName("com.coloros.safecenter", "com.coloros.safecenter.startupapp.StartupAppListActivity")),
+            new Intent().setComponent(new ComponentName("com.oppo.safe", "com.oppo.safe.permission.startup.StartupAppListActivity")),
+            new Intent().setComponent(new ComponentName("com.iqoo.secure", "com.iqoo.secure.ui.phoneoptimize.AddWhiteListActivity")),
+            new Intent().setComponent(new ComponentName("com.iqoo.secure", "com.iqoo.secure.ui.phoneoptimize.BgStartUpManager")),
+            new Intent().setComponent(new ComponentName("com.vivo.permissionmanager", "com.vivo.permissionmanager.activity.BgStartUpManagerActivity")),
+            new Intent().setComponent(new ComponentName("com.asus.mobilemanager", "com.asus.mobilemanager.autostart.AutoStartActivity")),
+            new Intent().setComponent(new ComponentName("com.asus.mobilemanager", "com.asus.mobilemanager.entry.FunctionActivity")).setData(Uri.parse("mobilemanager://function/entry/AutoStart")),
+            new Intent().setAction("com.letv.android.permissionautoboot"),
+            new Intent().setComponent(new ComponentName("com.samsung.android.sm_cn", "com.samsung.android.sm.ui.ram.AutoRunActivity")),
+            new Intent().setComponent(ComponentName.unflattenFromString("com.iqoo.secure/.MainActivity")),
+            new Intent().setComponent(ComponentName.unflattenFromString("com.meizu.safe/.permission.SmartBGActivity")),
+            new Intent().setComponent(new ComponentName("com.yulong.android.coolsafe", ".ui.activity.autorun.AutoRunListActivity")),
+            new Intent().setComponent(new ComponentName("cn.nubia.security2", "cn.nubia.security.appmanage.selfstart.ui.SelfStartActivity")),
+            new Intent().setComponent(new ComponentName("com.zui.safecenter", "com.lenovo.safecenter.MainTab.LeSafeMainActivity"))
+        );
+    }
+}
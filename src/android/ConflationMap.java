@@ -0,0 +1,215 @@
+package de.einfachhans.BackgroundMode;
+
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps only the latest quote per instrument for consumers which are slower
+ * than the feed. Open addressing with linear probing over primitive arrays,
+ * each slot carries a dirty flag so a consumer drains only what changed
+ * since its last visit.
+ *
+ * Lock-free for a single writer (the reader thread of the stream) and any
+ * number of readers. A per-slot sequence number lets readers detect and
+ * retry torn reads.
+ */
+class ConflationMap {
+
+    // Marks an unused slot, ticks with the id get rejected
+    private static final int EMPTY = Integer.MIN_VALUE;
+
+    // Instrument id of each slot
+    private final AtomicIntegerArray keys;
+
+    // Latest values of each slot
+    private final AtomicLongArray prices, sizes, times;
+
+    // Odd while the writer updates the slot
+    private final AtomicLongArray seqs;
+
+    // Set when the slot got updated since the last drain
+    private final AtomicIntegerArray dirty;
+
+    // Capacity - 1, capacity is a power of two
+    private final int mask;
+
+    // Counters exposed for diagnostics
+    private volatile long updates, delivered, rejected;
+    private volatile int size;
+
+    /**
+     * Creates a map from the conflation section of the settings.
+     *
+     * @param spec The conflation settings.
+     */
+    ConflationMap (JSONObject spec)
+    {
+        int capacity = Integer.highestOneBit(Math.max(16, spec.optInt("capacity", 4096)) * 2 - 1);
+
+        keys   = new AtomicIntegerArray(capacity);
+        prices = new AtomicLongArray(capacity);
+        sizes  = new AtomicLongArray(capacity);
+        times  = new AtomicLongArray(capacity);
+        seqs   = new AtomicLongArray(capacity);
+        dirty  = new AtomicIntegerArray(capacity);
+        mask   = capacity - 1;
+
+        for (int i = 0; i < capacity; i++) {
+            keys.set(i, EMPTY);
+        }
+    }
+
+    /**
+     * Returns true if the spec asks for a conflation map.
+     *
+     * @param spec The conflation settings.
+     */
+    static boolean isConfigured (JSONObject spec)
+    {
+        return spec != null && spec.optInt("capacity", 4096) > 0;
+    }
+
+    /**
+     * Store the ticks of the batch, overwriting older values of the same
+     * instrument. Must only be called by a single writer thread.
+     *
+     * @param batch The parsed quotes.
+     */
+    void put (QuoteStream.Batch batch)
+    {
+        for (int i = 0; i < batch.size; i++) {
+            put(batch.ids[i], batch.prices[i], batch.sizes[i], batch.times[i]);
+        }
+
+        updates += batch.size;
+    }
+
+    /**
+     * Store a single tick.
+     */
+    private void put (int id, double price, int size, long time)
+    {
+        int slot = find(id);
+
+        if (slot < 0) {
+            rejected++;
+            return;
+        }
+
+        seqs.incrementAndGet(slot);
+        prices.set(slot, Double.doubleToRawLongBits(price));
+        sizes.set(slot, size);
+        times.set(slot, time);
+        seqs.incrementAndGet(slot);
+        dirty.set(slot, 1);
+    }
+
+    /**
+     * Returns the slot of the instrument, claiming a free one if needed.
+     *
+     * @return The slot or -1 if the map is full or the id is reserved.
+     */
+    private int find (int id)
+    {
+        // a claimed slot would still read as unused
+        if (id == EMPTY)
+            return -1;
+
+        int slot = mix(id) & mask;
+
+        for (int n = 0; n <= mask; n++, slot = (slot + 1) & mask)
+        {
+            int key = keys.get(slot);
+
+            if (key == id)
+                return slot;
+
+            if (key == EMPTY) {
+                keys.set(slot, id);
+                size++;
+                return slot;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Collect the latest values of all instruments updated since the last
+     * drain and clear their dirty flag. Instruments added while draining
+     * may be left for the next call.
+     *
+     * @param max Max number of instruments to return, 0 for no limit.
+     *
+     * @return The latest quotes.
+     */
+    QuoteStream.Batch drain (int max)
+    {
+        int limit               = Math.max(1, max > 0 ? Math.min(max, size) : size);
+        QuoteStream.Batch ticks = new QuoteStream.Batch(limit);
+
+        for (int slot = 0; slot <= mask && !ticks.isFull(); slot++)
+        {
+
+            if (dirty.get(slot) == 0 || !dirty.compareAndSet(slot, 1, 0))
+                continue;
+
+            long seq, price, size, time;
+
+            do {
+                seq   = seqs.get(slot);
+                price = prices.get(slot);
+                size  = sizes.get(slot);
+                time  = times.get(slot);
+            } while ((seq & 1) != 0 || seq != seqs.get(slot));
+
+            int i = ticks.size++;
+
+            ticks.ids[i]    = keys.get(slot);
+            ticks.prices[i] = Double.longBitsToDouble(price);
+            ticks.sizes[i]  = (int) size;
+            ticks.times[i]  = time;
+        }
+
+        synchronized (this) {
+            delivered += ticks.size;
+        }
+
+        return ticks;
+    }
+
+    /**
+     * Returns the counters of the map. The ratio tells how many updates
+     * were folded into a single delivered value.
+     */
+    JSONObject getStats()
+    {
+        JSONObject stats = new JSONObject();
+        long in          = updates;
+        long out         = delivered;
+
+        try {
+            stats.put("instruments", size);
+            stats.put("capacity", mask + 1);
+            stats.put("updates", in);
+            stats.put("delivered", out);
+            stats.put("rejected", rejected);
+            stats.put("ratio", out > 0 ? (double) in / out : 0);
+        } catch (Exception e) {
+            // can't happen for primitive values
+        }
+
+        return stats;
+    }
+
+    /**
+     * Spread the bits of the instrument id over the table.
+     */
+    private static int mix (int id)
+    {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
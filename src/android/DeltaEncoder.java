@@ -0,0 +1,274 @@
+package de.einfachhans.BackgroundMode;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Encodes quote batches as field-level deltas against the last state sent
+ * per instrument. Only fields which changed are written, times are sent as
+ * small offsets to the previous time. Every n-th frame, or when asked for,
+ * a full frame with all fields of all known instruments resyncs the
+ * receiver.
+ *
+ * The frame uses the common header of {@link BinaryFrames} with type
+ * {@link BinaryFrames#TICK_DELTA} and flag 1 for a full frame, followed by
+ * the frame number (u32) and the records. Each record is the instrument
+ * id (i32), a field mask (u8) and the fields present in the mask:
+ * price (f64, bit 0), size (i32, bit 1), time offset in ms (i32, bit 2) or
+ * absolute time (f64, bit 3).
+ */
+class DeltaEncoder {
+
+    // Flag of a full frame
+    static final int FLAG_FULL = 1;
+
+    // Field bits of a record
+    static final int PRICE = 1, SIZE = 2, TIME_DELTA = 4, TIME = 8;
+
+    // Max size of a record in bytes
+    private static final int MAX_RECORD_SIZE = 4 + 1 + 8 + 4 + 8;
+
+    // Marks an unused slot, ticks with the id are skipped
+    private static final int EMPTY = Integer.MIN_VALUE;
+
+    // Number of frames between two full frames, 0 to resync on demand only
+    private final int resyncInterval;
+
+    // Last state sent per instrument, open addressing with linear probing
+    private int[] keys;
+    private double[] prices;
+    private int[] sizes;
+    private long[] times;
+    private int count;
+
+    // Output buffer, sized for the worst case and reused across frames
+    private ByteBuffer out;
+
+    // Number of frames encoded so far
+    private int frames;
+
+    // Flag indicates if the next frame has to be a full one
+    private boolean resync = true;
+
+    // Counters exposed for diagnostics
+    private long rawBytes, encodedBytes;
+
+    /**
+     * @param resyncInterval Frames between two full frames, 0 for on demand.
+     */
+    DeltaEncoder (int resyncInterval)
+    {
+        this.resyncInterval = Math.max(0, resyncInterval);
+        allocate(256);
+    }
+
+    /**
+     * Make the next frame a full one.
+     */
+    synchronized void requestResync()
+    {
+        resync = true;
+    }
+
+    /**
+     * Encode the batch against the last state sent.
+     *
+     * @param batch The parsed quotes.
+     *
+     * @return The encoded frame or null if nothing changed.
+     */
+    synchronized byte[] encode (QuoteStream.Batch batch)
+    {
+        for (int i = 0; i < batch.size; i++) {
+            slot(batch.ids[i]);
+        }
+
+        boolean full = resync || (resyncInterval > 0 && frames % resyncInterval == 0);
+
+        int size = 4 + (full ? count + batch.size : batch.size) * MAX_RECORD_SIZE;
+
+        out = BinaryFrames.begin(out, BinaryFrames.TICK_DELTA, full ? FLAG_FULL : 0, 0, size);
+        out.putInt(frames);
+
+        int records = full ? encodeFull(batch) : encodeDelta(batch);
+
+        rawBytes += (long) batch.size * QuoteStream.TICK_SIZE;
+
+        if (records == 0 && !full)
+            return null;
+
+        BinaryFrames.setCount(out, records);
+        frames++;
+        resync        = false;
+        encodedBytes += out.position();
+
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    /**
+     * Returns the ratio of raw tick bytes to encoded bytes.
+     */
+    synchronized double getRatio()
+    {
+        return encodedBytes > 0 ? (double) rawBytes / encodedBytes : 0;
+    }
+
+    /**
+     * Write the changed fields of each tick.
+     *
+     * @return The number of records written.
+     */
+    private int encodeDelta (QuoteStream.Batch batch)
+    {
+        int records = 0;
+
+        for (int i = 0; i < batch.size; i++)
+        {
+            int slot = slot(batch.ids[i]);
+
+            if (slot < 0)
+                continue;
+
+            int mask   = 0;
+            long delta = batch.times[i] - times[slot];
+
+            if (Double.compare(prices[slot], batch.prices[i]) != 0) mask |= PRICE;
+            if (sizes[slot] != batch.sizes[i]) mask |= SIZE;
+
+            if (delta != 0) {
+                mask |= (delta >= Integer.MIN_VALUE && delta <= Integer.MAX_VALUE) ? TIME_DELTA : TIME;
+            }
+
+            if (mask == 0)
+                continue;
+
+            out.putInt(batch.ids[i]).put((byte) mask);
+
+            if ((mask & PRICE) != 0) out.putDouble(batch.prices[i]);
+            if ((mask & SIZE) != 0) out.putInt(batch.sizes[i]);
+            if ((mask & TIME_DELTA) != 0) out.putInt((int) delta);
+            if ((mask & TIME) != 0) out.putDouble(batch.times[i]);
+
+            store(slot, batch, i);
+            records++;
+        }
+
+        return records;
+    }
+
+    /**
+     * Apply the ticks and write the complete state of all instruments.
+     *
+     * @return The number of records written.
+     */
+    private int encodeFull (QuoteStream.Batch batch)
+    {
+        int records = 0;
+
+        for (int i = 0; i < batch.size; i++)
+        {
+            int slot = slot(batch.ids[i]);
+
+            if (slot >= 0) {
+                store(slot, batch, i);
+            }
+        }
+
+        for (int slot = 0; slot < keys.length; slot++)
+        {
+            if (keys[slot] == EMPTY)
+                continue;
+
+            out.putInt(keys[slot]).put((byte) (PRICE | SIZE | TIME));
+            out.putDouble(prices[slot]).putInt(sizes[slot]).putDouble(times[slot]);
+            records++;
+        }
+
+        return records;
+    }
+
+    /**
+     * Remember the tick as last state sent.
+     */
+    private void store (int slot, QuoteStream.Batch batch, int i)
+    {
+        prices[slot] = batch.prices[i];
+        sizes[slot]  = batch.sizes[i];
+        times[slot]  = batch.times[i];
+    }
+
+    /**
+     * Returns the slot of the instrument, adding it if unknown.
+     *
+     * @return The slot or -1 for the reserved id.
+     */
+    private int slot (int id)
+    {
+        // a claimed slot would still read as unused
+        if (id == EMPTY)
+            return -1;
+
+        int mask = keys.length - 1;
+        int slot = (id * 0x9E3779B9) >>> 16 & mask;
+
+        while (keys[slot] != EMPTY)
+        {
+            if (keys[slot] == id)
+                return slot;
+
+            slot = (slot + 1) & mask;
+        }
+
+        if ((count + 1) * 4 > keys.length * 3) {
+            rehash();
+            return slot(id);
+        }
+
+        keys[slot]   = id;
+        prices[slot] = Double.NaN;
+        sizes[slot]  = 0;
+        times[slot]  = 0;
+        count++;
+
+        return slot;
+    }
+
+    /**
+     * Double the table and move all instruments over.
+     */
+    private void rehash()
+    {
+        int[] oldKeys     = keys;
+        double[] oldPrice = prices;
+        int[] oldSizes    = sizes;
+        long[] oldTimes   = times;
+
+        allocate(oldKeys.length * 2);
+
+        for (int i = 0; i < oldKeys.length; i++)
+        {
+            if (oldKeys[i] == EMPTY)
+                continue;
+
+            int slot = slot(oldKeys[i]);
+
+            prices[slot] = oldPrice[i];
+            sizes[slot]  = oldSizes[i];
+            times[slot]  = oldTimes[i];
+        }
+    }
+
+    /**
+     * Allocate an empty table of the given capacity.
+     */
+    private void allocate (int capacity)
+    {
+        keys   = new int[capacity];
+        prices = new double[capacity];
+        sizes  = new int[capacity];
+        times  = new long[capacity];
+        count  = 0;
+
+        Arrays.fill(keys, EMPTY);
+    }
+}
@@ -0,0 +1,198 @@
+package de.einfachhans.BackgroundMode;
+
+import android.util.Log;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.apache.cordova.PluginResult.Status;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-lived channel to deliver events into JS. A single callback is kept
+ * open and carries the events as structured batches, so no script has to be
+ * evaluated per event. Events fired within the same window are coalesced
+ * into one bridge crossing.
+ */
+class EventChannel implements Runnable {
+
+    // Default time in ms an event waits for others to join its batch
+    private static final int DEFAULT_WINDOW = 16;
+
+    // Max number of events kept while no callback is registered
+    private static final int MAX_PENDING = 256;
+
+    // Flushes the batches off the UI thread
+    private final ScheduledExecutorService executor =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "backgroundmode-events");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    // Callback kept open to push the batches into JS
+    private CallbackContext callback;
+
+    // Events waiting to be delivered
+    private JSONArray pending = new JSONArray();
+
+    // System.nanoTime when the oldest pending event was queued
+    private long queuedAt;
+
+    // Flag indicates if a flush is scheduled
+    private boolean scheduled;
+
+    // Time in ms an event waits for others to join its batch
+    private int window = DEFAULT_WINDOW;
+
+    // Counters exposed for diagnostics
+    private long events, batches, dropped;
+
+    /**
+     * Register the callback which carries the batches. Events queued before
+     * are delivered right away.
+     *
+     * @param callback The callback context kept open for the events.
+     */
+    synchronized void open (CallbackContext callback)
+    {
+        PluginResult res = new PluginResult(Status.NO_RESULT);
+
+        res.setKeepCallback(true);
+        callback.sendPluginResult(res);
+
+        this.callback = callback;
+
+        if (pending.length() > 0) {
+            schedule();
+        }
+    }
+
+    /**
+     * Set the time an event waits for others to join its batch.
+     *
+     * @param window The time in ms, 0 to deliver with the next flush.
+     */
+    synchronized void setWindow (int window)
+    {
+        this.window = Math.max(0, window);
+    }
+
+    /**
+     * Queue an event for delivery.
+     *
+     * @param event  The name of the event.
+     * @param active The new active state or null to leave it untouched.
+     * @param data   Optional JSON compatible argument of the event.
+     */
+    synchronized void send (String event, Boolean active, Object data)
+    {
+        JSONObject item = new JSONObject();
+
+        try {
+            item.put("event", event);
+
+            if (active != null) {
+                item.put("active", active.booleanValue());
+            }
+
+            if (data != null) {
+                item.put("data", data);
+            }
+        } catch (Exception e) {
+            Log.e("BackgroundMode", "Failed to serialize event: " + e.getMessage());
+            return;
+        }
+
+        if (callback == null && pending.length() >= MAX_PENDING) {
+            dropped++;
+            return;
+        }
+
+        if (pending.length() == 0) {
+            queuedAt = System.nanoTime();
+        }
+
+        events++;
+        pending.put(item);
+
+        if (callback != null) {
+            schedule();
+        }
+    }
+
+    /**
+     * Returns the counters of the channel.
+     */
+    synchronized JSONObject getStats()
+    {
+        JSONObject stats = new JSONObject();
+
+        try {
+            stats.put("events", events);
+            stats.put("batches", batches);
+            stats.put("dropped", dropped);
+        } catch (Exception e) {
+            // can't happen for primitive values
+        }
+
+        return stats;
+    }
+
+    /**
+     * Deliver the pending events right away and stop delivering events.
+     */
+    void close()
+    {
+        run();
+
+        synchronized (this) {
+            callback = null;
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Deliver the pending events as one batch.
+     */
+    @Override
+    public void run()
+    {
+        JSONArray batch;
+        CallbackContext cb;
+
+        synchronized (this) {
+            scheduled = false;
+            cb        = callback;
+
+            if (cb == null || pending.length() == 0)
+                return;
+
+            batch   = pending;
+            pending = new JSONArray();
+            batches++;
+
+            Metrics.EVENT_LATENCY.record(Metrics.microsSince(queuedAt));
+        }
+
+        PluginResult res = new PluginResult(Status.OK, batch);
+        res.setKeepCallback(true);
+        cb.sendPluginResult(res);
+    }
+
+    /**
+     * Schedule a flush unless one is pending already.
+     */
+    private void schedule()
+    {
+        if (scheduled || executor.isShutdown())
+            return;
+
+        scheduled = true;
+        executor.schedule(this, window, TimeUnit.MILLISECONDS);
+    }
+}
@@ -1,24 +1,18 @@
 package de.einfachhans.BackgroundMode;
 
-import android.annotation.SuppressLint;
-import android.annotation.TargetApi;
-import android.app.Notification;
 import android.app.NotificationManager;
-import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
-import android.content.res.Resources;
 import android.os.Binder;
-import android.os.Build;
 import android.os.IBinder;
 import android.os.PowerManager;
-import android.app.NotificationChannel;
 import android.util.Log;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 
-import static android.os.PowerManager.PARTIAL_WAKE_LOCK;
+import java.util.ArrayDeque;
 
 /**
  * Puts the service in a foreground state, where the system considers it to be
@@ -30,6 +24,9 @@ public class ForegroundService extends Service {
     // Fixed ID for the 'foreground' notification
     public static final int NOTIFICATION_ID = -574543954;
 
+    // Extra of a start without the plugin, e.g. by the session calendar
+    static final String EXTRA_RESTORE = "restore";
+
     // Default title of the background notification
     private static String NOTIFICATION_TITLE;
 
@@ -37,14 +34,78 @@ public class ForegroundService extends Service {
     private static final String NOTIFICATION_TEXT =
             "報價服務持續運作中...";
 
-    // Default icon of the background notification
-    private static final String NOTIFICATION_ICON = "icon";
+    // Max number of alerts kept while nobody listens
+    private static final int MAX_PENDING_ALERTS = 100;
 
     // Binder given to clients
     private final IBinder binder = new ForegroundBinder();
 
+    // Renders the notification with a bounded frame rate
+    private NotificationUpdater notifications;
+
     // Partial wake lock to prevent the app from going to sleep when locked
-    private PowerManager.WakeLock wakeLock;
+    private WakeLockManager wakeLocks;
+
+    // Wake lock level of the top keep-alive token
+    private volatile int wakeLockLevel = KeepAliveTokens.NORMAL;
+
+    // Native connection to the quote feed, if configured
+    private volatile QuoteStream stream;
+
+    // Receiver of the parsed quote batches
+    private volatile QuoteStream.Listener streamListener;
+
+    // Records the quotes while the app is in background
+    private volatile TickBuffer tickBuffer;
+
+    // Flag indicates if the quotes go into the buffer instead of JS
+    private boolean buffering;
+
+    // Guards the buffering flag, so a batch is either recorded before the
+    // buffer gets drained or forwarded after the drained quotes
+    private final Object bufferLock = new Object();
+
+    // Latest quote per instrument for slow consumers
+    private volatile ConflationMap conflation;
+
+    // Evaluates the price alerts against the quotes
+    private AlertEngine alerts;
+
+    // Receiver of the triggered alerts
+    private AlertEngine.Listener alertListener;
+
+    // Alerts triggered while nobody listens, oldest first
+    private final ArrayDeque<JSONObject> pendingAlerts = new ArrayDeque<>();
+
+    // Runs the periodic tasks
+    private TaskScheduler scheduler;
+
+    // Keeps the connections alive through Doze
+    private Heartbeat heartbeat;
+
+    // Receiver of the task runs
+    private volatile TaskScheduler.Listener taskListener;
+
+    // Tells if the screen is on
+    private ScreenMonitor screen;
+
+    // Subscription to the screen state
+    private final ScreenMonitor.Listener screenListener = this::onScreenChange;
+
+    // Throttles the background work by battery and thermal state
+    private ThrottlePolicy throttle;
+
+    // Subscription to the throttle level
+    private final ThrottlePolicy.Listener throttleListener = this::onThrottle;
+
+    // Persisted session state for a warm restart, null if not available
+    private SessionSnapshot snapshot;
+
+    // Flag indicates if the restored session had the background mode disabled
+    private boolean restoredDisabled;
+
+    // Time of the last quote of the restored session, the next stream resumes after it
+    private long restoredCursor;
 
     /**
      * Allow clients to call on to the service.
@@ -55,8 +116,9 @@ public class ForegroundService extends Service {
     }
 
     /**
-     * Class used for the client Binder.  Because we know this service always
-     * runs in the same process as its clients, we don't need to deal with IPC.
+     * Class used for the client Binder. This service runs in the same process
+     * as its clients, so we don't need to deal with IPC. See
+     * RemoteForegroundService for the one in its own process.
      */
     class ForegroundBinder extends Binder
     {
@@ -79,7 +141,26 @@ public class ForegroundService extends Service {
         // Dynamically fetch app name as notification title
         Context context = getApplicationContext();
         NOTIFICATION_TITLE = context.getString(context.getApplicationInfo().labelRes);
+        notifications = new NotificationUpdater(context, getNotificationManager(),
+                NOTIFICATION_TITLE, NOTIFICATION_TEXT);
+        snapshot = SessionSnapshot.open(context);
+        screen = ScreenMonitor.get(context);
+        screen.addListener(screenListener);
+        notifications.setPaused(!screen.isInteractive());
+        throttle = ThrottlePolicy.get(context);
+        throttle.configure(BackgroundMode.getSettings().throttle);
+        throttle.addListener(throttleListener);
+        notifications.setThrottle(throttle.getLevel());
         keepAwake();
+        alerts    = new AlertEngine(this::onAlert);
+        scheduler = new TaskScheduler(context, this::onTask, wakeLocks);
+        heartbeat = new Heartbeat(context, wakeLocks);
+        heartbeat.addWork(this::beatStream);
+        updateScheduler(BackgroundMode.getSettings());
+        updateHeartbeat(BackgroundMode.getSettings());
+        updateTickBuffer(BackgroundMode.getSettings());
+        updateConflation(BackgroundMode.getSettings());
+        updateStream(BackgroundMode.getSettings());
     }
 
     /**
@@ -89,38 +170,72 @@ public class ForegroundService extends Service {
     public void onDestroy()
     {
         super.onDestroy();
+        screen.removeListener(screenListener);
+        throttle.removeListener(throttleListener);
+        scheduler.shutdown();
+        heartbeat.shutdown();
+        stopStream();
         sleepWell();
     }
 
     /**
      * Prevent Android from stopping the background service automatically.
+     * A null intent tells that the system restarted the service after the
+     * process died, only then and on a start without the plugin the
+     * previous session gets restored. Such a restart is not kept alive if
+     * the session had the mode disabled.
      */
     @Override
     public int onStartCommand (Intent intent, int flags, int startId) {
+        if (intent == null || intent.getBooleanExtra(EXTRA_RESTORE, false)) {
+            restoreSession();
+        }
+
+        if (intent == null && restoredDisabled) {
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+
         return START_STICKY;
     }
 
+    /**
+     * Restore the settings of the previous session if nothing has been
+     * configured yet and apply them to the running components.
+     */
+    private void restoreSession()
+    {
+        if (snapshot == null || !BackgroundMode.getSettings().isEmpty())
+            return;
+
+        SessionSnapshot.State state = snapshot.restore();
+
+        if (state == null || !BackgroundMode.restoreSettings(state.settings))
+            return;
+
+        restoredDisabled = !state.enabled;
+        restoredCursor   = state.cursor;
+        configure(ModeSettings.EMPTY, state.settings, state.settings.toJSON(), true);
+    }
+
     /**
      * Put the service in a foreground state to prevent app from being killed
      * by the OS.
      */
-    @SuppressLint("WakelockTimeout")
     private void keepAwake()
     {
-        
-        JSONObject settings = BackgroundMode.getSettings();
-        boolean isSilent    = settings.optBoolean("silent", false);
+        ModeSettings settings = BackgroundMode.getSettings();
 
-        if (!isSilent) {
+        if (!settings.silent) {
             updateNotification(settings);
         }
 
         PowerManager pm = (PowerManager)getSystemService(POWER_SERVICE);
 
-        wakeLock = pm.newWakeLock(
-                PARTIAL_WAKE_LOCK, "backgroundmode:wakelock");
-
-        wakeLock.acquire();
+        wakeLocks = new WakeLockManager(pm);
+        wakeLocks.configure(settings.wakeLock);
+        wakeLocks.setLevel(wakeLockLevel);
+        wakeLocks.start();
     }
 
     /**
@@ -128,159 +243,506 @@ public class ForegroundService extends Service {
      */
     private void sleepWell()
     {
+        notifications.cancel();
         stopForeground(true);
         getNotificationManager().cancel(NOTIFICATION_ID);
 
-        if (wakeLock != null) {
-            wakeLock.release();
-            wakeLock = null;
+        if (wakeLocks != null) {
+            wakeLocks.stop();
+            wakeLocks = null;
         }
     }
 
     /**
-     * Create a notification as the visible part to be able to put the service
-     * in a foreground state by using the default settings.
+     * Apply the changed sections of the settings to the running components.
+     *
+     * @param prev    The settings before the change.
+     * @param next    The settings after the change.
+     * @param changes The changed sections as passed to configure.
+     * @param update  Set to true to update the notification.
      */
-    private Notification makeNotification()
+    void configure (ModeSettings prev, ModeSettings next, JSONObject changes, boolean update)
     {
-        return makeNotification(BackgroundMode.getSettings());
+        if (update && !next.isSameNotification(prev)) {
+            updateNotification(next); // 更新通知
+        }
+
+        if (changes.has("tickBuffer")) {
+            updateTickBuffer(next);
+        }
+
+        if (changes.has("conflation")) {
+            updateConflation(next);
+        }
+
+        if (changes.has("stream")) {
+            updateStream(next);
+        }
+
+        if (changes.has("wakeLock")) {
+            updateWakeLock(next);
+        }
+
+        if (changes.has("scheduler")) {
+            updateScheduler(next);
+        }
+
+        if (changes.has("heartbeat")) {
+            updateHeartbeat(next);
+        }
+
+        if (changes.has("throttle")) {
+            throttle.configure(next.throttle);
+        }
     }
 
     /**
-     * Create a notification as the visible part to be able to put the service
-     * in a foreground state.
+     * Apply the wake lock policy of the settings.
      *
      * @param settings The config settings
      */
-    private Notification makeNotification(JSONObject settings) {
-        String CHANNEL_ID = "cordova-plugin-background-mode-id";
-        if (Build.VERSION.SDK_INT >= 26) {
-            CharSequence name = "cordova-plugin-background-mode";
-            String description = "cordova-plugin-background-mode notification";
-            int importance = NotificationManager.IMPORTANCE_LOW;
+    void updateWakeLock (ModeSettings settings)
+    {
+        if (wakeLocks != null) {
+            wakeLocks.configure(settings.wakeLock);
+        }
+    }
+
+    /**
+     * Follow the priority of the top keep-alive token.
+     *
+     * @param level The priority of the top holder.
+     */
+    void setWakeLockLevel (int level)
+    {
+        WakeLockManager locks = wakeLocks;
+
+        wakeLockLevel = level;
 
-            NotificationChannel mChannel = new NotificationChannel(CHANNEL_ID, name, importance);
-            mChannel.setDescription(description);
-            getNotificationManager().createNotificationChannel(mChannel);
+        if (locks != null) {
+            locks.setLevel(level);
         }
+    }
 
-        String title = settings.optString("title", NOTIFICATION_TITLE);
-        String text = settings.optString("text", NOTIFICATION_TEXT);
+    /**
+     * Apply the scheduler section of the settings.
+     *
+     * @param settings The config settings
+     */
+    void updateScheduler (ModeSettings settings)
+    {
+        if (settings.scheduler != null) {
+            scheduler.setSlack(settings.scheduler.optLong("slack", 20));
+        }
+    }
 
-        Context context = getApplicationContext();
-        Intent intent = context.getPackageManager().getLaunchIntentForPackage(context.getPackageName());
-        if (intent == null) {
-            // 如果無法取得啟動頁 Intent，提供一個默認的 Intent
-            intent = context.getPackageManager().getLaunchIntentForPackage(context.getPackageName()); // 替換 MainActivity 為你的主頁 Activity
+    /**
+     * Called when the screen turns on or off. Notification updates are held
+     * back while nobody can see them.
+     *
+     * @param interactive Set to true if the screen is on.
+     * @param unlocked    Set to true if the user unlocked the device.
+     */
+    private void onScreenChange (boolean interactive, boolean unlocked)
+    {
+        notifications.setPaused(!interactive);
+    }
+
+    /**
+     * Called when the throttle level changes. Slows down the notification
+     * updates and the batches of the quote stream.
+     *
+     * @param level The new level.
+     */
+    private void onThrottle (int level)
+    {
+        QuoteStream s = stream;
+
+        notifications.setThrottle(level);
+
+        if (s != null) {
+            s.setThrottle(level);
         }
+    }
+
+    /**
+     * Apply the heartbeat section of the settings.
+     *
+     * @param settings The config settings
+     */
+    void updateHeartbeat (ModeSettings settings)
+    {
+        heartbeat.configure(settings.heartbeat);
+    }
+
+    /**
+     * Keep-alive work of the quote stream, run with each heartbeat.
+     *
+     * @return false if the connection got lost since the last beat.
+     */
+    private boolean beatStream()
+    {
+        QuoteStream s = stream;
+
+        return s == null || s.sendHeartbeat();
+    }
+
+    /**
+     * Set the receiver of the task runs.
+     *
+     * @param listener The receiver or null to skip the runs.
+     */
+    void setTaskListener (TaskScheduler.Listener listener)
+    {
+        taskListener = listener;
+    }
+
+    /**
+     * Register a periodic task, replacing any task with the same id.
+     *
+     * @param spec The task with id, interval, mode, jitter and align.
+     */
+    void scheduleTask (JSONObject spec)
+    {
+        scheduler.schedule(spec);
+    }
+
+    /**
+     * Remove the periodic task with the given id.
+     *
+     * @param id The id of the task.
+     */
+    void cancelTask (String id)
+    {
+        scheduler.cancel(id);
+    }
+
+    /**
+     * Called on the scheduler thread for each run of a task.
+     */
+    private void onTask (String id, long late)
+    {
+        TaskScheduler.Listener listener = taskListener;
 
-        // 確保 Intent 啟動 APP 並清除多餘的 Activity 堆疊
-        intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_SINGLE_TOP);
-
-        PendingIntent contentIntent = PendingIntent.getActivity(
-                context,
-                NOTIFICATION_ID,
-                intent,
-                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
-        );
-
-        Notification.Builder notification = new Notification.Builder(context)
-                .setContentTitle(title)
-                .setContentText(text)
-                .setOngoing(true)
-                .setSmallIcon(getIconResId(settings))
-                .setContentIntent(contentIntent); // 點擊通知後執行
-
-        if (Build.VERSION.SDK_INT >= 26) {
-            notification.setChannelId(CHANNEL_ID);
+        if (listener != null) {
+            listener.onTask(id, late);
         }
+    }
+
+    /**
+     * Arm the price alerts, replacing alerts with the same id.
+     *
+     * @param rules The rules with id, instrument, type and level.
+     *
+     * @return The number of rules which got rejected as invalid.
+     */
+    int addAlerts (JSONArray rules)
+    {
+        return alerts.add(rules);
+    }
+
+    /**
+     * Disarm the price alerts with the given ids.
+     *
+     * @param ids The ids of the rules.
+     */
+    void removeAlerts (JSONArray ids)
+    {
+        alerts.remove(ids);
+    }
+
+    /**
+     * Disarm all price alerts.
+     */
+    void clearAlerts()
+    {
+        alerts.clear();
+    }
+
+    /**
+     * Set the receiver of the triggered alerts. Alerts triggered while
+     * nobody listened are handed over first.
+     *
+     * @param listener The receiver or null to keep the alerts.
+     */
+    void setAlertListener (AlertEngine.Listener listener)
+    {
+        synchronized (pendingAlerts)
+        {
+            alertListener = listener;
+
+            while (listener != null && !pendingAlerts.isEmpty()) {
+                listener.onAlert(pendingAlerts.poll());
+            }
+        }
+    }
+
+    /**
+     * Called for each triggered alert. Posts the notification right away
+     * and hands the alert to JS, or keeps it until somebody listens.
+     *
+     * @param alert The triggered rule with price and time.
+     */
+    private void onAlert (JSONObject alert)
+    {
+        if (alert.optBoolean("notify", true)) {
+            notifications.postAlert(alert.optString("id"),
+                    alert.optString("title", null), getAlertText(alert),
+                    BackgroundMode.getSettings().icon);
+        }
+
+        synchronized (pendingAlerts)
+        {
+            if (alertListener != null) {
+                alertListener.onAlert(alert);
+                return;
+            }
+
+            if (pendingAlerts.size() == MAX_PENDING_ALERTS) {
+                pendingAlerts.poll();
+            }
+
+            pendingAlerts.offer(alert);
+        }
+    }
+
+    /**
+     * Returns the text of the alert, built from the rule if it has none.
+     *
+     * @param alert The triggered rule with price and time.
+     */
+    private static String getAlertText (JSONObject alert)
+    {
+        String text = alert.optString("text", null);
 
-        return notification.build();
+        if (text != null)
+            return text;
+
+        return alert.optInt("instrument") + " " + alert.optString("type")
+                + " " + alert.optDouble("level") + ": " + alert.optDouble("price");
+    }
+
+    /**
+     * Returns the wake lock manager of the service, e.g. to register work
+     * which needs the CPU to stay awake.
+     */
+    WakeLockManager getWakeLocks()
+    {
+        return wakeLocks;
     }
 
     /**
-     * Update the notification.
+     * Update the notification. The update is coalesced with other updates
+     * submitted within the same frame and skipped if nothing visible changed.
      *
      * @param settings The config settings
      */
-    protected void updateNotification (JSONObject settings)
+    protected void updateNotification (ModeSettings settings)
     {
-        if (settings == null || settings.length() == 0) {
+        if (settings.isEmpty()) {
             Log.e("BackgroundMode", "Received empty settings in updateNotification");
         }
-        
-        boolean isSilent = settings.optBoolean("silent", false);
 
-        if (isSilent) {
+        if (settings.silent) {
+            notifications.cancel();
             stopForeground(true);
             return;
         }
 
-        Notification notification = makeNotification(settings);
-        getNotificationManager().notify(NOTIFICATION_ID, notification);
+        notifications.setMaxRate(settings.notificationRate);
+        notifications.submit(settings);
+    }
+
+    /**
+     * Returns the counters of the service components.
+     */
+    JSONObject getStats()
+    {
+        JSONObject stats = new JSONObject();
+
+        try {
+            stats.put("notifications", notifications.getStats());
+
+            if (wakeLocks != null) {
+                stats.put("wakeLock", wakeLocks.getStats());
+            }
+
+            if (stream != null) {
+                stats.put("stream", stream.getStats());
+            }
 
+            if (tickBuffer != null) {
+                stats.put("tickBuffer", tickBuffer.getStats());
+            }
+
+            if (conflation != null) {
+                stats.put("conflation", conflation.getStats());
+            }
+
+            if (snapshot != null) {
+                stats.put("session", snapshot.getStats());
+            }
+
+            stats.put("alerts", alerts.getStats());
+            stats.put("scheduler", scheduler.getStats());
+            stats.put("heartbeat", heartbeat.getStats());
+        } catch (Exception e) {
+            Log.e("BackgroundMode", "Failed to collect stats: " + e.getMessage());
+        }
+
+        return stats;
+    }
+
+    /**
+     * Set the receiver of the quote batches.
+     *
+     * @param listener The receiver or null to drop incoming batches.
+     */
+    void setStreamListener (QuoteStream.Listener listener)
+    {
+        streamListener = listener;
+    }
+
+    /**
+     * (Re)connect the quote stream with the given settings. Stops the
+     * stream if the settings do not contain a usable stream section.
+     *
+     * @param settings The config settings
+     */
+    void updateStream (ModeSettings settings)
+    {
+        JSONObject spec = settings.stream;
+
+        stopStream();
+
+        if (!QuoteStream.isConfigured(spec))
+            return;
+
+        stream = new QuoteStream(spec, this::onTicks);
+        stream.resumeFrom(restoredCursor);
+        stream.setThrottle(throttle.getLevel());
+        stream.start();
+
+        // later streams of the session start live
+        restoredCursor = 0;
     }
 
     /**
-     * Retrieves the resource ID of the app icon.
+     * Called on the reader thread for each batch of quotes.
      *
-     * @param settings A JSON dict containing the icon name.
+     * @param batch The parsed quotes.
      */
-    private int getIconResId (JSONObject settings)
+    private void onTicks (QuoteStream.Batch batch)
     {
-        String icon = settings.optString("icon", NOTIFICATION_ICON);
+        QuoteStream.Listener listener = streamListener;
+        WakeLockManager locks         = wakeLocks;
+        TickBuffer buffer             = tickBuffer;
+        ConflationMap latest          = conflation;
+
+        if (locks != null) {
+            locks.touch();
+        }
 
-        int resId = getIconResId(icon, "mipmap");
+        if (snapshot != null && batch.size > 0) {
+            snapshot.setCursor(batch.times[batch.size - 1]);
+        }
 
-        if (resId == 0) {
-            resId = getIconResId(icon, "drawable");
+        if (latest != null) {
+            latest.put(batch);
         }
 
-        return resId;
+        alerts.evaluate(batch);
+
+        synchronized (bufferLock) {
+            if (buffering && buffer != null) {
+                buffer.append(batch);
+            } else if (listener != null) {
+                listener.onTicks(batch);
+            }
+        }
     }
 
     /**
-     * Retrieve resource id of the specified icon.
+     * (Re)create the tick buffer with the given settings. Buffered ticks
+     * of a previous buffer are lost.
      *
-     * @param icon The name of the icon.
-     * @param type The resource type where to look for.
+     * @param settings The config settings
+     */
+    void updateTickBuffer (ModeSettings settings)
+    {
+        JSONObject spec = settings.tickBuffer;
+
+        tickBuffer = TickBuffer.isConfigured(spec) ? new TickBuffer(spec) : null;
+    }
+
+    /**
+     * (Re)create the conflation map with the given settings.
      *
-     * @return The resource id or 0 if not found.
+     * @param settings The config settings
      */
-    private int getIconResId (String icon, String type)
+    void updateConflation (ModeSettings settings)
     {
-        Resources res  = getResources();
-        String pkgName = getPackageName();
+        JSONObject spec = settings.conflation;
 
-        int resId = res.getIdentifier(icon, type, pkgName);
+        conflation = ConflationMap.isConfigured(spec) ? new ConflationMap(spec) : null;
+    }
 
-        if (resId == 0) {
-            resId = res.getIdentifier("icon", type, pkgName);
-        }
+    /**
+     * Returns the latest quote of each instrument updated since the last
+     * call, or null if conflation is not configured.
+     *
+     * @param max Max number of instruments to return, 0 for no limit.
+     */
+    QuoteStream.Batch drainConflated (int max)
+    {
+        ConflationMap latest = conflation;
 
-        return resId;
+        return latest != null ? latest.drain(max) : null;
     }
 
     /**
-     * Set notification color if its supported by the SDK.
+     * Record the quotes in the buffer instead of forwarding them, e.g. while
+     * the web view is throttled in background.
      *
-     * @param notification A Notification.Builder instance
-     * @param settings A JSON dict containing the color definition (red: FF0000)
+     * @param buffering The new state.
      */
-    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
-    private void setColor (Notification.Builder notification, JSONObject settings)
+    void setBuffering (boolean buffering)
     {
+        synchronized (bufferLock) {
+            this.buffering = buffering;
+        }
+    }
 
-        String hex = settings.optString("color", null);
+    /**
+     * Stop buffering and hand the recorded quotes serialized for a bulk
+     * transfer to the sink. The sink runs under the same lock as the
+     * stream listener, so quotes which arrive meanwhile follow the
+     * recorded ones. It must not call back into the service.
+     *
+     * @param sink Receives the serialized quotes if any were recorded.
+     */
+    void drainTicks (RemoteChannel.FrameListener sink)
+    {
+        synchronized (bufferLock) {
+            TickBuffer buffer = tickBuffer;
 
-        if (Build.VERSION.SDK_INT < 21 || hex == null)
-            return;
+            buffering = false;
 
-        try {
-            int aRGB = Integer.parseInt(hex, 16) + 0xFF000000;
-            notification.setColor(aRGB);
-        } catch (Exception e) {
-            e.printStackTrace();
+            if (buffer == null || buffer.size() == 0)
+                return;
+
+            sink.onFrame(buffer.drain());
+        }
+    }
+
+    /**
+     * Disconnect the quote stream.
+     */
+    private void stopStream()
+    {
+        if (stream != null) {
+            stream.stop();
+            stream = null;
         }
     }
 
@@ -0,0 +1,289 @@
+package de.einfachhans.BackgroundMode;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import org.json.JSONObject;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps long-lived connections alive through Doze. An alarm which is
+ * allowed to fire while idle wakes the device once per interval and runs
+ * all registered keep-alive work within that single wakeup.
+ *
+ * The interval adapts to the NAT timeout of the network: it grows by a
+ * step as long as the connections survive and falls back below the lost
+ * interval once a connection got lost between two beats. After that it
+ * stays put for a number of beats before probing again.
+ *
+ * Without the permission for exact alarms the beats degrade to inexact
+ * idle alarms, which Doze may defer well beyond the NAT timeout. The stats
+ * tell if that happened.
+ */
+class Heartbeat {
+
+    /**
+     * Keep-alive work run with each beat.
+     */
+    interface Work
+    {
+        /**
+         * @return false if the connection got lost since the last beat.
+         */
+        boolean beat();
+    }
+
+    // Action of the alarm intent
+    private static final String ACTION = "de.einfachhans.BackgroundMode.HEARTBEAT";
+
+    // Number of beats the interval stays put after a loss
+    private static final int STABLE_BEATS = 10;
+
+    // Number of wakeups remembered to compute the hourly rate
+    private static final int HISTORY = 256;
+
+    // Keeps the CPU awake while the work runs, may be null
+    private final WakeLockManager wakeLocks;
+
+    // Fires the beats and tells the time
+    private final Alarm alarm;
+
+    // Thread receiving the alarm, the work may touch the network
+    private final HandlerThread thread = new HandlerThread("backgroundmode-heartbeat");
+
+    // Registered keep-alive work
+    private final CopyOnWriteArrayList<Work> work = new CopyOnWriteArrayList<>();
+
+    // Elapsed realtime of the last wakeups, used as ring
+    private final long[] history = new long[HISTORY];
+
+    // Bounds and step of the interval in ms
+    private long minInterval = 60000, maxInterval = 28 * 60000, step = 60000;
+
+    // Current and last interval which kept the connections alive
+    private long interval = 4 * 60000, goodInterval;
+
+    // Use setAlarmClock instead of exact idle alarms
+    private boolean alarmClock;
+
+    // Flag indicates if the last beat got an exact alarm
+    private boolean exact = true;
+
+    // Beats left until the interval gets probed again
+    private int stableBeats;
+
+    // Flag indicates if the heartbeat is running
+    private boolean running;
+
+    // Counters exposed for diagnostics
+    private long beats, losses, wakeups;
+
+    /**
+     * @param context   The context of the service.
+     * @param wakeLocks Keeps the CPU awake while the work runs, may be null.
+     */
+    Heartbeat (Context context, WakeLockManager wakeLocks)
+    {
+        this.wakeLocks = wakeLocks;
+
+        thread.start();
+        alarm = new WakeupAlarm(context, ACTION, new Handler(thread.getLooper()), this::onAlarm);
+    }
+
+    /**
+     * @param alarm     Fires the beats by calling {@link #onAlarm()}.
+     * @param wakeLocks Keeps the CPU awake while the work runs, may be null.
+     */
+    Heartbeat (Alarm alarm, WakeLockManager wakeLocks)
+    {
+        this.alarm     = alarm;
+        this.wakeLocks = wakeLocks;
+    }
+
+    /**
+     * Returns true if the spec asks for a heartbeat.
+     *
+     * @param spec The heartbeat settings.
+     */
+    static boolean isConfigured (JSONObject spec)
+    {
+        return spec != null && spec.optBoolean("enabled", true);
+    }
+
+    /**
+     * Apply the heartbeat section of the settings and start or stop the
+     * heartbeat.
+     *
+     * @param spec The heartbeat settings or null to stop.
+     */
+    synchronized void configure (JSONObject spec)
+    {
+        if (!isConfigured(spec)) {
+            stop();
+            return;
+        }
+
+        minInterval  = Math.max(10000, spec.optLong("minInterval", minInterval));
+        maxInterval  = Math.max(minInterval, spec.optLong("maxInterval", maxInterval));
+        step         = Math.max(0, spec.optLong("step", step));
+        interval     = clamp(spec.optLong("interval", interval));
+        goodInterval = 0;
+        stableBeats  = 0;
+        alarmClock   = "alarmClock".equals(spec.optString("mode", "exact"));
+
+        running      = true;
+
+        schedule();
+    }
+
+    /**
+     * Cancel the alarm.
+     */
+    synchronized void stop()
+    {
+        alarm.cancel();
+        running = false;
+    }
+
+    /**
+     * Stop the heartbeat and end its thread.
+     */
+    void shutdown()
+    {
+        stop();
+        thread.quitSafely();
+    }
+
+    /**
+     * Add keep-alive work to run with each beat.
+     *
+     * @param work The work to run.
+     */
+    void addWork (Work work)
+    {
+        this.work.addIfAbsent(work);
+    }
+
+    /**
+     * Called on the heartbeat thread when the alarm fires. Runs all work
+     * and schedules the next beat.
+     */
+    void onAlarm()
+    {
+        boolean alive = true;
+
+        synchronized (this) {
+            if (!running)
+                return;
+
+            history[(int) (wakeups++ % HISTORY)] = alarm.now();
+            beats++;
+        }
+
+        if (wakeLocks != null) {
+            wakeLocks.beginWork();
+        }
+
+        try {
+            for (Work w : work) {
+                alive &= w.beat();
+            }
+        } finally {
+            if (wakeLocks != null) {
+                wakeLocks.endWork();
+            }
+        }
+
+        synchronized (this) {
+            adapt(alive);
+
+            if (running) {
+                schedule();
+            }
+        }
+    }
+
+    /**
+     * Returns the counters of the heartbeat.
+     */
+    synchronized JSONObject getStats()
+    {
+        JSONObject stats = new JSONObject();
+
+        try {
+            stats.put("running", running);
+            stats.put("mode", alarmClock ? "alarmClock" : "exact");
+            stats.put("exact", exact);
+            stats.put("interval", interval);
+            stats.put("goodInterval", goodInterval);
+            stats.put("stable", stableBeats > 0);
+            stats.put("beats", beats);
+            stats.put("losses", losses);
+            stats.put("wakeupsPerHour", getWakeupsPerHour());
+        } catch (Exception e) {
+            // can't happen for primitive values
+        }
+
+        return stats;
+    }
+
+    /**
+     * Grow the interval while the connections survive, fall back to the
+     * last good one once they don't.
+     *
+     * @param alive Set to false if a connection got lost since the last beat.
+     */
+    private void adapt (boolean alive)
+    {
+        if (!alive) {
+            losses++;
+            goodInterval = clamp(Math.min(goodInterval > 0 ? goodInterval : interval, interval - step));
+            interval     = goodInterval;
+            stableBeats  = STABLE_BEATS;
+            return;
+        }
+
+        goodInterval = Math.max(goodInterval, interval);
+
+        if (stableBeats > 0) {
+            stableBeats--;
+        } else {
+            interval = clamp(interval + step);
+        }
+    }
+
+    /**
+     * Returns the number of wakeups within the last hour.
+     */
+    private int getWakeupsPerHour()
+    {
+        long since = alarm.now() - 3600000;
+        int count  = 0;
+
+        for (int i = 0; i < Math.min(wakeups, HISTORY); i++) {
+            if (history[i] > since) count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Arm the alarm for the next beat.
+     */
+    private void schedule()
+    {
+        long at = alarm.now() + interval;
+
+        exact = alarmClock ? alarm.setAlarmClock(at) : alarm.set(at, true);
+    }
+
+    /**
+     * Returns the interval within its bounds.
+     */
+    private long clamp (long value)
+    {
+        return Math.max(minInterval, Math.min(maxInterval, value));
+    }
+}
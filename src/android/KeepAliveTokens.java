@@ -0,0 +1,335 @@
+package de.einfachhans.BackgroundMode;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reference counted demand for the background mode. Each part of the app
+ * holds its own token with an owner, a priority and an optional timeout,
+ * the mode is on while at least one token is held. The priority of the
+ * top holder picks the wake lock level of the service: low holders get
+ * leases on demand only, normal ones the configured policy and high ones
+ * a lock held as long as the service lives.
+ */
+class KeepAliveTokens {
+
+    /**
+     * Receiver of the changes.
+     */
+    interface Listener
+    {
+        /**
+         * @param held  Set to true if at least one token is held.
+         * @param level The priority of the top holder, LOW if none.
+         */
+        void onChange (boolean held, int level);
+    }
+
+    // Priorities of the tokens, also the wake lock levels
+    static final int LOW = 0, NORMAL = 1, HIGH = 2;
+
+    // Names of the priorities as used by JS
+    private static final String[] NAMES = { "low", "normal", "high" };
+
+    // Receiver of the changes
+    private final Listener listener;
+
+    // Expires the tokens with a timeout
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    // Keeps the changes in order, the listener always gets the latest state
+    private final Object notifying = new Object();
+
+    // Held tokens by id in the order of their acquisition
+    private final Map<String, Token> tokens = new LinkedHashMap<>();
+
+    // Sequence number for the generated ids
+    private long seq;
+
+    // Elapsed realtime since at least one token is held, 0 if none
+    private long heldSince;
+
+    // Counters exposed for diagnostics
+    private long acquired, released, expired, heldTime;
+
+    /**
+     * A held token.
+     */
+    private final class Token
+    {
+        final String id;
+        final String owner;
+        final int priority;
+        final long since;
+        final long expires;
+        final Runnable expiry = () -> expire(this);
+
+        Token (String id, String owner, int priority, long since, long expires)
+        {
+            this.id       = id;
+            this.owner    = owner;
+            this.priority = priority;
+            this.since    = since;
+            this.expires  = expires;
+        }
+    }
+
+    /**
+     * @param listener The receiver of the changes.
+     */
+    KeepAliveTokens (Listener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * Hand out a new token.
+     *
+     * @param owner The part of the app asking for the token.
+     * @param spec  The priority (low, normal or high) and the timeout in ms
+     *              after which the token gets released, 0 or missing for none.
+     *
+     * @return The id of the token.
+     */
+    String acquire (String owner, JSONObject spec)
+    {
+        String id;
+
+        synchronized (this) {
+            id = owner + "#" + (++seq);
+        }
+
+        hold(id, owner, spec);
+
+        return id;
+    }
+
+    /**
+     * Hold the token with the given id, replacing a token with the same id.
+     *
+     * @param id    The id of the token.
+     * @param owner The part of the app asking for the token.
+     * @param spec  The priority and the timeout, null for defaults.
+     */
+    void hold (String id, String owner, JSONObject spec)
+    {
+        int priority = parsePriority(spec != null ? spec.optString("priority", null) : null);
+        long timeout = spec != null ? Math.max(0, spec.optLong("timeout", 0)) : 0;
+        long now     = SystemClock.elapsedRealtime();
+        Token token  = new Token(id, owner, priority, now, timeout > 0 ? now + timeout : 0);
+
+        synchronized (this) {
+            Token prev = tokens.put(id, token);
+
+            if (prev != null) {
+                handler.removeCallbacks(prev.expiry);
+            } else {
+                acquired++;
+            }
+
+            if (heldSince == 0) {
+                heldSince = now;
+            }
+
+            if (timeout > 0) {
+                handler.postDelayed(token.expiry, timeout);
+            }
+        }
+
+        notifyChange();
+    }
+
+    /**
+     * Release the token with the given id. Unknown ids are ignored.
+     *
+     * @param id The id of the token.
+     */
+    void release (String id)
+    {
+        if (remove(id, false)) {
+            notifyChange();
+        }
+    }
+
+    /**
+     * Returns true if at least one token is held.
+     */
+    synchronized boolean isHeld()
+    {
+        return !tokens.isEmpty();
+    }
+
+    /**
+     * Returns the priority of the top holder, LOW if none.
+     */
+    synchronized int getLevel()
+    {
+        int level = LOW;
+
+        for (Token token : tokens.values()) {
+            level = Math.max(level, token.priority);
+        }
+
+        return level;
+    }
+
+    /**
+     * Drop the pending timeouts, the tokens stay held.
+     */
+    void close()
+    {
+        synchronized (this) {
+            for (Token token : tokens.values()) {
+                handler.removeCallbacks(token.expiry);
+            }
+        }
+    }
+
+    /**
+     * Returns the state and the holders, e.g. for the tokens action.
+     */
+    synchronized JSONObject toJSON()
+    {
+        JSONObject json   = new JSONObject();
+        JSONArray holders = new JSONArray();
+        long now          = SystemClock.elapsedRealtime();
+
+        try {
+            for (Token token : tokens.values())
+            {
+                JSONObject holder = new JSONObject();
+
+                holder.put("id", token.id);
+                holder.put("owner", token.owner);
+                holder.put("priority", NAMES[token.priority]);
+                holder.put("age", now - token.since);
+
+                if (token.expires > 0) {
+                    holder.put("remaining", Math.max(0, token.expires - now));
+                }
+
+                holders.put(holder);
+            }
+
+            json.put("held", !tokens.isEmpty());
+            json.put("level", NAMES[getLevel()]);
+            json.put("holders", holders);
+        } catch (Exception e) {
+            // can't happen for primitive values
+        }
+
+        return json;
+    }
+
+    /**
+     * Returns the counters and the holders.
+     */
+    synchronized JSONObject getStats()
+    {
+        JSONObject stats = toJSON();
+        long now         = SystemClock.elapsedRealtime();
+
+        try {
+            stats.put("acquired", acquired);
+            stats.put("released", released);
+            stats.put("expired", expired);
+            stats.put("heldTime", heldTime + (heldSince > 0 ? now - heldSince : 0));
+        } catch (Exception e) {
+            // can't happen for primitive values
+        }
+
+        return stats;
+    }
+
+    /**
+     * Called on the main thread once the timeout of a token passed. A
+     * token which got replaced meanwhile stays held.
+     *
+     * @param token The expired token.
+     */
+    private void expire (Token token)
+    {
+        boolean removed;
+
+        synchronized (this) {
+            removed = tokens.get(token.id) == token && remove(token.id, true);
+        }
+
+        if (removed) {
+            notifyChange();
+        }
+    }
+
+    /**
+     * Remove the token and account the held time once the last one is gone.
+     *
+     * @param id      The id of the token.
+     * @param timeout Set to true if the token expired.
+     *
+     * @return true if the token was held.
+     */
+    private synchronized boolean remove (String id, boolean timeout)
+    {
+        Token token = tokens.remove(id);
+
+        if (token == null)
+            return false;
+
+        handler.removeCallbacks(token.expiry);
+
+        if (timeout) {
+            expired++;
+        } else {
+            released++;
+        }
+
+        if (tokens.isEmpty() && heldSince > 0) {
+            heldTime += SystemClock.elapsedRealtime() - heldSince;
+            heldSince = 0;
+        }
+
+        return true;
+    }
+
+    /**
+     * Tell the listener about the current state, outside of the lock of
+     * the tokens.
+     */
+    private void notifyChange()
+    {
+        boolean held;
+        int level;
+
+        synchronized (notifying)
+        {
+            synchronized (this) {
+                held  = !tokens.isEmpty();
+                level = getLevel();
+            }
+
+            listener.onChange(held, level);
+        }
+    }
+
+    /**
+     * Returns the priority of the name, NORMAL if unknown.
+     *
+     * @param name The name as used by JS.
+     */
+    private static int parsePriority (String name)
+    {
+        for (int i = 0; i < NAMES.length; i++) {
+            if (NAMES[i].equals(name))
+                return i;
+        }
+
+        return NORMAL;
+    }
+}
@@ -0,0 +1,239 @@
+package de.einfachhans.BackgroundMode;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Runtime counters and latency histograms of the plugin. Recording is
+ * allocation-free and lock-free: counters are striped by thread and the
+ * histograms use fixed power-of-two buckets.
+ */
+final class Metrics {
+
+    // Number of activate events
+    static final Counter ACTIVATIONS = new Counter();
+
+    // Number of deactivate events
+    static final Counter DEACTIVATIONS = new Counter();
+
+    // Number of notifications posted
+    static final Counter NOTIFICATIONS = new Counter();
+
+    // Time in ms the wake lock was held
+    static final Counter WAKELOCK_TIME = new Counter();
+
+    // Time in ms spent in background
+    static final Counter BACKGROUND_TIME = new Counter();
+
+    // Time in µs from bindService to onServiceConnected
+    static final Histogram BIND_LATENCY = new Histogram();
+
+    // Time in µs from fireEvent until the batch is handed to the bridge
+    static final Histogram EVENT_LATENCY = new Histogram();
+
+    // Time in µs to restore the session snapshot after a restart
+    static final Histogram RESTORE_LATENCY = new Histogram();
+
+    // Time in µs the shutdown pipeline took to drain
+    static final Histogram DRAIN_LATENCY = new Histogram();
+
+    // Time in µs the JS timers fired late while kept visible
+    static final Histogram TIMER_DRIFT = new Histogram();
+
+    private Metrics() {}
+
+    /**
+     * Returns the current values of all metrics.
+     */
+    static JSONObject snapshot()
+    {
+        JSONObject json = new JSONObject();
+
+        try {
+            json.put("activations", ACTIVATIONS.sum());
+            json.put("deactivations", DEACTIVATIONS.sum());
+            json.put("notifications", NOTIFICATIONS.sum());
+            json.put("wakeLockTime", WAKELOCK_TIME.sum());
+            json.put("backgroundTime", BACKGROUND_TIME.sum());
+            json.put("bindLatency", BIND_LATENCY.toJSON());
+            json.put("eventLatency", EVENT_LATENCY.toJSON());
+            json.put("restoreLatency", RESTORE_LATENCY.toJSON());
+            json.put("drainLatency", DRAIN_LATENCY.toJSON());
+            json.put("timerDrift", TIMER_DRIFT.toJSON());
+        } catch (Exception e) {
+            // can't happen for primitive values
+        }
+
+        return json;
+    }
+
+    /**
+     * Reset all metrics to zero.
+     */
+    static void reset()
+    {
+        ACTIVATIONS.reset();
+        DEACTIVATIONS.reset();
+        NOTIFICATIONS.reset();
+        WAKELOCK_TIME.reset();
+        BACKGROUND_TIME.reset();
+        BIND_LATENCY.reset();
+        EVENT_LATENCY.reset();
+        RESTORE_LATENCY.reset();
+        DRAIN_LATENCY.reset();
+        TIMER_DRIFT.reset();
+    }
+
+    /**
+     * Returns the time in µs elapsed since the given System.nanoTime value.
+     */
+    static long microsSince (long nanos)
+    {
+        return (System.nanoTime() - nanos) / 1000;
+    }
+
+    /**
+     * Counter striped by thread to avoid contention on a single cell.
+     */
+    static final class Counter
+    {
+        // Number of cells, must be a power of two
+        private static final int STRIPES = 8;
+
+        // Distance between two cells to keep them on separate cache lines
+        private static final int PAD = 8;
+
+        private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+        void increment()
+        {
+            add(1);
+        }
+
+        void add (long value)
+        {
+            cells.addAndGet(index(), value);
+        }
+
+        long sum()
+        {
+            long sum = 0;
+
+            for (int i = 0; i < STRIPES; i++) {
+                sum += cells.get(i * PAD);
+            }
+
+            return sum;
+        }
+
+        void reset()
+        {
+            for (int i = 0; i < STRIPES; i++) {
+                cells.set(i * PAD, 0);
+            }
+        }
+
+        private static int index()
+        {
+            return (int) (Thread.currentThread().getId() & (STRIPES - 1)) * PAD;
+        }
+    }
+
+    /**
+     * Histogram with power-of-two buckets. Bucket i counts the values
+     * below 2^i, values beyond the last bucket are counted in the last one.
+     */
+    static final class Histogram
+    {
+        // Number of buckets, the last one holds values of about 35 min in µs
+        private static final int BUCKETS = 32;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final Counter total = new Counter();
+        private final AtomicLong max = new AtomicLong();
+
+        void record (long value)
+        {
+            if (value < 0) {
+                value = 0;
+            }
+
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+
+            buckets.incrementAndGet(bucket);
+            total.add(value);
+
+            long current = max.get();
+
+            while (value > current && !max.compareAndSet(current, value)) {
+                current = max.get();
+            }
+        }
+
+        void reset()
+        {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+
+            total.reset();
+            max.set(0);
+        }
+
+        /**
+         * Returns the upper bound of the bucket holding the given percentile.
+         *
+         * @param counts  The bucket counts.
+         * @param n       The total count.
+         * @param percent The percentile between 0 and 100.
+         */
+        private static long percentile (long[] counts, long n, int percent)
+        {
+            long rank = (n * percent + 99) / 100;
+            long seen = 0;
+
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+
+                if (seen >= rank)
+                    return 1L << i;
+            }
+
+            return 1L << (counts.length - 1);
+        }
+
+        JSONObject toJSON() throws Exception
+        {
+            JSONObject json     = new JSONObject();
+            JSONArray histogram = new JSONArray();
+            long[] counts       = new long[BUCKETS];
+            long n              = 0;
+
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                n += counts[i];
+            }
+
+            for (int i = 0; i < BUCKETS; i++) {
+                histogram.put(counts[i]);
+            }
+
+            json.put("count", n);
+            json.put("mean", n > 0 ? total.sum() / n : 0);
+            json.put("max", max.get());
+
+            if (n > 0) {
+                json.put("p50", percentile(counts, n, 50));
+                json.put("p90", percentile(counts, n, 90));
+                json.put("p99", percentile(counts, n, 99));
+            }
+
+            json.put("buckets", histogram);
+
+            return json;
+        }
+    }
+}
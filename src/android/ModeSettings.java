@@ -0,0 +1,141 @@
+package de.einfachhans.BackgroundMode;
+
+import org.json.JSONObject;
+
+import java.util.Iterator;
+
+/**
+ * Immutable snapshot of the settings. A new snapshot with a higher version
+ * is published for every configure call, so readers never see a half
+ * written state and can skip work if the version did not change. The values
+ * are parsed once when the snapshot is created.
+ */
+final class ModeSettings {
+
+    // Snapshot used until the first configure call
+    static final ModeSettings EMPTY = new ModeSettings(new JSONObject(), 0);
+
+    // Monotonically increasing version of the snapshot
+    final long version;
+
+    // Notification related values
+    final String title, text, icon;
+    final int color;
+    final boolean silent;
+    final int notificationRate;
+
+    // Max time in ms an event waits for others to join its batch, -1 if unset
+    final int eventWindow;
+
+    // Sections of the components, null if not set
+    final JSONObject stream, tickBuffer, conflation, wakeLock, lifecycle, shutdown, scheduler, calendar, heartbeat,
+                     throttle;
+
+    // Merged settings as received from JS, must not be modified
+    private final JSONObject json;
+
+    /**
+     * @param json    The merged settings, owned by the snapshot from now on.
+     * @param version The version of the snapshot.
+     */
+    private ModeSettings (JSONObject json, long version)
+    {
+        this.json             = json;
+        this.version          = version;
+        this.title            = json.optString("title", null);
+        this.text             = json.optString("text", null);
+        this.icon             = json.optString("icon", null);
+        this.color            = parseColor(json.optString("color", null));
+        this.silent           = json.optBoolean("silent", false);
+        this.notificationRate = json.optInt("notificationRate", 0);
+        this.eventWindow      = json.optInt("eventWindow", -1);
+        this.stream           = json.optJSONObject("stream");
+        this.tickBuffer       = json.optJSONObject("tickBuffer");
+        this.conflation       = json.optJSONObject("conflation");
+        this.wakeLock         = json.optJSONObject("wakeLock");
+        this.lifecycle        = json.optJSONObject("lifecycle");
+        this.shutdown         = json.optJSONObject("shutdown");
+        this.scheduler        = json.optJSONObject("scheduler");
+        this.calendar         = json.optJSONObject("calendar");
+        this.heartbeat        = json.optJSONObject("heartbeat");
+        this.throttle         = json.optJSONObject("throttle");
+    }
+
+    /**
+     * Returns a new snapshot with the given settings merged in key by key.
+     *
+     * @param settings The settings to override.
+     */
+    ModeSettings merge (JSONObject settings) throws Exception
+    {
+        JSONObject merged = new JSONObject();
+
+        for (Iterator<String> it = json.keys(); it.hasNext(); ) {
+            String key = it.next();
+            merged.put(key, json.get(key));
+        }
+
+        for (Iterator<String> it = settings.keys(); it.hasNext(); ) {
+            String key = it.next();
+            merged.put(key, settings.get(key));
+        }
+
+        return new ModeSettings(merged, version + 1);
+    }
+
+    /**
+     * Returns true if no settings have been configured so far.
+     */
+    boolean isEmpty()
+    {
+        return json.length() == 0;
+    }
+
+    /**
+     * Returns true if the visible content of the notification is the same.
+     *
+     * @param other The snapshot to compare with.
+     */
+    boolean isSameNotification (ModeSettings other)
+    {
+        return other != null
+                && silent == other.silent
+                && color == other.color
+                && notificationRate == other.notificationRate
+                && equals(title, other.title)
+                && equals(text, other.text)
+                && equals(icon, other.icon);
+    }
+
+    /**
+     * Returns the merged settings as JSON. The object must not be modified.
+     */
+    JSONObject toJSON()
+    {
+        return json;
+    }
+
+    /**
+     * Parse the color definition (red: FF0000).
+     *
+     * @param hex The hex color or null.
+     *
+     * @return The aRGB value or 0 if not set or invalid.
+     */
+    private static int parseColor (String hex)
+    {
+        if (hex == null || hex.isEmpty())
+            return 0;
+
+        try {
+            return Integer.parseInt(hex, 16) + 0xFF000000;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static boolean equals (String a, String b)
+    {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,431 @@
+package de.einfachhans.BackgroundMode;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.res.Resources;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Renders the background notification. Channel, content intent, icon ids and
+ * the builder are created once and reused. Updates are coalesced into a
+ * bounded frame rate where the last submitted settings always win, and only
+ * reach the notification manager if the visible content did change.
+ */
+class NotificationUpdater implements Runnable {
+
+    // Channel of the background notification
+    static final String CHANNEL_ID = "cordova-plugin-background-mode-id";
+
+    // Channel of the alert notifications
+    static final String ALERT_CHANNEL_ID = "cordova-plugin-background-mode-alerts";
+
+    // Tag of the alert notifications, keeps their ids apart from the background one
+    static final String ALERT_TAG = "backgroundmode.alert";
+
+    // Default icon of the background notification
+    private static final String DEFAULT_ICON = "icon";
+
+    // Default max number of notification updates per second
+    private static final int DEFAULT_RATE = 4;
+
+    // Context of the service
+    private final Context context;
+
+    // Shared notification service manager
+    private final NotificationManager manager;
+
+    // Fallback title and text
+    private final String defaultTitle, defaultText;
+
+    // Posts the coalesced updates on the main thread
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    // Resolved icon resource ids by icon name
+    private final Map<String, Integer> iconIds = new HashMap<>();
+
+    // Lazily created members reused for every update
+    private Notification.Builder builder;
+    private PendingIntent contentIntent;
+
+    // Settings waiting to be rendered
+    private ModeSettings pending;
+
+    // Flag indicates if an update is scheduled
+    private boolean scheduled;
+
+    // Min time in ms between two posted updates
+    private long minInterval = 1000 / DEFAULT_RATE;
+
+    // Uptime of the last posted update
+    private long lastPost;
+
+    // What is currently displayed
+    private String title, text;
+    private int iconId, color;
+
+    // Version of the settings currently displayed
+    private long version = -1;
+
+    // Flag indicates if updates are held back, e.g. while the screen is off
+    private boolean paused;
+
+    // Throttle level, each level doubles the min interval
+    private int throttle;
+
+    // Flag indicates if the alert channel got created
+    private boolean alertChannel;
+
+    // Counters exposed for diagnostics
+    private long submitted, coalesced, unchanged, posted, deferred, alerts;
+
+    /**
+     * @param context      The context of the service.
+     * @param manager      The notification manager.
+     * @param defaultTitle Title to use if the settings have none.
+     * @param defaultText  Text to use if the settings have none.
+     */
+    NotificationUpdater (Context context, NotificationManager manager,
+                         String defaultTitle, String defaultText)
+    {
+        this.context      = context;
+        this.manager      = manager;
+        this.defaultTitle = defaultTitle;
+        this.defaultText  = defaultText;
+    }
+
+    /**
+     * Set the max number of updates per second.
+     *
+     * @param rate Updates per second, values below 1 fall back to the default.
+     */
+    synchronized void setMaxRate (int rate)
+    {
+        minInterval = 1000 / (rate > 0 ? rate : DEFAULT_RATE);
+    }
+
+    /**
+     * Queue the settings for display. Returns immediately, the notification
+     * gets updated within the current frame interval.
+     *
+     * @param settings The config settings
+     */
+    synchronized void submit (ModeSettings settings)
+    {
+        submitted++;
+
+        if (pending != null) {
+            coalesced++;
+        }
+
+        pending = settings;
+
+        // the first notification goes out regardless, it keeps the service alive
+        if (paused && builder != null) {
+            deferred++;
+            return;
+        }
+
+        if (scheduled)
+            return;
+
+        schedule();
+    }
+
+    /**
+     * Hold back updates while nobody can see them. Resuming posts the
+     * latest update held back.
+     *
+     * @param paused The new state.
+     */
+    synchronized void setPaused (boolean paused)
+    {
+        this.paused = paused;
+
+        if (!paused && pending != null && !scheduled) {
+            schedule();
+        }
+    }
+
+    /**
+     * Stretch the frame interval by the throttle level.
+     *
+     * @param level The level of the throttle policy.
+     */
+    synchronized void setThrottle (int level)
+    {
+        throttle = level;
+    }
+
+    /**
+     * Schedule the next post within the frame interval.
+     */
+    private void schedule()
+    {
+        long delay = lastPost + (minInterval << throttle) - SystemClock.uptimeMillis();
+
+        scheduled = true;
+        handler.postDelayed(this, Math.max(0, delay));
+    }
+
+    /**
+     * Drop pending updates and forget what is displayed.
+     */
+    synchronized void cancel()
+    {
+        handler.removeCallbacks(this);
+        pending   = null;
+        scheduled = false;
+        title     = null;
+        text      = null;
+        iconId    = 0;
+        color     = 0;
+        version   = -1;
+    }
+
+    /**
+     * Returns the counters of the updater.
+     */
+    synchronized JSONObject getStats()
+    {
+        JSONObject stats = new JSONObject();
+
+        try {
+            stats.put("submitted", submitted);
+            stats.put("coalesced", coalesced);
+            stats.put("unchanged", unchanged);
+            stats.put("posted", posted);
+            stats.put("deferred", deferred);
+            stats.put("throttle", throttle);
+            stats.put("alerts", alerts);
+        } catch (Exception e) {
+            // can't happen for primitive values
+        }
+
+        return stats;
+    }
+
+    /**
+     * Post a notification for a triggered alert on the main thread. The
+     * notification of a rule replaces its previous one and is not subject
+     * to the frame rate of the background notification.
+     *
+     * @param key   The id of the rule.
+     * @param title The title or null for the default one.
+     * @param text  The text.
+     * @param icon  The name of the icon or null for the default one.
+     */
+    void postAlert (String key, String title, String text, String icon)
+    {
+        handler.post(() -> {
+            synchronized (this)
+            {
+                Notification.Builder alert = new Notification.Builder(context)
+                        .setContentTitle(title != null ? title : defaultTitle)
+                        .setContentText(text)
+                        .setSmallIcon(getIconResId(icon != null ? icon : DEFAULT_ICON))
+                        .setAutoCancel(true)
+                        .setContentIntent(getContentIntent());
+
+                if (Build.VERSION.SDK_INT >= 26) {
+                    createAlertChannel();
+                    alert.setChannelId(ALERT_CHANNEL_ID);
+                }
+
+                alerts++;
+                manager.notify(ALERT_TAG, key.hashCode(), alert.build());
+            }
+        });
+    }
+
+    /**
+     * Post the latest pending settings.
+     */
+    @Override
+    public synchronized void run()
+    {
+        ModeSettings settings = pending;
+
+        pending   = null;
+        scheduled = false;
+
+        if (settings == null)
+            return;
+
+        if (!apply(settings)) {
+            unchanged++;
+            return;
+        }
+
+        lastPost = SystemClock.uptimeMillis();
+        posted++;
+        Metrics.NOTIFICATIONS.increment();
+        manager.notify(ForegroundService.NOTIFICATION_ID, builder.build());
+    }
+
+    /**
+     * Apply the settings to the cached builder.
+     *
+     * @param settings The config settings
+     *
+     * @return true if the visible content did change.
+     */
+    private boolean apply (ModeSettings settings)
+    {
+        if (builder != null && settings.version == version)
+            return false;
+
+        String newTitle = settings.title != null ? settings.title : defaultTitle;
+        String newText  = settings.text != null ? settings.text : defaultText;
+        int newIconId   = getIconResId(settings.icon != null ? settings.icon : DEFAULT_ICON);
+        int newColor    = settings.color;
+
+        version = settings.version;
+
+        if (builder == null) {
+            builder = createBuilder();
+        } else if (newIconId == iconId && newColor == color
+                && newTitle.equals(title) && newText.equals(text)) {
+            return false;
+        }
+
+        builder.setContentTitle(newTitle)
+               .setContentText(newText)
+               .setSmallIcon(newIconId);
+
+        // the cached builder keeps the old accent unless reset explicitly
+        if (Build.VERSION.SDK_INT >= 21) {
+            builder.setColor(newColor != 0 ? newColor : Notification.COLOR_DEFAULT);
+        }
+
+        title  = newTitle;
+        text   = newText;
+        iconId = newIconId;
+        color  = newColor;
+
+        return true;
+    }
+
+    /**
+     * Create the channel, the content intent and the builder.
+     */
+    private Notification.Builder createBuilder()
+    {
+        if (Build.VERSION.SDK_INT >= 26) {
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID,
+                    "cordova-plugin-background-mode", NotificationManager.IMPORTANCE_LOW);
+
+            channel.setDescription("cordova-plugin-background-mode notification");
+            manager.createNotificationChannel(channel);
+        }
+
+        Notification.Builder notification = new Notification.Builder(context)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .setContentIntent(getContentIntent()); // 點擊通知後執行
+
+        if (Build.VERSION.SDK_INT >= 26) {
+            notification.setChannelId(CHANNEL_ID);
+        }
+
+        return notification;
+    }
+
+    /**
+     * Create the channel of the alerts once, they interrupt the user.
+     */
+    private void createAlertChannel()
+    {
+        if (alertChannel)
+            return;
+
+        NotificationChannel channel = new NotificationChannel(ALERT_CHANNEL_ID,
+                "cordova-plugin-background-mode-alerts", NotificationManager.IMPORTANCE_HIGH);
+
+        channel.setDescription("cordova-plugin-background-mode alerts");
+        manager.createNotificationChannel(channel);
+        alertChannel = true;
+    }
+
+    /**
+     * Returns the intent to bring the app to front when tapped.
+     */
+    private PendingIntent getContentIntent()
+    {
+        if (contentIntent != null)
+            return contentIntent;
+
+        Intent intent = context.getPackageManager().getLaunchIntentForPackage(context.getPackageName());
+
+        if (intent == null)
+            return null;
+
+        // 確保 Intent 啟動 APP 並清除多餘的 Activity 堆疊
+        intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_SINGLE_TOP);
+
+        contentIntent = PendingIntent.getActivity(
+                context,
+                ForegroundService.NOTIFICATION_ID,
+                intent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+        );
+
+        return contentIntent;
+    }
+
+    /**
+     * Retrieves the resource ID of the icon, looked up once per name.
+     *
+     * @param icon The name of the icon.
+     */
+    private int getIconResId (String icon)
+    {
+        Integer cached = iconIds.get(icon);
+
+        if (cached != null)
+            return cached;
+
+        int resId = getIconResId(icon, "mipmap");
+
+        if (resId == 0) {
+            resId = getIconResId(icon, "drawable");
+        }
+
+        iconIds.put(icon, resId);
+
+        return resId;
+    }
+
+    /**
+     * Retrieve resource id of the specified icon.
+     *
+     * @param icon The name of the icon.
+     * @param type The resource type where to look for.
+     *
+     * @return The resource id or 0 if not found.
+     */
+    private int getIconResId (String icon, String type)
+    {
+        Resources res  = context.getResources();
+        String pkgName = context.getPackageName();
+
+        int resId = res.getIdentifier(icon, type, pkgName);
+
+        if (resId == 0) {
+            resId = res.getIdentifier(DEFAULT_ICON, type, pkgName);
+        }
+
+        return resId;
+    }
+}
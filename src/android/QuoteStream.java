@@ -0,0 +1,497 @@
+package de.einfachhans.BackgroundMode;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONObject;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Keeps a persistent connection to the quote feed open on a dedicated reader
+ * thread, parses the incoming frames into primitive records and hands them
+ * over in batches.
+ *
+ * Each frame on the wire is a big-endian length prefix followed by a type
+ * byte and the payload. A tick payload is laid out as
+ * instrument id (int), price (double), size (int) and time (long).
+ *
+ * The optional subscription line may contain {cursor}, which is replaced
+ * on each connect by the time of the last quote delivered, so the feed can
+ * resend what was missed while the connection was down.
+ */
+class QuoteStream implements Runnable {
+
+    // Frame type of a single quote
+    static final byte FRAME_TICK = 1;
+
+    // Frame type of a keep-alive frame without payload
+    static final byte FRAME_HEARTBEAT = 2;
+
+    // Size of a tick payload in bytes, not counting the type byte
+    static final int TICK_SIZE = 4 + 8 + 4 + 8;
+
+    // Placeholder in the subscription for the time of the last quote
+    static final String CURSOR = "{cursor}";
+
+    // Upper bound for a single frame to guard against garbage on the wire
+    private static final int MAX_FRAME_SIZE = 64 * 1024;
+
+    // Keep-alive frame: length 1 followed by the heartbeat type
+    private static final byte[] HEARTBEAT = { 0, 0, 0, 1, FRAME_HEARTBEAT };
+
+    // Log tag
+    private static final String TAG = "BackgroundMode";
+
+    /**
+     * Receives the parsed ticks. The batch is reused once the call returns,
+     * so implementations have to copy what they want to keep.
+     */
+    interface Listener
+    {
+        void onTicks (Batch batch);
+    }
+
+    /**
+     * Column-wise storage of parsed ticks.
+     */
+    static final class Batch
+    {
+        final int[] ids;
+        final double[] prices;
+        final int[] sizes;
+        final long[] times;
+        int size;
+
+        Batch (int capacity)
+        {
+            ids    = new int[capacity];
+            prices = new double[capacity];
+            sizes  = new int[capacity];
+            times  = new long[capacity];
+        }
+
+        boolean isFull()
+        {
+            return size == ids.length;
+        }
+    }
+
+    // Host of the feed server
+    private final String host;
+
+    // Port of the feed server
+    private final int port;
+
+    // Max time in ms a tick waits in the batch before being flushed
+    private final int flushInterval;
+
+    // Max backoff in ms between two reconnect attempts
+    private final int maxReconnectDelay;
+
+    // Optional line sent to the server after each connect
+    private final String subscribe;
+
+    // The batch currently being filled by the reader thread
+    private final Batch batch;
+
+    // Bytes read from the connection but not parsed yet, holds at least one frame
+    private final byte[] buffer = new byte[4 + MAX_FRAME_SIZE];
+
+    // Big-endian view of the buffer
+    private final ByteBuffer frames = ByteBuffer.wrap(buffer);
+
+    // Receiver of the batches
+    private volatile Listener listener;
+
+    // The reader thread, a replaced one must not deliver anymore
+    private volatile Thread thread;
+
+    // The currently open connection
+    private volatile Socket socket;
+
+    // Flag indicates if the stream should keep running
+    private volatile boolean running;
+
+    // Guards writes to the connection
+    private final Object writeLock = new Object();
+
+    // Time of the last quote delivered, 0 if none yet
+    private volatile long cursor;
+
+    // Throttle level, each level doubles the flush interval
+    private volatile int throttle;
+
+    // Number of reconnects seen by the last heartbeat
+    private long beatReconnects;
+
+    // Counters exposed for diagnostics
+    private volatile long ticks, batches, dropped, reconnects, heartbeats;
+
+    /**
+     * Creates a stream from the stream section of the settings.
+     *
+     * @param spec     The stream settings.
+     * @param listener The receiver of the batches.
+     */
+    QuoteStream (JSONObject spec, Listener listener)
+    {
+        this.host              = spec.optString("host", "127.0.0.1");
+        this.port              = spec.optInt("port", 0);
+        this.flushInterval     = Math.max(1, spec.optInt("flushInterval", 250));
+        this.maxReconnectDelay = Math.max(100, spec.optInt("maxReconnectDelay", 30000));
+        this.subscribe         = spec.optString("subscribe", null);
+        this.batch             = new Batch(Math.max(1, spec.optInt("batchSize", 256)));
+        this.listener          = listener;
+    }
+
+    /**
+     * Returns true if the spec contains enough information to connect.
+     *
+     * @param spec The stream settings.
+     */
+    static boolean isConfigured (JSONObject spec)
+    {
+        return spec != null && spec.optInt("port", 0) > 0;
+    }
+
+    /**
+     * Replace the receiver of the batches.
+     *
+     * @param listener The new receiver or null to drop the batches.
+     */
+    void setListener (Listener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * Resume after a quote received by an earlier stream, e.g. one of the
+     * session restored after process death. Must be called before start.
+     *
+     * @param time The time of the last quote received.
+     */
+    void resumeFrom (long time)
+    {
+        cursor = time;
+    }
+
+    /**
+     * Start the reader thread.
+     */
+    synchronized void start()
+    {
+        if (running)
+            return;
+
+        running = true;
+        thread  = new Thread(this, "backgroundmode-stream");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop the reader thread and close the connection.
+     */
+    synchronized void stop()
+    {
+        running = false;
+        closeSocket();
+
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    /**
+     * Stretch the flush interval by the throttle level so fewer but larger
+     * batches reach the listener.
+     *
+     * @param level The level of the throttle policy.
+     */
+    void setThrottle (int level)
+    {
+        Socket s = socket;
+
+        throttle = level;
+
+        if (s == null)
+            return;
+
+        try {
+            s.setSoTimeout(flushInterval << level);
+        } catch (IOException e) {
+            // the reader thread notices the broken connection
+        }
+    }
+
+    /**
+     * Send a keep-alive frame over the open connection.
+     *
+     * @return false if the connection got lost since the last call.
+     */
+    boolean sendHeartbeat()
+    {
+        Socket s      = socket;
+        long n        = reconnects;
+        boolean alive = n == beatReconnects;
+
+        beatReconnects = n;
+
+        if (s == null)
+            return alive;
+
+        try {
+            synchronized (writeLock) {
+                OutputStream out = s.getOutputStream();
+                out.write(HEARTBEAT);
+                out.flush();
+            }
+
+            heartbeats++;
+        } catch (IOException e) {
+            Log.w(TAG, "Heartbeat failed: " + e.getMessage());
+            closeSocket();
+            return false;
+        }
+
+        return alive;
+    }
+
+    /**
+     * Returns the counters of the stream.
+     */
+    JSONObject getStats()
+    {
+        JSONObject stats = new JSONObject();
+
+        try {
+            stats.put("connected", socket != null);
+            stats.put("ticks", ticks);
+            stats.put("batches", batches);
+            stats.put("dropped", dropped);
+            stats.put("reconnects", reconnects);
+            stats.put("heartbeats", heartbeats);
+            stats.put("throttle", throttle);
+        } catch (Exception e) {
+            // can't happen for primitive values
+        }
+
+        return stats;
+    }
+
+    /**
+     * Connect, read and reconnect with exponential backoff until stopped.
+     */
+    @Override
+    public void run()
+    {
+        int delay = 100;
+
+        while (isCurrent())
+        {
+            try {
+                Socket s = connect();
+                delay = 100;
+                read(s.getInputStream());
+            } catch (IOException e) {
+                if (isCurrent()) {
+                    Log.w(TAG, "Quote stream interrupted: " + e.getMessage());
+                }
+            } finally {
+                flush();
+                closeSocket();
+            }
+
+            if (!isCurrent())
+                break;
+
+            reconnects++;
+
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            delay = Math.min(delay * 2, maxReconnectDelay);
+        }
+    }
+
+    /**
+     * Open the connection and send the subscription if any.
+     *
+     * @return The open connection.
+     */
+    private Socket connect() throws IOException
+    {
+        Socket s = new Socket();
+
+        try {
+            s.setTcpNoDelay(true);
+            s.setKeepAlive(true);
+            s.connect(new InetSocketAddress(host, port), 10000);
+            s.setSoTimeout(flushInterval << throttle);
+        } catch (IOException e) {
+            s.close();
+            throw e;
+        }
+
+        socket = s;
+
+        if (subscribe != null) {
+            synchronized (writeLock) {
+                OutputStream out = s.getOutputStream();
+                String line      = subscribe.replace(CURSOR, Long.toString(cursor));
+                out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        }
+
+        return s;
+    }
+
+    /**
+     * Parse frames until the connection breaks. Uses the socket timeout to
+     * flush partially filled batches when the feed goes quiet. The bytes of
+     * a frame which straddles the timeout stay in the buffer, so the frame
+     * continues with the next read.
+     *
+     * @param in The input stream of the socket.
+     */
+    private void read (InputStream in) throws IOException
+    {
+        long deadline = 0;
+        int start     = 0;
+        int end       = 0;
+
+        while (isCurrent())
+        {
+            while (end - start >= 4)
+            {
+                int length = frames.getInt(start);
+
+                if (length < 1 || length > MAX_FRAME_SIZE)
+                    throw new IOException("Invalid frame length " + length);
+
+                if (end - start < 4 + length)
+                    break;
+
+                if (buffer[start + 4] == FRAME_TICK && length == TICK_SIZE + 1) {
+                    append(frames.getInt(start + 5), frames.getDouble(start + 9),
+                           frames.getInt(start + 17), frames.getLong(start + 21));
+                }
+
+                start += 4 + length;
+
+                long now = SystemClock.elapsedRealtime();
+
+                if (deadline == 0) {
+                    deadline = now + (flushInterval << throttle);
+                }
+
+                if (batch.isFull() || now >= deadline) {
+                    flush();
+                    deadline = 0;
+                }
+            }
+
+            if (start > 0) {
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                end  -= start;
+                start = 0;
+            }
+
+            int n;
+
+            try {
+                n = in.read(buffer, end, buffer.length - end);
+            } catch (SocketTimeoutException e) {
+                flush();
+                deadline = 0;
+                continue;
+            }
+
+            if (n < 0)
+                throw new EOFException("Connection closed by the feed");
+
+            end += n;
+        }
+    }
+
+    /**
+     * Add a tick to the current batch.
+     */
+    private void append (int id, double price, int size, long time)
+    {
+        int i = batch.size++;
+
+        batch.ids[i]    = id;
+        batch.prices[i] = price;
+        batch.sizes[i]  = size;
+        batch.times[i]  = time;
+        ticks++;
+    }
+
+    /**
+     * Hand the current batch to the listener. The batch of a stopped or
+     * replaced reader thread is dropped, it is stale by now.
+     */
+    private void flush()
+    {
+        Listener l = listener;
+
+        if (batch.size == 0)
+            return;
+
+        if (l == null || !isCurrent()) {
+            dropped += batch.size;
+        } else {
+            cursor = batch.times[batch.size - 1];
+
+            try {
+                l.onTicks(batch);
+                batches++;
+            } catch (Exception e) {
+                Log.e(TAG, "Quote listener failed: " + e.getMessage());
+            }
+        }
+
+        batch.size = 0;
+    }
+
+    /**
+     * Returns true if called by the reader thread of the running stream.
+     */
+    private boolean isCurrent()
+    {
+        return running && thread == Thread.currentThread();
+    }
+
+    /**
+     * Close the socket if open.
+     */
+    private void closeSocket()
+    {
+        Socket s = socket;
+        socket   = null;
+
+        if (s == null)
+            return;
+
+        try {
+            s.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+}
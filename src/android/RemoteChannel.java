@@ -0,0 +1,472 @@
+package de.einfachhans.BackgroundMode;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.RemoteException;
+import android.os.SharedMemory;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.nio.ByteBuffer;
+
+import static android.content.pm.PackageManager.MATCH_DISABLED_COMPONENTS;
+import static android.os.Build.VERSION.SDK_INT;
+
+/**
+ * App side of the channel to the service running in the :background
+ * process. The app creates the shared memory of the ring and hands it over
+ * on connect, control messages go through the Messenger of the service.
+ * The ring gets drained on a thread of its own once the service rang the
+ * doorbell, tick records are decoded into a reused batch.
+ */
+class RemoteChannel implements Handler.Callback {
+
+    /**
+     * Receiver of the frames which are not tick records, e.g. the replay
+     * of the tick buffer.
+     */
+    interface FrameListener
+    {
+        void onFrame (byte[] frame);
+    }
+
+    // Size of the data area of the ring
+    private static final int CAPACITY = 1 << 20;
+
+    // Max number of alert rules per message, keeps each below the binder limit
+    private static final int ALERT_CHUNK = 1000;
+
+    // Receiver of the quote batches
+    private final QuoteStream.Listener ticks;
+
+    // Receiver of the other frames
+    private final FrameListener frames;
+
+    // Receiver of the task runs
+    private final TaskScheduler.Listener tasks;
+
+    // Receiver of the triggered price alerts
+    private final AlertEngine.Listener alerts;
+
+    // Thread receiving the replies and draining the ring
+    private final HandlerThread thread = new HandlerThread("backgroundmode-channel");
+
+    // Receives the replies of the service
+    private final Messenger replies;
+
+    // Messenger of the service, null until connected
+    private volatile Messenger service;
+
+    // Shared memory of the ring, null until connected
+    private SharedMemory memory;
+
+    // The mapped ring
+    private ByteBuffer map;
+
+    // Ring from the service, null until connected
+    private volatile ShmRing ring;
+
+    // Reused for the decoded tick records
+    private QuoteStream.Batch batch = new QuoteStream.Batch(256);
+
+    // Latest stats reported by the service
+    private volatile JSONObject remoteStats;
+
+    // Counters exposed for diagnostics
+    private volatile long doorbells, records;
+
+    /**
+     * @param ticks  The receiver of the quote batches.
+     * @param frames The receiver of the other frames.
+     * @param tasks  The receiver of the task runs.
+     * @param alerts The receiver of the triggered price alerts.
+     */
+    RemoteChannel (QuoteStream.Listener ticks, FrameListener frames,
+                   TaskScheduler.Listener tasks, AlertEngine.Listener alerts)
+    {
+        this.ticks  = ticks;
+        this.frames = frames;
+        this.tasks  = tasks;
+        this.alerts = alerts;
+
+        thread.start();
+        replies = new Messenger(new Handler(thread.getLooper(), this));
+    }
+
+    /**
+     * Returns true if the app declared the service in its own process.
+     * Needs shared memory, available since Android 8.1.
+     *
+     * @param context The context of the app.
+     */
+    static boolean isEnabled (Context context)
+    {
+        if (SDK_INT < Build.VERSION_CODES.O_MR1)
+            return false;
+
+        try {
+            return context.getPackageManager().getServiceInfo(
+                    new ComponentName(context, RemoteForegroundService.class),
+                    MATCH_DISABLED_COMPONENTS).enabled;
+        } catch (PackageManager.NameNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Map a new ring and hand it over to the service.
+     *
+     * @param binder The binder of the service.
+     */
+    synchronized void connect (IBinder binder) throws Exception
+    {
+        Message msg = Message.obtain(null, RemoteHost.MSG_ATTACH);
+        Bundle data = new Bundle();
+
+        unmap();
+
+        memory  = SharedMemory.create("backgroundmode", ShmRing.sizeFor(CAPACITY));
+        map     = memory.mapReadWrite();
+        ring    = ShmRing.create(map);
+        service = new Messenger(binder);
+
+        data.putParcelable("ring", memory);
+        msg.setData(data);
+        msg.replyTo = replies;
+        service.send(msg);
+    }
+
+    /**
+     * Drop the connection, e.g. when the service got disconnected.
+     */
+    synchronized void disconnect()
+    {
+        service = null;
+        ring    = null;
+        unmap();
+    }
+
+    /**
+     * Disconnect and end the thread of the channel.
+     */
+    void close()
+    {
+        disconnect();
+        thread.quitSafely();
+    }
+
+    /**
+     * Returns true while connected to the service.
+     */
+    boolean isConnected()
+    {
+        return service != null;
+    }
+
+    /**
+     * Send the changed settings to the service.
+     *
+     * @param changes The changed settings.
+     * @param update  Set to true to update the notification.
+     */
+    void configure (JSONObject changes, boolean update)
+    {
+        send(RemoteHost.MSG_CONFIGURE, update ? 1 : 0, "settings", changes.toString());
+    }
+
+    /**
+     * Let the service record the quotes instead of sending them.
+     *
+     * @param buffering The new state.
+     */
+    void setBuffering (boolean buffering)
+    {
+        send(RemoteHost.MSG_BUFFERING, buffering ? 1 : 0, null, null);
+    }
+
+    /**
+     * Let the service follow the top keep-alive token.
+     *
+     * @param level The priority of the top holder.
+     */
+    void setWakeLockLevel (int level)
+    {
+        send(RemoteHost.MSG_WAKE_LEVEL, level, null, null);
+    }
+
+    /**
+     * Let the service send the recorded quotes through the ring.
+     */
+    void replay()
+    {
+        send(RemoteHost.MSG_REPLAY, 0, null, null);
+    }
+
+    /**
+     * Register a periodic task in the service.
+     *
+     * @param spec The task with id, interval, mode, jitter and align.
+     */
+    void scheduleTask (JSONObject spec)
+    {
+        send(RemoteHost.MSG_SCHEDULE, 0, "task", spec.toString());
+    }
+
+    /**
+     * Remove the periodic task with the given id.
+     *
+     * @param id The id of the task.
+     */
+    void cancelTask (String id)
+    {
+        send(RemoteHost.MSG_CANCEL, 0, "id", id);
+    }
+
+    /**
+     * Arm price alerts in the service, sent in chunks.
+     *
+     * @param rules The rules with id, instrument, type and level.
+     */
+    void addAlerts (JSONArray rules)
+    {
+        sendChunked(RemoteHost.MSG_ADD_ALERTS, "rules", rules);
+    }
+
+    /**
+     * Disarm the price alerts with the given ids, sent in chunks.
+     *
+     * @param ids The ids of the rules.
+     */
+    void removeAlerts (JSONArray ids)
+    {
+        sendChunked(RemoteHost.MSG_REMOVE_ALERTS, "ids", ids);
+    }
+
+    /**
+     * Disarm all price alerts.
+     */
+    void clearAlerts()
+    {
+        send(RemoteHost.MSG_CLEAR_ALERTS, 0, null, null);
+    }
+
+    /**
+     * Returns the stats last reported by the service together with the
+     * counters of this side, and asks the service for fresh ones.
+     */
+    JSONObject getStats()
+    {
+        JSONObject stats = new JSONObject();
+        ShmRing ring     = this.ring;
+
+        send(RemoteHost.MSG_STATS, 0, null, null);
+
+        try {
+            stats.put("connected", isConnected());
+            stats.put("doorbells", doorbells);
+            stats.put("records", records);
+
+            if (ring != null) {
+                stats.put("pending", ring.getPending());
+                stats.put("dropped", ring.getDropped());
+            }
+
+            if (remoteStats != null) {
+                stats.put("service", remoteStats);
+            }
+        } catch (Exception e) {
+            // can't happen for primitive values
+        }
+
+        return stats;
+    }
+
+    /**
+     * Called on the channel thread for each message of the service.
+     */
+    @Override
+    public boolean handleMessage (Message msg)
+    {
+        Bundle data = msg.peekData();
+
+        switch (msg.what)
+        {
+            case RemoteHost.MSG_DOORBELL:
+                doorbells++;
+                drain();
+                return true;
+            case RemoteHost.MSG_TASK:
+                tasks.onTask(data.getString("id"), data.getLong("late"));
+                return true;
+            case RemoteHost.MSG_ALERT:
+                try {
+                    alerts.onAlert(new JSONObject(data.getString("alert")));
+                } catch (Exception e) {
+                    Log.e("BackgroundMode", "Failed to parse alert: " + e.getMessage());
+                }
+                return true;
+            case RemoteHost.MSG_STATS:
+                try {
+                    remoteStats = new JSONObject(data.getString("stats"));
+                } catch (Exception e) {
+                    Log.e("BackgroundMode", "Failed to parse remote stats: " + e.getMessage());
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Read all records of the ring. Either the last release gets seen by
+     * the service, which then rings again, or the poll sees its records.
+     */
+    private synchronized void drain()
+    {
+        ShmRing ring = this.ring;
+        ByteBuffer buf;
+        int pos;
+
+        if (ring == null)
+            return;
+
+        buf = ring.buffer();
+
+        while ((pos = ring.poll()) >= 0)
+        {
+            if (buf.get(pos) == BinaryFrames.TICK_RECORDS) {
+                ticks.onTicks(readTicks(buf, pos));
+            } else {
+                frames.onFrame(readFrame(buf, pos, ring.length()));
+            }
+
+            records++;
+            ring.release();
+        }
+    }
+
+    /**
+     * Decode a frame of tick records into the reused batch.
+     *
+     * @param buf The buffer of the ring.
+     * @param pos The position of the frame.
+     */
+    private QuoteStream.Batch readTicks (ByteBuffer buf, int pos)
+    {
+        int count = buf.getInt(pos + 4);
+
+        if (count > batch.ids.length) {
+            batch = new QuoteStream.Batch(Integer.highestOneBit(count) << 1);
+        }
+
+        pos += BinaryFrames.HEADER_SIZE;
+
+        for (int i = 0; i < count; i++, pos += BinaryFrames.TICK_SIZE) {
+            batch.ids[i]    = buf.getInt(pos);
+            batch.prices[i] = buf.getDouble(pos + 4);
+            batch.sizes[i]  = buf.getInt(pos + 12);
+            batch.times[i]  = (long) buf.getDouble(pos + 16);
+        }
+
+        batch.size = count;
+
+        return batch;
+    }
+
+    /**
+     * Copy a frame out of the ring.
+     *
+     * @param buf    The buffer of the ring.
+     * @param pos    The position of the frame.
+     * @param length The size of the frame.
+     */
+    private static byte[] readFrame (ByteBuffer buf, int pos, int length)
+    {
+        byte[] frame    = new byte[length];
+        ByteBuffer view = buf.duplicate();
+
+        view.position(pos);
+        view.get(frame);
+
+        return frame;
+    }
+
+    /**
+     * Send a control message to the service, dropped while not connected.
+     *
+     * @param what  The id of the message.
+     * @param arg   The int argument.
+     * @param key   The key of the string argument or null for none.
+     * @param value The string argument.
+     */
+    private void send (int what, int arg, String key, String value)
+    {
+        Messenger to = service;
+        Message msg  = Message.obtain(null, what);
+
+        if (to == null)
+            return;
+
+        msg.arg1    = arg;
+        msg.replyTo = replies;
+
+        if (key != null) {
+            Bundle data = new Bundle();
+            data.putString(key, value);
+            msg.setData(data);
+        }
+
+        try {
+            to.send(msg);
+        } catch (RemoteException e) {
+            Log.e("BackgroundMode", "Failed to reach the service: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Send the items of the array in messages of at most ALERT_CHUNK items.
+     *
+     * @param what  The id of the messages.
+     * @param key   The key of the items in the data.
+     * @param items The items.
+     */
+    private void sendChunked (int what, String key, JSONArray items)
+    {
+        for (int from = 0; from < items.length(); from += ALERT_CHUNK)
+        {
+            JSONArray chunk = new JSONArray();
+
+            for (int i = from; i < Math.min(from + ALERT_CHUNK, items.length()); i++) {
+                chunk.put(items.opt(i));
+            }
+
+            send(what, 0, key, chunk.toString());
+        }
+    }
+
+    /**
+     * Release the shared memory of the ring.
+     */
+    private void unmap()
+    {
+        if (map != null) {
+            SharedMemory.unmap(map);
+            map = null;
+        }
+
+        if (memory != null) {
+            memory.close();
+            memory = null;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package de.einfachhans.BackgroundMode;
+
+import android.content.Intent;
+import android.os.IBinder;
+
+/**
+ * The foreground service declared in the :background process, so a crash
+ * of the web view or the app process leaves the background work running.
+ * Enabled by the BACKGROUND_PROCESS preference of the plugin. The app talks
+ * to it through the Messenger of the host and receives the quotes through
+ * a ring in shared memory.
+ */
+public class RemoteForegroundService extends ForegroundService {
+
+    // Channel to the app process
+    private RemoteHost host;
+
+    /**
+     * Start the service and open the channel to the app.
+     */
+    @Override
+    public void onCreate()
+    {
+        super.onCreate();
+        host = new RemoteHost(this);
+    }
+
+    /**
+     * Hand the Messenger of the host to the app.
+     */
+    @Override
+    public IBinder onBind (Intent intent) {
+        return host.getBinder();
+    }
+
+    /**
+     * The app went away, stop writing into its ring.
+     */
+    @Override
+    public boolean onUnbind (Intent intent)
+    {
+        host.detach();
+        return false;
+    }
+
+    /**
+     * Close the channel to the app.
+     */
+    @Override
+    public void onDestroy()
+    {
+        host.close();
+        super.onDestroy();
+    }
+}
@@ -0,0 +1,399 @@
+package de.einfachhans.BackgroundMode;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.RemoteException;
+import android.os.SharedMemory;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Service side of the channel to the app process, used if the service runs
+ * in its own process. Control messages arrive through a Messenger, the
+ * quotes go through a ring in shared memory created by the app. The ring
+ * is written in place, a doorbell message is sent only if the app might
+ * wait for data. Once the app unbinds or its process dies the ring gets
+ * unmapped and the service records the quotes until the next attach.
+ */
+class RemoteHost implements Handler.Callback {
+
+    // App to service: attach the ring, the data holds the shared memory
+    static final int MSG_ATTACH = 1;
+
+    // App to service: apply the changed settings, arg1 tells if to update the notification
+    static final int MSG_CONFIGURE = 2;
+
+    // App to service: record the quotes instead of sending them, arg1 is the flag
+    static final int MSG_BUFFERING = 3;
+
+    // App to service: send the recorded quotes through the ring
+    static final int MSG_REPLAY = 4;
+
+    // App to service: register or cancel a periodic task
+    static final int MSG_SCHEDULE = 5, MSG_CANCEL = 6;
+
+    // Both ways: request and reply of the service stats
+    static final int MSG_STATS = 7;
+
+    // Service to app: the ring has data
+    static final int MSG_DOORBELL = 8;
+
+    // Service to app: a periodic task ran
+    static final int MSG_TASK = 9;
+
+    // App to service: follow the top keep-alive token, arg1 is the level
+    static final int MSG_WAKE_LEVEL = 10;
+
+    // App to service: arm, disarm or clear price alerts
+    static final int MSG_ADD_ALERTS = 11, MSG_REMOVE_ALERTS = 12, MSG_CLEAR_ALERTS = 13;
+
+    // Service to app: a price alert triggered
+    static final int MSG_ALERT = 14;
+
+    // The service running in this process
+    private final ForegroundService service;
+
+    // Thread receiving the control messages
+    private final HandlerThread thread = new HandlerThread("backgroundmode-host");
+
+    // Receives the control messages
+    private final Messenger messenger;
+
+    // Messenger of the app, null until attached
+    private volatile Messenger client;
+
+    // Shared memory of the ring, null until attached
+    private SharedMemory memory;
+
+    // The mapped ring, null until attached
+    private ByteBuffer map;
+
+    // Notified when the process of the app died
+    private final IBinder.DeathRecipient clientDeath = this::detach;
+
+    // Ring to the app, null until attached
+    private volatile ShmRing ring;
+
+    // Counters exposed for diagnostics
+    private volatile long doorbells;
+
+    /**
+     * @param service The service running in this process.
+     */
+    RemoteHost (ForegroundService service)
+    {
+        this.service = service;
+
+        thread.start();
+        messenger = new Messenger(new Handler(thread.getLooper(), this));
+
+        service.setStreamListener(this::publish);
+        service.setTaskListener(this::onTask);
+    }
+
+    /**
+     * Returns the binder handed to the app.
+     */
+    IBinder getBinder()
+    {
+        return messenger.getBinder();
+    }
+
+    /**
+     * Called on the host thread for each control message of the app.
+     */
+    @Override
+    public boolean handleMessage (Message msg)
+    {
+        Bundle data = msg.getData();
+
+        try {
+            switch (msg.what)
+            {
+                case MSG_ATTACH:
+                    attach(data.getParcelable("ring"), msg.replyTo);
+                    break;
+                case MSG_CONFIGURE:
+                    configure(new JSONObject(data.getString("settings")), msg.arg1 != 0);
+                    break;
+                case MSG_BUFFERING:
+                    service.setBuffering(msg.arg1 != 0);
+                    break;
+                case MSG_REPLAY:
+                    replay();
+                    break;
+                case MSG_SCHEDULE:
+                    service.scheduleTask(new JSONObject(data.getString("task")));
+                    break;
+                case MSG_CANCEL:
+                    service.cancelTask(data.getString("id"));
+                    break;
+                case MSG_STATS:
+                    sendStats(msg.replyTo);
+                    break;
+                case MSG_WAKE_LEVEL:
+                    service.setWakeLockLevel(msg.arg1);
+                    break;
+                case MSG_ADD_ALERTS:
+                    service.addAlerts(new JSONArray(data.getString("rules")));
+                    break;
+                case MSG_REMOVE_ALERTS:
+                    service.removeAlerts(new JSONArray(data.getString("ids")));
+                    break;
+                case MSG_CLEAR_ALERTS:
+                    service.clearAlerts();
+                    break;
+                default:
+                    return false;
+            }
+        } catch (Exception e) {
+            Log.e("BackgroundMode", "Failed to handle message " + msg.what + ": " + e.getMessage());
+        }
+
+        return true;
+    }
+
+    /**
+     * Unmap the ring and end the host thread.
+     */
+    void close()
+    {
+        detach();
+        thread.quitSafely();
+    }
+
+    /**
+     * Stop writing into the ring once the app is gone, e.g. it unbound or
+     * its process died. The service records the quotes and keeps the
+     * alerts until the app attaches a new ring. The service is called
+     * outside of the lock, the stream listener takes it while the service
+     * holds its own.
+     */
+    void detach()
+    {
+        service.setBuffering(true);
+        service.setAlertListener(null);
+
+        synchronized (this) {
+            release();
+        }
+    }
+
+    /**
+     * Map the ring created by the app, replacing the previous one.
+     *
+     * @param memory The shared memory holding the ring.
+     * @param client The messenger of the app.
+     */
+    private synchronized void attach (SharedMemory memory, Messenger client) throws Exception
+    {
+        release();
+
+        this.memory = memory;
+        this.map    = memory.mapReadWrite();
+        this.ring   = ShmRing.attach(map);
+        this.client = client;
+
+        try {
+            client.getBinder().linkToDeath(clientDeath, 0);
+        } catch (RemoteException e) {
+            detach();
+            return;
+        }
+
+        service.setAlertListener(this::onAlert);
+    }
+
+    /**
+     * Drop the app and unmap its ring.
+     */
+    private void release()
+    {
+        Messenger client = this.client;
+
+        ring        = null;
+        this.client = null;
+
+        if (client != null) {
+            client.getBinder().unlinkToDeath(clientDeath, 0);
+        }
+
+        if (map != null) {
+            SharedMemory.unmap(map);
+            map = null;
+        }
+
+        if (memory != null) {
+            memory.close();
+            memory = null;
+        }
+    }
+
+    /**
+     * Merge the changed settings into the ones of this process and apply
+     * them to the service.
+     *
+     * @param changes The settings changed by the app.
+     * @param update  Set to true to update the notification.
+     */
+    private void configure (JSONObject changes, boolean update) throws Exception
+    {
+        ModeSettings[] merged = BackgroundMode.mergeSettings(changes);
+
+        service.configure(merged[0], merged[1], changes, update);
+    }
+
+    /**
+     * Write a batch of quotes into the ring as tick records. Called on the
+     * reader thread of the stream.
+     *
+     * @param batch The parsed quotes.
+     */
+    private synchronized void publish (QuoteStream.Batch batch)
+    {
+        ShmRing ring = this.ring;
+
+        if (ring == null)
+            return;
+
+        int pos        = ring.claim(BinaryFrames.HEADER_SIZE + batch.size * BinaryFrames.TICK_SIZE);
+        ByteBuffer buf = ring.buffer();
+
+        if (pos < 0)
+            return;
+
+        buf.put(pos, (byte) BinaryFrames.TICK_RECORDS);
+        buf.put(pos + 1, (byte) BinaryFrames.VERSION);
+        buf.putShort(pos + 2, (short) 0);
+        buf.putInt(pos + 4, batch.size);
+        pos += BinaryFrames.HEADER_SIZE;
+
+        for (int i = 0; i < batch.size; i++, pos += BinaryFrames.TICK_SIZE) {
+            buf.putInt(pos, batch.ids[i]);
+            buf.putDouble(pos + 4, batch.prices[i]);
+            buf.putInt(pos + 12, batch.sizes[i]);
+            buf.putDouble(pos + 16, batch.times[i]);
+        }
+
+        if (ring.commit()) {
+            doorbell();
+        }
+    }
+
+    /**
+     * Send the recorded quotes through the ring as one frame.
+     */
+    private void replay()
+    {
+        service.drainTicks(this::offer);
+    }
+
+    /**
+     * Write a frame into the ring. Called by the service with the tick
+     * buffer locked.
+     *
+     * @param frame The encoded frame.
+     */
+    private synchronized void offer (byte[] frame)
+    {
+        ShmRing ring = this.ring;
+
+        if (ring != null && ring.offer(frame)) {
+            doorbell();
+        }
+    }
+
+    /**
+     * Wake up the app to drain the ring.
+     */
+    private void doorbell()
+    {
+        doorbells++;
+        send(client, Message.obtain(null, MSG_DOORBELL));
+    }
+
+    /**
+     * Tell the app about the run of a periodic task.
+     *
+     * @param id   The id of the task.
+     * @param late Time in ms the run is behind its schedule.
+     */
+    private void onTask (String id, long late)
+    {
+        Message msg = Message.obtain(null, MSG_TASK);
+        Bundle data = new Bundle();
+
+        data.putString("id", id);
+        data.putLong("late", late);
+        msg.setData(data);
+
+        send(client, msg);
+    }
+
+    /**
+     * Hand a triggered price alert to the app.
+     *
+     * @param alert The triggered rule with price and time.
+     */
+    private void onAlert (JSONObject alert)
+    {
+        Message msg = Message.obtain(null, MSG_ALERT);
+        Bundle data = new Bundle();
+
+        data.putString("alert", alert.toString());
+        msg.setData(data);
+
+        send(client, msg);
+    }
+
+    /**
+     * Reply with the stats of the service and the ring.
+     *
+     * @param to The messenger to reply to.
+     */
+    private void sendStats (Messenger to) throws Exception
+    {
+        JSONObject stats = service.getStats();
+        JSONObject host  = new JSONObject();
+        ShmRing ring     = this.ring;
+        Message msg      = Message.obtain(null, MSG_STATS);
+        Bundle data      = new Bundle();
+
+        host.put("doorbells", doorbells);
+
+        if (ring != null) {
+            host.put("records", ring.getRecords());
+            host.put("dropped", ring.getDropped());
+            host.put("pending", ring.getPending());
+        }
+
+        stats.put("host", host);
+        data.putString("stats", stats.toString());
+        msg.setData(data);
+
+        send(to, msg);
+    }
+
+    /**
+     * Send a message to the app, the app might be gone meanwhile.
+     */
+    private static void send (Messenger to, Message msg)
+    {
+        if (to == null)
+            return;
+
+        try {
+            to.send(msg);
+        } catch (RemoteException e) {
+            Log.e("BackgroundMode", "Failed to reach the app: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package de.einfachhans.BackgroundMode;
+
+import android.app.KeyguardManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.PowerManager;
+
+import org.json.JSONObject;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static android.content.Context.KEYGUARD_SERVICE;
+import static android.content.Context.POWER_SERVICE;
+
+/**
+ * Tracks if the screen is on and if the user unlocked the device, driven
+ * by the screen on/off and user present broadcasts instead of polling.
+ * One monitor is shared by the plugin and the service, components
+ * subscribe to get told about changes.
+ */
+class ScreenMonitor extends BroadcastReceiver {
+
+    /**
+     * Receiver of the screen state changes, called on the main thread.
+     */
+    interface Listener
+    {
+        /**
+         * @param interactive Set to true if the screen is on.
+         * @param unlocked    Set to true if the user unlocked the device.
+         */
+        void onScreenChange (boolean interactive, boolean unlocked);
+    }
+
+    // Monitor shared by the plugin and the service
+    private static ScreenMonitor instance;
+
+    // Subscribed components
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // Current state
+    private volatile boolean interactive, unlocked;
+
+    // Counters exposed for diagnostics
+    private volatile long changes;
+
+    /**
+     * Returns the monitor of the app, registering it on first use.
+     *
+     * @param context The context of the app.
+     */
+    static synchronized ScreenMonitor get (Context context)
+    {
+        if (instance != null)
+            return instance;
+
+        Context app         = context.getApplicationContext();
+        IntentFilter filter = new IntentFilter();
+        PowerManager pm     = (PowerManager) app.getSystemService(POWER_SERVICE);
+        KeyguardManager km  = (KeyguardManager) app.getSystemService(KEYGUARD_SERVICE);
+
+        filter.addAction(Intent.ACTION_SCREEN_ON);
+        filter.addAction(Intent.ACTION_SCREEN_OFF);
+        filter.addAction(Intent.ACTION_USER_PRESENT);
+
+        instance             = new ScreenMonitor();
+        instance.interactive = pm == null || pm.isInteractive();
+        instance.unlocked    = instance.interactive && (km == null || !km.isKeyguardLocked());
+
+        app.registerReceiver(instance, filter);
+
+        return instance;
+    }
+
+    /**
+     * Subscribe to the changes.
+     *
+     * @param listener The receiver of the changes.
+     */
+    void addListener (Listener listener)
+    {
+        listeners.addIfAbsent(listener);
+    }
+
+    /**
+     * Unsubscribe from the changes.
+     *
+     * @param listener The receiver of the changes.
+     */
+    void removeListener (Listener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns true if the screen is on.
+     */
+    boolean isInteractive()
+    {
+        return interactive;
+    }
+
+    /**
+     * Returns true if the screen is on and the user unlocked the device.
+     */
+    boolean isUnlocked()
+    {
+        return unlocked;
+    }
+
+    /**
+     * Returns the current state as event data.
+     */
+    JSONObject toJSON()
+    {
+        JSONObject state = new JSONObject();
+
+        try {
+            state.put("interactive", interactive);
+            state.put("unlocked", unlocked);
+        } catch (Exception e) {
+            // can't happen for primitive values
+        }
+
+        return state;
+    }
+
+    /**
+     * Returns the counters of the monitor.
+     */
+    JSONObject getStats()
+    {
+        JSONObject stats = toJSON();
+
+        try {
+            stats.put("changes", changes);
+            stats.put("listeners", listeners.size());
+        } catch (Exception e) {
+            // can't happen for primitive values
+        }
+
+        return stats;
+    }
+
+    /**
+     * Called for the screen on/off and user present broadcasts.
+     */
+    @Override
+    public void onReceive (Context context, Intent intent)
+    {
+        String action = intent.getAction();
+
+        if (Intent.ACTION_SCREEN_OFF.equals(action)) {
+            update(false, false);
+        } else if (Intent.ACTION_SCREEN_ON.equals(action)) {
+            update(true, unlocked);
+        } else if (Intent.ACTION_USER_PRESENT.equals(action)) {
+            update(true, true);
+        }
+    }
+
+    /**
+     * Apply the new state and tell the listeners if anything changed.
+     */
+    private void update (boolean interactive, boolean unlocked)
+    {
+        if (this.interactive == interactive && this.unlocked == unlocked)
+            return;
+
+        this.interactive = interactive;
+        this.unlocked    = unlocked;
+        changes++;
+
+        for (Listener listener : listeners) {
+            listener.onScreenChange(interactive, unlocked);
+        }
+    }
+}
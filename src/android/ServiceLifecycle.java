@@ -0,0 +1,260 @@
+package de.einfachhans.BackgroundMode;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import org.json.JSONObject;
+
+/**
+ * State machine which decides when the foreground service gets started and
+ * stopped. Short trips into the background or back into the foreground
+ * (notification shade, permission dialogs, share sheets) are absorbed by
+ * configurable grace periods, so the service is neither torn down nor
+ * rebuilt for every bounce. All transitions run on a dedicated thread.
+ */
+class ServiceLifecycle {
+
+    /**
+     * Performs the actual transitions.
+     */
+    interface Host
+    {
+        void startService();
+        void stopService();
+    }
+
+    // States of the machine
+    enum State { STOPPED, STARTING, RUNNING, STOPPING }
+
+    // Performs the actual transitions
+    private final Host host;
+
+    // Thread running the transitions
+    private final HandlerThread thread = new HandlerThread("backgroundmode-lifecycle");
+
+    // Schedules the transitions on the thread
+    private final Handler handler;
+
+    // Deferred transitions
+    private final Runnable start = this::doStart;
+    private final Runnable stop  = this::doStop;
+
+    // Current state, only changed on the lifecycle thread
+    private volatile State state = State.STOPPED;
+
+    // Time in ms the app has to stay in background before the service starts
+    private volatile long startDelay;
+
+    // Time in ms the service stays warm after the app came to foreground
+    private volatile long stopDelay;
+
+    // Flags set by the plugin
+    private volatile boolean inBackground, enabled;
+
+    // Counters exposed for diagnostics
+    private volatile long starts, stops, absorbed;
+
+    /**
+     * @param host Performs the actual transitions.
+     */
+    ServiceLifecycle (Host host)
+    {
+        this.host = host;
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Apply the grace periods of the lifecycle section of the settings.
+     *
+     * @param spec The lifecycle settings or null.
+     */
+    void configure (JSONObject spec)
+    {
+        if (spec == null)
+            return;
+
+        startDelay = Math.max(0, spec.optLong("startDelay", startDelay));
+        stopDelay  = Math.max(0, spec.optLong("stopDelay", stopDelay));
+    }
+
+    /**
+     * The app went to background.
+     */
+    void onBackground()
+    {
+        inBackground = true;
+        handler.post(this::evaluate);
+    }
+
+    /**
+     * The app came back to foreground.
+     */
+    void onForeground()
+    {
+        inBackground = false;
+        handler.post(this::evaluate);
+    }
+
+    /**
+     * The mode got enabled or disabled. Disabling stops the service without
+     * grace period.
+     *
+     * @param enabled The new state.
+     */
+    void setEnabled (boolean enabled)
+    {
+        this.enabled = enabled;
+
+        handler.post(() -> {
+            if (!this.enabled) {
+                handler.removeCallbacks(start);
+                handler.removeCallbacks(stop);
+                doStop();
+            } else {
+                evaluate();
+            }
+        });
+    }
+
+    /**
+     * Stop the service right away and end the lifecycle thread. Blocks
+     * until the service is stopped.
+     */
+    void shutdown()
+    {
+        shutdown(1000);
+    }
+
+    /**
+     * Stop the service right away and end the lifecycle thread. Blocks
+     * until the service is stopped or the timeout expired.
+     *
+     * @param timeout Max time in ms to wait.
+     */
+    void shutdown (long timeout)
+    {
+        enabled = false;
+
+        handler.removeCallbacks(start);
+        handler.removeCallbacks(stop);
+        handler.post(this::doStop);
+
+        thread.quitSafely();
+
+        try {
+            thread.join(Math.max(1, timeout));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the current state.
+     */
+    State getState()
+    {
+        return state;
+    }
+
+    /**
+     * Returns the counters of the state machine.
+     */
+    JSONObject getStats()
+    {
+        JSONObject stats = new JSONObject();
+
+        try {
+            stats.put("state", state.name().toLowerCase());
+            stats.put("starts", starts);
+            stats.put("stops", stops);
+            stats.put("absorbed", absorbed);
+        } catch (Exception e) {
+            // can't happen for primitive values
+        }
+
+        return stats;
+    }
+
+    /**
+     * Move towards the state implied by the flags.
+     */
+    private void evaluate()
+    {
+        boolean wanted = enabled && inBackground;
+
+        switch (state)
+        {
+            case STOPPED:
+                if (wanted) {
+                    schedule(State.STARTING, start, startDelay);
+                }
+                break;
+            case STARTING:
+                if (!wanted) {
+                    handler.removeCallbacks(start);
+                    state = State.STOPPED;
+                    absorbed++;
+                }
+                break;
+            case RUNNING:
+                if (!wanted) {
+                    schedule(State.STOPPING, stop, stopDelay);
+                }
+                break;
+            case STOPPING:
+                if (wanted) {
+                    handler.removeCallbacks(stop);
+                    state = State.RUNNING;
+                    absorbed++;
+                }
+                break;
+        }
+    }
+
+    /**
+     * Run the transition now or after the delay.
+     */
+    private void schedule (State pending, Runnable transition, long delay)
+    {
+        if (delay <= 0) {
+            transition.run();
+        } else {
+            state = pending;
+            handler.postDelayed(transition, delay);
+        }
+    }
+
+    /**
+     * Start the service.
+     */
+    private void doStart()
+    {
+        if (!enabled || !inBackground) {
+            state = State.STOPPED;
+            return;
+        }
+
+        state = State.RUNNING;
+        starts++;
+        host.startService();
+    }
+
+    /**
+     * Stop the service.
+     */
+    private void doStop()
+    {
+        if (state == State.STOPPED)
+            return;
+
+        if (state == State.STARTING) {
+            state = State.STOPPED;
+            return;
+        }
+
+        state = State.STOPPED;
+        stops++;
+        host.stopService();
+    }
+}
@@ -0,0 +1,23 @@
+package de.einfachhans.BackgroundMode;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Receives the alarm of the session calendar. Declared in the manifest so
+ * the system starts the process for it, if the process died meanwhile.
+ */
+public class SessionAlarmReceiver extends BroadcastReceiver {
+
+    /**
+     * Hand the alarm over to the calendar.
+     */
+    @Override
+    public void onReceive (Context context, Intent intent)
+    {
+        if (CalendarAlarm.ACTION.equals(intent.getAction())) {
+            CalendarAlarm.onAlarm(context);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package de.einfachhans.BackgroundMode;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * Trading hours of one or more markets. Each market has a time zone, the
+ * trading days of the week, one or more sessions per day and a list of
+ * holidays. The compact JSON form looks like:
+ *
+ * { "markets": [{ "id": "XTAI", "zone": "Asia/Taipei", "days": "12345",
+ *   "sessions": ["09:00-13:30"], "holidays": ["2026-01-01"] }] }
+ *
+ * Days are ISO weekdays (1 = Monday). A session whose close is before its
+ * open ends on the next day. The calendar counts as open while any market
+ * is open.
+ */
+final class SessionCalendar {
+
+    // Number of days to look ahead for the next change
+    private static final int HORIZON_DAYS = 14;
+
+    // Time in ms to look ahead for the next change
+    static final long HORIZON = HORIZON_DAYS * 86400000L;
+
+    // Parsed markets
+    private final Market[] markets;
+
+    /**
+     * Trading hours of a single market.
+     */
+    private static final class Market
+    {
+        final String id;
+        final TimeZone zone;
+        final boolean[] days = new boolean[8];
+        final int[] opens, closes;
+        final Set<String> holidays = new HashSet<>();
+
+        Market (JSONObject spec) throws Exception
+        {
+            String weekdays = spec.optString("days", "12345");
+            JSONArray hours = spec.optJSONArray("sessions");
+            JSONArray off   = spec.optJSONArray("holidays");
+
+            id   = spec.optString("id");
+            zone = TimeZone.getTimeZone(spec.optString("zone", "UTC"));
+
+            for (int i = 0; i < weekdays.length(); i++) {
+                int day = weekdays.charAt(i) - '0';
+                if (day >= 1 && day <= 7) days[day] = true;
+            }
+
+            if (hours == null || hours.length() == 0)
+                throw new IllegalArgumentException("Market " + id + " without sessions");
+
+            opens  = new int[hours.length()];
+            closes = new int[hours.length()];
+
+            for (int i = 0; i < hours.length(); i++)
+            {
+                String[] range = hours.getString(i).split("-");
+
+                opens[i]  = parseMinutes(range[0]);
+                closes[i] = parseMinutes(range[1]);
+            }
+
+            for (int i = 0; off != null && i < off.length(); i++) {
+                holidays.add(off.getString(i));
+            }
+        }
+    }
+
+    private SessionCalendar (Market[] markets)
+    {
+        this.markets = markets;
+    }
+
+    /**
+     * Parse the calendar.
+     *
+     * @param json The calendar with its markets.
+     *
+     * @return The calendar or null if it has no markets.
+     */
+    static SessionCalendar parse (JSONObject json) throws Exception
+    {
+        JSONArray list = json.optJSONArray("markets");
+
+        if (list == null || list.length() == 0)
+            return null;
+
+        Market[] markets = new Market[list.length()];
+
+        for (int i = 0; i < markets.length; i++) {
+            markets[i] = new Market(list.getJSONObject(i));
+        }
+
+        return new SessionCalendar(markets);
+    }
+
+    /**
+     * Returns true if any market is open at the given time.
+     *
+     * @param time The time in ms since epoch.
+     */
+    boolean isOpen (long time)
+    {
+        for (long[] session : sessions(time - 86400000L * 2, 3)) {
+            if (time >= session[0] && time < session[1])
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the next time after the given one at which the calendar
+     * opens or closes.
+     *
+     * @param time The time in ms since epoch.
+     *
+     * @return The time in ms since epoch or -1 if nothing changes within
+     *         the horizon.
+     */
+    long nextChange (long time)
+    {
+        List<long[]> sessions = sessions(time - 86400000L * 2, HORIZON_DAYS + 2);
+        boolean open          = isOpen(time);
+        long[] edges          = new long[sessions.size() * 2];
+        int n                 = 0;
+
+        for (long[] session : sessions) {
+            if (session[0] > time) edges[n++] = session[0];
+            if (session[1] > time) edges[n++] = session[1];
+        }
+
+        Arrays.sort(edges, 0, n);
+
+        for (int i = 0; i < n; i++) {
+            if (isOpen(edges[i]) != open)
+                return edges[i];
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the ids of the markets open at the given time.
+     *
+     * @param time The time in ms since epoch.
+     */
+    JSONArray getOpenMarkets (long time)
+    {
+        JSONArray ids = new JSONArray();
+
+        for (Market market : markets)
+        {
+            for (long[] session : sessions(market, time - 86400000L * 2, 3))
+            {
+                if (time >= session[0] && time < session[1]) {
+                    ids.put(market.id);
+                    break;
+                }
+            }
+        }
+
+        return ids;
+    }
+
+    /**
+     * Returns the sessions of all markets which open on the given number of
+     * days starting with the day of the given time.
+     */
+    private List<long[]> sessions (long from, int days)
+    {
+        List<long[]> list = new ArrayList<>();
+
+        for (Market market : markets) {
+            list.addAll(sessions(market, from, days));
+        }
+
+        return list;
+    }
+
+    /**
+     * Returns the sessions of the market which open on the given number of
+     * days starting with the day of the given time, as pairs of open and
+     * close time in ms since epoch.
+     */
+    private static List<long[]> sessions (Market market, long from, int days)
+    {
+        List<long[]> list = new ArrayList<>();
+        Calendar day      = Calendar.getInstance(market.zone, Locale.US);
+
+        day.setTimeInMillis(from);
+        day.set(Calendar.HOUR_OF_DAY, 0);
+        day.set(Calendar.MINUTE, 0);
+        day.set(Calendar.SECOND, 0);
+        day.set(Calendar.MILLISECOND, 0);
+
+        for (int d = 0; d < days; d++, day.add(Calendar.DAY_OF_MONTH, 1))
+        {
+            // Calendar counts Sunday as 1, ISO as 7
+            int weekday = (day.get(Calendar.DAY_OF_WEEK) + 5) % 7 + 1;
+
+            if (!market.days[weekday] || market.holidays.contains(format(day)))
+                continue;
+
+            for (int i = 0; i < market.opens.length; i++)
+            {
+                long open  = at(day, market.opens[i], 0);
+                long close = at(day, market.closes[i], market.closes[i] <= market.opens[i] ? 1 : 0);
+
+                list.add(new long[] { open, close });
+            }
+        }
+
+        return list;
+    }
+
+    /**
+     * Returns the time of the given minute of the day, offset by some days.
+     */
+    private static long at (Calendar day, int minutes, int offset)
+    {
+        Calendar time = (Calendar) day.clone();
+
+        time.add(Calendar.DAY_OF_MONTH, offset);
+        time.set(Calendar.HOUR_OF_DAY, minutes / 60);
+        time.set(Calendar.MINUTE, minutes % 60);
+
+        return time.getTimeInMillis();
+    }
+
+    /**
+     * Returns the date of the day as yyyy-MM-dd.
+     */
+    private static String format (Calendar day)
+    {
+        return String.format(Locale.US, "%04d-%02d-%02d", day.get(Calendar.YEAR),
+                day.get(Calendar.MONTH) + 1, day.get(Calendar.DAY_OF_MONTH));
+    }
+
+    /**
+     * Parse a time of the day (HH:mm) into minutes.
+     */
+    private static int parseMinutes (String time)
+    {
+        String[] parts = time.trim().split(":");
+
+        return Integer.parseInt(parts[0]) * 60 + (parts.length > 1 ? Integer.parseInt(parts[1]) : 0);
+    }
+}
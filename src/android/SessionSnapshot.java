@@ -0,0 +1,355 @@
+package de.einfachhans.BackgroundMode;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Persists the session state into a small memory-mapped file, so a service
+ * restarted by the system after process death can pick up where it left
+ * off before the web view is up. Writes go to the page cache and survive
+ * the death of the process without any fsync.
+ *
+ * The little-endian file starts with the cursor record: time of the last
+ * quote (i64) and its CRC32 (u32). Two slots for the settings follow which
+ * are written alternately, so a torn write never damages the last good
+ * state. Each slot holds magic (u32), version (u16), flags (u16, 1 =
+ * enabled), sequence number (u64), length (u32) and CRC32 (u32) of the
+ * version, flags, sequence number, length and payload, followed by the
+ * settings as UTF-8 encoded JSON.
+ */
+final class SessionSnapshot {
+
+    // Name of the file inside the files dir of the app
+    private static final String FILE_NAME = "backgroundmode.session";
+
+    // Identifies a written slot
+    private static final int MAGIC = 0x424D5353;
+
+    // Layout version of the slots, 2 has the header covered by the CRC
+    private static final int VERSION = 2;
+
+    // Flag of an enabled background mode
+    private static final int FLAG_ENABLED = 1;
+
+    // Size of the cursor record and the slot header in bytes
+    private static final int CURSOR_SIZE = 16, SLOT_HEADER_SIZE = 24;
+
+    // Size of a slot including its header
+    private static final int SLOT_SIZE = 32 * 1024;
+
+    // Size of the whole file
+    private static final int FILE_SIZE = CURSOR_SIZE + 2 * SLOT_SIZE;
+
+    // Returned by readSlot for an empty slot and for a damaged one
+    private static final long EMPTY = -1, DAMAGED = -2;
+
+    // Instance shared by the plugin and the service
+    private static SessionSnapshot instance;
+
+    // The mapped file
+    private final MappedByteBuffer map;
+
+    // Reused for all checksums
+    private final CRC32 crc = new CRC32();
+
+    // Sequence number of the last slot written or restored
+    private long seq;
+
+    // Counters exposed for diagnostics
+    private long saves, restores, corrupt, restoreMicros;
+
+    /**
+     * Restored state of a previous session.
+     */
+    static final class State
+    {
+        final ModeSettings settings;
+        final boolean enabled;
+        final long cursor;
+
+        State (ModeSettings settings, boolean enabled, long cursor)
+        {
+            this.settings = settings;
+            this.enabled  = enabled;
+            this.cursor   = cursor;
+        }
+    }
+
+    private SessionSnapshot (MappedByteBuffer map)
+    {
+        this.map = map;
+        this.map.order(ByteOrder.LITTLE_ENDIAN);
+
+        // continue after the latest slot so new writes never lose against it
+        seq = Math.max(0, Math.max(readSlot(CURSOR_SIZE), readSlot(CURSOR_SIZE + SLOT_SIZE)));
+    }
+
+    /**
+     * Returns the snapshot of the app, mapping the file on first use.
+     *
+     * @param context The context of the app.
+     *
+     * @return The snapshot or null if the file can't be mapped.
+     */
+    static synchronized SessionSnapshot open (Context context)
+    {
+        if (instance != null)
+            return instance;
+
+        File file = new File(context.getApplicationContext().getFilesDir(), FILE_NAME);
+
+        try {
+            instance = map(file);
+        } catch (Exception e) {
+            Log.e("BackgroundMode", "Failed to map session snapshot: " + e.getMessage());
+        }
+
+        return instance;
+    }
+
+    /**
+     * Map the given file, sized to the layout if new or of a different size.
+     *
+     * @param file The file holding the snapshot.
+     */
+    static SessionSnapshot map (File file) throws IOException
+    {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.length() != FILE_SIZE) {
+                raf.setLength(FILE_SIZE);
+            }
+
+            return new SessionSnapshot(raf.getChannel()
+                    .map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE));
+        }
+    }
+
+    /**
+     * Persist the settings and the enabled flag into the slot not holding
+     * the latest state.
+     *
+     * @param settings The current settings.
+     * @param enabled  Flag indicates if the background mode is enabled.
+     */
+    synchronized void save (ModeSettings settings, boolean enabled)
+    {
+        byte[] payload = settings.toJSON().toString().getBytes(StandardCharsets.UTF_8);
+
+        if (payload.length > SLOT_SIZE - SLOT_HEADER_SIZE) {
+            Log.e("BackgroundMode", "Settings too large for session snapshot");
+            return;
+        }
+
+        long next  = seq + 1;
+        int offset = slotOffset(next);
+
+        // invalidate first so a torn write can't pass as valid slot
+        map.putInt(offset, 0);
+
+        for (int i = 0; i < payload.length; i++) {
+            map.put(offset + SLOT_HEADER_SIZE + i, payload[i]);
+        }
+
+        map.putShort(offset + 4, (short) VERSION);
+        map.putShort(offset + 6, (short) (enabled ? FLAG_ENABLED : 0));
+        map.putLong(offset + 8, next);
+        map.putInt(offset + 16, payload.length);
+        map.putInt(offset + 20, checksum(offset, payload.length));
+        map.putInt(offset, MAGIC);
+
+        seq = next;
+        saves++;
+    }
+
+    /**
+     * Persist the time of the last quote received.
+     *
+     * @param time The time of the quote.
+     */
+    synchronized void setCursor (long time)
+    {
+        map.putLong(0, time);
+        map.putInt(8, checksum(time));
+    }
+
+    /**
+     * Write the mapped pages back to the file, e.g. before the process
+     * goes away.
+     */
+    synchronized void flush()
+    {
+        map.force();
+    }
+
+    /**
+     * Read the latest valid state of the file. Damaged slots are skipped.
+     *
+     * @return The state or null if the file holds no valid slot.
+     */
+    synchronized State restore()
+    {
+        long started = System.nanoTime();
+        State state  = null;
+        long best    = -1;
+        int found    = -1;
+
+        for (int slot = 0; slot < 2; slot++)
+        {
+            int offset = CURSOR_SIZE + slot * SLOT_SIZE;
+            long n     = readSlot(offset);
+
+            if (n == DAMAGED) {
+                corrupt++;
+            }
+
+            if (n > best) {
+                best  = n;
+                found = offset;
+            }
+        }
+
+        if (found >= 0) {
+            try {
+                state = decode(found);
+                seq   = best;
+            } catch (Exception e) {
+                corrupt++;
+            }
+        }
+
+        restoreMicros = Metrics.microsSince(started);
+        Metrics.RESTORE_LATENCY.record(restoreMicros);
+
+        if (state != null) {
+            restores++;
+        }
+
+        return state;
+    }
+
+    /**
+     * Returns the counters of the snapshot.
+     */
+    synchronized JSONObject getStats()
+    {
+        JSONObject stats = new JSONObject();
+
+        try {
+            stats.put("sequence", seq);
+            stats.put("saves", saves);
+            stats.put("restores", restores);
+            stats.put("corrupt", corrupt);
+            stats.put("restoreTime", restoreMicros);
+            stats.put("cursor", readCursor());
+        } catch (Exception e) {
+            // can't happen for primitive values
+        }
+
+        return stats;
+    }
+
+    /**
+     * Validate the slot at the given offset.
+     *
+     * @return The sequence number of the slot, EMPTY if never written or
+     *         DAMAGED if the header or the payload don't match the CRC.
+     */
+    private long readSlot (int offset)
+    {
+        if (map.getInt(offset) != MAGIC)
+            return EMPTY;
+
+        int length = map.getInt(offset + 16);
+
+        if (map.getShort(offset + 4) != VERSION
+                || length < 0 || length > SLOT_SIZE - SLOT_HEADER_SIZE)
+            return DAMAGED;
+
+        if (checksum(offset, length) != map.getInt(offset + 20))
+            return DAMAGED;
+
+        return map.getLong(offset + 8);
+    }
+
+    /**
+     * Returns the CRC32 of the slot header from the version up to the
+     * length and of the payload.
+     *
+     * @param offset The offset of the slot.
+     * @param length The length of the payload.
+     */
+    private int checksum (int offset, int length)
+    {
+        crc.reset();
+
+        for (int i = 4; i < 20; i++) {
+            crc.update(map.get(offset + i));
+        }
+
+        for (int i = 0; i < length; i++) {
+            crc.update(map.get(offset + SLOT_HEADER_SIZE + i));
+        }
+
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Parse the state of a valid slot.
+     */
+    private State decode (int offset) throws Exception
+    {
+        byte[] payload = new byte[map.getInt(offset + 16)];
+        boolean enabled = (map.getShort(offset + 6) & FLAG_ENABLED) != 0;
+
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = map.get(offset + SLOT_HEADER_SIZE + i);
+        }
+
+        JSONObject json = new JSONObject(new String(payload, StandardCharsets.UTF_8));
+
+        return new State(ModeSettings.EMPTY.merge(json), enabled, readCursor());
+    }
+
+    /**
+     * Returns the persisted cursor or 0 if damaged.
+     */
+    private long readCursor()
+    {
+        long time = map.getLong(0);
+
+        return map.getInt(8) == checksum(time) ? time : 0;
+    }
+
+    /**
+     * Returns the CRC32 of the cursor value.
+     */
+    private int checksum (long time)
+    {
+        crc.reset();
+
+        for (int i = 0; i < 8; i++) {
+            crc.update((int) (time >>> (i * 8)));
+        }
+
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Returns the offset of the slot for the given sequence number.
+     */
+    private static int slotOffset (long seq)
+    {
+        return CURSOR_SIZE + (int) (seq & 1) * SLOT_SIZE;
+    }
+}
@@ -0,0 +1,293 @@
+package de.einfachhans.BackgroundMode;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Single-producer single-consumer ring of variable sized records laid out
+ * in a byte buffer, e.g. shared memory mapped by two processes. The header
+ * keeps the write and read position on separate cache lines, each written
+ * by one side only. Records are length-prefixed and 8-byte aligned, a
+ * record which doesn't fit before the end is preceded by a padding marker
+ * and starts over at the beginning.
+ *
+ * The producer claims room, writes the record in place and commits it;
+ * the consumer polls a record, reads it in place and releases it. Neither
+ * side allocates or locks. The ring has no notion of Android and works on
+ * any byte buffer.
+ */
+final class ShmRing {
+
+    // Tells an initialized ring apart from zeroed memory
+    private static final int MAGIC = 0x52494E47;
+
+    // Positions of the header fields
+    private static final int MAGIC_OFFSET = 0, CAPACITY_OFFSET = 4, DROPPED_OFFSET = 8,
+                             RECORDS_OFFSET = 16, HEAD_OFFSET = 64, TAIL_OFFSET = 128;
+
+    // Size of the header in bytes, the data starts on its own cache line
+    static final int HEADER_SIZE = 192;
+
+    // Length of the marker which skips the rest of the data area
+    private static final int PADDING = -1;
+
+    // The mapped header and data
+    private final ByteBuffer buffer;
+
+    // Size of the data area, a power of two
+    private final int capacity;
+
+    // Producer side: position up to which records are committed or claimed
+    private long head, claimed;
+
+    // Producer side: counters mirrored into the header
+    private long dropped, records;
+
+    // Consumer side: position of the next record and size of the polled one
+    private long tail;
+    private int polled;
+
+    // Target of the fences, its value doesn't matter
+    private volatile int barrier;
+
+    private ShmRing (ByteBuffer buffer)
+    {
+        this.buffer   = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        this.capacity = buffer.getInt(CAPACITY_OFFSET);
+        this.head     = buffer.getLong(HEAD_OFFSET);
+        this.tail     = buffer.getLong(TAIL_OFFSET);
+        this.dropped  = buffer.getLong(DROPPED_OFFSET);
+        this.records  = buffer.getLong(RECORDS_OFFSET);
+    }
+
+    /**
+     * Returns the size of the buffer needed for the given capacity.
+     *
+     * @param capacity The size of the data area, a power of two.
+     */
+    static int sizeFor (int capacity)
+    {
+        return HEADER_SIZE + capacity;
+    }
+
+    /**
+     * Initialize an empty ring in the buffer. Called by one side only,
+     * before the other side attaches.
+     *
+     * @param buffer The buffer of sizeFor(capacity) bytes.
+     */
+    static ShmRing create (ByteBuffer buffer)
+    {
+        int capacity = Integer.highestOneBit(buffer.capacity() - HEADER_SIZE);
+
+        if (capacity < 64)
+            throw new IllegalArgumentException("Buffer too small for a ring");
+
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        for (int i = 0; i < HEADER_SIZE; i += 8) {
+            buffer.putLong(i, 0);
+        }
+
+        buffer.putInt(CAPACITY_OFFSET, capacity);
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+
+        return new ShmRing(buffer);
+    }
+
+    /**
+     * Attach to a ring initialized by the other side.
+     *
+     * @param buffer The buffer holding the ring.
+     */
+    static ShmRing attach (ByteBuffer buffer)
+    {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buffer.getInt(MAGIC_OFFSET) != MAGIC)
+            throw new IllegalArgumentException("Buffer holds no ring");
+
+        return new ShmRing(buffer);
+    }
+
+    /**
+     * Returns the mapped buffer to write and read the records in place.
+     */
+    ByteBuffer buffer()
+    {
+        return buffer;
+    }
+
+    /**
+     * Reserve room for a record. Producer side only.
+     *
+     * @param length The size of the record in bytes.
+     *
+     * @return The buffer position to write the record to or -1 if the ring
+     *         is full, the record gets counted as dropped.
+     */
+    int claim (int length)
+    {
+        int size  = align(4 + length);
+        long read = buffer.getLong(TAIL_OFFSET);
+        int index = (int) (head & (capacity - 1));
+        int toEnd = capacity - index;
+        long pos  = head;
+
+        fence();
+
+        if (size > capacity || pos + (size > toEnd ? toEnd + size : size) - read > capacity) {
+            buffer.putLong(DROPPED_OFFSET, ++dropped);
+            return -1;
+        }
+
+        if (size > toEnd) {
+            buffer.putInt(HEADER_SIZE + index, PADDING);
+            pos  += toEnd;
+            index = 0;
+        }
+
+        buffer.putInt(HEADER_SIZE + index, length);
+        claimed = pos + size;
+
+        return HEADER_SIZE + index + 4;
+    }
+
+    /**
+     * Publish the claimed record to the consumer. Producer side only.
+     *
+     * @return true if the ring was empty before, so the consumer might
+     *         wait for a wakeup.
+     */
+    boolean commit()
+    {
+        long prev = head;
+
+        head = claimed;
+        buffer.putLong(RECORDS_OFFSET, ++records);
+
+        fence();
+        buffer.putLong(HEAD_OFFSET, head);
+        fence();
+
+        // either this sees the release of the consumer or it sees the head
+        return buffer.getLong(TAIL_OFFSET) == prev;
+    }
+
+    /**
+     * Copy the record into the ring. Producer side only.
+     *
+     * @param record The record.
+     *
+     * @return true if the ring was empty before or false if the record got
+     *         dropped or the consumer is busy anyway.
+     */
+    boolean offer (byte[] record)
+    {
+        int pos = claim(record.length);
+
+        if (pos < 0)
+            return false;
+
+        ByteBuffer view = buffer.duplicate();
+
+        view.position(pos);
+        view.put(record);
+
+        return commit();
+    }
+
+    /**
+     * Returns the position of the next record or -1 if the ring is empty.
+     * Consumer side only, release the record once read.
+     */
+    int poll()
+    {
+        long write = buffer.getLong(HEAD_OFFSET);
+
+        fence();
+
+        while (tail < write)
+        {
+            int index  = (int) (tail & (capacity - 1));
+            int length = buffer.getInt(HEADER_SIZE + index);
+
+            if (length == PADDING) {
+                tail += capacity - index;
+                continue;
+            }
+
+            polled = length;
+
+            return HEADER_SIZE + index + 4;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the size of the polled record in bytes.
+     */
+    int length()
+    {
+        return polled;
+    }
+
+    /**
+     * Hand the room of the polled record back to the producer. Consumer
+     * side only.
+     */
+    void release()
+    {
+        tail += align(4 + polled);
+
+        fence();
+        buffer.putLong(TAIL_OFFSET, tail);
+        fence();
+    }
+
+    /**
+     * Returns the number of committed records, read from the header.
+     */
+    long getRecords()
+    {
+        return buffer.getLong(RECORDS_OFFSET);
+    }
+
+    /**
+     * Returns the number of dropped records, read from the header.
+     */
+    long getDropped()
+    {
+        return buffer.getLong(DROPPED_OFFSET);
+    }
+
+    /**
+     * Returns the number of bytes waiting for the consumer.
+     */
+    long getPending()
+    {
+        return buffer.getLong(HEAD_OFFSET) - buffer.getLong(TAIL_OFFSET);
+    }
+
+    /**
+     * Full barrier between the plain buffer accesses before and after. A
+     * volatile store followed by a volatile load may not be reordered,
+     * which the runtime enforces with a full fence. Other processes see
+     * the same ordering as it is enforced by the CPU.
+     */
+    private void fence()
+    {
+        barrier = 0;
+
+        int unused = barrier;
+    }
+
+    /**
+     * Round up to the next multiple of 8.
+     */
+    private static int align (int size)
+    {
+        return (size + 7) & ~7;
+    }
+}
@@ -0,0 +1,150 @@
+package de.einfachhans.BackgroundMode;
+
+import android.util.Log;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded shutdown pipeline. Components register a step to flush and close
+ * what they have in flight, the steps run in registration order on their
+ * own thread and share one time budget. The caller learns if the drain
+ * completed in time, e.g. to decide if the process has to be killed.
+ */
+class ShutdownDrain {
+
+    /**
+     * Flushes and closes a component.
+     */
+    interface Step
+    {
+        /**
+         * @param remaining Time in ms left of the budget.
+         */
+        void drain (long remaining) throws Exception;
+    }
+
+    // Default budget in ms for all steps together
+    static final int DEFAULT_BUDGET = 500;
+
+    // Report of the last drain, kept across plugin instances of the process
+    private static volatile JSONObject lastReport = new JSONObject();
+
+    // Names and steps in registration order
+    private final List<String> names = new ArrayList<>();
+    private final List<Step> steps   = new ArrayList<>();
+
+    /**
+     * Add a step to the end of the pipeline.
+     *
+     * @param name The name used in the report.
+     * @param step The step to run.
+     */
+    synchronized void register (String name, Step step)
+    {
+        names.add(name);
+        steps.add(step);
+    }
+
+    /**
+     * Run all steps and wait at most the budget for them to complete.
+     * Steps still running after the budget continue in background.
+     *
+     * @param budget Time in ms for all steps together.
+     *
+     * @return true if all steps completed in time.
+     */
+    boolean run (long budget)
+    {
+        final List<String> names;
+        final List<Step> steps;
+
+        synchronized (this) {
+            names = new ArrayList<>(this.names);
+            steps = new ArrayList<>(this.steps);
+        }
+
+        final JSONObject times     = new JSONObject();
+        final CountDownLatch done  = new CountDownLatch(1);
+        final long started         = System.nanoTime();
+        final long deadline        = started + TimeUnit.MILLISECONDS.toNanos(budget);
+        boolean completed;
+
+        Thread thread = new Thread(() -> {
+            for (int i = 0; i < steps.size(); i++)
+            {
+                long begin = System.nanoTime();
+
+                try {
+                    steps.get(i).drain(Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - begin)));
+                } catch (Exception e) {
+                    Log.e("BackgroundMode", "Shutdown step " + names.get(i) + " failed: " + e.getMessage());
+                }
+
+                synchronized (times) {
+                    try {
+                        times.put(names.get(i), Metrics.microsSince(begin));
+                    } catch (Exception e) {
+                        // can't happen for primitive values
+                    }
+                }
+            }
+
+            done.countDown();
+        }, "backgroundmode-shutdown");
+
+        thread.setDaemon(true);
+        thread.start();
+
+        try {
+            completed = done.await(budget, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            completed = false;
+        }
+
+        long took = Metrics.microsSince(started);
+
+        Metrics.DRAIN_LATENCY.record(took);
+        report(times, took, completed);
+
+        return completed;
+    }
+
+    /**
+     * Returns the report of the last drain of the process.
+     */
+    static JSONObject getStats()
+    {
+        return lastReport;
+    }
+
+    /**
+     * Publish the report of a drain.
+     */
+    private static void report (JSONObject times, long took, boolean completed)
+    {
+        JSONObject report = new JSONObject();
+
+        try {
+            synchronized (times) {
+                report.put("steps", new JSONObject(times.toString()));
+            }
+
+            report.put("time", took);
+            report.put("completed", completed);
+        } catch (Exception e) {
+            Log.e("BackgroundMode", "Failed to report shutdown: " + e.getMessage());
+        }
+
+        if (!completed) {
+            Log.e("BackgroundMode", "Shutdown exceeded its budget after " + took + "µs");
+        }
+
+        lastReport = report;
+    }
+}
@@ -0,0 +1,357 @@
+package de.einfachhans.BackgroundMode;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Runs periodic tasks on a single thread of the foreground service, so
+ * periodic work does not depend on JS timers which Android throttles in
+ * background. A task runs at a fixed rate or with a fixed delay between
+ * runs, optionally with random jitter and aligned to a grid of the wall
+ * clock. Only one wakeup is scheduled at a time and all tasks due within
+ * the slack run together with it.
+ *
+ * Times are kept on elapsed realtime, which goes on while the device
+ * sleeps. The wakeup is posted to the thread for the awake case and armed
+ * as a wakeup alarm as well, so a task gets due with the CPU asleep too.
+ */
+class TaskScheduler {
+
+    /**
+     * Receiver of the task runs, called on the scheduler thread.
+     */
+    interface Listener
+    {
+        /**
+         * @param id   The id of the task.
+         * @param late Time in ms the run is behind its schedule.
+         */
+        void onTask (String id, long late);
+    }
+
+    // Default time in ms a task may run early to share a wakeup
+    private static final int DEFAULT_SLACK = 20;
+
+    // Action of the alarm intent
+    private static final String ACTION = "de.einfachhans.BackgroundMode.TASKS";
+
+    // Thread running the tasks
+    private final HandlerThread thread = new HandlerThread("backgroundmode-scheduler");
+
+    // Schedules the wakeups on the thread
+    private final Handler handler;
+
+    // Runs all due tasks
+    private final Runnable wakeup = this::runDue;
+
+    // Wakes the device for the next due task
+    private final WakeupAlarm alarm;
+
+    // Registered tasks by id, only accessed on the scheduler thread
+    private final Map<String, Task> tasks = new LinkedHashMap<>();
+
+    // Source of the jitter
+    private final Random random = new Random();
+
+    // Receiver of the task runs
+    private final Listener listener;
+
+    // Keeps the CPU awake while a task runs, may be null
+    private final WakeLockManager wakeLocks;
+
+    // Time in ms a task may run early to share a wakeup
+    private volatile long slack = DEFAULT_SLACK;
+
+    // Number of wakeups so far
+    private volatile long wakeups;
+
+    /**
+     * A registered task and its statistics.
+     */
+    private static final class Task
+    {
+        final String id;
+        final long interval, jitter, align;
+        final boolean fixedRate;
+
+        // Elapsed realtime of the next run as planned and with jitter and alignment
+        long base, due;
+
+        // Counters exposed for diagnostics
+        long runs, skipped, failed, runMicros, maxRunMicros, lateMs, maxLateMs;
+
+        Task (JSONObject spec)
+        {
+            id        = spec.optString("id");
+            interval  = Math.max(1, spec.optLong("interval", 60000));
+            jitter    = Math.max(0, spec.optLong("jitter", 0));
+            align     = Math.max(0, spec.optLong("align", 0));
+            fixedRate = !"fixedDelay".equals(spec.optString("mode", "fixedRate"));
+        }
+    }
+
+    /**
+     * @param context   The context of the service.
+     * @param listener  Receiver of the task runs.
+     * @param wakeLocks Keeps the CPU awake while a task runs, may be null.
+     */
+    TaskScheduler (Context context, Listener listener, WakeLockManager wakeLocks)
+    {
+        this.listener  = listener;
+        this.wakeLocks = wakeLocks;
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        alarm   = new WakeupAlarm(context, ACTION, handler, wakeup);
+    }
+
+    /**
+     * Set the time a task may run early to share a wakeup.
+     *
+     * @param slack The time in ms.
+     */
+    void setSlack (long slack)
+    {
+        this.slack = Math.max(0, slack);
+    }
+
+    /**
+     * Register a task, replacing any task with the same id. The first run
+     * is one interval from now.
+     *
+     * @param spec The task with id, interval, mode (fixedRate or
+     *             fixedDelay), jitter and align.
+     */
+    void schedule (JSONObject spec)
+    {
+        Task task = new Task(spec);
+
+        if (task.id.isEmpty())
+            throw new IllegalArgumentException("Task without id");
+
+        handler.post(() -> {
+            plan(task, SystemClock.elapsedRealtime() + task.interval);
+            tasks.put(task.id, task);
+            reschedule();
+        });
+    }
+
+    /**
+     * Remove the task with the given id.
+     *
+     * @param id The id of the task.
+     */
+    void cancel (String id)
+    {
+        handler.post(() -> {
+            if (tasks.remove(id) != null) {
+                reschedule();
+            }
+        });
+    }
+
+    /**
+     * Remove all tasks and end the scheduler thread.
+     */
+    void shutdown()
+    {
+        handler.removeCallbacksAndMessages(null);
+        alarm.cancel();
+        thread.quitSafely();
+    }
+
+    /**
+     * Returns the statistics of all tasks. Blocks until the scheduler
+     * thread answered, at most a second.
+     */
+    JSONObject getStats()
+    {
+        JSONObject stats = new JSONObject();
+        JSONObject all   = new JSONObject();
+        Object done      = new Object();
+
+        synchronized (done) {
+            boolean posted = handler.post(() -> {
+                collect(all);
+
+                synchronized (done) {
+                    done.notify();
+                }
+            });
+
+            try {
+                if (posted) {
+                    done.wait(1000);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        try {
+            stats.put("wakeups", wakeups);
+            stats.put("slack", slack);
+
+            synchronized (all) {
+                stats.put("tasks", all);
+            }
+        } catch (Exception e) {
+            // can't happen for primitive values
+        }
+
+        return stats;
+    }
+
+    /**
+     * Run all tasks due within the slack and schedule the next wakeup.
+     */
+    private void runDue()
+    {
+        long now = SystemClock.elapsedRealtime();
+
+        wakeups++;
+
+        for (Task task : tasks.values())
+        {
+            if (task.due > now + slack)
+                continue;
+
+            run(task, now);
+        }
+
+        reschedule();
+    }
+
+    /**
+     * Run a single task and compute its next run. A failing run is logged
+     * and counted, the task stays scheduled.
+     */
+    private void run (Task task, long now)
+    {
+        long late    = Math.max(0, now - task.due);
+        long started = System.nanoTime();
+
+        if (wakeLocks != null) {
+            wakeLocks.beginWork();
+        }
+
+        try {
+            listener.onTask(task.id, late);
+        } catch (Exception e) {
+            task.failed++;
+            Log.e("BackgroundMode", "Task " + task.id + " failed: " + e.getMessage());
+        } finally {
+            if (wakeLocks != null) {
+                wakeLocks.endWork();
+            }
+        }
+
+        long took = Metrics.microsSince(started);
+
+        task.runs++;
+        task.runMicros   += took;
+        task.maxRunMicros = Math.max(task.maxRunMicros, took);
+        task.lateMs      += late;
+        task.maxLateMs    = Math.max(task.maxLateMs, late);
+
+        if (task.fixedRate) {
+            long base = task.base + task.interval;
+
+            // skip runs missed while the thread was blocked or asleep
+            while (base <= now) {
+                base += task.interval;
+                task.skipped++;
+            }
+
+            plan(task, base);
+        } else {
+            plan(task, SystemClock.elapsedRealtime() + task.interval);
+        }
+    }
+
+    /**
+     * Plan the next run of the task at the given time, with jitter and
+     * alignment applied on top. The grid is aligned to the wall clock, so
+     * an align of a minute runs the task at the full minute.
+     */
+    private void plan (Task task, long base)
+    {
+        long due = base;
+
+        if (task.jitter > 0) {
+            due += (long) (random.nextDouble() * task.jitter);
+        }
+
+        if (task.align > 0) {
+            long offset = System.currentTimeMillis() - SystemClock.elapsedRealtime();
+            long wall   = due + offset;
+
+            due = (wall + task.align - 1) / task.align * task.align - offset;
+        }
+
+        task.base = base;
+        task.due  = due;
+    }
+
+    /**
+     * Replace the pending wakeup by one for the earliest task.
+     */
+    private void reschedule()
+    {
+        long due = Long.MAX_VALUE;
+
+        handler.removeCallbacks(wakeup);
+
+        for (Task task : tasks.values()) {
+            due = Math.min(due, task.due);
+        }
+
+        if (due == Long.MAX_VALUE) {
+            alarm.cancel();
+            return;
+        }
+
+        // the handler is on time while awake, the alarm wakes the CPU
+        handler.postDelayed(wakeup, Math.max(0, due - SystemClock.elapsedRealtime()));
+        alarm.set(due, false);
+    }
+
+    /**
+     * Put the statistics of each task into the given object.
+     */
+    private void collect (JSONObject all)
+    {
+        long now = SystemClock.elapsedRealtime();
+
+        synchronized (all) {
+            for (Task task : tasks.values())
+            {
+                JSONObject stats = new JSONObject();
+
+                try {
+                    stats.put("interval", task.interval);
+                    stats.put("mode", task.fixedRate ? "fixedRate" : "fixedDelay");
+                    stats.put("runs", task.runs);
+                    stats.put("skipped", task.skipped);
+                    stats.put("failed", task.failed);
+                    stats.put("avgRunTime", task.runs > 0 ? task.runMicros / task.runs : 0);
+                    stats.put("maxRunTime", task.maxRunMicros);
+                    stats.put("avgLate", task.runs > 0 ? task.lateMs / task.runs : 0);
+                    stats.put("maxLate", task.maxLateMs);
+                    stats.put("nextRun", Math.max(0, task.due - now));
+                    all.put(task.id, stats);
+                } catch (Exception e) {
+                    // can't happen for primitive values
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package de.einfachhans.BackgroundMode;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+
+import org.json.JSONObject;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static android.content.Context.POWER_SERVICE;
+import static android.os.Build.VERSION.SDK_INT;
+
+/**
+ * Derives a throttle level for background work from the battery level,
+ * the charging state, the power save mode and the thermal status. Each
+ * level halves the rate of the throttled components. The level can be
+ * read lock-free, components subscribe to get told about changes.
+ *
+ * While charging the battery level does not count, the thermal status
+ * always does.
+ */
+class ThrottlePolicy extends BroadcastReceiver {
+
+    /**
+     * Receiver of the level changes, called on the main thread.
+     */
+    interface Listener
+    {
+        void onThrottle (int level);
+    }
+
+    // Levels from full speed to the bare minimum
+    static final int NORMAL = 0, REDUCED = 1, LOW = 2, CRITICAL = 3;
+
+    // Policy shared by the plugin and the service
+    private static ThrottlePolicy instance;
+
+    // Subscribed components
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // Battery level in percent from which on each level applies
+    private volatile int reducedBattery = 30, lowBattery = 15, criticalBattery = 5;
+
+    // Thermal status from which on each level applies
+    private volatile int reducedThermal = PowerManager.THERMAL_STATUS_LIGHT,
+                         lowThermal = PowerManager.THERMAL_STATUS_MODERATE,
+                         criticalThermal = PowerManager.THERMAL_STATUS_SEVERE;
+
+    // Level applied in power save mode at least
+    private volatile int powerSaveLevel = REDUCED;
+
+    // Latest inputs
+    private volatile int battery = 100, thermal;
+    private volatile boolean charging, powerSave;
+
+    // Current level
+    private volatile int level = NORMAL;
+
+    // Counters exposed for diagnostics
+    private volatile long changes;
+
+    /**
+     * Returns the policy of the app, registering it on first use.
+     *
+     * @param context The context of the app.
+     */
+    static synchronized ThrottlePolicy get (Context context)
+    {
+        if (instance != null)
+            return instance;
+
+        Context app         = context.getApplicationContext();
+        PowerManager pm     = (PowerManager) app.getSystemService(POWER_SERVICE);
+        IntentFilter filter = new IntentFilter();
+
+        instance = new ThrottlePolicy();
+
+        filter.addAction(Intent.ACTION_BATTERY_CHANGED);
+        filter.addAction(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED);
+
+        if (pm != null) {
+            instance.powerSave = pm.isPowerSaveMode();
+        }
+
+        if (pm != null && SDK_INT >= Build.VERSION_CODES.Q) {
+            instance.thermal = pm.getCurrentThermalStatus();
+            pm.addThermalStatusListener(status -> {
+                instance.thermal = status;
+                instance.evaluate();
+            });
+        }
+
+        // battery changed is sticky, its current value comes back right away
+        Intent battery = app.registerReceiver(instance, filter);
+
+        if (battery != null) {
+            instance.onReceive(app, battery);
+        } else {
+            instance.evaluate();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Apply the throttle section of the settings.
+     *
+     * @param spec The throttle settings.
+     */
+    void configure (JSONObject spec)
+    {
+        if (spec == null)
+            return;
+
+        reducedBattery  = spec.optInt("reducedBattery", reducedBattery);
+        lowBattery      = spec.optInt("lowBattery", lowBattery);
+        criticalBattery = spec.optInt("criticalBattery", criticalBattery);
+        reducedThermal  = spec.optInt("reducedThermal", reducedThermal);
+        lowThermal      = spec.optInt("lowThermal", lowThermal);
+        criticalThermal = spec.optInt("criticalThermal", criticalThermal);
+        powerSaveLevel  = Math.max(NORMAL, Math.min(CRITICAL, spec.optInt("powerSaveLevel", powerSaveLevel)));
+
+        evaluate();
+    }
+
+    /**
+     * Subscribe to the level changes.
+     *
+     * @param listener The receiver of the changes.
+     */
+    void addListener (Listener listener)
+    {
+        listeners.addIfAbsent(listener);
+    }
+
+    /**
+     * Unsubscribe from the level changes.
+     *
+     * @param listener The receiver of the changes.
+     */
+    void removeListener (Listener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns the current level, from NORMAL to CRITICAL.
+     */
+    int getLevel()
+    {
+        return level;
+    }
+
+    /**
+     * Returns the level and its inputs as event data.
+     */
+    JSONObject toJSON()
+    {
+        JSONObject state = new JSONObject();
+
+        try {
+            state.put("level", level);
+            state.put("battery", battery);
+            state.put("charging", charging);
+            state.put("powerSave", powerSave);
+            state.put("thermal", thermal);
+        } catch (Exception e) {
+            // can't happen for primitive values
+        }
+
+        return state;
+    }
+
+    /**
+     * Returns the counters of the policy.
+     */
+    JSONObject getStats()
+    {
+        JSONObject stats = toJSON();
+
+        try {
+            stats.put("changes", changes);
+        } catch (Exception e) {
+            // can't happen for primitive values
+        }
+
+        return stats;
+    }
+
+    /**
+     * Called for the battery and power save broadcasts.
+     */
+    @Override
+    public void onReceive (Context context, Intent intent)
+    {
+        if (Intent.ACTION_BATTERY_CHANGED.equals(intent.getAction()))
+        {
+            int value = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, 100);
+
+            if (value >= 0 && scale > 0) {
+                battery = value * 100 / scale;
+            }
+
+            charging = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+        }
+        else
+        {
+            PowerManager pm = (PowerManager) context.getSystemService(POWER_SERVICE);
+            powerSave       = pm != null && pm.isPowerSaveMode();
+        }
+
+        evaluate();
+    }
+
+    /**
+     * Derive the level from the latest inputs and tell the listeners if it
+     * changed.
+     */
+    private synchronized void evaluate()
+    {
+        int next = NORMAL;
+
+        if (!charging) {
+            if (battery <= criticalBattery) next = CRITICAL;
+            else if (battery <= lowBattery) next = LOW;
+            else if (battery <= reducedBattery) next = REDUCED;
+        }
+
+        if (powerSave) {
+            next = Math.max(next, powerSaveLevel);
+        }
+
+        if (thermal >= criticalThermal) next = Math.max(next, CRITICAL);
+        else if (thermal >= lowThermal) next = Math.max(next, LOW);
+        else if (thermal >= reducedThermal) next = Math.max(next, REDUCED);
+
+        if (next == level)
+            return;
+
+        level = next;
+        changes++;
+
+        for (Listener listener : listeners) {
+            listener.onThrottle(next);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package de.einfachhans.BackgroundMode;
+
+import org.json.JSONObject;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bounded ring buffer which records the quotes while the app is in
+ * background, stored column-wise in primitive arrays without any object per
+ * tick. On resume the content is handed to JS in one bulk transfer.
+ *
+ * When full, the buffer either drops the oldest ticks or, in sample mode,
+ * thins out what it has by half and from then on keeps only every n-th tick
+ * so the whole background period stays covered.
+ */
+class TickBuffer {
+
+    // Storage of the ticks
+    private final int[] ids;
+    private final double[] prices;
+    private final int[] sizes;
+    private final long[] times;
+
+    // Flag indicates if the buffer thins out instead of dropping the oldest
+    private final boolean sample;
+
+    // Index of the oldest tick and number of ticks
+    private int head, count;
+
+    // Only every stride-th tick is kept in sample mode
+    private int stride = 1, skip;
+
+    // Number of ticks lost since the last drain
+    private int dropped;
+
+    // Number of ticks recorded and lost in total
+    private long recorded, droppedTotal;
+
+    /**
+     * Creates a buffer from the tickBuffer section of the settings.
+     *
+     * @param spec The buffer settings.
+     */
+    TickBuffer (JSONObject spec)
+    {
+        int capacity = Math.max(2, spec.optInt("capacity", 10000));
+
+        ids    = new int[capacity];
+        prices = new double[capacity];
+        sizes  = new int[capacity];
+        times  = new long[capacity];
+        sample = "sample".equals(spec.optString("overflow", "dropOldest"));
+    }
+
+    /**
+     * Returns true if the spec asks for a buffer.
+     *
+     * @param spec The buffer settings.
+     */
+    static boolean isConfigured (JSONObject spec)
+    {
+        return spec != null && spec.optInt("capacity", 10000) > 0;
+    }
+
+    /**
+     * Record all ticks of the batch.
+     *
+     * @param batch The parsed quotes.
+     */
+    synchronized void append (QuoteStream.Batch batch)
+    {
+        for (int i = 0; i < batch.size; i++) {
+            append(batch.ids[i], batch.prices[i], batch.sizes[i], batch.times[i]);
+        }
+    }
+
+    /**
+     * Record a single tick.
+     */
+    private void append (int id, double price, int size, long time)
+    {
+        int capacity = ids.length;
+
+        recorded++;
+
+        if (sample && ++skip < stride) {
+            dropped++;
+            droppedTotal++;
+            return;
+        }
+
+        skip = 0;
+
+        if (count == capacity) {
+            if (sample) {
+                compact();
+            } else {
+                head = (head + 1) % capacity;
+                count--;
+                dropped++;
+                droppedTotal++;
+            }
+        }
+
+        int i = (head + count) % capacity;
+
+        ids[i]    = id;
+        prices[i] = price;
+        sizes[i]  = size;
+        times[i]  = time;
+        count++;
+    }
+
+    /**
+     * Keep every second tick and double the stride. In sample mode the
+     * head never moves, so the ticks can be moved down in place.
+     */
+    private void compact()
+    {
+        int capacity = ids.length;
+        int kept     = 0;
+
+        for (int n = 0; n < count; n += 2) {
+            int from = (head + n) % capacity;
+
+            ids[kept]    = ids[from];
+            prices[kept] = prices[from];
+            sizes[kept]  = sizes[from];
+            times[kept]  = times[from];
+            kept++;
+        }
+
+        dropped      += count - kept;
+        droppedTotal += count - kept;
+        head          = 0;
+        count         = kept;
+        stride       *= 2;
+    }
+
+    /**
+     * Returns the number of buffered ticks.
+     */
+    synchronized int size()
+    {
+        return count;
+    }
+
+    /**
+     * Returns the counters of the buffer.
+     */
+    synchronized JSONObject getStats()
+    {
+        JSONObject stats = new JSONObject();
+
+        try {
+            stats.put("capacity", ids.length);
+            stats.put("buffered", count);
+            stats.put("recorded", recorded);
+            stats.put("dropped", droppedTotal);
+        } catch (Exception e) {
+            // can't happen for primitive values
+        }
+
+        return stats;
+    }
+
+    /**
+     * Serialize and clear the buffer as tick columns frame, see
+     * {@link BinaryFrames#TICK_COLUMNS}.
+     *
+     * @return The serialized ticks.
+     */
+    synchronized byte[] drain()
+    {
+        int capacity   = ids.length;
+        ByteBuffer buf = BinaryFrames.begin(BinaryFrames.TICK_COLUMNS, 0, count,
+                4 + count * BinaryFrames.TICK_SIZE);
+
+        buf.putInt(dropped);
+
+        for (int n = 0; n < count; n++) buf.putInt(ids[(head + n) % capacity]);
+        for (int n = 0; n < count; n++) buf.putDouble(prices[(head + n) % capacity]);
+        for (int n = 0; n < count; n++) buf.putInt(sizes[(head + n) % capacity]);
+        for (int n = 0; n < count; n++) buf.putDouble(times[(head + n) % capacity]);
+
+        head    = 0;
+        count   = 0;
+        dropped = 0;
+        stride  = 1;
+        skip    = 0;
+
+        return BinaryFrames.finish(buf);
+    }
+}
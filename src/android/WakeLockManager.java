@@ -0,0 +1,396 @@
+package de.einfachhans.BackgroundMode;
+
+import android.annotation.SuppressLint;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONObject;
+
+import static android.os.PowerManager.PARTIAL_WAKE_LOCK;
+
+/**
+ * Keeps the CPU awake only while there is work to do. Work in flight and
+ * incoming data take short, timed leases on a partial wake lock which get
+ * renewed as long as work is pending and run out during idle gaps.
+ *
+ * The policy is read from the wakeLock section of the settings:
+ * mode (always or demand), minLease, idleTimeout and maxHoldPerHour.
+ * In always mode the lock is held as long as the service lives. The level
+ * of the top keep-alive token overrides the mode: low forces demand, high
+ * forces always.
+ */
+class WakeLockManager {
+
+    // Tag of the wake lock used for attribution
+    static final String TAG = "backgroundmode:wakelock";
+
+    // Length of the window for the hold budget
+    private static final long HOUR = 60 * 60 * 1000;
+
+    // Renews or releases the lease when it runs out
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    // Invoked when the current lease runs out
+    private final Runnable expire = this::onLeaseExpired;
+
+    // The underlying partial wake lock
+    private final PowerManager.WakeLock wakeLock;
+
+    // Flag indicates if the lock is held only while there is work
+    private boolean onDemand;
+
+    // Mode as configured by the settings
+    private boolean configuredDemand;
+
+    // Level of the top keep-alive token
+    private int level = KeepAliveTokens.NORMAL;
+
+    // Flag indicates if the lock is managed, between start and stop
+    private boolean started;
+
+    // Min length of a lease in ms
+    private long minLease = 1000;
+
+    // Time in ms the lock stays held after the last work
+    private long idleTimeout = 5000;
+
+    // Max time in ms the lock may be held per hour, 0 for no limit
+    private long maxHoldPerHour;
+
+    // Number of registered work items in flight
+    private int inFlight;
+
+    // Flag indicates if the lock is held
+    private boolean held;
+
+    // Elapsed realtime when the lock was acquired and the lease runs out
+    private long heldSince, leaseEnd;
+
+    // Elapsed realtime until the latest touch wants the CPU awake
+    private long wantedEnd;
+
+    // Elapsed realtime up to which the hold time is accounted
+    private long bookedUntil;
+
+    // Start of the current budget window and time held within
+    private long windowStart, heldInWindow;
+
+    // Counters exposed for diagnostics
+    private long heldTotal, leases, denied;
+
+    /**
+     * @param pm The power manager service.
+     */
+    WakeLockManager (PowerManager pm)
+    {
+        wakeLock = pm.newWakeLock(PARTIAL_WAKE_LOCK, TAG);
+        wakeLock.setReferenceCounted(false);
+    }
+
+    /**
+     * Apply the policy of the settings. Unknown or missing keys keep their
+     * current value.
+     *
+     * @param spec The wakeLock section of the settings or null.
+     */
+    synchronized void configure (JSONObject spec)
+    {
+        if (spec == null)
+            return;
+
+        configuredDemand = "demand".equals(spec.optString("mode", configuredDemand ? "demand" : "always"));
+        minLease         = Math.max(100, spec.optLong("minLease", minLease));
+        idleTimeout      = Math.max(0, spec.optLong("idleTimeout", idleTimeout));
+        maxHoldPerHour   = Math.max(0, spec.optLong("maxHoldPerHour", maxHoldPerHour));
+
+        applyMode();
+    }
+
+    /**
+     * Follow the level of the top keep-alive token.
+     *
+     * @param level The priority of the top holder.
+     */
+    synchronized void setLevel (int level)
+    {
+        this.level = level;
+        applyMode();
+    }
+
+    /**
+     * Take the lock according to the mode.
+     */
+    @SuppressLint("WakelockTimeout")
+    synchronized void start()
+    {
+        started = true;
+
+        if (!onDemand) {
+            wakeLock.acquire();
+            onAcquired(SystemClock.elapsedRealtime());
+        } else if (inFlight > 0) {
+            lease(idleTimeout);
+        }
+    }
+
+    /**
+     * Release the lock for good.
+     */
+    synchronized void stop()
+    {
+        started  = false;
+        inFlight = 0;
+        release();
+    }
+
+    /**
+     * Register work which keeps the CPU awake until {@link #endWork()}.
+     */
+    synchronized void beginWork()
+    {
+        inFlight++;
+        touch();
+    }
+
+    /**
+     * Unregister work. The lock stays held for the idle timeout.
+     */
+    synchronized void endWork()
+    {
+        if (inFlight > 0) {
+            inFlight--;
+        }
+
+        touch();
+    }
+
+    /**
+     * Keep the CPU awake for at least the idle timeout, e.g. after data
+     * did arrive.
+     */
+    synchronized void touch()
+    {
+        if (onDemand) {
+            lease(idleTimeout);
+        }
+    }
+
+    /**
+     * Returns the time in ms the lock was held so far.
+     */
+    synchronized long getHeldTime()
+    {
+        syncHeld();
+        book(SystemClock.elapsedRealtime());
+
+        return heldTotal;
+    }
+
+    /**
+     * Returns the counters of the manager.
+     */
+    synchronized JSONObject getStats()
+    {
+        JSONObject stats = new JSONObject();
+
+        try {
+            stats.put("mode", onDemand ? "demand" : "always");
+            stats.put("level", level);
+            stats.put("held", held);
+            stats.put("heldTime", getHeldTime());
+            stats.put("inFlight", inFlight);
+            stats.put("leases", leases);
+            stats.put("denied", denied);
+        } catch (Exception e) {
+            // can't happen for primitive values
+        }
+
+        return stats;
+    }
+
+    /**
+     * Switch the mode if the settings or the level changed it, the lock
+     * gets taken again by the new mode.
+     */
+    private void applyMode()
+    {
+        boolean demand = level == KeepAliveTokens.LOW
+                || (level != KeepAliveTokens.HIGH && configuredDemand);
+
+        if (demand == onDemand)
+            return;
+
+        onDemand = demand;
+
+        if (started) {
+            release();
+            start();
+        }
+    }
+
+    /**
+     * Take or extend a timed lease. A running lease is renewed only once
+     * less than half of the wanted time is left, so a steady flow of data
+     * does not acquire the lock again on each batch. Until then the expiry
+     * extends the lease up to the wanted end.
+     *
+     * @param duration The min time in ms to stay awake from now on.
+     */
+    private void lease (long duration)
+    {
+        long now    = SystemClock.elapsedRealtime();
+        long length = Math.max(minLease, duration);
+        long end    = now + length;
+
+        syncHeld();
+
+        wantedEnd = Math.max(wantedEnd, end);
+
+        if (held && leaseEnd - now >= length / 2)
+            return;
+
+        long budget = getRemainingBudget(now);
+
+        if (budget <= 0) {
+            denied++;
+            release();
+            return;
+        }
+
+        end      = Math.min(end, now + budget);
+        leaseEnd = end;
+
+        wakeLock.acquire(end - now);
+        leases++;
+
+        if (!held) {
+            onAcquired(now);
+        }
+
+        handler.removeCallbacks(expire);
+        handler.postDelayed(expire, end - now);
+    }
+
+    /**
+     * Renew the lease while work is in flight, otherwise let it go.
+     */
+    private synchronized void onLeaseExpired()
+    {
+        long now = SystemClock.elapsedRealtime();
+
+        if (!held || !onDemand)
+            return;
+
+        if (inFlight > 0) {
+            lease(idleTimeout);
+        } else if (wantedEnd > now) {
+            lease(wantedEnd - now);
+        } else {
+            release();
+        }
+    }
+
+    /**
+     * Book keeping after the lock was taken.
+     */
+    private void onAcquired (long now)
+    {
+        held        = true;
+        heldSince   = now;
+        bookedUntil = now;
+    }
+
+    /**
+     * Account the hold time up to now, so the metrics grow while the lock
+     * is held and not only once it gets released.
+     *
+     * @param now The current elapsed realtime.
+     */
+    private void book (long now)
+    {
+        if (!held)
+            return;
+
+        long until = heldUntil(now);
+        long time  = until - bookedUntil;
+
+        if (time <= 0)
+            return;
+
+        bookedUntil   = until;
+        heldTotal    += time;
+        heldInWindow += time;
+
+        Metrics.WAKELOCK_TIME.add(time);
+    }
+
+    /**
+     * Account a lease which the system already let run out as released at
+     * its end. The kernel drops a timed lock on time, while the handler
+     * renewing or releasing it does not run as long as the CPU sleeps.
+     */
+    private void syncHeld()
+    {
+        if (held && leaseEnd > 0 && !wakeLock.isHeld()) {
+            release();
+        }
+    }
+
+    /**
+     * Returns until when the lock was held: now for an untimed lock or a
+     * running lease, the end of the lease once it ran out.
+     *
+     * @param now The current elapsed realtime.
+     */
+    private long heldUntil (long now)
+    {
+        return leaseEnd > 0 ? Math.min(now, leaseEnd) : now;
+    }
+
+    /**
+     * Release the lock if held and account the hold time.
+     */
+    private void release()
+    {
+        handler.removeCallbacks(expire);
+
+        if (!held)
+            return;
+
+        book(SystemClock.elapsedRealtime());
+
+        held      = false;
+        leaseEnd  = 0;
+        wantedEnd = 0;
+
+        try {
+            if (wakeLock.isHeld()) {
+                wakeLock.release();
+            }
+        } catch (RuntimeException e) {
+            Log.w("BackgroundMode", "Wake lock already released: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the time in ms the lock may still be held within the current
+     * hour, or Long.MAX_VALUE if there is no limit.
+     */
+    private long getRemainingBudget (long now)
+    {
+        if (maxHoldPerHour <= 0)
+            return Long.MAX_VALUE / 2;
+
+        if (now - windowStart >= HOUR) {
+            windowStart  = now;
+            heldInWindow = 0;
+        }
+
+        long used = heldInWindow + (held ? Math.max(0, heldUntil(now) - Math.max(bookedUntil, windowStart)) : 0);
+
+        return maxHoldPerHour - used;
+    }
+}
@@ -0,0 +1,187 @@
+package de.einfachhans.BackgroundMode;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+
+import static android.os.Build.VERSION.SDK_INT;
+
+/**
+ * A single alarm on elapsed realtime which wakes the device and calls back
+ * on the thread of the given handler. The alarm is exact if the app may
+ * schedule exact alarms, otherwise the system may defer it a bit. The
+ * receiver is registered while an alarm is pending.
+ */
+class WakeupAlarm extends BroadcastReceiver implements Alarm {
+
+    // Context used to register the receiver and the alarm
+    private final Context context;
+
+    // Action of the alarm intent, unique per alarm
+    private final String action;
+
+    // Delivers the alarm
+    private final Handler handler;
+
+    // Called when the alarm goes off
+    private final Runnable listener;
+
+    // Fires the alarm
+    private final PendingIntent alarm;
+
+    // Flag indicates if the receiver is registered
+    private boolean registered;
+
+    /**
+     * @param context  The context of the service.
+     * @param action   The action of the alarm intent, unique per alarm.
+     * @param handler  Delivers the alarm on its thread.
+     * @param listener Called when the alarm goes off.
+     */
+    WakeupAlarm (Context context, String action, Handler handler, Runnable listener)
+    {
+        Intent intent = new Intent(action).setPackage(context.getPackageName());
+
+        this.context  = context.getApplicationContext();
+        this.action   = action;
+        this.handler  = handler;
+        this.listener = listener;
+        this.alarm    = PendingIntent.getBroadcast(this.context, 0, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+    }
+
+    /**
+     * Returns the current elapsed realtime in ms.
+     */
+    @Override
+    public long now()
+    {
+        return SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Replace the pending alarm.
+     *
+     * @param at        The elapsed realtime to go off.
+     * @param whileIdle Set to true to go off in Doze too, the system allows
+     *                  that about once per 9 minutes only.
+     *
+     * @return false if the alarm is inexact as exact alarms are not allowed.
+     */
+    @Override
+    public synchronized boolean set (long at, boolean whileIdle)
+    {
+        AlarmManager am = getAlarmManager();
+        boolean exact   = canScheduleExact(am);
+        int type        = AlarmManager.ELAPSED_REALTIME_WAKEUP;
+
+        register();
+
+        if (exact && whileIdle) {
+            am.setExactAndAllowWhileIdle(type, at, alarm);
+        } else if (exact) {
+            am.setExact(type, at, alarm);
+        } else if (whileIdle) {
+            am.setAndAllowWhileIdle(type, at, alarm);
+        } else {
+            am.set(type, at, alarm);
+        }
+
+        return exact;
+    }
+
+    /**
+     * Replace the pending alarm by an alarm clock, which the system treats
+     * like a user visible alarm and delivers on time even in Doze. Alarm
+     * clocks need the permission for exact alarms as of Android 12, else
+     * an inexact idle alarm is used.
+     *
+     * @param at The elapsed realtime to go off.
+     *
+     * @return false if the alarm fell back to an inexact one.
+     */
+    @Override
+    public synchronized boolean setAlarmClock (long at)
+    {
+        AlarmManager am = getAlarmManager();
+        long wall       = System.currentTimeMillis() + at - SystemClock.elapsedRealtime();
+
+        if (!canScheduleExact(am))
+            return set(at, true);
+
+        register();
+        am.setAlarmClock(new AlarmManager.AlarmClockInfo(wall, null), alarm);
+
+        return true;
+    }
+
+    /**
+     * Cancel the pending alarm and unregister the receiver.
+     */
+    @Override
+    public synchronized void cancel()
+    {
+        if (!registered)
+            return;
+
+        getAlarmManager().cancel(alarm);
+        context.unregisterReceiver(this);
+        registered = false;
+    }
+
+    /**
+     * Called on the thread of the handler when the alarm goes off.
+     */
+    @Override
+    public void onReceive (Context context, Intent intent)
+    {
+        synchronized (this) {
+            if (!registered)
+                return;
+        }
+
+        listener.run();
+    }
+
+    /**
+     * Returns the service to schedule the alarms.
+     */
+    private AlarmManager getAlarmManager()
+    {
+        return (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+    }
+
+    /**
+     * Register the receiver of the alarm if not yet done.
+     */
+    private void register()
+    {
+        if (registered)
+            return;
+
+        IntentFilter filter = new IntentFilter(action);
+
+        if (SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            context.registerReceiver(this, filter, null, handler, Context.RECEIVER_NOT_EXPORTED);
+        } else {
+            context.registerReceiver(this, filter, null, handler);
+        }
+
+        registered = true;
+    }
+
+    /**
+     * Returns true if exact alarms are allowed, which needs the
+     * SCHEDULE_EXACT_ALARM permission granted as of Android 12.
+     */
+    private static boolean canScheduleExact (AlarmManager am)
+    {
+        return SDK_INT < Build.VERSION_CODES.S || am.canScheduleExactAlarms();
+    }
+}
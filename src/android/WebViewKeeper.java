@@ -0,0 +1,229 @@
+package de.einfachhans.BackgroundMode;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import org.apache.cordova.CordovaWebView;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.lang.reflect.Method;
+
+/**
+ * Keeps the WebView in visible state while the app is in background, so
+ * its JS timers are not throttled. Once enabled the visibility gets
+ * re-asserted a moment after each pause, stop or loss of the window focus,
+ * when the system marked the view as hidden. The timer drift measured by
+ * JS is recorded to verify the cadence holds.
+ */
+class WebViewKeeper implements ViewTreeObserver.OnWindowFocusChangeListener {
+
+    // Name of the Crosswalk view which has its own way to resume
+    private static final String XWALK_VIEW = "org.crosswalk.engine.XWalkCordovaView";
+
+    // Time in ms to wait until the system is done hiding the view
+    private static final long DELAY = 1000;
+
+    // Keeper of the current web view
+    private static WebViewKeeper instance;
+
+    // The web view to keep visible
+    private final CordovaWebView webView;
+
+    // Runs the assertions on the UI thread
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    // Re-asserts the visibility
+    private final Runnable assertion = this::assertVisible;
+
+    // Crosswalk's onShow, null if not a Crosswalk view
+    private Method onShow;
+
+    // Flag indicates if onShow was looked up
+    private boolean resolved;
+
+    // Flag indicates if the visibility is kept
+    private volatile boolean enabled;
+
+    // Counters exposed for diagnostics
+    private volatile long asserts, samples;
+
+    private WebViewKeeper (CordovaWebView webView)
+    {
+        this.webView = webView;
+    }
+
+    /**
+     * Returns the keeper of the web view. A keeper of a previous web view
+     * gets stopped.
+     *
+     * @param webView The web view of the plugin.
+     */
+    static synchronized WebViewKeeper get (CordovaWebView webView)
+    {
+        if (instance != null && instance.webView == webView)
+            return instance;
+
+        if (instance != null) {
+            instance.stop();
+        }
+
+        instance = new WebViewKeeper(webView);
+
+        return instance;
+    }
+
+    /**
+     * Start keeping the web view visible. Called on the UI thread.
+     */
+    void enable()
+    {
+        if (!enabled) {
+            enabled = true;
+            getView().getViewTreeObserver().addOnWindowFocusChangeListener(this);
+        }
+
+        schedule();
+    }
+
+    /**
+     * Called when the app went to background or the activity got stopped.
+     */
+    void onPause()
+    {
+        if (enabled) {
+            schedule();
+        }
+    }
+
+    /**
+     * Called when the window gained or lost the focus, e.g. as the screen
+     * turned off.
+     */
+    @Override
+    public void onWindowFocusChanged (boolean hasFocus)
+    {
+        if (!hasFocus && enabled) {
+            schedule();
+        }
+    }
+
+    /**
+     * Stop keeping the web view visible.
+     */
+    void stop()
+    {
+        if (!enabled)
+            return;
+
+        enabled = false;
+        handler.removeCallbacks(assertion);
+        handler.post(() -> {
+            ViewTreeObserver observer = getView().getViewTreeObserver();
+
+            if (observer.isAlive()) {
+                observer.removeOnWindowFocusChangeListener(this);
+            }
+        });
+    }
+
+    /**
+     * Record the delays of the JS timers.
+     *
+     * @param delays Time in ms each timer fired late.
+     */
+    void recordDrift (JSONArray delays)
+    {
+        if (delays == null)
+            return;
+
+        for (int i = 0; i < delays.length(); i++) {
+            Metrics.TIMER_DRIFT.record(delays.optLong(i) * 1000);
+        }
+
+        samples += delays.length();
+    }
+
+    /**
+     * Returns the counters of the keeper.
+     */
+    JSONObject getStats()
+    {
+        JSONObject stats = new JSONObject();
+
+        try {
+            stats.put("enabled", enabled);
+            stats.put("asserts", asserts);
+            stats.put("samples", samples);
+        } catch (Exception e) {
+            // can't happen for primitive values
+        }
+
+        return stats;
+    }
+
+    /**
+     * Re-assert the visibility once the system is done hiding the view.
+     */
+    private void schedule()
+    {
+        handler.removeCallbacks(assertion);
+        handler.postDelayed(assertion, DELAY);
+    }
+
+    /**
+     * Tell the view it's visible. Crosswalk views get resumed by onShow.
+     */
+    private void assertVisible()
+    {
+        View view = getView();
+        Method show;
+
+        if (!enabled)
+            return;
+
+        asserts++;
+        show = getOnShow(view);
+
+        try {
+            if (show != null) {
+                show.invoke(view);
+                return;
+            }
+        } catch (Exception e) {
+            // fall through
+        }
+
+        view.dispatchWindowVisibilityChanged(View.VISIBLE);
+    }
+
+    /**
+     * Returns Crosswalk's onShow if the view has one, looked up once.
+     *
+     * @param view The view of the engine.
+     */
+    private Method getOnShow (View view)
+    {
+        if (!resolved) {
+            resolved = true;
+
+            try {
+                onShow = Class.forName(XWALK_VIEW).getMethod("onShow");
+            } catch (Exception e) {
+                onShow = null;
+            }
+        }
+
+        return onShow != null && onShow.getDeclaringClass().isInstance(view) ? onShow : null;
+    }
+
+    /**
+     * Returns the view of the engine.
+     */
+    private View getView()
+    {
+        return webView.getEngine().getView();
+    }
+}
@@ -11,6 +11,12 @@ declare module 'cordova-plugin-advanced-background-mode' {
         
         static setEnabled(enable: boolean);
         
+        static acquire(owner: string, options?: KeepAliveOptions, callback?: (id: string) => void);
+        
+        static release(id: string);
+        
+        static getTokens(callback: (tokens: any) => void);
+        
         static getDefaults(): Options;
         
         static getSettings(): Options;
@@ -37,6 +43,24 @@ declare module 'cordova-plugin-advanced-background-mode' {
         
         static isScreenOff(callback: (result: any) => void);
         
+        static getCapabilities(callback: (capabilities: any) => void);
+        
+        static getMetrics(callback: (metrics: any) => void, reset?: boolean);
+        
+        static drainQuotes(callback: (quotes: any) => void, max?: number);
+        
+        static resyncQuotes();
+        
+        static scheduleTask(task: TaskOptions, error?: (message: string) => void);
+        
+        static cancelTask(id: string);
+        
+        static addAlerts(rules: AlertRule[], error?: (message: string) => void);
+        
+        static removeAlerts(ids: string[]);
+        
+        static clearAlerts();
+        
         static wakeUp();
         
         static unlock();
@@ -8,7 +8,118 @@ declare module 'cordova-plugin-advanced-background-mode' {
         silent?: boolean,
         hidden?: boolean,
         color?: string,
-        icon?: string
+        icon?: string,
+        notificationRate?: number,
+        eventWindow?: number,
+        stream?: StreamOptions,
+        tickBuffer?: TickBufferOptions,
+        conflation?: ConflationOptions,
+        wakeLock?: WakeLockOptions,
+        lifecycle?: LifecycleOptions,
+        shutdown?: ShutdownOptions,
+        scheduler?: SchedulerOptions,
+        calendar?: CalendarOptions,
+        heartbeat?: HeartbeatOptions,
+        throttle?: ThrottleOptions
+    }
+
+    interface ThrottleOptions {
+        reducedBattery?: number,
+        lowBattery?: number,
+        criticalBattery?: number,
+        reducedThermal?: number,
+        lowThermal?: number,
+        criticalThermal?: number,
+        powerSaveLevel?: 0 | 1 | 2 | 3
+    }
+
+    interface HeartbeatOptions {
+        enabled?: boolean,
+        interval?: number,
+        minInterval?: number,
+        maxInterval?: number,
+        step?: number,
+        mode?: 'exact' | 'alarmClock'
+    }
+
+    interface CalendarOptions {
+        file?: string,
+        lead?: number,
+        markets?: MarketOptions[]
+    }
+
+    interface MarketOptions {
+        id: string,
+        zone?: string,
+        days?: string,
+        sessions: string[],
+        holidays?: string[]
+    }
+
+    interface SchedulerOptions {
+        slack?: number
+    }
+
+    interface TaskOptions {
+        id: string,
+        interval: number,
+        mode?: 'fixedRate' | 'fixedDelay',
+        jitter?: number,
+        align?: number
+    }
+
+    interface AlertRule {
+        id: string,
+        instrument: number,
+        type: 'above' | 'below' | 'crossUp' | 'crossDown',
+        level: number,
+        repeat?: boolean,
+        cooldown?: number,
+        title?: string,
+        text?: string,
+        notify?: boolean
+    }
+
+    interface KeepAliveOptions {
+        priority?: 'low' | 'normal' | 'high',
+        timeout?: number
+    }
+
+    interface LifecycleOptions {
+        startDelay?: number,
+        stopDelay?: number
+    }
+
+    interface ShutdownOptions {
+        budget?: number,
+        killProcess?: boolean
+    }
+
+    interface TickBufferOptions {
+        capacity?: number,
+        overflow?: 'dropOldest' | 'sample'
+    }
+
+    interface ConflationOptions {
+        capacity?: number
+    }
+
+    interface WakeLockOptions {
+        mode?: 'always' | 'demand',
+        minLease?: number,
+        idleTimeout?: number,
+        maxHoldPerHour?: number
+    }
+
+    interface StreamOptions {
+        host?: string,
+        port: number,
+        subscribe?: string,
+        batchSize?: number,
+        flushInterval?: number,
+        maxReconnectDelay?: number,
+        encoding?: 'json' | 'delta' | 'binary',
+        resyncInterval?: number
     }
 
 }
@@ -85,6 +85,66 @@ var BackgroundMode = /** @class */ (function () {
     return plu.isScreenOff.apply(plu, arguments);
   };
 
+  BackgroundMode.acquire = function (owner, options, fn) {
+    var plu = plugin();
+    return plu.acquire.apply(plu, arguments);
+  };
+
+  BackgroundMode.release = function (id) {
+    var plu = plugin();
+    return plu.release.apply(plu, arguments);
+  };
+
+  BackgroundMode.getTokens = function (fn) {
+    var plu = plugin();
+    return plu.getTokens.apply(plu, arguments);
+  };
+
+  BackgroundMode.getCapabilities = function (fn) {
+    var plu = plugin();
+    return plu.getCapabilities.apply(plu, arguments);
+  };
+
+  BackgroundMode.getMetrics = function (fn, reset) {
+    var plu = plugin();
+    return plu.getMetrics.apply(plu, arguments);
+  };
+
+  BackgroundMode.drainQuotes = function (fn, max) {
+    var plu = plugin();
+    return plu.drainQuotes.apply(plu, arguments);
+  };
+
+  BackgroundMode.resyncQuotes = function () {
+    var plu = plugin();
+    return plu.resyncQuotes.apply(plu, arguments);
+  };
+
+  BackgroundMode.scheduleTask = function () {
+    var plu = plugin();
+    return plu.scheduleTask.apply(plu, arguments);
+  };
+
+  BackgroundMode.cancelTask = function () {
+    var plu = plugin();
+    return plu.cancelTask.apply(plu, arguments);
+  };
+
+  BackgroundMode.addAlerts = function () {
+    var plu = plugin();
+    return plu.addAlerts.apply(plu, arguments);
+  };
+
+  BackgroundMode.removeAlerts = function () {
+    var plu = plugin();
+    return plu.removeAlerts.apply(plu, arguments);
+  };
+
+  BackgroundMode.clearAlerts = function () {
+    var plu = plugin();
+    return plu.clearAlerts.apply(plu, arguments);
+  };
+
   BackgroundMode.wakeUp = function () {
     var plu = plugin();
     return plu.wakeUp.apply(plu, arguments);
@@ -78,6 +78,65 @@ exports.setEnabled = function (enable)
     }
 };
 
+/**
+ * Keep the background mode on behalf of a part of the app (Android only).
+ * The mode stays enabled while at least one token is held, the wake lock
+ * follows the token with the highest priority.
+ *
+ * @param [ String ] owner The part of the app asking for the token.
+ * @param [ Object ] options The priority ('low', 'normal' or 'high') and
+ *                           the timeout (ms) after which the token gets
+ *                           released.
+ * @param [ Function ] fn Callback function to invoke with the token id.
+ *
+ * @return [ Void ]
+ */
+exports.acquire = function (owner, options, fn)
+{
+    if (this._isAndroid)
+    {
+        var done = function (token) {
+            if (fn) fn(token.id);
+        };
+
+        cordova.exec(done, null, 'BackgroundMode', 'acquire', [owner, options || {}]);
+    }
+};
+
+/**
+ * Release a token handed out by acquire (Android only).
+ *
+ * @param [ String ] id The id of the token.
+ *
+ * @return [ Void ]
+ */
+exports.release = function (id)
+{
+    if (this._isAndroid)
+    {
+        cordova.exec(null, null, 'BackgroundMode', 'release', [id]);
+    }
+};
+
+/**
+ * The held tokens and their owners (Android only).
+ *
+ * @param [ Function ] fn Callback function to invoke with the tokens.
+ *
+ * @return [ Void ]
+ */
+exports.getTokens = function (fn)
+{
+    if (this._isAndroid)
+    {
+        cordova.exec(fn, null, 'BackgroundMode', 'tokens', []);
+    }
+    else
+    {
+        fn(undefined);
+    }
+};
+
 /**
  * List of all available options with their default value.
  *
@@ -137,7 +196,9 @@ exports.configure = function (options) {
 };
 
 /**
- * Enable GPS-tracking in background (Android).
+ * Enable GPS-tracking in background (Android). Keeps the web view visible
+ * for the native side and reports the delays of the JS timers, found as
+ * timerDrift within the metrics.
  *
  * @return [ Void ]
  */
@@ -146,6 +207,7 @@ exports.disableWebViewOptimizations = function()
     if (this._isAndroid)
     {
         cordova.exec(null, null, 'BackgroundModeExt', 'webview', []);
+        this._startDriftProbe();
     }
 };
 
@@ -179,6 +241,28 @@ exports.openAppStartSettings = function (options)
     }
 };
 
+/**
+ * What the device offers to run in background, like the app start settings
+ * of the manufacturer and the battery optimization state (Android only).
+ * Probed once per system and app version, later calls are answered from
+ * the cache.
+ *
+ * @param [ Function ] fn Callback function to invoke with the capabilities.
+ *
+ * @return [ Void ]
+ */
+exports.getCapabilities = function (fn)
+{
+    if (this._isAndroid)
+    {
+        cordova.exec(fn, null, 'BackgroundModeExt', 'capabilities', []);
+    }
+    else
+    {
+        fn(undefined);
+    }
+};
+
 /**
  * Move app to background (Android only).
  *
@@ -245,7 +329,8 @@ exports.overrideBackButton = function()
 };
 
 /**
- * If the screen is off.
+ * If the screen is off. Answered from the last 'screen' event pushed by
+ * the native side, the bridge is only asked until the first one arrived.
  *
  * @param [ Function ] fn Callback function to invoke with boolean arg.
  *
@@ -253,7 +338,11 @@ exports.overrideBackButton = function()
  */
 exports.isScreenOff = function (fn)
 {
-    if (this._isAndroid)
+    if (this._isAndroid && this._screen)
+    {
+        fn(!this._screen.interactive);
+    }
+    else if (this._isAndroid)
     {
         cordova.exec(fn, null, 'BackgroundModeExt', 'dimmed', []);
     }
@@ -263,6 +352,152 @@ exports.isScreenOff = function (fn)
     }
 };
 
+/**
+ * Runtime metrics like counters and latency histograms (Android only).
+ *
+ * @param [ Function ] fn Callback function to invoke with the metrics.
+ * @param [ Bool ] reset Set to true to reset the metrics afterwards.
+ *
+ * @return [ Void ]
+ */
+exports.getMetrics = function (fn, reset)
+{
+    if (this._isAndroid)
+    {
+        cordova.exec(fn, null, 'BackgroundMode', 'metrics', [reset === true]);
+    }
+    else
+    {
+        fn(undefined);
+    }
+};
+
+/**
+ * The latest quote of each instrument updated since the last call, taken
+ * from the native conflation map (Android only). Lets a slow consumer
+ * fetch quotes at its own pace instead of handling every single tick.
+ *
+ * @param [ Function ] fn Callback function to invoke with the column
+ *                        arrays ids, prices, sizes and times.
+ * @param [ Number ] max Max number of instruments to return.
+ *
+ * @return [ Void ]
+ */
+exports.drainQuotes = function (fn, max)
+{
+    if (this._isAndroid)
+    {
+        var cb = function (frame) {
+            fn(exports._readFrame(frame));
+        };
+
+        cordova.exec(cb, null, 'BackgroundMode', 'conflated', [max || 0, true]);
+    }
+    else
+    {
+        fn(undefined);
+    }
+};
+
+/**
+ * Ask the native side to send the complete state with the next frame
+ * of the delta encoded quote stream (Android only).
+ *
+ * @return [ Void ]
+ */
+exports.resyncQuotes = function()
+{
+    if (this._isAndroid)
+    {
+        cordova.exec(null, null, 'BackgroundMode', 'resync', []);
+    }
+};
+
+/**
+ * Register a periodic task run by the native scheduler of the foreground
+ * service (Android only). Each run fires the 'task' event with the id of
+ * the task and how many ms the run is behind its schedule. A task with
+ * the same id gets replaced.
+ *
+ * @param [ Object ] task The task with id, interval (ms), mode
+ *                        ('fixedRate' or 'fixedDelay'), jitter (ms)
+ *                        and align (ms).
+ * @param [ Function ] fn Optional callback invoked with an error message.
+ *
+ * @return [ Void ]
+ */
+exports.scheduleTask = function (task, fn)
+{
+    if (this._isAndroid)
+    {
+        cordova.exec(null, fn || null, 'BackgroundMode', 'schedule', [task]);
+    }
+};
+
+/**
+ * Remove the periodic task with the given id (Android only).
+ *
+ * @param [ String ] id The id of the task.
+ *
+ * @return [ Void ]
+ */
+exports.cancelTask = function (id)
+{
+    if (this._isAndroid)
+    {
+        cordova.exec(null, null, 'BackgroundMode', 'cancel', [id]);
+    }
+};
+
+/**
+ * Arm price alerts evaluated natively against each quote batch of the
+ * foreground service, even while the web view is paused (Android only).
+ * Each trigger fires the 'alert' event and optionally posts a notification.
+ * An alert with the same id gets replaced.
+ *
+ * @param [ Array ] rules The rules with id, instrument, type ('above',
+ *                        'below', 'crossUp' or 'crossDown'), level,
+ *                        repeat, cooldown (ms), title, text and notify.
+ * @param [ Function ] fn Optional callback invoked with an error message.
+ *
+ * @return [ Void ]
+ */
+exports.addAlerts = function (rules, fn)
+{
+    if (this._isAndroid)
+    {
+        cordova.exec(null, fn || null, 'BackgroundMode', 'addAlerts', [rules]);
+    }
+};
+
+/**
+ * Disarm the price alerts with the given ids (Android only).
+ *
+ * @param [ Array ] ids The ids of the alerts.
+ *
+ * @return [ Void ]
+ */
+exports.removeAlerts = function (ids)
+{
+    if (this._isAndroid)
+    {
+        cordova.exec(null, null, 'BackgroundMode', 'removeAlerts', [ids]);
+    }
+};
+
+/**
+ * Disarm all price alerts (Android only).
+ *
+ * @return [ Void ]
+ */
+exports.clearAlerts = function()
+{
+    if (this._isAndroid)
+    {
+        cordova.exec(null, null, 'BackgroundMode', 'clearAlerts', []);
+    }
+};
+
 /**
  * Wake up the device.
  *
@@ -401,6 +636,52 @@ exports._isEnabled = false;
  */
 exports._isActive = false;
 
+/**
+ * @private
+ *
+ * Last screen state pushed by the native side, with the flags
+ * interactive and unlocked.
+ */
+exports._screen = null;
+
+/**
+ * @private
+ *
+ * Interval of the timer measuring the drift, null if not started.
+ */
+exports._driftTimer = null;
+
+/**
+ * @private
+ *
+ * Measure how late a timer fires each second and hand the delays over in
+ * batches of ten.
+ *
+ * @return [ Void ]
+ */
+exports._startDriftProbe = function()
+{
+    var interval = 1000,
+        expected = Date.now() + interval,
+        delays   = [];
+
+    if (this._driftTimer)
+        return;
+
+    this._driftTimer = setInterval(function() {
+        var now = Date.now();
+
+        delays.push(Math.max(0, now - expected));
+        expected = now + interval;
+
+        if (delays.length < 10)
+            return;
+
+        cordova.exec(null, null, 'BackgroundModeExt', 'drift', [delays]);
+        delays = [];
+    }, interval);
+};
+
 /**
  * @private
  *
@@ -461,6 +742,225 @@ exports._setActive = function(value)
     this._settings = value ? this._mergeObjects({}, this._defaults) : {};
 };
 
+/**
+ * @private
+ *
+ * Open the channel through which the native side delivers its events.
+ * Each call carries a batch of events which are dispatched in order.
+ *
+ * @return [ Void ]
+ */
+exports._subscribeEvents = function()
+{
+    var fn = function (batch) {
+        exports._dispatchEvents(batch);
+    };
+
+    cordova.exec(fn, null, 'BackgroundMode', 'events', []);
+};
+
+/**
+ * @private
+ *
+ * Dispatch a batch of native events to the registered listeners.
+ *
+ * @param [ Array<Object> ] batch List of { event, active, data } items.
+ *
+ * @return [ Void ]
+ */
+exports._dispatchEvents = function (batch)
+{
+    if (!batch)
+        return;
+
+    for (var i = 0; i < batch.length; i++)
+    {
+        var item = batch[i];
+
+        if (item.hasOwnProperty('active')) {
+            this._setActive(item.active);
+        }
+
+        if (item.event === 'screen') {
+            this._screen = item.data;
+        }
+
+        if (item.hasOwnProperty('data')) {
+            this.fireEvent(item.event, item.data);
+        } else {
+            this.fireEvent(item.event);
+        }
+    }
+};
+
+/**
+ * @private
+ *
+ * Open the channel through which the native quote stream delivers its
+ * batches. Each batch is fired as 'ticks' event with the column arrays
+ * ids, prices, sizes and times. Quotes recorded in background arrive as
+ * one ArrayBuffer on resume and are fired the same way, with the number
+ * of dropped quotes attached. With binary or delta encoding the batches
+ * arrive as binary frames, delta frames are applied to the last known
+ * state first.
+ *
+ * @return [ Void ]
+ */
+exports._subscribeStream = function()
+{
+    var fn = function (ticks) {
+        if (ticks instanceof ArrayBuffer) {
+            ticks = exports._readFrame(ticks);
+        }
+
+        if (ticks) {
+            exports.fireEvent('ticks', ticks);
+        }
+    };
+
+    cordova.exec(fn, null, 'BackgroundMode', 'stream', []);
+};
+
+/**
+ * @private
+ *
+ * Decode a binary frame of the native side. Every frame starts with the
+ * little-endian header type (u8), version (u8), flags (u16) and record
+ * count (u32) followed by the type specific body.
+ *
+ * @param [ ArrayBuffer ] buffer The frame.
+ *
+ * @return [ Object ] The column arrays or null if the frame is unknown.
+ */
+exports._readFrame = function (buffer)
+{
+    var view = new DataView(buffer);
+
+    if (buffer.byteLength < 8 || view.getUint8(1) !== 1)
+        return null;
+
+    switch (view.getUint8(0))
+    {
+        case 1:
+            return this._decodeTickBuffer(view);
+        case 2:
+            return this._decodeDeltaFrame(view);
+        case 3:
+            return this._decodeTickRecords(view);
+        default:
+            return null;
+    }
+};
+
+/**
+ * @private
+ *
+ * Decode the quotes recorded in background. The header is followed by
+ * the dropped count (u32) and the columns ids (i32), prices (f64),
+ * sizes (i32) and times (f64).
+ *
+ * @param [ DataView ] view The frame.
+ *
+ * @return [ Object ] The column arrays and the dropped count.
+ */
+exports._decodeTickBuffer = function (view)
+{
+    var count   = view.getUint32(4, true),
+        dropped = view.getUint32(8, true),
+        offset  = 12,
+        ticks   = { ids: [], prices: [], sizes: [], times: [], dropped: dropped, replay: true },
+        i;
+
+    for (i = 0; i < count; i++, offset += 4) ticks.ids.push(view.getInt32(offset, true));
+    for (i = 0; i < count; i++, offset += 8) ticks.prices.push(view.getFloat64(offset, true));
+    for (i = 0; i < count; i++, offset += 4) ticks.sizes.push(view.getInt32(offset, true));
+    for (i = 0; i < count; i++, offset += 8) ticks.times.push(view.getFloat64(offset, true));
+
+    return ticks;
+};
+
+/**
+ * @private
+ *
+ * Decode quotes sent as fixed size records. Each record holds the
+ * instrument id (i32), price (f64), size (i32) and time (f64).
+ *
+ * @param [ DataView ] view The frame.
+ *
+ * @return [ Object ] The column arrays.
+ */
+exports._decodeTickRecords = function (view)
+{
+    var count  = view.getUint32(4, true),
+        offset = 8,
+        ticks  = { ids: [], prices: [], sizes: [], times: [] },
+        i;
+
+    for (i = 0; i < count; i++, offset += 24)
+    {
+        ticks.ids.push(view.getInt32(offset, true));
+        ticks.prices.push(view.getFloat64(offset + 4, true));
+        ticks.sizes.push(view.getInt32(offset + 12, true));
+        ticks.times.push(view.getFloat64(offset + 16, true));
+    }
+
+    return ticks;
+};
+
+/**
+ * @private
+ *
+ * Last known state per instrument, maintained by the delta decoder.
+ */
+exports._quotes = {};
+
+/**
+ * @private
+ *
+ * Apply a delta frame to the last known state. The header (flag 1 marks a
+ * full frame) is followed by the frame number (u32) and the records. Each
+ * record holds the instrument id (i32), a field mask (u8) and the fields
+ * present: price (f64, bit 0), size (i32, bit 1), time offset (i32, bit 2)
+ * or time (f64, bit 3).
+ *
+ * @param [ DataView ] view The encoded frame.
+ *
+ * @return [ Object ] The column arrays of the updated instruments.
+ */
+exports._decodeDeltaFrame = function (view)
+{
+    var full   = (view.getUint16(2, true) & 1) === 1,
+        count  = view.getUint32(4, true),
+        offset = 12,
+        ticks  = { ids: [], prices: [], sizes: [], times: [], full: full },
+        i, id, mask, quote;
+
+    if (full) {
+        this._quotes = {};
+    }
+
+    for (i = 0; i < count; i++)
+    {
+        id    = view.getInt32(offset, true);
+        mask  = view.getUint8(offset + 4);
+        quote = this._quotes[id] || (this._quotes[id] = { price: NaN, size: 0, time: 0 });
+
+        offset += 5;
+
+        if (mask & 1) { quote.price = view.getFloat64(offset, true); offset += 8; }
+        if (mask & 2) { quote.size  = view.getInt32(offset, true);   offset += 4; }
+        if (mask & 4) { quote.time += view.getInt32(offset, true);   offset += 4; }
+        if (mask & 8) { quote.time  = view.getFloat64(offset, true); offset += 8; }
+
+        ticks.ids.push(id);
+        ticks.prices.push(quote.price);
+        ticks.sizes.push(quote.size);
+        ticks.times.push(quote.time);
+    }
+
+    return ticks;
+};
+
 /**
  * @private
  *
@@ -481,6 +981,11 @@ exports._pluginInitialize = function() {
 
     this.setDefaults({});
 
+    if (this._isAndroid) {
+        this._subscribeEvents();
+        this._subscribeStream();
+    }
+
     if (device && device.platform === 'browser') {
         this.enable();
         this._isEnabled = true;